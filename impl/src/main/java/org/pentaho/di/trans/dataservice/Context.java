@@ -25,6 +25,7 @@ import org.pentaho.di.trans.dataservice.ui.DataServiceDelegate;
 import org.pentaho.di.trans.dataservice.ui.UIFactory;
 
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Data Services context interface.
@@ -150,4 +151,26 @@ public interface Context {
    * @param key The key used to find the {@link StreamingGeneratedTransExecution} instance to remove from the cache/store.
    */
   void removeStreamingGeneratedTransExecution( String key );
+
+  /**
+   * Gets the lock guarding the set up of the streaming executions of a key, either a {@link StreamServiceKey}, a
+   * streaming generated transformation cache key or a data service name. Streams of other keys are set up in parallel.
+   * @param key The key of the streaming executions
+   * @return The lock of the key, shared by all the keys with the same hash stripe
+   */
+  Lock getStreamingLock( Object key );
+
+  /**
+   * Getter for the {@link GeneratedTransCache} shared by all queries in this context.
+   *
+   * @return the generated transformation plan cache.
+   */
+  GeneratedTransCache getGeneratedTransCache();
+
+  /**
+   * Getter for the {@link ServiceTransPool} of prepared service transformations.
+   *
+   * @return the service transformation pool.
+   */
+  ServiceTransPool getServiceTransPool();
 }
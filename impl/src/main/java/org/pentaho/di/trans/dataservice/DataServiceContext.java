@@ -18,6 +18,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.Striped;
 import org.pentaho.caching.api.PentahoCacheManager;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.trans.dataservice.optimization.AutoOptimizationService;
@@ -33,14 +34,21 @@ import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 public class DataServiceContext implements Context {
+  private static final int STREAMING_LOCK_STRIPES = 64;
+
   private final DataServiceMetaStoreUtil metaStoreUtil;
   private final List<AutoOptimizationService> autoOptimizationServices;
   private final PentahoCacheManager cacheManager;
   private final List<PushDownFactory> pushDownFactories;
   private final LogChannelInterface logChannel;
   private final UIFactory uiFactory;
+  private final GeneratedTransCache generatedTransCache = GeneratedTransCache.create();
+  private final ServiceTransPool serviceTransPool = ServiceTransPool.create();
+  // Streaming set up locks by key, so that only the queries of the same streams wait for each other
+  private final Striped<Lock> streamingLocks = Striped.lazyWeakLock( STREAMING_LOCK_STRIPES );
 
   //Cache for the generated tranformation executions, so that we can keep the same genTransExecution for multiple consumers
   private final Cache<String, StreamingGeneratedTransExecution> streamingGeneratedTransExecutionCache = CacheBuilder.newBuilder()
@@ -198,4 +206,19 @@ public class DataServiceContext implements Context {
       this.streamingGeneratedTransExecutionCache.cleanUp();
     }
   }
+
+  @Override
+  public Lock getStreamingLock( Object key ) {
+    return streamingLocks.get( key );
+  }
+
+  @Override
+  public GeneratedTransCache getGeneratedTransCache() {
+    return generatedTransCache;
+  }
+
+  @Override
+  public ServiceTransPool getServiceTransPool() {
+    return serviceTransPool;
+  }
 }
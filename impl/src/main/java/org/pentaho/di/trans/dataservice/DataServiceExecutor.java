@@ -27,6 +27,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleFileException;
@@ -35,6 +36,7 @@ import org.pentaho.di.core.logging.LogLevel;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaAndData;
 import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBase;
 import org.pentaho.di.core.sql.SQL;
 import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.i18n.BaseMessages;
@@ -44,6 +46,8 @@ import org.pentaho.di.trans.TransAdapter;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.dataservice.client.api.IDataServiceClientService;
 import org.pentaho.di.trans.dataservice.clients.TransMutators;
+import org.pentaho.di.trans.dataservice.execution.BatchedRowSink;
+import org.pentaho.di.trans.dataservice.execution.ColumnarRowSink;
 import org.pentaho.di.trans.dataservice.execution.CopyParameters;
 import org.pentaho.di.trans.dataservice.execution.DefaultTransWiring;
 import org.pentaho.di.trans.dataservice.execution.PrepareExecution;
@@ -53,8 +57,11 @@ import org.pentaho.di.trans.dataservice.optimization.PushDownOptimizationMeta;
 import org.pentaho.di.trans.dataservice.optimization.ValueMetaResolver;
 import org.pentaho.di.trans.dataservice.streaming.StreamServiceKey;
 import org.pentaho.di.trans.dataservice.streaming.WindowParametersHelper;
+import org.pentaho.di.trans.dataservice.streaming.execution.IncrementalWindowAggregator;
 import org.pentaho.di.trans.dataservice.streaming.execution.StreamingGeneratedTransExecution;
 import org.pentaho.di.trans.dataservice.streaming.execution.StreamingServiceTransExecutor;
+import org.pentaho.di.trans.dataservice.streaming.execution.WindowChangelog;
+import org.pentaho.di.trans.dataservice.streaming.execution.WindowDeltaEncoder;
 import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
 import org.pentaho.di.trans.dataservice.utils.KettleUtils;
 import org.pentaho.di.trans.step.RowAdapter;
@@ -69,6 +76,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -94,6 +102,7 @@ public class DataServiceExecutor {
   private long windowEvery;
   private long windowLimit;
   private StreamServiceKey streamServiceKey;
+  private final int resultBatchSize;
 
   private final AtomicBoolean genTransformationPushBasedIsFinished = new AtomicBoolean( false );
   private final AtomicBoolean transListenerFinishTransAdded = new AtomicBoolean( false );
@@ -111,6 +120,7 @@ public class DataServiceExecutor {
     windowEvery = builder.windowEvery;
     windowLimit = builder.windowLimit;
     streamServiceKey = builder.streamServiceKey;
+    resultBatchSize = builder.resultBatchSize;
 
     listenerMap = MultimapBuilder.enumKeys( ExecutionPoint.class ).linkedListValues().build();
   }
@@ -131,12 +141,14 @@ public class DataServiceExecutor {
     private LogLevel logLevel;
     private SqlTransGenerator sqlTransGenerator;
     private StreamServiceKey streamServiceKey;
+    private int resultBatchSize = -1;
 
     private boolean normalizeConditions = true;
     private boolean enableMetrics = false;
     private IMetaStore metastore;
-    private BiConsumer<String, TransMeta> transMutator =
+    private static final BiConsumer<String, TransMeta> DEFAULT_TRANS_MUTATOR =
       ( stepName, transMeta ) -> TransMutators.disableAllUnrelatedHops( stepName, transMeta, true );
+    private BiConsumer<String, TransMeta> transMutator = DEFAULT_TRANS_MUTATOR;
 
     private KettleUtils kettleUtils = KettleUtils.getInstance();
 
@@ -202,15 +214,38 @@ public class DataServiceExecutor {
     }
 
     public Builder serviceTrans( TransMeta serviceTransMeta ) {
-      // Copy TransMeta, we don't want to persist any changes to the meta during execution
-      serviceTransMeta = (TransMeta) serviceTransMeta.realClone( false );
-      serviceTransMeta.clearNameChangedListeners();
+      TransMeta pooled = borrowServiceTransMeta( serviceTransMeta );
+      if ( pooled != null ) {
+        serviceTransMeta = pooled;
+      } else {
+        // Copy TransMeta, we don't want to persist any changes to the meta during execution
+        serviceTransMeta = (TransMeta) serviceTransMeta.realClone( false );
+        serviceTransMeta.clearNameChangedListeners();
+        serviceTransMeta.activateParameters();
+        transMutator.accept( service.getStepname(), serviceTransMeta );
+      }
       serviceTransMeta.setName( calculateTransname( sql, true ) );
-      serviceTransMeta.activateParameters();
-      transMutator.accept( service.getStepname(), serviceTransMeta );
       return serviceTrans( new Trans( serviceTransMeta ) );
     }
 
+    /**
+     * Takes an already copied and mutated service transformation from the context pool, if the pool is enabled
+     * and the requested transformation is the data service one.
+     */
+    private TransMeta borrowServiceTransMeta( TransMeta serviceTransMeta ) {
+      ServiceTransPool pool = context != null ? context.getServiceTransPool() : null;
+      if ( pool == null || !pool.isEnabled() || service.isStreaming()
+        || serviceTransMeta != service.getServiceTrans() || transMutator != DEFAULT_TRANS_MUTATOR ) {
+        return null;
+      }
+      try {
+        return pool.borrow( service, transMutator );
+      } catch ( KettleException e ) {
+        logger.debug( "Unable to borrow a pooled service transformation", e );
+        return null;
+      }
+    }
+
     public Builder sqlTransGenerator( SqlTransGenerator sqlTransGenerator ) {
       this.sqlTransGenerator = sqlTransGenerator;
       return this;
@@ -226,6 +261,16 @@ public class DataServiceExecutor {
       return this;
     }
 
+    /**
+     * Number of result rows encoded before they are pushed to the client by {@link #executeQuery(DataOutputStream)}.
+     * Rows are delivered one at a time when not positive. Defaults to the
+     * {@link DataServiceConstants#RESULT_BATCH_SIZE_PROPERTY} kettle property.
+     */
+    public Builder resultBatchSize( int resultBatchSize ) {
+      this.resultBatchSize = resultBatchSize;
+      return this;
+    }
+
     public Builder normalizeConditions( boolean enable ) {
       normalizeConditions = enable;
       return this;
@@ -235,6 +280,11 @@ public class DataServiceExecutor {
       RowMetaInterface serviceFields;
       int serviceRowLimit = getServiceRowLimit( service );
 
+      if ( resultBatchSize < 0 ) {
+        resultBatchSize = Const.toInt( kettleUtils.getKettleProperty( DataServiceConstants.RESULT_BATCH_SIZE_PROPERTY ),
+          DataServiceConstants.RESULT_BATCH_SIZE_DEFAULT );
+      }
+
       if ( service.isStreaming() && windowMode == null ) {
         throw new KettleException(
             BaseMessages.getString( PKG, "DataServiceExecutor.Error.WindowModeMandatory",
@@ -271,9 +321,20 @@ public class DataServiceExecutor {
 
       // Check if there is already a serviceTransformation in the context
       if ( service.isStreaming() ) {
-        synchronized ( context ) {
-          addInlinePushDownParameters();
+        addInlinePushDownParameters();
+        // The optimization previews of a data service share its service transformation
+        Lock previewLock = context.getStreamingLock( service.getName() );
+        previewLock.lock();
+        try {
           this.streamServiceKey = getStreamingServiceKey();
+        } finally {
+          previewLock.unlock();
+        }
+
+        // Only the queries of the same service stream wait for each other
+        Lock streamLock = context.getStreamingLock( streamServiceKey );
+        streamLock.lock();
+        try {
           StreamingServiceTransExecutor serviceTransExecutor = context.getServiceTransExecutor( streamServiceKey );
 
           if ( serviceTransExecutor != null
@@ -304,19 +365,45 @@ public class DataServiceExecutor {
           } else {
             serviceTrans( serviceTransExecutor.getServiceTrans() );
           }
+        } finally {
+          streamLock.unlock();
         }
       } else if ( serviceTrans == null && service.getServiceTrans() != null ) {
         serviceTrans( service.getServiceTrans() );
       }
 
+      GeneratedTransCache planCache = null;
       if ( sqlTransGenerator == null ) {
         sqlTransGenerator = new SqlTransGenerator( sql, service.isStreaming() ? 0 : rowLimit,
             service.isStreaming() ? 0
                 : ( serviceRowLimit > 0 ? serviceRowLimit
                 : ( !service.isUserDefined() ? DataServiceConstants.ROW_LIMIT_DEFAULT : 0 ) ) );
+        if ( service.isStreaming() ) {
+          String reuse = kettleUtils.getKettleProperty( DataServiceConstants.STREAMING_REUSE_GENERATED_TRANS_PROPERTY );
+          sqlTransGenerator.setWindowPunctuation(
+            !Boolean.FALSE.equals( ValueMetaBase.convertStringToBoolean( reuse ) ) );
+        }
+        // Only plans built by our own generator can be shared through the plan cache
+        planCache = context != null ? context.getGeneratedTransCache() : null;
       }
+      String planKey = null;
       if ( genTrans == null ) {
-        genTrans = new Trans( sqlTransGenerator.generateTransMeta() );
+        TransMeta genTransMeta = null;
+        if ( planCache != null ) {
+          try {
+            planKey = planCache.createKey( sqlTransGenerator, service, normalizeConditions );
+            genTransMeta = planCache.get( planKey, sqlTransGenerator );
+          } catch ( KettleException e ) {
+            logger.debug( "Unable to determine the generated transformation plan key, plan will not be cached", e );
+          }
+        }
+        if ( genTransMeta == null ) {
+          genTransMeta = sqlTransGenerator.generateTransMeta();
+        } else {
+          // Plan was found, there is nothing to cache
+          planKey = null;
+        }
+        genTrans = new Trans( genTransMeta );
       }
 
       serviceTrans.setContainerObjectId( UUID.randomUUID().toString() );
@@ -329,6 +416,11 @@ public class DataServiceExecutor {
 
       this.parameters.putAll( getWhereConditionParameters() );
 
+      // Parameter conditions are stripped above, only now is the generated plan final
+      if ( planKey != null ) {
+        planCache.put( planKey, sqlTransGenerator, genTrans.getTransMeta() );
+      }
+
       DataServiceExecutor dataServiceExecutor = new DataServiceExecutor( this );
 
       context.addExecutor( dataServiceExecutor );
@@ -619,10 +711,27 @@ public class DataServiceExecutor {
   }
 
   public DataServiceExecutor executeQuery( final DataOutputStream dos ) throws IOException {
+    return executeQuery( dos, resultBatchSize );
+  }
+
+  /**
+   * Executes the query, writing the results to the client stream.
+   *
+   * @param dos       the client stream
+   * @param batchSize number of rows pushed to the client at once. When not positive, or for streaming services, rows
+   *                  are written one at a time and the stream is not flushed until the query completes
+   * @return this executor
+   * @throws IOException if the result header can't be written
+   */
+  public DataServiceExecutor executeQuery( final DataOutputStream dos, int batchSize ) throws IOException {
     writeMetadata( dos, getServiceName(), calculateTransname( getSql(), true ),
         getServiceTrans().getContainerObjectId(), calculateTransname( getSql(), false ),
         getGenTrans().getContainerObjectId() );
 
+    if ( batchSize > 0 && !service.isStreaming() ) {
+      return executeQuery( new BatchedRowSink( dos, batchSize, getServiceTrans() ) );
+    }
+
     final AtomicBoolean rowMetaWritten = new AtomicBoolean( false );
 
     genTransformationPushBasedIsFinished.set( false );
@@ -672,6 +781,46 @@ public class DataServiceExecutor {
     return executeQuery( consumer );
   }
 
+  /**
+   * Executes the query, writing the results in the {@link ColumnarRowSink#CONTENT_TYPE} encoding. Streaming data
+   * services are not supported.
+   *
+   * @param dos       the client stream
+   * @param chunkSize number of rows per column chunk
+   * @return this executor
+   * @throws IOException if the result header can't be written
+   */
+  public DataServiceExecutor executeColumnarQuery( final DataOutputStream dos, int chunkSize ) throws IOException {
+    Preconditions.checkState( !service.isStreaming(), "Columnar results are not available for streaming services" );
+    writeMetadata( dos, getServiceName(), calculateTransname( getSql(), true ),
+        getServiceTrans().getContainerObjectId(), calculateTransname( getSql(), false ),
+        getGenTrans().getContainerObjectId() );
+
+    return executeQuery( new ColumnarRowSink( dos, chunkSize, getServiceTrans() ) );
+  }
+
+  /**
+   * Writes the generated transformation results straight from the result step listener, pushing them to the client
+   * in blocks of rows instead of one row at a time.
+   */
+  private DataServiceExecutor executeQuery( final BatchedRowSink sink ) {
+    listenerMap.get( ExecutionPoint.READY ).add( () -> {
+      StepInterface resultStep = genTrans.findRunThread( getResultStepName() );
+      if ( resultStep != null ) {
+        resultStep.addRowListener( sink );
+      }
+    } );
+
+    getGenTrans().addTransListener( new TransAdapter() {
+      @Override
+      public void transFinished( Trans trans ) throws KettleException {
+        sink.finish( trans.getTransMeta().getStepFields( getResultStepName() ) );
+      }
+    } );
+
+    return executeQuery();
+  }
+
   /**
    * Stub method to call the writeMeta with the RowMetaInterface.
    * @param generatedTransformation
@@ -745,13 +894,27 @@ public class DataServiceExecutor {
   /**
    * Executes a streaming push query. If the pollingMode is passed as true, then the resulting query is going to return a single
    * window, and the consumer is not kept as an active consumer in the consumer list.
-   * This method is synchronized to make sure that no duplicate entries are created if we have two, or more, executions running in parallel for the same
-   * dataservice and query.
+   * The executions of the same dataservice and query are set up one at a time, to make sure that no duplicate entries
+   * are created if we have two, or more, executions running in parallel. Other executions are set up in parallel.
    * @param streamingConsumer
    * @param pollingMode True, if the query is to be executed in polling mode
    * @return
    */
   public DataServiceExecutor executeStreamingQuery( final Observer<List<RowMetaAndData>> streamingConsumer, boolean pollingMode ) {
+    return executeStreamingQuery( execution -> execution.addNewRowConsumer( streamingConsumer, pollingMode ) );
+  }
+
+  /**
+   * Executes a streaming push query whose consumer receives the changes between the successive windows, instead of
+   * every window. The first changelog inserts the last window result.
+   * @param changelogConsumer
+   * @return
+   */
+  public DataServiceExecutor executeStreamingChangelogQuery( final Observer<WindowChangelog> changelogConsumer ) {
+    return executeStreamingQuery( execution -> execution.addNewChangelogConsumer( changelogConsumer ) );
+  }
+
+  private DataServiceExecutor executeStreamingQuery( final Consumer<StreamingGeneratedTransExecution> registration ) {
 
     String streamingGenTransCacheKey = getStreamingGenTransCacheKey();
 
@@ -759,27 +922,35 @@ public class DataServiceExecutor {
       return null;
     }
 
-    //Try to fetch the streaming generated transformation execution from cache (synchronize to avoid adding duplicates)
-    synchronized ( context ) {
+    //Try to fetch the streaming generated transformation execution from cache (lock the key to avoid adding duplicates)
+    Lock genTransLock = context.getStreamingLock( streamingGenTransCacheKey );
+    genTransLock.lock();
+    try {
       StreamingGeneratedTransExecution streamingGenTransFromCache = context.getStreamingGeneratedTransExecution( streamingGenTransCacheKey );
       if ( streamingGenTransFromCache == null ) {
         StreamingGeneratedTransExecution streamWiring =
           new StreamingGeneratedTransExecution( context.getServiceTransExecutor( streamServiceKey ),
-            genTrans, streamingConsumer, pollingMode, sqlTransGenerator.getInjectorStepName(),
+            genTrans, null, false, sqlTransGenerator.getInjectorStepName(),
             sqlTransGenerator.getResultStepName(),
             sqlTransGenerator.getSql().getSqlString(), windowMode, windowSize, windowEvery, windowLimit,
-            streamingGenTransCacheKey );
+            streamingGenTransCacheKey, createWindowAggregator(), sqlTransGenerator.isWindowPunctuated(),
+            WindowDeltaEncoder.create( sqlTransGenerator.getSql() ) );
+        registration.accept( streamWiring );
 
         serviceTrans.addTransListener( new TransAdapter() {
           @Override
           public void transFinished( Trans trans ) throws KettleException {
             //When the service transformation is not being used we should remove the service stream from the cache
             //It can be running because it may have been restarted (eg. ktr changes - see Builder::build())
-            synchronized ( context ) {
+            Lock streamLock = context.getStreamingLock( streamServiceKey );
+            streamLock.lock();
+            try {
               StreamingServiceTransExecutor streamingServiceTransExecutor = context.getServiceTransExecutor( streamServiceKey );
               if ( streamingServiceTransExecutor != null && !streamingServiceTransExecutor.getServiceTrans().isRunning() ) {
                 context.removeServiceTransExecutor( streamServiceKey );
               }
+            } finally {
+              streamLock.unlock();
             }
           }
         } );
@@ -797,13 +968,29 @@ public class DataServiceExecutor {
 
         //There is already a streaming generated transformation execution in cache, so we just register the consumer as
         //one more consumer for that generated transformation
-        streamingGenTransFromCache.addNewRowConsumer( streamingConsumer, pollingMode );
+        registration.accept( streamingGenTransFromCache );
       }
+    } finally {
+      genTransLock.unlock();
     }
 
     return this;
   }
 
+  /**
+   * Creates the native window engine of an aggregate streaming query.
+   *
+   * @return the aggregator, or null if windows must run through the generated transformation
+   */
+  private IncrementalWindowAggregator createWindowAggregator() {
+    try {
+      return IncrementalWindowAggregator.create( sqlTransGenerator, getGenTransMeta() );
+    } catch ( KettleException e ) {
+      logger.debug( "Unable to determine the generated transformation result fields, windows will run through it", e );
+      return null;
+    }
+  }
+
   public String getStreamingGenTransCacheKey() {
     StreamingServiceTransExecutor serviceExecutor = context.getServiceTransExecutor( streamServiceKey );
     if ( serviceExecutor != null && serviceExecutor.getKey() != null ) {
@@ -942,6 +1129,10 @@ public class DataServiceExecutor {
     return parameters;
   }
 
+  public Context getContext() {
+    return context;
+  }
+
   public String getId() {
     return serviceTrans.getContainerObjectId();
   }
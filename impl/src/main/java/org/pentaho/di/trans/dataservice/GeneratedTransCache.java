@@ -0,0 +1,182 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+
+/**
+ * Bounded, least-recently-used cache of the transformations built by {@link SqlTransGenerator}.
+ * <p>
+ * Plans are keyed by the normalized SQL text, the service row metadata, the service transformation cache version and
+ * the row limits applied by the generator. Cached plans are never handed out directly, every hit returns a clone that
+ * the caller is free to run and modify.
+ */
+public class GeneratedTransCache {
+
+  private final Cache<String, Plan> plans;
+
+  public GeneratedTransCache( long maximumSize ) {
+    plans = CacheBuilder.newBuilder()
+      .maximumSize( maximumSize )
+      .recordStats()
+      .build();
+  }
+
+  /**
+   * Creates a cache bounded by the {@link DataServiceConstants#PLAN_CACHE_SIZE_PROPERTY} kettle property.
+   *
+   * @return a new plan cache
+   */
+  public static GeneratedTransCache create() {
+    int size = DataServiceConstants.PLAN_CACHE_SIZE_DEFAULT;
+    try {
+      size = Const.toInt( KettleUtils.getInstance().getKettleProperty( DataServiceConstants.PLAN_CACHE_SIZE_PROPERTY ),
+        DataServiceConstants.PLAN_CACHE_SIZE_DEFAULT );
+    } catch ( KettleException e ) {
+      // Use the default size
+    }
+    return new GeneratedTransCache( Math.max( size, 0 ) );
+  }
+
+  /**
+   * Calculates the plan key for a generator whose SQL has already been parsed.
+   *
+   * @param generator           the generator that would build the plan
+   * @param service             the data service being queried
+   * @param normalizeConditions whether the query conditions were normalized against the service fields
+   * @return the plan key
+   * @throws KettleException if the service transformation version can't be determined
+   */
+  public String createKey( SqlTransGenerator generator, DataServiceMeta service, boolean normalizeConditions )
+    throws KettleException {
+    StringBuilder key = new StringBuilder( normalize( generator.getSql().getSqlString() ) );
+    key.append( '|' ).append( service.getName() )
+      .append( '|' ).append( service.getServiceTrans().getCacheVersion() )
+      .append( '|' ).append( generator.getRowLimit() )
+      .append( '|' ).append( generator.getServiceRowLimit() )
+      .append( '|' ).append( normalizeConditions )
+      .append( '|' ).append( generator.isWindowPunctuated() );
+
+    RowMetaInterface serviceFields = generator.getSql().getRowMeta();
+    if ( serviceFields != null ) {
+      for ( ValueMetaInterface valueMeta : serviceFields.getValueMetaList() ) {
+        key.append( '|' ).append( valueMeta.getName() )
+          .append( ':' ).append( valueMeta.getType() )
+          .append( ':' ).append( valueMeta.getLength() )
+          .append( ':' ).append( valueMeta.getPrecision() )
+          .append( ':' ).append( valueMeta.getConversionMask() );
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Looks up a cached plan. On a hit the generator is updated with the plan step names, as if it had built the
+   * transformation itself.
+   *
+   * @param key       the plan key
+   * @param generator the generator for the current query
+   * @return a clone of the cached transformation, or null if no plan is cached for the key
+   */
+  public TransMeta get( String key, SqlTransGenerator generator ) {
+    Plan plan = plans.getIfPresent( key );
+    if ( plan == null ) {
+      return null;
+    }
+    generator.setInjectorStepName( plan.injectorStepName );
+    generator.setResultStepName( plan.resultStepName );
+
+    TransMeta transMeta = (TransMeta) plan.transMeta.clone();
+    transMeta.setName( generator.getTransName() );
+    return transMeta;
+  }
+
+  /**
+   * Stores a copy of a generated transformation.
+   *
+   * @param key       the plan key
+   * @param generator the generator that built the transformation
+   * @param transMeta the generated transformation
+   */
+  public void put( String key, SqlTransGenerator generator, TransMeta transMeta ) {
+    plans.put( key, new Plan( (TransMeta) transMeta.clone(), generator.getInjectorStepName(),
+      generator.getResultStepName() ) );
+  }
+
+  public void invalidateAll() {
+    plans.invalidateAll();
+  }
+
+  public long size() {
+    return plans.size();
+  }
+
+  public long getHitCount() {
+    return plans.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return plans.stats().missCount();
+  }
+
+  /**
+   * Collapses whitespace outside quoted literals and identifiers, so that queries differing only in formatting share
+   * the same plan.
+   */
+  @VisibleForTesting
+  static String normalize( String sqlString ) {
+    StringBuilder normalized = new StringBuilder( sqlString.length() );
+    char quote = 0;
+    boolean pendingSpace = false;
+    for ( int i = 0; i < sqlString.length(); i++ ) {
+      char c = sqlString.charAt( i );
+      if ( quote == 0 && Character.isWhitespace( c ) ) {
+        pendingSpace = normalized.length() > 0;
+        continue;
+      }
+      if ( pendingSpace ) {
+        normalized.append( ' ' );
+        pendingSpace = false;
+      }
+      if ( quote == 0 && ( c == '\'' || c == '"' ) ) {
+        quote = c;
+      } else if ( c == quote ) {
+        quote = 0;
+      }
+      normalized.append( c );
+    }
+    return normalized.toString();
+  }
+
+  private static class Plan {
+    private final TransMeta transMeta;
+    private final String injectorStepName;
+    private final String resultStepName;
+
+    private Plan( TransMeta transMeta, String injectorStepName, String resultStepName ) {
+      this.transMeta = transMeta;
+      this.injectorStepName = injectorStepName;
+      this.resultStepName = resultStepName;
+    }
+  }
+}
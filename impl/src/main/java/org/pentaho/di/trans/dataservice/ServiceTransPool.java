@@ -0,0 +1,161 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Per data service pool of service transformation clones that have already been copied and mutated for execution.
+ * <p>
+ * Each pooled {@link TransMeta} is handed out once. The pool is refilled in the background, keeping at least
+ * {@code minSize} clones ready and growing up to {@code maxSize} when queries drain it faster than it refills.
+ * All clones of a data service are discarded as soon as the {@link TransMeta#getCacheVersion()} of its service
+ * transformation changes.
+ */
+public class ServiceTransPool {
+  private static final Log logger = LogFactory.getLog( ServiceTransPool.class );
+
+  private final int minSize;
+  private final int maxSize;
+  private final Executor executor;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  public ServiceTransPool( int minSize, int maxSize, Executor executor ) {
+    this.minSize = Math.max( minSize, 0 );
+    this.maxSize = Math.max( this.minSize, maxSize );
+    this.executor = executor;
+  }
+
+  /**
+   * Creates a pool sized by the {@link DataServiceConstants#SERVICE_POOL_MIN_PROPERTY} and
+   * {@link DataServiceConstants#SERVICE_POOL_MAX_PROPERTY} kettle properties. The pool is disabled by default.
+   *
+   * @return a new service transformation pool
+   */
+  public static ServiceTransPool create() {
+    int min = DataServiceConstants.SERVICE_POOL_MIN_DEFAULT;
+    int max = DataServiceConstants.SERVICE_POOL_MAX_DEFAULT;
+    try {
+      KettleUtils kettleUtils = KettleUtils.getInstance();
+      min = Const.toInt( kettleUtils.getKettleProperty( DataServiceConstants.SERVICE_POOL_MIN_PROPERTY ), min );
+      max = Const.toInt( kettleUtils.getKettleProperty( DataServiceConstants.SERVICE_POOL_MAX_PROPERTY ), max );
+    } catch ( KettleException e ) {
+      // Use the defaults
+    }
+    return new ServiceTransPool( min, max, Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "dataservice-trans-pool-%d" ).build() ) );
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  /**
+   * Takes a prepared clone of the data service transformation, creating one if the pool is empty.
+   *
+   * @param service the data service
+   * @param mutator the mutation applied to every clone
+   * @return a clone of the service transformation, owned by the caller
+   * @throws KettleException if the service transformation version can't be determined
+   */
+  public TransMeta borrow( DataServiceMeta service, BiConsumer<String, TransMeta> mutator ) throws KettleException {
+    int version = service.getServiceTrans().getCacheVersion();
+    Entry entry = entries.compute( service.getName(),
+      ( name, existing ) -> existing != null && existing.version == version ? existing : new Entry( version ) );
+
+    TransMeta transMeta = entry.idle.poll();
+    if ( transMeta == null ) {
+      // Pool was drained, allow it to grow for the next burst
+      entry.target.accumulateAndGet( maxSize, ( current, max ) -> Math.min( current + 1, max ) );
+      transMeta = createClone( service, mutator );
+    }
+    refill( service, mutator, entry );
+    return transMeta;
+  }
+
+  /**
+   * Drops all pooled clones for a data service.
+   *
+   * @param dataServiceName the data service name
+   */
+  public void invalidate( String dataServiceName ) {
+    entries.remove( dataServiceName );
+  }
+
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  @VisibleForTesting
+  int getIdleCount( String dataServiceName ) {
+    Entry entry = entries.get( dataServiceName );
+    return entry != null ? entry.idle.size() : 0;
+  }
+
+  static TransMeta createClone( DataServiceMeta service, BiConsumer<String, TransMeta> mutator ) {
+    // Copy TransMeta, we don't want to persist any changes to the meta during execution
+    TransMeta transMeta = (TransMeta) service.getServiceTrans().realClone( false );
+    transMeta.clearNameChangedListeners();
+    transMeta.activateParameters();
+    mutator.accept( service.getStepname(), transMeta );
+    return transMeta;
+  }
+
+  private void refill( DataServiceMeta service, BiConsumer<String, TransMeta> mutator, Entry entry ) {
+    if ( entry.idle.size() >= entry.target.get() || !entry.refilling.compareAndSet( false, true ) ) {
+      return;
+    }
+    executor.execute( () -> {
+      try {
+        // Stop as soon as the entry is replaced, its clones would no longer be handed out
+        while ( entry.idle.size() < entry.target.get() && entries.get( service.getName() ) == entry ) {
+          entry.idle.add( createClone( service, mutator ) );
+        }
+      } catch ( RuntimeException e ) {
+        logger.warn( "Unable to refill the service transformation pool for " + service.getName(), e );
+      } finally {
+        entry.refilling.set( false );
+      }
+    } );
+  }
+
+  private class Entry {
+    private final int version;
+    private final Queue<TransMeta> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger target = new AtomicInteger( minSize );
+    private final AtomicBoolean refilling = new AtomicBoolean( false );
+
+    private Entry( int version ) {
+      this.version = version;
+    }
+  }
+}
@@ -53,6 +53,13 @@ import static org.pentaho.di.core.row.ValueMetaInterface.TYPE_STRING;
 
 public class SqlTransGenerator {
 
+  public static final String GROUP_BY_STEP_NAME = "Group by";
+  public static final String SELECT_STEP_NAME = "Select values";
+  /**
+   * Field added to the rows of a punctuated transformation, set only on the row that ends a window
+   */
+  public static final String WINDOW_MARKER_FIELD = "__window_end__";
+
   private SQL sql;
   private RowMetaInterface serviceFields;
 
@@ -64,6 +71,8 @@ public class SqlTransGenerator {
 
   private int serviceLimit;
 
+  private boolean windowPunctuation;
+
   public SqlTransGenerator( SQL sql, int rowLimit ) {
     this.sql = sql;
     this.rowLimit = rowLimit;
@@ -82,17 +91,7 @@ public class SqlTransGenerator {
    */
   public TransMeta generateTransMeta() throws KettleException {
     TransMeta transMeta = new TransMeta();
-    StringBuilder sbsql = new StringBuilder( sql.getServiceName() );
-    sbsql.append( " - SQL - " ).append( sql.getSqlString() );
-
-    // Get rid of newlines...
-    //
-    for ( int i = sbsql.length() - 1; i >= 0; i-- ) {
-      if ( sbsql.charAt( i ) == '\n' || sbsql.charAt( i ) == '\r' ) {
-        sbsql.setCharAt( i, ' ' );
-      }
-    }
-    transMeta.setName( sbsql.toString() );
+    transMeta.setName( getTransName() );
     xLocation = 50;
 
     // Add an injector where we will pump in the rows from the service transformation.
@@ -135,7 +134,8 @@ public class SqlTransGenerator {
         lastStep = addToTrans( fieldCloneStep, transMeta, lastStep );
       }
 
-      StepMeta filterStep = generateFilterStep( sql.getWhereCondition().getCondition(), false );
+      Condition condition = sql.getWhereCondition().getCondition();
+      StepMeta filterStep = generateFilterStep( isWindowPunctuated() ? punctuate( condition ) : condition, false );
       lastStep = addToTrans( filterStep, transMeta, lastStep );
 
       if ( !dateToStrFunctions.isEmpty() ) {
@@ -497,6 +497,19 @@ public class SqlTransGenerator {
     return stepMeta;
   }
 
+  /**
+   * Lets the rows that end a window through a filter, so that they reach the result step.
+   */
+  private Condition punctuate( Condition condition ) {
+    Condition marker = new Condition( WINDOW_MARKER_FIELD, Condition.FUNC_NOT_NULL, null, null );
+    marker.setOperator( Condition.OPERATOR_OR );
+
+    Condition punctuated = new Condition();
+    punctuated.addCondition( (Condition) condition.clone() );
+    punctuated.addCondition( marker );
+    return punctuated;
+  }
+
   private StepMeta generateConstStep( List<SQLField> fields ) throws KettleException {
     ConstantMeta meta = new ConstantMeta();
     meta.allocate( fields.size() );
@@ -598,7 +611,7 @@ public class SqlTransGenerator {
 
     meta.setAlwaysGivingBackOneRow( returnRow );
 
-    StepMeta stepMeta = new StepMeta( "Group by", meta );
+    StepMeta stepMeta = new StepMeta( GROUP_BY_STEP_NAME, meta );
     stepMeta.setLocation( xLocation, 50 );
     xLocation += 100;
     stepMeta.setDraw( true );
@@ -668,7 +681,7 @@ public class SqlTransGenerator {
     meta.setSelectName( selectNames );
     meta.setSelectRename( selectRename );
 
-    StepMeta stepMeta = new StepMeta( "Select values", meta );
+    StepMeta stepMeta = new StepMeta( SELECT_STEP_NAME, meta );
     stepMeta.setLocation( xLocation, 50 );
     xLocation += 100;
     stepMeta.setDraw( true );
@@ -679,6 +692,23 @@ public class SqlTransGenerator {
     return sql;
   }
 
+  /**
+   * @return the name of the generated transformation, based on the service name and the SQL text
+   */
+  public String getTransName() {
+    StringBuilder sbsql = new StringBuilder( sql.getServiceName() );
+    sbsql.append( " - SQL - " ).append( sql.getSqlString() );
+
+    // Get rid of newlines...
+    //
+    for ( int i = sbsql.length() - 1; i >= 0; i-- ) {
+      if ( sbsql.charAt( i ) == '\n' || sbsql.charAt( i ) == '\r' ) {
+        sbsql.setCharAt( i, ' ' );
+      }
+    }
+    return sbsql.toString();
+  }
+
   /**
    * @return the injectorStepName
    */
@@ -719,4 +749,34 @@ public class SqlTransGenerator {
   public int getServiceRowLimit() {
     return serviceLimit;
   }
+
+  /**
+   * Asks for a transformation that can process many streaming windows in one run. The rows of each window are followed
+   * by a row with the {@value #WINDOW_MARKER_FIELD} field set, which every step passes along in order.
+   *
+   * @param windowPunctuation true to punctuate the transformation, if the query allows it
+   */
+  public void setWindowPunctuation( boolean windowPunctuation ) {
+    this.windowPunctuation = windowPunctuation;
+  }
+
+  /**
+   * Only queries that transform each row on its own can be punctuated. Aggregations, sorts, distinct rows and limits
+   * need the end of the input, and the branches of IIF functions could reorder the window markers.
+   *
+   * @return true if the generated transformation is punctuated
+   */
+  public boolean isWindowPunctuated() {
+    if ( !windowPunctuation || rowLimit > 0 || serviceLimit > 0 ) {
+      return false;
+    }
+    SQLFields selectFields = sql.getSelectFields();
+    return selectFields.getAggregateFields().isEmpty()
+      && ( sql.getGroupFields() == null || sql.getGroupFields().isEmpty() )
+      && sql.getHavingCondition() == null
+      && !selectFields.isDistinct()
+      && ( sql.getOrderFields() == null || sql.getOrderFields().isEmpty() )
+      && sql.getLimitClause() == null
+      && selectFields.getIifFunctionFields().isEmpty();
+  }
 }
@@ -18,6 +18,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import io.reactivex.Observer;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
@@ -29,13 +30,12 @@ import org.pentaho.di.trans.dataservice.client.api.IDataServiceClientService;
 import org.pentaho.di.trans.dataservice.jdbc.ThinServiceInformation;
 import org.pentaho.di.trans.dataservice.jdbc.api.IThinServiceInformation;
 import org.pentaho.di.trans.dataservice.resolvers.DataServiceResolver;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
 import org.pentaho.metastore.api.IMetaStore;
 
 import java.io.DataInputStream;
-import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.util.List;
@@ -64,7 +64,7 @@ public class DataServiceClient implements IDataServiceClientService {
                                           Map<String, String> params ) throws SQLException {
     try {
       // Create a pipe to for results
-      SafePipedStreams pipe = new SafePipedStreams();
+      RingBufferPipe pipe = createPipe();
 
       // Prepare query, exception will be thrown if query is invalid
       Query query = prepareQuery( sqlQuery, maxRows, params );
@@ -98,7 +98,7 @@ public class DataServiceClient implements IDataServiceClientService {
                                           long windowLimit, Map<String, String> params ) throws SQLException {
     try {
       // Create a pipe to for results
-      SafePipedStreams pipe = new SafePipedStreams();
+      RingBufferPipe pipe = createPipe();
 
       // Prepare query, exception will be thrown if query is invalid
       Query query = prepareQuery( sqlQuery, windowMode, windowSize, windowEvery, windowLimit, params );
@@ -261,45 +261,18 @@ public class DataServiceClient implements IDataServiceClientService {
   }
 
   /**
-   * Holds a pair of piped input and output streams.
-   * <p>
-   * The streams are "safe" in that writing into the pipe after the reading end has closed will not result in an
-   * exception. Data written while the read end is closed will be ignored.
-   *
-   * @author hudak
+   * Creates the pipe carrying query results to the caller, sized by the
+   * {@link DataServiceConstants#CLIENT_BUFFER_SIZE_PROPERTY} kettle property.
    */
-  private static class SafePipedStreams {
-    final PipedOutputStream out;
-    final PipedInputStream in;
-    private volatile boolean open = true;
-
-    private SafePipedStreams() throws IOException {
-      in = new PipedInputStream() {
-        @Override public void close() throws IOException {
-          ifOpen( () -> open = false );
-          super.close();
-        }
-      };
-      out = new PipedOutputStream( in ) {
-        @Override public void write( int b ) throws IOException {
-          ifOpen( () -> super.write( b ) );
-        }
-
-        @Override public void write( byte[] b, int off, int len ) throws IOException {
-          ifOpen( () -> super.write( b, off, len ) );
-        }
-      };
-    }
-
-    private synchronized void ifOpen( IOExceptionAction action ) throws IOException {
-      if ( open ) {
-        action.call();
-      }
-    }
-
-    private interface IOExceptionAction {
-      void call() throws IOException;
+  private RingBufferPipe createPipe() {
+    int size = RingBufferPipe.DEFAULT_SIZE;
+    try {
+      String property = KettleUtils.getInstance().getKettleProperty( DataServiceConstants.CLIENT_BUFFER_SIZE_PROPERTY );
+      size = Const.toInt( property, size );
+    } catch ( KettleException e ) {
+      // Use the default size
     }
+    return new RingBufferPipe( size );
   }
 
   @Override
@@ -25,6 +25,8 @@ import org.pentaho.di.core.sql.SQL;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.dataservice.DataServiceExecutor;
 import org.pentaho.di.trans.dataservice.client.api.IDataServiceClientService;
+import org.pentaho.di.trans.dataservice.optimization.cache.QueryHistory;
+import org.pentaho.di.trans.dataservice.streaming.execution.WindowChangelog;
 import org.pentaho.di.trans.dataservice.resolvers.DataServiceResolver;
 import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.locator.api.MetastoreLocator;
@@ -43,16 +45,28 @@ public class ExecutorQueryService implements Query.Service {
 
   private DataServiceResolver resolver;
   private MetastoreLocator metastoreLocator;
+  private final QueryHistory history;
 
   @VisibleForTesting
   ExecutorQueryService( DataServiceResolver resolver, MetastoreLocator metastoreLocator ) {
+    this( resolver, metastoreLocator, new QueryHistory( null ) );
+  }
+
+  @VisibleForTesting
+  ExecutorQueryService( DataServiceResolver resolver, MetastoreLocator metastoreLocator, QueryHistory history ) {
     this.resolver = resolver;
     this.metastoreLocator = metastoreLocator;
+    this.history = history;
   }
 
-  // OSGi blueprint constructor
   public ExecutorQueryService( DataServiceResolver resolver ) {
+    this( resolver, new QueryHistory( null ) );
+  }
+
+  // OSGi blueprint constructor
+  public ExecutorQueryService( DataServiceResolver resolver, QueryHistory history ) {
     this.resolver = resolver;
+    this.history = history;
   }
 
   private synchronized MetastoreLocator getMetaStoreLocator() {
@@ -84,6 +98,8 @@ public class ExecutorQueryService implements Query.Service {
       Throwables.propagateIfInstanceOf( e, KettleException.class );
       throw new KettleException( e );
     }
+    // Streaming queries never use the service cache, only these are replayed by cache warm-ups
+    history.record( sql.getServiceName(), sqlString, parameters );
     return query;
   }
 
@@ -133,13 +149,34 @@ public class ExecutorQueryService implements Query.Service {
       }
     }
 
+    @Override
+    public void writeTo( OutputStream outputStream, int blockSize ) throws IOException {
+      DataServiceExecutor dataServiceExecutor = executor.executeQuery( asDataOutputStream( outputStream ), blockSize );
+      if ( dataServiceExecutor != null ) {
+        dataServiceExecutor.waitUntilFinished();
+      }
+    }
+
     @Override public List<Trans> getTransList() {
       return ImmutableList.of( executor.getServiceTrans(), executor.getGenTrans() );
     }
 
+    @Override public boolean supportsColumnar() {
+      return !executor.getService().isStreaming();
+    }
+
+    @Override public void writeColumnarTo( OutputStream outputStream, int chunkSize ) throws IOException {
+      executor.executeColumnarQuery( asDataOutputStream( outputStream ), chunkSize ).waitUntilFinished();
+    }
+
     @Override
     public void pushTo( Observer<List<RowMetaAndData>> streamingWindowConsumer ) throws Exception {
       executor.executeStreamingQuery( streamingWindowConsumer, false );
     }
+
+    @Override
+    public void pushChangesTo( Observer<WindowChangelog> changelogConsumer ) throws Exception {
+      executor.executeStreamingChangelogQuery( changelogConsumer );
+    }
   }
 }
@@ -18,6 +18,7 @@ import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.dataservice.client.api.IDataServiceClientService;
+import org.pentaho.di.trans.dataservice.streaming.execution.WindowChangelog;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -31,12 +32,49 @@ public interface Query {
 
   void writeTo( OutputStream outputStream ) throws IOException;
 
+  /**
+   * Writes the results, flushing the stream after every block of rows when the query supports it.
+   *
+   * @param outputStream the client stream
+   * @param blockSize    number of rows per block
+   */
+  default void writeTo( OutputStream outputStream, int blockSize ) throws IOException {
+    writeTo( outputStream );
+  }
+
   List<Trans> getTransList();
 
+  /**
+   * @return true if this query can write its results with {@link #writeColumnarTo(OutputStream, int)}
+   */
+  default boolean supportsColumnar() {
+    return false;
+  }
+
+  /**
+   * Writes the results in the {@code binary/jdbc-columnar} encoding, see
+   * {@link org.pentaho.di.trans.dataservice.execution.ColumnarRowSink}.
+   *
+   * @param outputStream the client stream
+   * @param chunkSize    number of rows per column chunk
+   */
+  default void writeColumnarTo( OutputStream outputStream, int chunkSize ) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
   default void pushTo( Observer<List<RowMetaAndData>> streamingWindowConsumer ) throws Exception {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Pushes the changes between the successive windows of a streaming query, starting with the last window.
+   *
+   * @param changelogConsumer the consumer of the changes
+   */
+  default void pushChangesTo( Observer<WindowChangelog> changelogConsumer ) throws Exception {
+    throw new UnsupportedOperationException();
+  }
+
   interface Service {
     Query prepareQuery( String sql, int maxRows, Map<String, String> parameters ) throws KettleException;
     Query prepareQuery( String sql, IDataServiceClientService.StreamingMode windowMode,
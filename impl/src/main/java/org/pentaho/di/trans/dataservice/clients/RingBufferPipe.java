@@ -0,0 +1,206 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.clients;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer, single consumer byte pipe backed by a ring buffer.
+ * <p>
+ * One thread writes to {@link #out} while another reads from {@link #in}. Neither side takes a lock, a side only
+ * parks when the buffer is full or empty and is unparked as soon as the other side makes progress.
+ * <p>
+ * Like the piped streams it replaces, the pipe is "safe": once the reading end has been closed, anything written into
+ * the pipe is silently discarded. Closing the writing end lets the reader drain the buffer and then see end of stream.
+ */
+class RingBufferPipe {
+  static final int DEFAULT_SIZE = 256 * 1024;
+  private static final int MIN_SIZE = 1024;
+  private static final int MAX_SIZE = 1 << 30;
+  // Guards against a missed wake-up, waiters are normally unparked by the other side
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 10 );
+
+  final InputStream in = new RingInputStream();
+  final OutputStream out = new RingOutputStream();
+
+  private final byte[] buffer;
+  private final int mask;
+  // Each position is only advanced by its own side
+  private final AtomicLong writePosition = new AtomicLong();
+  private final AtomicLong readPosition = new AtomicLong();
+
+  private volatile boolean readerOpen = true;
+  private volatile boolean writerOpen = true;
+  private volatile Thread waitingReader;
+  private volatile Thread waitingWriter;
+
+  /**
+   * @param size requested buffer size in bytes, rounded up to the next power of two
+   */
+  RingBufferPipe( int size ) {
+    int capacity = Integer.highestOneBit( Math.min( Math.max( size, MIN_SIZE ), MAX_SIZE ) - 1 ) << 1;
+    buffer = new byte[ capacity ];
+    mask = capacity - 1;
+  }
+
+  int capacity() {
+    return buffer.length;
+  }
+
+  private static void unpark( Thread thread ) {
+    if ( thread != null ) {
+      LockSupport.unpark( thread );
+    }
+  }
+
+  private class RingOutputStream extends OutputStream {
+    @Override public void write( int b ) throws IOException {
+      if ( !writerOpen ) {
+        throw new IOException( "Pipe closed" );
+      }
+      while ( readerOpen ) {
+        long write = writePosition.get();
+        if ( write - readPosition.get() == buffer.length ) {
+          awaitReader( write );
+          continue;
+        }
+        buffer[ (int) ( write & mask ) ] = (byte) b;
+        writePosition.set( write + 1 );
+        unpark( waitingReader );
+        return;
+      }
+    }
+
+    @Override public void write( byte[] b, int off, int len ) throws IOException {
+      if ( !writerOpen ) {
+        throw new IOException( "Pipe closed" );
+      }
+      while ( len > 0 && readerOpen ) {
+        long write = writePosition.get();
+        int free = buffer.length - (int) ( write - readPosition.get() );
+        if ( free == 0 ) {
+          awaitReader( write );
+          continue;
+        }
+        int chunk = Math.min( len, Math.min( free, buffer.length - (int) ( write & mask ) ) );
+        System.arraycopy( b, off, buffer, (int) ( write & mask ), chunk );
+        writePosition.set( write + chunk );
+        unpark( waitingReader );
+        off += chunk;
+        len -= chunk;
+      }
+    }
+
+    private void awaitReader( long write ) throws IOException {
+      waitingWriter = Thread.currentThread();
+      try {
+        // Check again after announcing, the reader may have drained the buffer in between
+        if ( readerOpen && write - readPosition.get() == buffer.length ) {
+          LockSupport.parkNanos( this, PARK_NANOS );
+          if ( Thread.interrupted() ) {
+            throw new InterruptedIOException();
+          }
+        }
+      } finally {
+        waitingWriter = null;
+      }
+    }
+
+    @Override public void close() {
+      writerOpen = false;
+      unpark( waitingReader );
+    }
+  }
+
+  private class RingInputStream extends InputStream {
+    @Override public int read() throws IOException {
+      if ( !readerOpen ) {
+        throw new IOException( "Pipe closed" );
+      }
+      while ( true ) {
+        long read = readPosition.get();
+        if ( writePosition.get() > read ) {
+          int b = buffer[ (int) ( read & mask ) ] & 0xff;
+          readPosition.set( read + 1 );
+          unpark( waitingWriter );
+          return b;
+        }
+        if ( !writerOpen ) {
+          if ( writePosition.get() == read ) {
+            return -1;
+          }
+          continue;
+        }
+        awaitWriter( read );
+      }
+    }
+
+    @Override public int read( byte[] b, int off, int len ) throws IOException {
+      if ( !readerOpen ) {
+        throw new IOException( "Pipe closed" );
+      }
+      if ( len == 0 ) {
+        return 0;
+      }
+      while ( true ) {
+        long read = readPosition.get();
+        int available = (int) ( writePosition.get() - read );
+        if ( available > 0 ) {
+          int chunk = Math.min( len, Math.min( available, buffer.length - (int) ( read & mask ) ) );
+          System.arraycopy( buffer, (int) ( read & mask ), b, off, chunk );
+          readPosition.set( read + chunk );
+          unpark( waitingWriter );
+          return chunk;
+        }
+        if ( !writerOpen ) {
+          // Writer may have published its last bytes just before closing
+          if ( writePosition.get() == read ) {
+            return -1;
+          }
+          continue;
+        }
+        awaitWriter( read );
+      }
+    }
+
+    private void awaitWriter( long read ) throws IOException {
+      waitingReader = Thread.currentThread();
+      try {
+        if ( writerOpen && writePosition.get() == read ) {
+          LockSupport.parkNanos( this, PARK_NANOS );
+          if ( Thread.interrupted() ) {
+            throw new InterruptedIOException();
+          }
+        }
+      } finally {
+        waitingReader = null;
+      }
+    }
+
+    @Override public int available() {
+      return readerOpen ? (int) ( writePosition.get() - readPosition.get() ) : 0;
+    }
+
+    @Override public void close() {
+      readerOpen = false;
+      unpark( waitingWriter );
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.execution;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.RowAdapter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Result step listener that encodes rows straight into a reusable output buffer and pushes them to the client stream
+ * in blocks of {@code batchSize} rows.
+ * <p>
+ * Rows are written in the same {@code binary/jdbc} format as {@link RowMetaInterface#writeData}, so clients can't
+ * tell the difference. Rows are encoded while the listener is called, since the row arrays belong to the generated
+ * transformation and can't be retained once the step moves on.
+ */
+public class BatchedRowSink extends RowAdapter {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final DataOutputStream encoder;
+  private final int batchSize;
+  private final Trans serviceTrans;
+
+  private boolean rowMetaWritten = false;
+  private int pendingRows = 0;
+
+  /**
+   * @param target       the client stream
+   * @param batchSize    number of rows to encode before the buffer is pushed to the client
+   * @param serviceTrans the service transformation, write errors are ignored once it has been stopped
+   */
+  public BatchedRowSink( OutputStream target, int batchSize, Trans serviceTrans ) {
+    this.encoder = new DataOutputStream( new BufferedOutputStream( target, BUFFER_SIZE ) );
+    this.batchSize = Math.max( batchSize, 1 );
+    this.serviceTrans = serviceTrans;
+  }
+
+  @Override
+  public void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+    write( rowMeta, row );
+  }
+
+  @Override
+  public void errorRowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+    write( rowMeta, row );
+  }
+
+  private synchronized void write( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+    try {
+      writeMeta( rowMeta );
+      writeRow( encoder, rowMeta, row );
+      if ( ++pendingRows >= batchSize ) {
+        endBlock();
+      }
+    } catch ( Exception e ) {
+      if ( !serviceTrans.isStopped() ) {
+        throw new KettleStepException( e );
+      }
+    }
+  }
+
+  /**
+   * Writes any buffered rows, and the row metadata if no rows were produced. The client stream is flushed but not
+   * closed.
+   *
+   * @param rowMeta the result step fields
+   * @throws KettleException if the remaining rows can't be written
+   */
+  public synchronized void finish( RowMetaInterface rowMeta ) throws KettleException {
+    try {
+      writeMeta( rowMeta );
+      if ( pendingRows > 0 ) {
+        endBlock();
+      }
+      writeEnd( encoder );
+      encoder.flush();
+    } catch ( IOException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  private void writeMeta( RowMetaInterface rowMeta ) throws KettleException {
+    if ( !rowMetaWritten ) {
+      writeRowMeta( encoder, rowMeta );
+      rowMetaWritten = true;
+    }
+  }
+
+  private void endBlock() throws KettleException, IOException {
+    writeBlock( encoder, pendingRows );
+    encoder.flush();
+    pendingRows = 0;
+  }
+
+  /**
+   * Writes the result row metadata, once before any row.
+   */
+  protected void writeRowMeta( DataOutputStream out, RowMetaInterface rowMeta ) throws KettleException {
+    rowMeta.writeMeta( out );
+  }
+
+  /**
+   * Encodes a single row. The row must not be referenced once this method returns.
+   */
+  protected void writeRow( DataOutputStream out, RowMetaInterface rowMeta, Object[] row )
+    throws KettleException, IOException {
+    rowMeta.writeData( out, row );
+  }
+
+  /**
+   * Called once a block of rows has been encoded, right before it is pushed to the client.
+   *
+   * @param rowCount number of rows in the block
+   */
+  protected void writeBlock( DataOutputStream out, int rowCount ) throws KettleException, IOException {
+  }
+
+  /**
+   * Called after the last block.
+   */
+  protected void writeEnd( DataOutputStream out ) throws IOException {
+  }
+}
@@ -0,0 +1,316 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.execution;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+import org.pentaho.di.trans.Trans;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result sink writing the {@code binary/jdbc-columnar} encoding.
+ * <p>
+ * The stream starts with the row metadata, written by {@link RowMetaInterface#writeMeta} with every value in normal
+ * storage. Rows follow in chunks of up to {@code chunkSize} rows:
+ * <pre>
+ *   int rowCount
+ *   for each column:
+ *     byte[ (rowCount + 7) / 8 ]  null vector, bit i (LSB first) set when row i is null
+ *     values of the non-null rows:
+ *       Integer            long each
+ *       Number             double each
+ *       Boolean            byte[ (count + 7) / 8 ], bit packed like the null vector
+ *       Date               long millis each
+ *       Timestamp          long millis, int nanos each
+ *       String             int dictionarySize, dictionarySize x (int length, UTF-8 bytes),
+ *                          then one dictionary index each, as an unsigned byte when dictionarySize is at most
+ *                          256, an unsigned short when at most 65536 and an int otherwise
+ *       any other type     {@link ValueMetaInterface#writeData} each
+ * </pre>
+ * The stream ends with a chunk of zero rows.
+ */
+public class ColumnarRowSink extends BatchedRowSink {
+  public static final String CONTENT_TYPE = "binary/jdbc-columnar";
+
+  private final int chunkSize;
+  private Column[] columns;
+
+  public ColumnarRowSink( OutputStream target, int chunkSize, Trans serviceTrans ) {
+    super( target, chunkSize, serviceTrans );
+    this.chunkSize = Math.max( chunkSize, 1 );
+  }
+
+  @Override protected void writeRowMeta( DataOutputStream out, RowMetaInterface rowMeta ) throws KettleException {
+    RowMetaInterface normalMeta = rowMeta.clone();
+    columns = new Column[ normalMeta.size() ];
+    for ( int i = 0; i < columns.length; i++ ) {
+      ValueMetaInterface normal = normalMeta.getValueMeta( i );
+      normal.setStorageType( ValueMetaInterface.STORAGE_TYPE_NORMAL );
+      normal.setStorageMetadata( null );
+      normal.setIndex( null );
+      columns[ i ] = createColumn( i, rowMeta.getValueMeta( i ), normal );
+    }
+    normalMeta.writeMeta( out );
+  }
+
+  @Override protected void writeRow( DataOutputStream out, RowMetaInterface rowMeta, Object[] row )
+    throws KettleException, IOException {
+    for ( Column column : columns ) {
+      column.add( row );
+    }
+  }
+
+  @Override protected void writeBlock( DataOutputStream out, int rowCount ) throws KettleException, IOException {
+    out.writeInt( rowCount );
+    for ( Column column : columns ) {
+      column.write( out );
+    }
+  }
+
+  @Override protected void writeEnd( DataOutputStream out ) throws IOException {
+    out.writeInt( 0 );
+  }
+
+  private Column createColumn( int index, ValueMetaInterface source, ValueMetaInterface normal ) {
+    switch ( source.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return new LongColumn( index, source );
+      case ValueMetaInterface.TYPE_NUMBER:
+        return new DoubleColumn( index, source );
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return new BooleanColumn( index, source );
+      case ValueMetaInterface.TYPE_DATE:
+        return new DateColumn( index, source );
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+        if ( source instanceof ValueMetaTimestamp ) {
+          return new TimestampColumn( index, source );
+        }
+        return new ValueColumn( index, source, normal );
+      case ValueMetaInterface.TYPE_STRING:
+        return new StringColumn( index, source );
+      default:
+        return new ValueColumn( index, source, normal );
+    }
+  }
+
+  private static void setBit( byte[] bits, int index ) {
+    bits[ index >> 3 ] |= (byte) ( 1 << ( index & 7 ) );
+  }
+
+  private abstract class Column {
+    final ValueMetaInterface valueMeta;
+    final int index;
+    final byte[] nulls = new byte[ ( chunkSize + 7 ) / 8 ];
+    int rows = 0;
+    int values = 0;
+
+    Column( int index, ValueMetaInterface valueMeta ) {
+      this.index = index;
+      this.valueMeta = valueMeta;
+    }
+
+    void add( Object[] row ) throws KettleException, IOException {
+      Object value = row[ index ];
+      if ( valueMeta.isNull( value ) ) {
+        setBit( nulls, rows );
+      } else {
+        addValue( value, values++ );
+      }
+      rows++;
+    }
+
+    void write( DataOutputStream out ) throws IOException {
+      out.write( nulls, 0, ( rows + 7 ) / 8 );
+      writeValues( out, values );
+      Arrays.fill( nulls, (byte) 0 );
+      rows = 0;
+      values = 0;
+    }
+
+    abstract void addValue( Object value, int position ) throws KettleException, IOException;
+
+    abstract void writeValues( DataOutputStream out, int count ) throws IOException;
+  }
+
+  private class LongColumn extends Column {
+    private final long[] longs = new long[ chunkSize ];
+
+    LongColumn( int index, ValueMetaInterface valueMeta ) {
+      super( index, valueMeta );
+    }
+
+    @Override void addValue( Object value, int position ) throws KettleException {
+      longs[ position ] = valueMeta.getInteger( value );
+    }
+
+    @Override void writeValues( DataOutputStream out, int count ) throws IOException {
+      for ( int i = 0; i < count; i++ ) {
+        out.writeLong( longs[ i ] );
+      }
+    }
+  }
+
+  private class DoubleColumn extends Column {
+    private final double[] doubles = new double[ chunkSize ];
+
+    DoubleColumn( int index, ValueMetaInterface valueMeta ) {
+      super( index, valueMeta );
+    }
+
+    @Override void addValue( Object value, int position ) throws KettleException {
+      doubles[ position ] = valueMeta.getNumber( value );
+    }
+
+    @Override void writeValues( DataOutputStream out, int count ) throws IOException {
+      for ( int i = 0; i < count; i++ ) {
+        out.writeDouble( doubles[ i ] );
+      }
+    }
+  }
+
+  private class BooleanColumn extends Column {
+    private final byte[] bits = new byte[ ( chunkSize + 7 ) / 8 ];
+
+    BooleanColumn( int index, ValueMetaInterface valueMeta ) {
+      super( index, valueMeta );
+    }
+
+    @Override void addValue( Object value, int position ) throws KettleException {
+      if ( valueMeta.getBoolean( value ) ) {
+        setBit( bits, position );
+      }
+    }
+
+    @Override void writeValues( DataOutputStream out, int count ) throws IOException {
+      out.write( bits, 0, ( count + 7 ) / 8 );
+      Arrays.fill( bits, (byte) 0 );
+    }
+  }
+
+  private class DateColumn extends Column {
+    private final long[] millis = new long[ chunkSize ];
+
+    DateColumn( int index, ValueMetaInterface valueMeta ) {
+      super( index, valueMeta );
+    }
+
+    @Override void addValue( Object value, int position ) throws KettleException {
+      Date date = valueMeta.getDate( value );
+      millis[ position ] = date.getTime();
+    }
+
+    @Override void writeValues( DataOutputStream out, int count ) throws IOException {
+      for ( int i = 0; i < count; i++ ) {
+        out.writeLong( millis[ i ] );
+      }
+    }
+  }
+
+  private class TimestampColumn extends Column {
+    private final long[] millis = new long[ chunkSize ];
+    private final int[] nanos = new int[ chunkSize ];
+
+    TimestampColumn( int index, ValueMetaInterface valueMeta ) {
+      super( index, valueMeta );
+    }
+
+    @Override void addValue( Object value, int position ) throws KettleException {
+      Timestamp timestamp = ( (ValueMetaTimestamp) valueMeta ).getTimestamp( value );
+      millis[ position ] = timestamp.getTime();
+      nanos[ position ] = timestamp.getNanos();
+    }
+
+    @Override void writeValues( DataOutputStream out, int count ) throws IOException {
+      for ( int i = 0; i < count; i++ ) {
+        out.writeLong( millis[ i ] );
+        out.writeInt( nanos[ i ] );
+      }
+    }
+  }
+
+  private class StringColumn extends Column {
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> entries = new ArrayList<>();
+    private final int[] ids = new int[ chunkSize ];
+
+    StringColumn( int index, ValueMetaInterface valueMeta ) {
+      super( index, valueMeta );
+    }
+
+    @Override void addValue( Object value, int position ) throws KettleException {
+      String string = valueMeta.getString( value );
+      Integer id = dictionary.get( string );
+      if ( id == null ) {
+        id = entries.size();
+        dictionary.put( string, id );
+        entries.add( string );
+      }
+      ids[ position ] = id;
+    }
+
+    @Override void writeValues( DataOutputStream out, int count ) throws IOException {
+      out.writeInt( entries.size() );
+      for ( String entry : entries ) {
+        byte[] bytes = entry.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+      }
+      for ( int i = 0; i < count; i++ ) {
+        if ( entries.size() <= 0x100 ) {
+          out.writeByte( ids[ i ] );
+        } else if ( entries.size() <= 0x10000 ) {
+          out.writeShort( ids[ i ] );
+        } else {
+          out.writeInt( ids[ i ] );
+        }
+      }
+      dictionary.clear();
+      entries.clear();
+    }
+  }
+
+  private class ValueColumn extends Column {
+    private final ValueMetaInterface normal;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream data = new DataOutputStream( bytes );
+
+    ValueColumn( int index, ValueMetaInterface valueMeta, ValueMetaInterface normal ) {
+      super( index, valueMeta );
+      this.normal = normal;
+    }
+
+    @Override void addValue( Object value, int position ) throws KettleException {
+      normal.writeData( data, valueMeta.convertToNormalStorageType( value ) );
+    }
+
+    @Override void writeValues( DataOutputStream out, int count ) throws IOException {
+      bytes.writeTo( out );
+      bytes.reset();
+    }
+  }
+}
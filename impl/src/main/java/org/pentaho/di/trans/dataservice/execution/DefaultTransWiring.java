@@ -14,14 +14,20 @@
 package org.pentaho.di.trans.dataservice.execution;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import org.pentaho.di.core.row.value.ValueMetaBase;
 import org.pentaho.di.trans.dataservice.DataServiceExecutor;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.trans.RowProducer;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
 import org.pentaho.di.trans.step.StepAdapter;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 
+import static com.google.common.base.Predicates.instanceOf;
+
 /**
  * @author nhudak
  */
@@ -51,7 +57,11 @@ public class DefaultTransWiring implements Runnable {
     if ( serviceStep == null ) {
       throw Throwables.propagate( new KettleException( "Service step is not accessible" ) );
     }
-    serviceStep.addRowListener( new DefaultTransWiringRowAdapter( serviceTrans, genTrans, rowProducer ) );
+    // Rows are copied unless the Injector can own them. A row capture keeps the originals, so copies are injected
+    boolean copyRows = !canTransferRows( serviceTrans, serviceStep )
+      || Iterables.any( dataServiceExecutor.getListenerMap().get( DataServiceExecutor.ExecutionPoint.READY ),
+      instanceOf( ServiceRowCapture.class ) );
+    serviceStep.addRowListener( new DefaultTransWiringRowAdapter( serviceTrans, genTrans, rowProducer, copyRows ) );
 
     // Let the other transformation know when there are no more rows
     //
@@ -73,4 +83,23 @@ public class DefaultTransWiring implements Runnable {
       } );
   }
 
+  /**
+   * Rows written by the service step can be handed to a single consumer without a copy when the ownership transfer
+   * mode is enabled and the service step has no next steps, so that no other step receives the same row.
+   *
+   * @param serviceTrans the running service transformation
+   * @param serviceStep  the service step
+   * @return true if rows can be consumed without a copy
+   */
+  public static boolean canTransferRows( Trans serviceTrans, StepInterface serviceStep ) {
+    try {
+      String transfer = KettleUtils.getInstance().getKettleProperty( DataServiceConstants.ROW_TRANSFER_PROPERTY );
+      if ( !Boolean.TRUE.equals( ValueMetaBase.convertStringToBoolean( transfer ) ) ) {
+        return false;
+      }
+    } catch ( KettleException e ) {
+      return false;
+    }
+    return serviceTrans.getTransMeta().findNextSteps( serviceStep.getStepMeta() ).isEmpty();
+  }
 }
@@ -31,11 +31,22 @@ class DefaultTransWiringRowAdapter extends RowAdapter {
   private final Trans serviceTrans;
   private final Trans genTrans;
   private final RowProducer rowProducer;
+  private final boolean copyRows;
 
   public DefaultTransWiringRowAdapter( Trans serviceTrans, Trans genTrans, RowProducer rowProducer ) {
+    this( serviceTrans, genTrans, rowProducer, true );
+  }
+
+  /**
+   * @param copyRows false to hand the service step rows to the Injector as they are, only safe when no other
+   *                 consumer holds on to them
+   */
+  public DefaultTransWiringRowAdapter( Trans serviceTrans, Trans genTrans, RowProducer rowProducer,
+                                       boolean copyRows ) {
     this.serviceTrans = serviceTrans;
     this.genTrans = genTrans;
     this.rowProducer = rowProducer;
+    this.copyRows = copyRows;
   }
 
   @Override
@@ -52,7 +63,7 @@ class DefaultTransWiringRowAdapter extends RowAdapter {
     }
 
     try {
-      Object[] rowData = rowMeta.cloneRow( row );
+      Object[] rowData = copyRows ? rowMeta.cloneRow( row ) : row;
       while ( !rowProducer.putRowWait( rowMeta, rowData, 1, TimeUnit.SECONDS ) && genTrans.isRunning() ) {
         // Row queue was full, try again
         if ( log.isRowLevel() ) {
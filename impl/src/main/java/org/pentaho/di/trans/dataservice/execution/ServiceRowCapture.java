@@ -0,0 +1,25 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.execution;
+
+/**
+ * Marks a {@link org.pentaho.di.trans.dataservice.DataServiceExecutor.ExecutionPoint#READY} listener that keeps the
+ * rows written by the service step.
+ * <p>
+ * When rows can be transferred (see {@link DefaultTransWiring#canTransferRows}), an installed capture takes ownership
+ * of the service step rows and the generated transformation is given copies, so that captured rows are never
+ * modified by downstream steps.
+ */
+public interface ServiceRowCapture extends Runnable {
+}
@@ -0,0 +1,131 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bounded, least-recently-used cache of GROUP BY results.
+ * <p>
+ * Results are grouped by the data service and the {@link CachedService.CacheKey} of the query, without its ORDER BY
+ * fields. Each group holds the output of every Group by step shape computed for those rows.
+ */
+public class AggregateCache {
+
+  private final long maximumSize;
+  private final Cache<Key, List<CachedAggregate>> aggregates;
+
+  public AggregateCache( long maximumSize ) {
+    this.maximumSize = maximumSize;
+    aggregates = CacheBuilder.newBuilder()
+      .maximumSize( maximumSize )
+      .build();
+  }
+
+  /**
+   * Creates a cache bounded by the {@value DataServiceConstants#CACHE_AGGREGATE_SIZE_PROPERTY} kettle property.
+   */
+  public static AggregateCache create() {
+    int size = DataServiceConstants.CACHE_AGGREGATE_SIZE_DEFAULT;
+    try {
+      size = Const.toInt( KettleUtils.getInstance().getKettleProperty(
+        DataServiceConstants.CACHE_AGGREGATE_SIZE_PROPERTY ), DataServiceConstants.CACHE_AGGREGATE_SIZE_DEFAULT );
+    } catch ( KettleException e ) {
+      // Use the default size
+    }
+    return new AggregateCache( Math.max( size, 0 ) );
+  }
+
+  public boolean isEnabled() {
+    return maximumSize > 0;
+  }
+
+  /**
+   * Adds a result, replacing any result cached for the same Group by step.
+   *
+   * @param dataServiceName data service name
+   * @param key             key of the query rows, without ORDER BY fields
+   * @param aggregate       Group by output
+   */
+  void put( String dataServiceName, CachedService.CacheKey key, CachedAggregate aggregate ) {
+    List<CachedAggregate> group = aggregates.asMap()
+      .computeIfAbsent( new Key( dataServiceName, key ), k -> new CopyOnWriteArrayList<>() );
+    group.removeIf( cached -> cached.sameShape( aggregate ) );
+    group.add( aggregate );
+  }
+
+  /**
+   * Results cached for the rows of a query that are still valid. Expired results are dropped.
+   *
+   * @param dataServiceName data service name
+   * @param key             key of the query rows, without ORDER BY fields
+   * @param timeToLive      currently configured time to live in seconds
+   * @return cached results, most recent last
+   */
+  List<CachedAggregate> get( String dataServiceName, CachedService.CacheKey key, long timeToLive ) {
+    List<CachedAggregate> group = aggregates.getIfPresent( new Key( dataServiceName, key ) );
+    if ( group == null ) {
+      return ImmutableList.of();
+    }
+    long now = System.currentTimeMillis();
+    group.removeIf( cached -> !cached.isValid( timeToLive, now ) );
+    return group;
+  }
+
+  /**
+   * Drops all results of a data service.
+   */
+  public void invalidate( String dataServiceName ) {
+    aggregates.asMap().keySet().removeIf( key -> key.dataServiceName.equals( dataServiceName ) );
+  }
+
+  public long size() {
+    return aggregates.size();
+  }
+
+  private static final class Key {
+    private final String dataServiceName;
+    private final CachedService.CacheKey cacheKey;
+
+    private Key( String dataServiceName, CachedService.CacheKey cacheKey ) {
+      this.dataServiceName = dataServiceName;
+      this.cacheKey = cacheKey;
+    }
+
+    @Override public boolean equals( Object o ) {
+      if ( this == o ) {
+        return true;
+      }
+      if ( o == null || getClass() != o.getClass() ) {
+        return false;
+      }
+      Key key = (Key) o;
+      return dataServiceName.equals( key.dataServiceName ) && cacheKey.equals( key.cacheKey );
+    }
+
+    @Override public int hashCode() {
+      return Objects.hashCode( dataServiceName, cacheKey );
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.dataservice.DataServiceExecutor;
+import org.pentaho.di.trans.dataservice.SqlTransGenerator;
+import org.pentaho.di.trans.step.RowAdapter;
+import org.pentaho.di.trans.step.StepAdapter;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+
+import java.util.List;
+
+/**
+ * Captures the rows written by the Group by step of a generated transformation.
+ */
+class AggregateObserver extends AbstractFuture<List<RowMetaAndData>> implements Runnable {
+  private final DataServiceExecutor executor;
+
+  private final List<RowMetaAndData> rowMetaAndData = Lists.newArrayList();
+
+  AggregateObserver( DataServiceExecutor executor ) {
+    this.executor = executor;
+  }
+
+  public ListenableFuture<List<RowMetaAndData>> install() {
+    executor.getListenerMap().get( DataServiceExecutor.ExecutionPoint.READY ).add( this );
+    return this;
+  }
+
+  @Override public void run() {
+    StepInterface groupByStep = executor.getGenTrans().findRunThread( SqlTransGenerator.GROUP_BY_STEP_NAME );
+    if ( groupByStep == null ) {
+      setException( new IllegalStateException( "Generated transformation has no Group by step" ) );
+      return;
+    }
+    groupByStep.addRowListener( new RowAdapter() {
+      @Override public synchronized void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) {
+        try {
+          rowMetaAndData.add( new RowMetaAndData( rowMeta, rowMeta.cloneRow( row ) ) );
+        } catch ( KettleValueException e ) {
+          setException( e );
+        }
+      }
+    } );
+    groupByStep.addStepListener( new StepAdapter() {
+      @Override public void stepFinished( Trans trans, StepMeta stepMeta, StepInterface step ) {
+        if ( trans.getErrors() > 0 || step.isStopped() ) {
+          setException( new KettleException( "Group by step did not finish, could not cache aggregates" ) );
+        } else {
+          set( rowMetaAndData );
+        }
+      }
+    } );
+  }
+}
@@ -0,0 +1,338 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.service.PluginServiceLoader;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.trans.dataservice.DataServiceExecutor;
+import org.pentaho.di.trans.dataservice.resolvers.DataServiceResolver;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.locator.api.MetastoreLocator;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Warms up the service cache by replaying the most frequent queries of each data service, as recorded by the
+ * {@link QueryHistory}.
+ * <p>
+ * Warm-ups run one at a time, either at the daily times of the
+ * {@value DataServiceConstants#CACHE_WARMUP_SCHEDULE_PROPERTY} kettle property or on demand. Every scheduled check
+ * also saves the history.
+ */
+public class CacheWarmer {
+  private static final long CHECK_INTERVAL_SECONDS = 60;
+
+  private final QueryHistory history;
+  private final DataServiceResolver resolver;
+  private final ListeningScheduledExecutorService scheduler;
+  private final List<Schedule> schedule;
+  private final int topQueries;
+  private final AtomicReference<Report> lastReport = new AtomicReference<>();
+  private LocalDateTime lastCheck;
+  private MetastoreLocator metastoreLocator;
+
+  // OSGi blueprint constructor
+  public CacheWarmer( QueryHistory history, DataServiceResolver resolver ) {
+    this( history, resolver, Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "dataservice-cache-warmer-%d" ).build() ),
+      readSchedule(), readTopQueries() );
+  }
+
+  CacheWarmer( QueryHistory history, DataServiceResolver resolver,
+               ScheduledExecutorService scheduler, List<Schedule> schedule, int topQueries ) {
+    this.history = history;
+    this.resolver = resolver;
+    this.scheduler = MoreExecutors.listeningDecorator( scheduler );
+    this.schedule = schedule;
+    this.topQueries = topQueries;
+  }
+
+  public void start() {
+    lastCheck = LocalDateTime.now();
+    scheduler.scheduleWithFixedDelay( new Runnable() {
+      @Override public void run() {
+        check( LocalDateTime.now() );
+      }
+    }, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS );
+  }
+
+  public void stop() {
+    scheduler.shutdownNow();
+    saveHistory();
+  }
+
+  /**
+   * Runs the warm-ups scheduled since the previous check, and saves the history.
+   */
+  void check( LocalDateTime now ) {
+    LocalDateTime previous = lastCheck == null ? now : lastCheck;
+    lastCheck = now;
+    for ( Schedule time : schedule ) {
+      if ( time.isDueBetween( previous, now ) ) {
+        run( history.getDataServiceNames() );
+        break;
+      }
+    }
+    saveHistory();
+  }
+
+  /**
+   * Queues a warm-up.
+   *
+   * @param dataServiceNames data services to warm up, all services with recorded queries if empty
+   * @return the report of the warm-up, once finished
+   */
+  public ListenableFuture<Report> warmUp( final Collection<String> dataServiceNames ) {
+    final Collection<String> names = dataServiceNames.isEmpty() ? history.getDataServiceNames() : dataServiceNames;
+    return scheduler.submit( () -> run( names ) );
+  }
+
+  /**
+   * @return the report of the running or last warm-up, null if none has run yet
+   */
+  public Report getLastReport() {
+    return lastReport.get();
+  }
+
+  public QueryHistory getHistory() {
+    return history;
+  }
+
+  public int getTopQueries() {
+    return topQueries;
+  }
+
+  private Report run( Collection<String> dataServiceNames ) {
+    Report report = new Report( System.currentTimeMillis() );
+    lastReport.set( report );
+    IMetaStore metaStore = getMetaStore();
+    for ( String dataServiceName : dataServiceNames ) {
+      for ( QueryHistory.RecordedQuery query : history.top( dataServiceName, topQueries ) ) {
+        long start = System.currentTimeMillis();
+        String error = null;
+        try {
+          replay( query, metaStore );
+        } catch ( Exception e ) {
+          error = Strings.nullToEmpty( e.getMessage() );
+          LogChannel.GENERAL.logError( "Unable to warm up data service cache with " + query.getSql(), e );
+        }
+        report.add( new Result( dataServiceName, query.getSql(), System.currentTimeMillis() - start, error ) );
+      }
+    }
+    report.finish( System.currentTimeMillis() );
+    return report;
+  }
+
+  private void replay( QueryHistory.RecordedQuery query, IMetaStore metaStore ) throws KettleException {
+    DataServiceExecutor executor = resolver.createBuilder( new SQL( query.getSql() ) )
+      .parameters( query.getParameters() )
+      .metastore( metaStore )
+      .build();
+    try {
+      executor.executeQuery().waitUntilFinished();
+      if ( executor.hasErrors() ) {
+        throw new KettleException( "Query finished with errors" );
+      }
+    } finally {
+      executor.getContext().removeExecutor( executor.getId() );
+    }
+  }
+
+  private void saveHistory() {
+    try {
+      history.save();
+    } catch ( IOException e ) {
+      LogChannel.GENERAL.logError( "Unable to save data service query history", e );
+    }
+  }
+
+  private synchronized IMetaStore getMetaStore() {
+    try {
+      if ( metastoreLocator == null ) {
+        Collection<MetastoreLocator> metastoreLocators = PluginServiceLoader.loadServices( MetastoreLocator.class );
+        metastoreLocator = metastoreLocators.stream().findFirst().orElse( null );
+      }
+      return metastoreLocator != null ? metastoreLocator.getMetastore() : null;
+    } catch ( Exception e ) {
+      LogChannel.GENERAL.logError( "Error getting MetastoreLocator", e );
+      return null;
+    }
+  }
+
+  private static List<Schedule> readSchedule() {
+    String value = null;
+    try {
+      value = KettleUtils.getInstance().getKettleProperty( DataServiceConstants.CACHE_WARMUP_SCHEDULE_PROPERTY );
+    } catch ( KettleException e ) {
+      // No scheduled warm-ups
+    }
+    ImmutableList.Builder<Schedule> schedule = ImmutableList.builder();
+    for ( String time : Splitter.on( ',' ).trimResults().omitEmptyStrings().split( Strings.nullToEmpty( value ) ) ) {
+      try {
+        schedule.add( Schedule.parse( time ) );
+      } catch ( IllegalArgumentException e ) {
+        LogChannel.GENERAL.logError( "Invalid data service cache warm-up time: " + time );
+      }
+    }
+    return schedule.build();
+  }
+
+  private static int readTopQueries() {
+    try {
+      return Const.toInt( KettleUtils.getInstance().getKettleProperty(
+        DataServiceConstants.CACHE_WARMUP_QUERIES_PROPERTY ), DataServiceConstants.CACHE_WARMUP_QUERIES_DEFAULT );
+    } catch ( KettleException e ) {
+      return DataServiceConstants.CACHE_WARMUP_QUERIES_DEFAULT;
+    }
+  }
+
+  /**
+   * A daily warm-up time, HH:mm, or every hour at the given minute when the hour is *.
+   */
+  static final class Schedule {
+    private final int hour;
+    private final int minute;
+
+    private Schedule( int hour, int minute ) {
+      this.hour = hour;
+      this.minute = minute;
+    }
+
+    static Schedule parse( String time ) {
+      List<String> parts = Splitter.on( ':' ).trimResults().splitToList( time );
+      if ( parts.size() != 2 ) {
+        throw new IllegalArgumentException( time );
+      }
+      try {
+        int hour = "*".equals( parts.get( 0 ) ) ? -1 : Integer.parseInt( parts.get( 0 ) );
+        int minute = Integer.parseInt( parts.get( 1 ) );
+        if ( hour < -1 || hour > 23 || minute < 0 || minute > 59 ) {
+          throw new IllegalArgumentException( time );
+        }
+        return new Schedule( hour, minute );
+      } catch ( NumberFormatException e ) {
+        throw new IllegalArgumentException( time, e );
+      }
+    }
+
+    /**
+     * @return true if this time falls after {@code from} and no later than {@code to}
+     */
+    boolean isDueBetween( LocalDateTime from, LocalDateTime to ) {
+      LocalDateTime due = from.withSecond( 0 ).withNano( 0 ).withMinute( minute );
+      if ( hour >= 0 ) {
+        due = due.withHour( hour );
+      }
+      while ( !due.isAfter( from ) ) {
+        due = hour >= 0 ? due.plusDays( 1 ) : due.plusHours( 1 );
+      }
+      return !due.isAfter( to );
+    }
+  }
+
+  /**
+   * Outcome of a warm-up.
+   */
+  public static final class Report {
+    private final long started;
+    private volatile long finished = 0;
+    private final List<Result> results = new CopyOnWriteArrayList<>();
+
+    Report( long started ) {
+      this.started = started;
+    }
+
+    void add( Result result ) {
+      results.add( result );
+    }
+
+    void finish( long finished ) {
+      this.finished = finished;
+    }
+
+    public long getStarted() {
+      return started;
+    }
+
+    /**
+     * @return finish time, 0 while the warm-up is running
+     */
+    public long getFinished() {
+      return finished;
+    }
+
+    public List<Result> getResults() {
+      return ImmutableList.copyOf( results );
+    }
+  }
+
+  /**
+   * Outcome of a replayed query.
+   */
+  public static final class Result {
+    private final String dataServiceName;
+    private final String sql;
+    private final long duration;
+    private final String error;
+
+    Result( String dataServiceName, String sql, long duration, String error ) {
+      this.dataServiceName = dataServiceName;
+      this.sql = sql;
+      this.duration = duration;
+      this.error = error;
+    }
+
+    public String getDataServiceName() {
+      return dataServiceName;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    /**
+     * @return run time in milliseconds
+     */
+    public long getDuration() {
+      return duration;
+    }
+
+    /**
+     * @return error message, null if the query succeeded
+     */
+    public String getError() {
+      return error;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMeta;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Output of the generated Group by step, cached with the group fields and aggregates that produced it.
+ * <p>
+ * An entry answers any query over the same rows whose group fields are a subset of the cached ones, by aggregating
+ * the cached groups again. SUM, MIN and MAX roll up to themselves and counts roll up to their sum. AVG and
+ * COUNT(DISTINCT) can't be rolled up, they are only answered for the exact same group fields.
+ */
+class CachedAggregate {
+  private final ImmutableSet<String> groupFields;
+  private final ImmutableList<Aggregate> aggregates;
+  private final boolean alwaysGivingBackOneRow;
+  private final ImmutableList<RowMetaAndData> rows;
+  private final long timeToLive;
+  private final long created;
+
+  CachedAggregate( MemoryGroupByMeta groupBy, List<RowMetaAndData> rows, long timeToLive, long created ) {
+    this.groupFields = ImmutableSet.copyOf( groupBy.getGroupField() );
+    this.aggregates = Aggregate.of( groupBy );
+    this.alwaysGivingBackOneRow = groupBy.isAlwaysGivingBackOneRow();
+    this.rows = ImmutableList.copyOf( rows );
+    this.timeToLive = timeToLive;
+    this.created = created;
+  }
+
+  /**
+   * Builds the Group by step that computes a query's aggregates from the cached groups.
+   *
+   * @param query Group by step generated for the query
+   * @return the step meta to use instead, absent if this entry can't answer the query
+   */
+  Optional<MemoryGroupByMeta> rollUp( MemoryGroupByMeta query ) {
+    if ( alwaysGivingBackOneRow != query.isAlwaysGivingBackOneRow()
+      || !groupFields.containsAll( Arrays.asList( query.getGroupField() ) ) ) {
+      return Optional.absent();
+    }
+    boolean sameGroups = groupFields.size() == ImmutableSet.copyOf( query.getGroupField() ).size();
+
+    ImmutableList<Aggregate> queried = Aggregate.of( query );
+    MemoryGroupByMeta rollUp = new MemoryGroupByMeta();
+    rollUp.allocate( query.getGroupField().length, queried.size() );
+    System.arraycopy( query.getGroupField(), 0, rollUp.getGroupField(), 0, query.getGroupField().length );
+    for ( int i = 0; i < queried.size(); i++ ) {
+      Aggregate aggregate = queried.get( i );
+      Optional<Aggregate> cached = find( aggregate );
+      int type = sameGroups ? MemoryGroupByMeta.TYPE_GROUP_MAX : rollUpType( aggregate.type );
+      if ( !cached.isPresent() || type == MemoryGroupByMeta.TYPE_GROUP_NONE ) {
+        return Optional.absent();
+      }
+      rollUp.getAggregateField()[i] = aggregate.name;
+      rollUp.getSubjectField()[i] = cached.get().name;
+      rollUp.getAggregateType()[i] = type;
+    }
+    rollUp.setAlwaysGivingBackOneRow( query.isAlwaysGivingBackOneRow() );
+    return Optional.of( rollUp );
+  }
+
+  private Optional<Aggregate> find( Aggregate aggregate ) {
+    for ( Aggregate cached : aggregates ) {
+      if ( cached.subject.equals( aggregate.subject ) && cached.type == aggregate.type ) {
+        return Optional.of( cached );
+      }
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * Each cached group holds exactly one row per group of the same fields, so any aggregate can be read back with MAX.
+   * Coarser groups need an aggregate that combines partial results.
+   */
+  private static int rollUpType( int type ) {
+    switch ( type ) {
+      case MemoryGroupByMeta.TYPE_GROUP_SUM:
+      case MemoryGroupByMeta.TYPE_GROUP_COUNT_ALL:
+      case MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY:
+        return MemoryGroupByMeta.TYPE_GROUP_SUM;
+      case MemoryGroupByMeta.TYPE_GROUP_MIN:
+        return MemoryGroupByMeta.TYPE_GROUP_MIN;
+      case MemoryGroupByMeta.TYPE_GROUP_MAX:
+        return MemoryGroupByMeta.TYPE_GROUP_MAX;
+      default:
+        return MemoryGroupByMeta.TYPE_GROUP_NONE;
+    }
+  }
+
+  /**
+   * @return true if this entry holds the output of the same Group by step
+   */
+  boolean sameShape( MemoryGroupByMeta groupBy ) {
+    return groupFields.equals( ImmutableSet.copyOf( groupBy.getGroupField() ) )
+      && aggregates.equals( Aggregate.of( groupBy ) )
+      && alwaysGivingBackOneRow == groupBy.isAlwaysGivingBackOneRow();
+  }
+
+  boolean isValid( long currentTimeToLive, long now ) {
+    return timeToLive == currentTimeToLive && ( timeToLive <= 0 || now - created < timeToLive * 1000 );
+  }
+
+  Iterator<RowMetaAndData> rows() {
+    return rows.iterator();
+  }
+
+  int getRowCount() {
+    return rows.size();
+  }
+
+  @Override public String toString() {
+    return MoreObjects.toStringHelper( this )
+      .add( "groupFields", groupFields )
+      .add( "aggregates", aggregates )
+      .add( "rows.length", rows.size() )
+      .toString();
+  }
+
+  private static final class Aggregate {
+    private final String name;
+    private final String subject;
+    private final int type;
+
+    private Aggregate( String name, String subject, int type ) {
+      this.name = name;
+      this.subject = subject;
+      this.type = type;
+    }
+
+    static ImmutableList<Aggregate> of( MemoryGroupByMeta groupBy ) {
+      ImmutableList.Builder<Aggregate> aggregates = ImmutableList.builder();
+      for ( int i = 0; i < groupBy.getAggregateField().length; i++ ) {
+        aggregates.add( new Aggregate( groupBy.getAggregateField()[i], groupBy.getSubjectField()[i],
+          groupBy.getAggregateType()[i] ) );
+      }
+      return aggregates.build();
+    }
+
+    @Override public boolean equals( Object o ) {
+      if ( this == o ) {
+        return true;
+      }
+      if ( o == null || getClass() != o.getClass() ) {
+        return false;
+      }
+      Aggregate that = (Aggregate) o;
+      return type == that.type && name.equals( that.name ) && subject.equals( that.subject );
+    }
+
+    @Override public int hashCode() {
+      return 31 * ( 31 * name.hashCode() + subject.hashCode() ) + type;
+    }
+
+    @Override public String toString() {
+      return name + "=" + type + "(" + subject + ")";
+    }
+  }
+}
@@ -14,6 +14,7 @@
 package org.pentaho.di.trans.dataservice.optimization.cache;
 
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
@@ -25,14 +26,15 @@ import org.pentaho.di.core.Condition;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.sql.SQL;
-import org.pentaho.di.core.sql.SQLCondition;
 import org.pentaho.di.core.sql.SQLField;
 import org.pentaho.di.core.sql.SQLFields;
 import org.pentaho.di.core.sql.SQLLimit;
+import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.dataservice.DataServiceExecutor;
 
 import java.io.Serializable;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -44,11 +46,24 @@ class CachedService implements Serializable {
   private final ImmutableList<RowMetaAndData> rowMetaAndData;
   private final Optional<Integer> ranking;
   private final Optional<Integer> rankingServiceRows;
+  // Time the rows were produced, in milliseconds
+  private final long created;
+  // Rows kept in direct memory, rowMetaAndData is empty when set
+  private final transient OffHeapRows offHeapRows;
+  private final transient OffHeapRowStore offHeapStore;
 
   private CachedService( List<RowMetaAndData> rowMetaAndData, Optional<Integer> ranking,  Optional<Integer> ranking2 ) {
+    this( rowMetaAndData, ranking, ranking2, System.currentTimeMillis(), null, null );
+  }
+
+  private CachedService( List<RowMetaAndData> rowMetaAndData, Optional<Integer> ranking, Optional<Integer> ranking2,
+                         long created, OffHeapRows offHeapRows, OffHeapRowStore offHeapStore ) {
     this.rowMetaAndData = ImmutableList.copyOf( rowMetaAndData );
     this.ranking = ranking;
     this.rankingServiceRows = ranking2;
+    this.created = created;
+    this.offHeapRows = offHeapRows;
+    this.offHeapStore = offHeapStore;
   }
 
   public static CachedService complete( List<RowMetaAndData> rowMetaAndData ) {
@@ -60,6 +75,16 @@ class CachedService implements Serializable {
     );
   }
 
+  static CachedService create( List<RowMetaAndData> rowMetaAndData, Optional<Integer> ranking,
+                               Optional<Integer> rankingServiceRows ) {
+    return new CachedService( rowMetaAndData, ranking, rankingServiceRows );
+  }
+
+  static CachedService create( List<RowMetaAndData> rowMetaAndData, Optional<Integer> ranking,
+                               Optional<Integer> rankingServiceRows, long created ) {
+    return new CachedService( rowMetaAndData, ranking, rankingServiceRows, created, null, null );
+  }
+
   public static CachedService partial( List<RowMetaAndData> rowMetaAndData, DataServiceExecutor executor ) {
     return new CachedService(
       rowMetaAndData,
@@ -68,17 +93,102 @@ class CachedService implements Serializable {
     );
   }
 
+  /**
+   * Copies the cached rows to direct memory, releasing the heap copy.
+   *
+   * @param store           off-heap store, may be null
+   * @param dataServiceName the data service that produced the rows
+   * @return an equivalent CachedService backed by the store, or this instance if the rows stay on the heap
+   */
+  public CachedService moveOffHeap( OffHeapRowStore store, String dataServiceName ) {
+    if ( store == null || offHeapRows != null ) {
+      return this;
+    }
+    Optional<OffHeapRows> stored = store.store( dataServiceName, rowMetaAndData );
+    if ( !stored.isPresent() ) {
+      return this;
+    }
+    return new CachedService( ImmutableList.<RowMetaAndData>of(), ranking, rankingServiceRows, created, stored.get(),
+      store );
+  }
+
+  /**
+   * Materializes all cached rows on the heap. Prefer {@link #rows()} to stream rows kept off-heap.
+   */
   public List<RowMetaAndData> getRowMetaAndData() {
-    return rowMetaAndData;
+    return offHeapRows == null ? rowMetaAndData : ImmutableList.copyOf( rows() );
+  }
+
+  public Iterator<RowMetaAndData> rows() {
+    if ( offHeapRows == null ) {
+      return rowMetaAndData.iterator();
+    }
+    offHeapStore.touch( offHeapRows );
+    return offHeapRows.iterator();
+  }
+
+  public int getRowCount() {
+    return offHeapRows == null ? rowMetaAndData.size() : offHeapRows.getRowCount();
+  }
+
+  /**
+   * Estimates the heap held by the cached rows. Rows kept off-heap are accounted by their {@link OffHeapRowStore}.
+   *
+   * @return estimated size in bytes
+   */
+  long getEstimatedSize() {
+    return offHeapRows == null ? RowSizeEstimator.estimate( rowMetaAndData ) : 0;
+  }
+
+  /**
+   * @return true if the rows were evicted from the off-heap store and can no longer be replayed
+   */
+  public boolean isEvicted() {
+    return offHeapRows != null && offHeapRows.isEvicted();
+  }
+
+  /**
+   * Frees the direct memory of an entry that is no longer cached.
+   */
+  void release() {
+    if ( offHeapRows != null ) {
+      offHeapStore.remove( offHeapRows );
+    }
+  }
+
+  boolean isOffHeap() {
+    return offHeapRows != null;
+  }
+
+  /**
+   * Caches that copy values serialize the rows themselves, off-heap rows are not serializable.
+   */
+  private Object writeReplace() {
+    if ( offHeapRows == null ) {
+      return this;
+    }
+    return new CachedService( getRowMetaAndData(), ranking, rankingServiceRows, created, null, null );
   }
 
   public Optional<Integer> getRanking() {
     return ranking;
   }
 
+  Optional<Integer> getRankingServiceRows() {
+    return rankingServiceRows;
+  }
+
+  /**
+   * @return time the cached rows were produced, in milliseconds
+   */
+  long getCreated() {
+    return created;
+  }
+
   @Override public String toString() {
     return MoreObjects.toStringHelper( this )
-      .add( "rowMetaAndData.length", rowMetaAndData.size() )
+      .add( "rowMetaAndData.length", getRowCount() )
+      .add( "offHeap", isOffHeap() )
       .add( "ranking", ranking )
       .toString();
   }
@@ -157,13 +267,20 @@ class CachedService implements Serializable {
      * Optional
      */
     private final ImmutableList<String> orderByFields;
+    /**
+     * Optional, XML of the simplified where condition. Not part of the key identity
+     */
+    private final String conditionXml;
+    private transient Condition condition;
 
     private CacheKey( int transMetaVersionId, ImmutableMap<String, String> parameters, Optional<String> whereClause,
-                      ImmutableList<String> orderByFields ) {
+                      ImmutableList<String> orderByFields, Condition condition, String conditionXml ) {
       this.transMetaVersionId = transMetaVersionId;
       this.parameters = parameters;
       this.whereClause = whereClause;
       this.orderByFields = orderByFields;
+      this.condition = condition;
+      this.conditionXml = conditionXml;
     }
 
     public static CacheKey create( DataServiceExecutor executor ) {
@@ -180,16 +297,19 @@ class CachedService implements Serializable {
       }
 
       // Extract where condition
-      Optional<String> whereClause = Optional.fromNullable( sql.getWhereCondition() ).transform(
+      Condition condition = null;
+      String conditionXml = null;
+      if ( sql.getWhereCondition() != null ) {
         // Simplify  and rewrite condition, more likely to match future queries
-        new Function<SQLCondition, String>() {
-          @Override public String apply( SQLCondition input ) {
-            Condition clone = (Condition) input.getCondition().clone();
-            clone.simplify();
-            return clone.toString();
-          }
+        condition = (Condition) sql.getWhereCondition().getCondition().clone();
+        condition.simplify();
+        try {
+          conditionXml = condition.getXML();
+        } catch ( KettleException e ) {
+          // Condition can only be compared while this key is in memory
         }
-      );
+      }
+      Optional<String> whereClause = Optional.fromNullable( condition ).transform( Functions.toStringFunction() );
 
       // Extract ORDER BY fields from SQL
       ImmutableList<String> orderByFields = FluentIterable
@@ -213,7 +333,7 @@ class CachedService implements Serializable {
       // Copy execution parameters
       ImmutableMap<String, String> parameters = ImmutableMap.copyOf( executor.getParameters() );
 
-      return new CacheKey( version, parameters, whereClause, orderByFields );
+      return new CacheKey( version, parameters, whereClause, orderByFields, condition, conditionXml );
     }
 
     /**
@@ -237,12 +357,48 @@ class CachedService implements Serializable {
       );
     }
 
+    boolean hasCondition() {
+      return whereClause.isPresent();
+    }
+
+    int getTransMetaVersionId() {
+      return transMetaVersionId;
+    }
+
     public CacheKey withoutCondition() {
-      return new CacheKey( transMetaVersionId, parameters, Optional.<String>absent(), orderByFields );
+      return new CacheKey( transMetaVersionId, parameters, Optional.<String>absent(), orderByFields, null, null );
     }
 
     public CacheKey withoutOrder() {
-      return new CacheKey( transMetaVersionId, parameters, whereClause, ImmutableList.<String>of() );
+      return new CacheKey( transMetaVersionId, parameters, whereClause, ImmutableList.<String>of(), condition,
+        conditionXml );
+    }
+
+    /**
+     * Checks if a complete result set cached under this key holds every row needed by a query with another key.
+     * The cached where condition must be implied by the query condition, the query filter is applied on replay.
+     *
+     * @param query key of the query
+     * @return true if this key has a where condition implied by the condition of the query
+     */
+    public boolean subsumes( CacheKey query ) {
+      if ( transMetaVersionId != query.transMetaVersionId || !parameters.equals( query.parameters )
+        || !orderByFields.isEmpty() ) {
+        return false;
+      }
+      Optional<Condition> cached = getCondition(), queried = query.getCondition();
+      return cached.isPresent() && queried.isPresent() && ConditionSubsumption.implies( queried.get(), cached.get() );
+    }
+
+    private Optional<Condition> getCondition() {
+      if ( condition == null && conditionXml != null ) {
+        try {
+          condition = new Condition( XMLHandler.loadXMLString( conditionXml, Condition.XML_TAG ) );
+        } catch ( KettleException e ) {
+          return Optional.absent();
+        }
+      }
+      return Optional.fromNullable( condition );
     }
 
     @Override public boolean equals( Object o ) {
@@ -50,13 +50,30 @@ class CachedServiceLoader {
   }
 
   CachedServiceLoader( CachedService cachedService, Executor executor ) {
-    this( executor, () -> cachedService.getRowMetaAndData().iterator() );
+    this( executor, cachedService::rows );
   }
 
   ListenableFuture<Integer> replay( DataServiceExecutor dataServiceExecutor ) throws KettleException {
+    return replay( dataServiceExecutor, dataServiceExecutor.addRowProducer(), null );
+  }
+
+  /**
+   * Replays rows into a step of the generated transformation, past its injector. The injector receives no rows.
+   *
+   * @param dataServiceExecutor query to replay
+   * @param stepName            generated transformation step receiving the rows
+   */
+  ListenableFuture<Integer> replay( DataServiceExecutor dataServiceExecutor, String stepName )
+    throws KettleException {
+    RowProducer inputProducer = dataServiceExecutor.addRowProducer();
+    return replay( dataServiceExecutor, dataServiceExecutor.getGenTrans().addRowProducer( stepName, 0 ),
+      inputProducer );
+  }
+
+  private ListenableFuture<Integer> replay( DataServiceExecutor dataServiceExecutor, final RowProducer rowProducer,
+                                            final RowProducer inputProducer ) {
     final Trans serviceTrans = dataServiceExecutor.getServiceTrans(), genTrans = dataServiceExecutor.getGenTrans();
     final CountDownLatch startReplay = new CountDownLatch( 1 );
-    final RowProducer rowProducer = dataServiceExecutor.addRowProducer();
 
     List<Runnable> startTrans = dataServiceExecutor.getListenerMap().get( DataServiceExecutor.ExecutionPoint.START ),
       postOptimization = dataServiceExecutor.getListenerMap().get( DataServiceExecutor.ExecutionPoint.READY );
@@ -90,19 +107,29 @@ class CachedServiceLoader {
     ListenableFutureTask<Integer> replay = ListenableFutureTask.create( new Callable<Integer>() {
       @Override public Integer call() throws Exception {
         Preconditions.checkState( startReplay.await( 30, TimeUnit.SECONDS ), "Cache replay did not start" );
+        if ( inputProducer != null ) {
+          inputProducer.finished();
+        }
         int rowCount = 0;
-        for ( Iterator<RowMetaAndData> iterator = rowSupplier.get();
-              iterator.hasNext() && genTrans.isRunning(); ) {
-          RowMetaAndData metaAndData = iterator.next();
-          boolean rowAdded = false;
-          RowMetaInterface rowMeta = metaAndData.getRowMeta();
-          Object[] rowData = rowMeta.cloneRow( metaAndData.getData() );
-          while ( !rowAdded && genTrans.isRunning() ) {
-            rowAdded = rowProducer.putRowWait( rowMeta, rowData, 10, TimeUnit.SECONDS );
-          }
-          if ( rowAdded ) {
-            rowCount += 1;
+        try {
+          for ( Iterator<RowMetaAndData> iterator = rowSupplier.get();
+                iterator.hasNext() && genTrans.isRunning(); ) {
+            RowMetaAndData metaAndData = iterator.next();
+            boolean rowAdded = false;
+            RowMetaInterface rowMeta = metaAndData.getRowMeta();
+            Object[] rowData = rowMeta.cloneRow( metaAndData.getData() );
+            while ( !rowAdded && genTrans.isRunning() ) {
+              rowAdded = rowProducer.putRowWait( rowMeta, rowData, 10, TimeUnit.SECONDS );
+            }
+            if ( rowAdded ) {
+              rowCount += 1;
+            }
           }
+        } catch ( RuntimeException e ) {
+          // Rows are missing, fail the query rather than end it with a truncated result
+          rowProducer.getStepInterface().setErrors( 1 );
+          genTrans.stopAll();
+          throw e;
         }
         rowProducer.finished();
         return rowCount;
@@ -0,0 +1,167 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaAndData;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Decides whether a query condition implies a cached condition, in which case every row the query can return is
+ * part of the cached result set.
+ * <p>
+ * The test is conservative: conditions it can't reason about are only implied by an identical condition.
+ */
+final class ConditionSubsumption {
+
+  private ConditionSubsumption() {
+  }
+
+  /**
+   * @param query  simplified condition of the query
+   * @param cached simplified condition of the cached result
+   * @return true if every row matching {@code query} also matches {@code cached}
+   */
+  static boolean implies( Condition query, Condition cached ) {
+    if ( cached.isEmpty() || query.toString().equals( cached.toString() ) ) {
+      return true;
+    }
+    // Split the cached condition first, each of its terms may be implied by a different query term
+    if ( isJunction( cached, Condition.OPERATOR_AND ) ) {
+      for ( Condition child : cached.getChildren() ) {
+        if ( !implies( query, child ) ) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if ( isJunction( query, Condition.OPERATOR_OR ) ) {
+      for ( Condition child : query.getChildren() ) {
+        if ( !implies( child, cached ) ) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if ( isJunction( query, Condition.OPERATOR_AND ) ) {
+      for ( Condition child : query.getChildren() ) {
+        if ( implies( child, cached ) ) {
+          return true;
+        }
+      }
+    }
+    if ( isJunction( cached, Condition.OPERATOR_OR ) ) {
+      for ( Condition child : cached.getChildren() ) {
+        if ( implies( query, child ) ) {
+          return true;
+        }
+      }
+    }
+    return isComparison( query ) && isComparison( cached )
+      && query.getLeftValuename().equals( cached.getLeftValuename() )
+      && impliesComparison( query, cached );
+  }
+
+  private static boolean isJunction( Condition condition, int operator ) {
+    if ( condition.isNegated() || !condition.isComposite() ) {
+      return false;
+    }
+    List<Condition> children = condition.getChildren();
+    for ( int i = 1; i < children.size(); i++ ) {
+      if ( children.get( i ).getOperator() != operator ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isComparison( Condition condition ) {
+    return condition.isAtomic() && !condition.isNegated() && condition.getLeftValuename() != null
+      && Strings.isNullOrEmpty( condition.getRightValuename() )
+      && ( condition.getFunction() == Condition.FUNC_NOT_NULL || condition.getRightExact() != null );
+  }
+
+  private static boolean impliesComparison( Condition query, Condition cached ) {
+    int function = query.getFunction();
+    switch ( cached.getFunction() ) {
+      case Condition.FUNC_NOT_NULL:
+        // Null sorts before every value, so it fails these tests
+        return function == Condition.FUNC_EQUAL || function == Condition.FUNC_LARGER
+          || function == Condition.FUNC_LARGER_EQUAL || function == Condition.FUNC_IN_LIST;
+      case Condition.FUNC_EQUAL:
+        return function == Condition.FUNC_EQUAL && compare( query, cached, c -> c == 0 );
+      case Condition.FUNC_NOT_EQUAL:
+        return function == Condition.FUNC_EQUAL && compare( query, cached, c -> c != 0 );
+      case Condition.FUNC_LARGER_EQUAL:
+        return isLowerBound( function ) && compare( query, cached, c -> c >= 0 );
+      case Condition.FUNC_LARGER:
+        return isLowerBound( function )
+          && compare( query, cached, function == Condition.FUNC_LARGER ? c -> c >= 0 : c -> c > 0 );
+      case Condition.FUNC_SMALLER_EQUAL:
+        return isUpperBound( function ) && compare( query, cached, c -> c <= 0 );
+      case Condition.FUNC_SMALLER:
+        return isUpperBound( function )
+          && compare( query, cached, function == Condition.FUNC_SMALLER ? c -> c <= 0 : c -> c < 0 );
+      case Condition.FUNC_IN_LIST:
+        Set<String> list = inList( cached );
+        if ( function == Condition.FUNC_EQUAL ) {
+          return list.contains( query.getRightExactString() );
+        }
+        return function == Condition.FUNC_IN_LIST && list.containsAll( inList( query ) );
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isLowerBound( int function ) {
+    return function == Condition.FUNC_EQUAL || function == Condition.FUNC_LARGER
+      || function == Condition.FUNC_LARGER_EQUAL;
+  }
+
+  private static boolean isUpperBound( int function ) {
+    return function == Condition.FUNC_EQUAL || function == Condition.FUNC_SMALLER
+      || function == Condition.FUNC_SMALLER_EQUAL;
+  }
+
+  /**
+   * Compares the constant of the query against the cached one. Values that can't be compared never satisfy an
+   * implication.
+   */
+  private static boolean compare( Condition query, Condition cached, IntPredicate test ) {
+    ValueMetaAndData left = query.getRightExact();
+    ValueMetaAndData right = cached.getRightExact();
+    if ( left.getValueData() == null || right.getValueData() == null ) {
+      return false;
+    }
+    try {
+      int comparison = left.getValueMeta().compare( left.getValueData(), right.getValueMeta(), right.getValueData() );
+      return test.test( comparison );
+    } catch ( KettleValueException e ) {
+      return false;
+    }
+  }
+
+  private static Set<String> inList( Condition condition ) {
+    String value = condition.getRightExactString();
+    return value == null ? Collections.<String>emptySet() : Sets.newHashSet( Const.splitString( value, ';', true ) );
+  }
+}
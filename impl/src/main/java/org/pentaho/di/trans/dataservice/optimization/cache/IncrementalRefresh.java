@@ -0,0 +1,164 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Refreshes a complete cached result of an append-only service by appending the rows past its watermark.
+ * <p>
+ * The watermark is the greatest value of a monotonic field among the cached rows. The query for newer rows filters on
+ * that field, so optimizations like Parameter Generation push the filter down to the service source. The new rows are
+ * still filtered by the watermark before being appended, the result stays correct when nothing is pushed down.
+ */
+class IncrementalRefresh {
+  private static final String DATE_FORMAT = "yyyy/MM/dd HH:mm:ss.SSS";
+
+  private final CachedService.CacheKey key;
+  private final CachedService base;
+  private final RowMetaInterface rowMeta;
+  private final String watermarkField;
+  private final ValueMetaInterface watermarkMeta;
+  private final Object watermark;
+
+  private IncrementalRefresh( CachedService.CacheKey key, CachedService base, RowMetaInterface rowMeta,
+                              String watermarkField, ValueMetaInterface watermarkMeta, Object watermark ) {
+    this.key = key;
+    this.base = base;
+    this.rowMeta = rowMeta;
+    this.watermarkField = watermarkField;
+    this.watermarkMeta = watermarkMeta;
+    this.watermark = watermark;
+  }
+
+  /**
+   * Finds the watermark of a cached result.
+   *
+   * @param key            key of the cached result, without where clause
+   * @param base           complete cached result
+   * @param watermarkField monotonic field of the service rows
+   * @return the refresh, absent if the result has no watermark of a type that can be queried
+   * @throws KettleValueException if a watermark value can't be compared
+   */
+  static Optional<IncrementalRefresh> create( CachedService.CacheKey key, CachedService base, String watermarkField )
+    throws KettleValueException {
+    if ( !base.isComplete() || key.hasCondition() ) {
+      return Optional.absent();
+    }
+    RowMetaInterface rowMeta = null;
+    ValueMetaInterface watermarkMeta = null;
+    Object watermark = null;
+    int index = -1;
+    for ( Iterator<RowMetaAndData> rows = base.rows(); rows.hasNext(); ) {
+      RowMetaAndData row = rows.next();
+      if ( rowMeta == null ) {
+        rowMeta = row.getRowMeta();
+        index = rowMeta.indexOfValue( watermarkField );
+        if ( index < 0 || !isQueryable( rowMeta.getValueMeta( index ) ) ) {
+          return Optional.absent();
+        }
+        watermarkMeta = rowMeta.getValueMeta( index );
+      }
+      Object value = row.getData()[ index ];
+      if ( value != null && ( watermark == null || watermarkMeta.compare( value, watermark ) > 0 ) ) {
+        watermark = value;
+      }
+    }
+    if ( watermark == null ) {
+      return Optional.absent();
+    }
+    return Optional.of( new IncrementalRefresh( key, base, rowMeta, watermarkField, watermarkMeta, watermark ) );
+  }
+
+  private static boolean isQueryable( ValueMetaInterface valueMeta ) {
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+      case ValueMetaInterface.TYPE_NUMBER:
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+      case ValueMetaInterface.TYPE_DATE:
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+      case ValueMetaInterface.TYPE_STRING:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  CachedService.CacheKey getKey() {
+    return key;
+  }
+
+  /**
+   * @param dataServiceName data service name
+   * @return query for the rows past the watermark
+   * @throws KettleValueException if the watermark can't be converted
+   */
+  String getSql( String dataServiceName ) throws KettleValueException {
+    return "SELECT * FROM \"" + dataServiceName + "\" WHERE \"" + watermarkField + "\" > " + literal();
+  }
+
+  private String literal() throws KettleValueException {
+    switch ( watermarkMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return Long.toString( watermarkMeta.getInteger( watermark ) );
+      case ValueMetaInterface.TYPE_NUMBER:
+        return Double.toString( watermarkMeta.getNumber( watermark ) );
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        return watermarkMeta.getBigNumber( watermark ).toPlainString();
+      case ValueMetaInterface.TYPE_DATE:
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+        // Sub-millisecond precision is dropped, rows at the watermark are filtered out when appended
+        return "[" + new SimpleDateFormat( DATE_FORMAT ).format( watermarkMeta.getDate( watermark ) ) + "]";
+      default:
+        return "'" + watermarkMeta.getString( watermark ).replace( "'", "''" ) + "'";
+    }
+  }
+
+  /**
+   * Appends the rows of the refresh query past the watermark to the cached result.
+   *
+   * @param delta complete result of the refresh query
+   * @return the appended result, absent if the service rows no longer have the cached layout
+   * @throws KettleValueException if a watermark value can't be compared
+   */
+  Optional<CachedService> append( CachedService delta, long created ) throws KettleValueException {
+    ImmutableList.Builder<RowMetaAndData> rows = ImmutableList.builder();
+    rows.addAll( base.rows() );
+    int index = rowMeta.indexOfValue( watermarkField );
+    for ( Iterator<RowMetaAndData> deltaRows = delta.rows(); deltaRows.hasNext(); ) {
+      RowMetaAndData row = deltaRows.next();
+      if ( !Arrays.equals( row.getRowMeta().getFieldNames(), rowMeta.getFieldNames() ) ) {
+        return Optional.absent();
+      }
+      Object value = row.getData()[ index ];
+      if ( value != null && watermarkMeta.compare( value, watermark ) > 0 ) {
+        // Share the cached row metadata, so that the appended result can be kept off-heap
+        rows.add( new RowMetaAndData( rowMeta, row.getData() ) );
+      }
+    }
+    List<RowMetaAndData> appended = rows.build();
+    return Optional.of( CachedService.create( appended, Optional.<Integer>absent(), Optional.<Integer>absent(),
+      created ) );
+  }
+}
@@ -0,0 +1,162 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Optional;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Keeps cached service rows in direct memory, outside of the garbage collected heap.
+ * <p>
+ * The store is bounded by a byte budget. Once full, the least recently used entries are evicted to make room. The
+ * direct buffers of an evicted entry are dropped right away, its {@link CachedService} reports itself as unavailable
+ * and is removed from its cache the next time it is looked up.
+ */
+public class OffHeapRowStore {
+  static final int SEGMENT_SIZE = 1024 * 1024;
+
+  private final long capacity;
+  private final int segmentSize;
+  private final LinkedHashMap<OffHeapRows, Long> entries = new LinkedHashMap<>( 16, 0.75f, true );
+  private long used = 0;
+
+  public OffHeapRowStore( long capacity ) {
+    this( capacity, SEGMENT_SIZE );
+  }
+
+  OffHeapRowStore( long capacity, int segmentSize ) {
+    this.capacity = capacity;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Creates a store sized by the {@value DataServiceConstants#CACHE_OFFHEAP_SIZE_PROPERTY} kettle property.
+   */
+  public static OffHeapRowStore create() {
+    long capacity = DataServiceConstants.CACHE_OFFHEAP_SIZE_DEFAULT;
+    try {
+      String property = KettleUtils.getInstance().getKettleProperty( DataServiceConstants.CACHE_OFFHEAP_SIZE_PROPERTY );
+      capacity = Const.toLong( property, capacity );
+    } catch ( KettleException e ) {
+      // Keep cached rows on the heap
+    }
+    return new OffHeapRowStore( capacity );
+  }
+
+  public boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public synchronized long getUsedBytes() {
+    return used;
+  }
+
+  /**
+   * Copies rows into direct memory. Rows are kept on the heap when the store is disabled, when the rows don't share a
+   * single row metadata or when they would not fit in the budget.
+   *
+   * @param dataServiceName the data service that produced the rows
+   * @param rows            rows to copy
+   * @return the off-heap rows, if they were stored
+   */
+  Optional<OffHeapRows> store( String dataServiceName, List<RowMetaAndData> rows ) {
+    if ( !isEnabled() || rows.isEmpty() || !sharesRowMeta( rows ) ) {
+      return Optional.absent();
+    }
+    OffHeapRows offHeapRows;
+    try {
+      offHeapRows = OffHeapRows.encode( dataServiceName, rows, segmentSize );
+    } catch ( Exception e ) {
+      return Optional.absent();
+    }
+    if ( offHeapRows.getSize() > capacity ) {
+      return Optional.absent();
+    }
+    synchronized ( this ) {
+      Iterator<OffHeapRows> lru = entries.keySet().iterator();
+      while ( used + offHeapRows.getSize() > capacity && lru.hasNext() ) {
+        OffHeapRows eldest = lru.next();
+        lru.remove();
+        evict( eldest );
+      }
+      entries.put( offHeapRows, offHeapRows.getSize() );
+      used += offHeapRows.getSize();
+    }
+    return Optional.of( offHeapRows );
+  }
+
+  /**
+   * Marks an entry as recently used.
+   *
+   * @return false if the entry has already been evicted
+   */
+  synchronized boolean touch( OffHeapRows rows ) {
+    return entries.get( rows ) != null;
+  }
+
+  synchronized void remove( OffHeapRows rows ) {
+    if ( entries.remove( rows ) != null ) {
+      evict( rows );
+    }
+  }
+
+  /**
+   * Evicts all entries of a data service.
+   */
+  public synchronized void invalidate( String dataServiceName ) {
+    Iterator<OffHeapRows> iterator = entries.keySet().iterator();
+    while ( iterator.hasNext() ) {
+      OffHeapRows rows = iterator.next();
+      if ( rows.getDataServiceName().equals( dataServiceName ) ) {
+        iterator.remove();
+        evict( rows );
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    for ( OffHeapRows rows : entries.keySet() ) {
+      rows.evict();
+    }
+    entries.clear();
+    used = 0;
+  }
+
+  private void evict( OffHeapRows rows ) {
+    rows.evict();
+    used -= rows.getSize();
+  }
+
+  private static boolean sharesRowMeta( List<RowMetaAndData> rows ) {
+    Object rowMeta = rows.get( 0 ).getRowMeta();
+    for ( RowMetaAndData row : rows ) {
+      if ( row.getRowMeta() != rowMeta ) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
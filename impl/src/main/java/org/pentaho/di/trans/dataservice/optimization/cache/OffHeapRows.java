@@ -0,0 +1,203 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.collect.ImmutableList;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Rows of a cached service result, encoded with {@link RowMetaInterface#writeData} into direct buffers.
+ * <p>
+ * The row metadata is kept once for all rows. Buffers are never modified once written, so any number of readers can
+ * iterate concurrently. Eviction from the {@link OffHeapRowStore} drops the buffers, so that their memory is freed as
+ * soon as the readers already iterating are done with them.
+ */
+class OffHeapRows {
+  private final String dataServiceName;
+  private final RowMetaInterface rowMeta;
+  private volatile ImmutableList<ByteBuffer> segments;
+  private final int rowCount;
+  private final long size;
+
+  private OffHeapRows( String dataServiceName, RowMetaInterface rowMeta, List<ByteBuffer> segments, int rowCount ) {
+    this.dataServiceName = dataServiceName;
+    this.rowMeta = rowMeta;
+    this.segments = ImmutableList.copyOf( segments );
+    this.rowCount = rowCount;
+    this.size = segments.stream().mapToLong( ByteBuffer::capacity ).sum();
+  }
+
+  /**
+   * Encodes rows that all share the same row metadata instance.
+   *
+   * @param dataServiceName the data service that produced the rows
+   * @param rows            rows to encode, must not be empty
+   * @param segmentSize     size of each direct buffer
+   * @return the encoded rows
+   * @throws Exception if a row can't be encoded
+   */
+  static OffHeapRows encode( String dataServiceName, List<RowMetaAndData> rows, int segmentSize ) throws Exception {
+    RowMetaInterface rowMeta = rows.get( 0 ).getRowMeta();
+    SegmentOutputStream out = new SegmentOutputStream( segmentSize );
+    try ( DataOutputStream data = new DataOutputStream( out ) ) {
+      for ( RowMetaAndData row : rows ) {
+        rowMeta.writeData( data, row.getData() );
+      }
+    }
+    return new OffHeapRows( dataServiceName, rowMeta.clone(), out.segments, rows.size() );
+  }
+
+  String getDataServiceName() {
+    return dataServiceName;
+  }
+
+  int getRowCount() {
+    return rowCount;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  boolean isEvicted() {
+    return segments == null;
+  }
+
+  void evict() {
+    segments = null;
+  }
+
+  /**
+   * Decodes rows straight from the direct buffers, without copying them to the heap first. The iterator keeps the
+   * buffers reachable until it is done, even if the rows are evicted meanwhile.
+   *
+   * @throws IllegalStateException if the rows were already evicted
+   */
+  Iterator<RowMetaAndData> iterator() {
+    List<ByteBuffer> buffers = segments;
+    if ( buffers == null ) {
+      throw new IllegalStateException( "Cached rows of " + dataServiceName + " were evicted" );
+    }
+    final DataInputStream in = new DataInputStream( new SegmentInputStream( buffers ) );
+    return new Iterator<RowMetaAndData>() {
+      int index = 0;
+
+      @Override public boolean hasNext() {
+        return index < rowCount;
+      }
+
+      @Override public RowMetaAndData next() {
+        if ( !hasNext() ) {
+          throw new NoSuchElementException();
+        }
+        try {
+          Object[] row = rowMeta.readData( in );
+          index++;
+          return new RowMetaAndData( rowMeta, row );
+        } catch ( Exception e ) {
+          throw new IllegalStateException( "Unable to read cached row " + index, e );
+        }
+      }
+    };
+  }
+
+  private static class SegmentOutputStream extends OutputStream {
+    private final int segmentSize;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private ByteBuffer current;
+
+    private SegmentOutputStream( int segmentSize ) {
+      this.segmentSize = segmentSize;
+    }
+
+    @Override public void write( int b ) {
+      nextSegment().put( (byte) b );
+    }
+
+    @Override public void write( byte[] b, int off, int len ) {
+      while ( len > 0 ) {
+        ByteBuffer segment = nextSegment();
+        int chunk = Math.min( len, segment.remaining() );
+        segment.put( b, off, chunk );
+        off += chunk;
+        len -= chunk;
+      }
+    }
+
+    private ByteBuffer nextSegment() {
+      if ( current == null || !current.hasRemaining() ) {
+        current = ByteBuffer.allocateDirect( segmentSize );
+        segments.add( current );
+      }
+      return current;
+    }
+
+    @Override public void close() {
+      for ( int i = 0; i < segments.size(); i++ ) {
+        ByteBuffer segment = segments.get( i );
+        segment.flip();
+        if ( segment.limit() < segment.capacity() ) {
+          // Trim the last segment, so that a few rows don't hold and get charged a whole segment
+          ByteBuffer trimmed = ByteBuffer.allocateDirect( segment.limit() );
+          trimmed.put( segment ).flip();
+          segment = trimmed;
+        }
+        segments.set( i, segment.asReadOnlyBuffer() );
+      }
+    }
+  }
+
+  private static class SegmentInputStream extends InputStream {
+    private final Iterator<ByteBuffer> segments;
+    private ByteBuffer current;
+
+    private SegmentInputStream( List<ByteBuffer> segments ) {
+      this.segments = segments.stream().map( ByteBuffer::duplicate ).iterator();
+    }
+
+    @Override public int read() {
+      ByteBuffer segment = currentSegment();
+      return segment == null ? -1 : segment.get() & 0xff;
+    }
+
+    @Override public int read( byte[] b, int off, int len ) throws IOException {
+      ByteBuffer segment = currentSegment();
+      if ( segment == null ) {
+        return -1;
+      }
+      int chunk = Math.min( len, segment.remaining() );
+      segment.get( b, off, chunk );
+      return chunk;
+    }
+
+    private ByteBuffer currentSegment() {
+      while ( ( current == null || !current.hasRemaining() ) && segments.hasNext() ) {
+        current = segments.next();
+      }
+      return current != null && current.hasRemaining() ? current : null;
+    }
+  }
+}
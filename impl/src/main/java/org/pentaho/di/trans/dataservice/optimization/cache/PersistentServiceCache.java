@@ -0,0 +1,510 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Local disk tier of the service cache, keeping results across restarts.
+ * <p>
+ * Each data service has its own directory of append-only segment files holding the cached rows, and an append-only
+ * index mapping each {@link CachedService.CacheKey} to its latest entry. A later record for the same key replaces the
+ * earlier one, and a truncated last record left by a crash is ignored. The index of a data service is only read the
+ * first time that service is looked up.
+ * <p>
+ * Since the key includes the service transformation version, entries written for an older version of the service are
+ * never matched. Entries also keep the time to live they were written with, and are ignored once expired or when the
+ * cache has since been configured with a different time to live.
+ * <p>
+ * Whenever the last segment is full, such entries are dropped from the index. Once they and the replaced entries take
+ * at least half of the segment bytes, the remaining entries are copied to new segments with a new index, and the old
+ * segments are deleted. An index that can't be read is discarded along with the segments it points to.
+ */
+public class PersistentServiceCache {
+  static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+  private static final String INDEX_FILE = "index";
+  private static final String COMPACTED_SUFFIX = ".compacted";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File directory;
+  private final long segmentSize;
+  private final Map<String, ServiceEntries> services = new ConcurrentHashMap<>();
+
+  public PersistentServiceCache( File directory ) {
+    this( directory, SEGMENT_SIZE );
+  }
+
+  PersistentServiceCache( File directory, long segmentSize ) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Creates a cache in the directory set by the {@value DataServiceConstants#CACHE_DISK_DIRECTORY_PROPERTY} kettle
+   * property, or a disabled cache if it is not set.
+   */
+  public static PersistentServiceCache create() {
+    String path = null;
+    try {
+      path = KettleUtils.getInstance().getKettleProperty( DataServiceConstants.CACHE_DISK_DIRECTORY_PROPERTY );
+    } catch ( KettleException e ) {
+      // Keep results in memory only
+    }
+    return new PersistentServiceCache( Strings.isNullOrEmpty( path ) ? null : new File( path ) );
+  }
+
+  public boolean isEnabled() {
+    return directory != null;
+  }
+
+  /**
+   * Appends a result to the data service segments.
+   *
+   * @param dataServiceName data service name
+   * @param key             cache key
+   * @param cachedService   result to persist
+   * @param timeToLive      time to live in seconds, 0 or less if entries never expire
+   * @throws IOException if the result can't be written
+   */
+  public void store( String dataServiceName, CachedService.CacheKey key, CachedService cachedService, long timeToLive )
+    throws IOException {
+    if ( isEnabled() ) {
+      entries( dataServiceName ).store( key, cachedService, timeToLive );
+    }
+  }
+
+  /**
+   * Reads a result back from disk.
+   *
+   * @param dataServiceName data service name
+   * @param key             cache key
+   * @param timeToLive      currently configured time to live in seconds
+   * @return the result, or null if there is no valid entry for this key
+   */
+  public CachedService load( String dataServiceName, CachedService.CacheKey key, long timeToLive ) {
+    if ( !isEnabled() ) {
+      return null;
+    }
+    try {
+      return entries( dataServiceName ).load( key, timeToLive );
+    } catch ( IOException | KettleException e ) {
+      return null;
+    }
+  }
+
+  /**
+   * @return keys of the entries persisted for a data service, valid or not
+   */
+  public Set<CachedService.CacheKey> keys( String dataServiceName ) {
+    if ( !isEnabled() ) {
+      return Collections.emptySet();
+    }
+    try {
+      return entries( dataServiceName ).keys();
+    } catch ( IOException e ) {
+      return Collections.emptySet();
+    }
+  }
+
+  /**
+   * Deletes all persisted results of a data service.
+   */
+  public void invalidate( String dataServiceName ) {
+    if ( isEnabled() ) {
+      entries( dataServiceName ).delete();
+    }
+  }
+
+  private ServiceEntries entries( String dataServiceName ) {
+    return services.computeIfAbsent( dataServiceName, name -> new ServiceEntries( serviceDirectory( name ) ) );
+  }
+
+  private File serviceDirectory( String dataServiceName ) {
+    try {
+      return new File( directory, URLEncoder.encode( dataServiceName, "UTF-8" ) );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static final class IndexEntry {
+    final int segment;
+    final long offset;
+    final long length;
+    final long timeToLive;
+    final long created;
+    final Optional<Integer> ranking;
+    final Optional<Integer> rankingServiceRows;
+
+    IndexEntry( int segment, long offset, long length, long timeToLive, long created, Optional<Integer> ranking,
+                Optional<Integer> rankingServiceRows ) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.timeToLive = timeToLive;
+      this.created = created;
+      this.ranking = ranking;
+      this.rankingServiceRows = rankingServiceRows;
+    }
+
+    boolean isValid( long currentTimeToLive, long now ) {
+      return timeToLive == currentTimeToLive && ( timeToLive <= 0 || now - created < timeToLive * 1000 );
+    }
+
+    IndexEntry moveTo( int segment, long offset ) {
+      return new IndexEntry( segment, offset, length, timeToLive, created, ranking, rankingServiceRows );
+    }
+  }
+
+  private class ServiceEntries {
+    private final File serviceDirectory;
+    // Loads share the index and segments, stores and compactions change them
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Map<CachedService.CacheKey, IndexEntry> index;
+    private int segment;
+
+    ServiceEntries( File serviceDirectory ) {
+      this.serviceDirectory = serviceDirectory;
+    }
+
+    void store( CachedService.CacheKey key, CachedService cachedService, long timeToLive ) throws IOException {
+      lock.writeLock().lock();
+      try {
+        Map<CachedService.CacheKey, IndexEntry> index = index();
+        if ( !serviceDirectory.isDirectory() && !serviceDirectory.mkdirs() ) {
+          throw new IOException( "Unable to create cache directory " + serviceDirectory );
+        }
+        File segmentFile = segmentFile( segment );
+        if ( segmentFile.length() >= segmentSize ) {
+          index = compact( key.getTransMetaVersionId(), timeToLive );
+          segmentFile = segmentFile( segment );
+          if ( segmentFile.length() >= segmentSize ) {
+            segmentFile = segmentFile( ++segment );
+          }
+        }
+        long offset = segmentFile.length();
+
+        try ( DataOutputStream out = append( segmentFile ) ) {
+          writeRows( out, cachedService );
+        } catch ( KettleException e ) {
+          throw new IOException( e );
+        }
+
+        IndexEntry entry = new IndexEntry( segment, offset, segmentFile.length() - offset, timeToLive,
+          cachedService.getCreated(), cachedService.getRanking(), cachedService.getRankingServiceRows() );
+        try ( DataOutputStream out = append( indexFile() ) ) {
+          writeIndexEntry( out, key, entry );
+        }
+        index.put( key, entry );
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    CachedService load( CachedService.CacheKey key, long timeToLive ) throws IOException, KettleException {
+      index();
+      lock.readLock().lock();
+      try {
+        IndexEntry entry = index.get( key );
+        if ( entry == null || !entry.isValid( timeToLive, System.currentTimeMillis() ) ) {
+          return null;
+        }
+        File segmentFile = segmentFile( entry.segment );
+        try ( FileChannel channel = FileChannel.open( segmentFile.toPath(), StandardOpenOption.READ ) ) {
+          channel.position( entry.offset );
+          DataInputStream in =
+            new DataInputStream( new BufferedInputStream( Channels.newInputStream( channel ), BUFFER_SIZE ) );
+          int rowCount = in.readInt();
+          RowMetaInterface rowMeta = new RowMeta( in );
+          ImmutableList.Builder<RowMetaAndData> rows = ImmutableList.builder();
+          for ( int i = 0; i < rowCount; i++ ) {
+            rows.add( new RowMetaAndData( rowMeta, rowMeta.readData( in ) ) );
+          }
+          return CachedService.create( rows.build(), entry.ranking, entry.rankingServiceRows, entry.created );
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    Set<CachedService.CacheKey> keys() throws IOException {
+      return ImmutableSet.copyOf( index().keySet() );
+    }
+
+    void delete() {
+      lock.writeLock().lock();
+      try {
+        deleteFiles();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    private void deleteFiles() {
+      File[] files = serviceDirectory.listFiles();
+      if ( files != null ) {
+        for ( File file : files ) {
+          file.delete();
+        }
+      }
+      index = new ConcurrentHashMap<>();
+      segment = 0;
+    }
+
+    /**
+     * Drops the entries that can no longer be loaded, and copies the remaining ones to new segments once at least half
+     * of the segment bytes are dead. Called with the write lock held, when the last segment is full.
+     *
+     * @param version    service transformation version of the entry being stored
+     * @param timeToLive currently configured time to live in seconds
+     * @return the index after compaction
+     */
+    private Map<CachedService.CacheKey, IndexEntry> compact( int version, long timeToLive ) throws IOException {
+      long now = System.currentTimeMillis();
+      index.entrySet().removeIf( entry -> entry.getKey().getTransMetaVersionId() != version
+        || !entry.getValue().isValid( timeToLive, now ) );
+
+      long live = 0;
+      for ( IndexEntry entry : index.values() ) {
+        live += entry.length;
+      }
+      List<File> segments = segmentFiles();
+      long total = 0;
+      for ( File file : segments ) {
+        total += file.length();
+      }
+      if ( total - live < live ) {
+        return index;
+      }
+
+      int first = segment + 1;
+      int target = first;
+      Map<CachedService.CacheKey, IndexEntry> compacted = new ConcurrentHashMap<>();
+      File compactedIndex = new File( serviceDirectory, INDEX_FILE + COMPACTED_SUFFIX );
+      try ( DataOutputStream indexOut = new DataOutputStream(
+        new BufferedOutputStream( new FileOutputStream( compactedIndex ), BUFFER_SIZE ) ) ) {
+        for ( Map.Entry<CachedService.CacheKey, IndexEntry> entry : index.entrySet() ) {
+          if ( segmentFile( target ).length() >= segmentSize ) {
+            target++;
+          }
+          IndexEntry moved = copy( entry.getValue(), target );
+          writeIndexEntry( indexOut, entry.getKey(), moved );
+          compacted.put( entry.getKey(), moved );
+        }
+      }
+      Files.move( compactedIndex.toPath(), indexFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE );
+
+      for ( File file : segments ) {
+        file.delete();
+      }
+      index = compacted;
+      segment = target;
+      return compacted;
+    }
+
+    private IndexEntry copy( IndexEntry entry, int target ) throws IOException {
+      try ( FileChannel in = FileChannel.open( segmentFile( entry.segment ).toPath(), StandardOpenOption.READ );
+            FileChannel out = FileChannel.open( segmentFile( target ).toPath(), StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE, StandardOpenOption.APPEND ) ) {
+        long offset = out.size();
+        for ( long copied = 0; copied < entry.length; ) {
+          long transferred = in.transferTo( entry.offset + copied, entry.length - copied, out );
+          if ( transferred <= 0 ) {
+            throw new EOFException( "Cache segment " + entry.segment + " is shorter than its index" );
+          }
+          copied += transferred;
+        }
+        return entry.moveTo( target, offset );
+      }
+    }
+
+    private Map<CachedService.CacheKey, IndexEntry> index() throws IOException {
+      Map<CachedService.CacheKey, IndexEntry> current = index;
+      if ( current == null ) {
+        lock.writeLock().lock();
+        try {
+          if ( index == null ) {
+            index = readIndex();
+          }
+          current = index;
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+      return current;
+    }
+
+    private Map<CachedService.CacheKey, IndexEntry> readIndex() throws IOException {
+      Map<CachedService.CacheKey, IndexEntry> entries = new ConcurrentHashMap<>();
+      File indexFile = indexFile();
+      if ( !indexFile.isFile() ) {
+        return entries;
+      }
+      byte[] bytes = Files.readAllBytes( indexFile.toPath() );
+      DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+      int valid = 0;
+      try {
+        while ( in.available() > 0 ) {
+          int keyLength = in.readInt();
+          if ( keyLength < 0 ) {
+            throw new StreamCorruptedException( "Invalid key length " + keyLength );
+          }
+          byte[] key = new byte[ Math.min( keyLength, in.available() ) ];
+          in.readFully( key );
+          if ( key.length < keyLength ) {
+            throw new EOFException();
+          }
+          IndexEntry entry = new IndexEntry( in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+            readOptional( in ), readOptional( in ) );
+          entries.put( readKey( key ), entry );
+          segment = Math.max( segment, entry.segment );
+          valid = bytes.length - in.available();
+        }
+      } catch ( EOFException e ) {
+        // Drop the record truncated by a crash, so new records are appended after the last complete one
+        try ( FileChannel channel = FileChannel.open( indexFile.toPath(), StandardOpenOption.WRITE ) ) {
+          channel.truncate( valid );
+        }
+      } catch ( IOException | RuntimeException e ) {
+        // Corrupt or written by incompatible classes. Segments can't be read without it, start over
+        deleteFiles();
+        return index;
+      }
+      return entries;
+    }
+
+    private File indexFile() {
+      return new File( serviceDirectory, INDEX_FILE );
+    }
+
+    /**
+     * @return the segment files in use, after deleting the ones left past the last segment by an interrupted compaction
+     */
+    private List<File> segmentFiles() {
+      List<File> segments = new ArrayList<>();
+      File[] files = serviceDirectory.listFiles( ( dir, name ) -> name.startsWith( SEGMENT_PREFIX ) );
+      for ( File file : files == null ? new File[ 0 ] : files ) {
+        Integer number = Ints.tryParse( file.getName().substring( SEGMENT_PREFIX.length() ) );
+        if ( number != null && number > segment ) {
+          file.delete();
+        } else {
+          segments.add( file );
+        }
+      }
+      return segments;
+    }
+
+    private File segmentFile( int segment ) {
+      return new File( serviceDirectory, SEGMENT_PREFIX + segment );
+    }
+  }
+
+  private static DataOutputStream append( File file ) throws IOException {
+    return new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ), BUFFER_SIZE ) );
+  }
+
+  private static void writeRows( DataOutputStream out, CachedService cachedService )
+    throws KettleException, IOException {
+    out.writeInt( cachedService.getRowCount() );
+    Iterator<RowMetaAndData> rows = cachedService.rows();
+    if ( !rows.hasNext() ) {
+      new RowMeta().writeMeta( out );
+    }
+    for ( boolean first = true; rows.hasNext(); first = false ) {
+      RowMetaAndData row = rows.next();
+      if ( first ) {
+        row.getRowMeta().writeMeta( out );
+      }
+      row.getRowMeta().writeData( out, row.getData() );
+    }
+  }
+
+  private static void writeIndexEntry( DataOutputStream out, CachedService.CacheKey key, IndexEntry entry )
+    throws IOException {
+    ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+    try ( ObjectOutputStream keyOut = new ObjectOutputStream( keyBytes ) ) {
+      keyOut.writeObject( key );
+    }
+    out.writeInt( keyBytes.size() );
+    keyBytes.writeTo( out );
+    out.writeInt( entry.segment );
+    out.writeLong( entry.offset );
+    out.writeLong( entry.length );
+    out.writeLong( entry.timeToLive );
+    out.writeLong( entry.created );
+    writeOptional( out, entry.ranking );
+    writeOptional( out, entry.rankingServiceRows );
+  }
+
+  private static CachedService.CacheKey readKey( byte[] bytes ) throws IOException {
+    try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) ) {
+      return (CachedService.CacheKey) in.readObject();
+    } catch ( ClassNotFoundException e ) {
+      throw new IOException( e );
+    }
+  }
+
+  private static void writeOptional( DataOutputStream out, Optional<Integer> value ) throws IOException {
+    out.writeBoolean( value.isPresent() );
+    out.writeInt( value.or( 0 ) );
+  }
+
+  private static Optional<Integer> readOptional( DataInputStream in ) throws IOException {
+    boolean present = in.readBoolean();
+    int value = in.readInt();
+    return present ? Optional.of( value ) : Optional.<Integer>absent();
+  }
+}
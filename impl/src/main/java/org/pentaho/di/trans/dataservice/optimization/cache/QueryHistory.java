@@ -0,0 +1,319 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Counts the queries run against each data service, to replay the most frequent ones when warming up the cache.
+ * <p>
+ * Queries are recorded with their normalized SQL and parameters. The history is kept in memory and written to a local
+ * file by {@link #save()}, replacing the previous file. Each data service keeps at most {@link #MAX_QUERIES} distinct
+ * queries, the least frequent one is dropped to make room for a new one.
+ */
+public class QueryHistory {
+  static final int MAX_QUERIES = 1000;
+  private static final int VERSION = 1;
+
+  private final File file;
+  private final Map<String, Map<RecordedQuery, AtomicLong>> services = new ConcurrentHashMap<>();
+  private volatile boolean modified = false;
+
+  public QueryHistory( File file ) {
+    this.file = file;
+  }
+
+  /**
+   * Creates a history persisted to the {@value DataServiceConstants#CACHE_HISTORY_FILE_PROPERTY} kettle property, and
+   * loads the queries already recorded there.
+   */
+  public static QueryHistory create() {
+    String path = null;
+    try {
+      path = KettleUtils.getInstance().getKettleProperty( DataServiceConstants.CACHE_HISTORY_FILE_PROPERTY );
+    } catch ( KettleException e ) {
+      // Use the default file
+    }
+    File file = new File( Strings.isNullOrEmpty( path ) ? DataServiceConstants.CACHE_HISTORY_FILE_DEFAULT : path );
+    if ( !file.isAbsolute() ) {
+      file = new File( Const.getKettleDirectory(), file.getPath() );
+    }
+    QueryHistory history = new QueryHistory( file );
+    try {
+      history.load();
+    } catch ( IOException e ) {
+      // Start with an empty history
+    }
+    return history;
+  }
+
+  /**
+   * Counts one more run of a query.
+   *
+   * @param dataServiceName data service name
+   * @param sql             query as sent by the client
+   * @param parameters      query parameters
+   */
+  public void record( String dataServiceName, String sql, Map<String, String> parameters ) {
+    Map<RecordedQuery, AtomicLong> queries =
+      services.computeIfAbsent( dataServiceName, name -> new ConcurrentHashMap<>() );
+    RecordedQuery query = new RecordedQuery( normalize( sql ), parameters );
+    AtomicLong count = queries.get( query );
+    if ( count == null ) {
+      if ( queries.size() >= MAX_QUERIES ) {
+        queries.entrySet().stream()
+          .min( Comparator.comparingLong( entry -> entry.getValue().get() ) )
+          .ifPresent( entry -> queries.remove( entry.getKey(), entry.getValue() ) );
+      }
+      count = queries.computeIfAbsent( query, q -> new AtomicLong() );
+    }
+    count.incrementAndGet();
+    modified = true;
+  }
+
+  /**
+   * @param dataServiceName data service name
+   * @param limit           maximum number of queries
+   * @return the most frequent queries of a data service, most frequent first
+   */
+  public List<RecordedQuery> top( String dataServiceName, int limit ) {
+    Map<RecordedQuery, AtomicLong> queries = services.get( dataServiceName );
+    if ( queries == null ) {
+      return ImmutableList.of();
+    }
+    return queries.entrySet().stream()
+      .sorted( Comparator.comparingLong( ( Map.Entry<RecordedQuery, AtomicLong> entry ) -> entry.getValue().get() )
+        .reversed() )
+      .limit( Math.max( limit, 0 ) )
+      .map( Map.Entry::getKey )
+      .collect( Collectors.toList() );
+  }
+
+  public long getCount( String dataServiceName, RecordedQuery query ) {
+    Map<RecordedQuery, AtomicLong> queries = services.get( dataServiceName );
+    AtomicLong count = queries == null ? null : queries.get( query );
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * @return names of the data services with recorded queries
+   */
+  public Set<String> getDataServiceNames() {
+    return ImmutableSet.copyOf( services.keySet() );
+  }
+
+  /**
+   * Drops the queries recorded for a data service.
+   */
+  public void clear( String dataServiceName ) {
+    if ( services.remove( dataServiceName ) != null ) {
+      modified = true;
+    }
+  }
+
+  /**
+   * Adds the counts stored in the history file, if there is one.
+   *
+   * @throws IOException if the file can't be read
+   */
+  public synchronized void load() throws IOException {
+    if ( file == null || !file.isFile() ) {
+      return;
+    }
+    try ( DataInputStream input = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+      if ( input.readInt() != VERSION ) {
+        return;
+      }
+      int serviceCount = input.readInt();
+      for ( int i = 0; i < serviceCount; i++ ) {
+        String dataServiceName = readString( input );
+        Map<RecordedQuery, AtomicLong> queries =
+          services.computeIfAbsent( dataServiceName, name -> new ConcurrentHashMap<>() );
+        int queryCount = input.readInt();
+        for ( int j = 0; j < queryCount; j++ ) {
+          String sql = readString( input );
+          Map<String, String> parameters = new HashMap<>();
+          int parameterCount = input.readInt();
+          for ( int k = 0; k < parameterCount; k++ ) {
+            parameters.put( readString( input ), readString( input ) );
+          }
+          long count = input.readLong();
+          queries.computeIfAbsent( new RecordedQuery( sql, parameters ), q -> new AtomicLong() )
+            .addAndGet( count );
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the history to its file if queries were recorded since the last save.
+   *
+   * @throws IOException if the file can't be written
+   */
+  public synchronized void save() throws IOException {
+    if ( file == null || !modified ) {
+      return;
+    }
+    modified = false;
+    File parent = file.getAbsoluteFile().getParentFile();
+    if ( parent != null ) {
+      Files.createDirectories( parent.toPath() );
+    }
+    // Write a new file and move it over the old one, so a crash never leaves a partial history
+    File temp = new File( file.getPath() + ".tmp" );
+    try ( DataOutputStream output = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) ) ) {
+      Map<String, Map<RecordedQuery, AtomicLong>> snapshot = ImmutableSortedMap.copyOf( services );
+      output.writeInt( VERSION );
+      output.writeInt( snapshot.size() );
+      for ( Map.Entry<String, Map<RecordedQuery, AtomicLong>> service : snapshot.entrySet() ) {
+        Map<RecordedQuery, Long> queries = service.getValue().entrySet().stream()
+          .collect( Collectors.toMap( Map.Entry::getKey, entry -> entry.getValue().get() ) );
+        writeString( output, service.getKey() );
+        output.writeInt( queries.size() );
+        for ( Map.Entry<RecordedQuery, Long> query : queries.entrySet() ) {
+          writeString( output, query.getKey().getSql() );
+          output.writeInt( query.getKey().getParameters().size() );
+          for ( Map.Entry<String, String> parameter : query.getKey().getParameters().entrySet() ) {
+            writeString( output, parameter.getKey() );
+            writeString( output, parameter.getValue() );
+          }
+          output.writeLong( query.getValue() );
+        }
+      }
+    } catch ( IOException e ) {
+      modified = true;
+      throw e;
+    }
+    Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+  }
+
+  /**
+   * Collapses white space outside of quoted literals and identifiers, so queries that only differ in layout are
+   * counted together.
+   */
+  static String normalize( String sql ) {
+    StringBuilder normalized = new StringBuilder( sql.length() );
+    char quote = 0;
+    boolean space = false;
+    for ( char c : sql.trim().toCharArray() ) {
+      if ( quote == 0 && Character.isWhitespace( c ) ) {
+        space = true;
+        continue;
+      }
+      if ( space ) {
+        normalized.append( ' ' );
+        space = false;
+      }
+      if ( quote == 0 && ( c == '\'' || c == '"' ) ) {
+        quote = c;
+      } else if ( c == quote ) {
+        quote = 0;
+      }
+      normalized.append( c );
+    }
+    return normalized.toString();
+  }
+
+  private static void writeString( DataOutputStream output, String value ) throws IOException {
+    byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+    output.writeInt( bytes.length );
+    output.write( bytes );
+  }
+
+  private static String readString( DataInputStream input ) throws IOException {
+    byte[] bytes = new byte[ input.readInt() ];
+    input.readFully( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * A normalized query and its parameters.
+   */
+  public static final class RecordedQuery {
+    private final String sql;
+    private final ImmutableSortedMap<String, String> parameters;
+
+    RecordedQuery( String sql, Map<String, String> parameters ) {
+      this.sql = sql;
+      ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+      if ( parameters != null ) {
+        for ( Map.Entry<String, String> parameter : parameters.entrySet() ) {
+          if ( parameter.getKey() != null && parameter.getValue() != null ) {
+            builder.put( parameter.getKey(), parameter.getValue() );
+          }
+        }
+      }
+      this.parameters = builder.build();
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    public Map<String, String> getParameters() {
+      return parameters;
+    }
+
+    @Override public boolean equals( Object o ) {
+      if ( this == o ) {
+        return true;
+      }
+      if ( o == null || getClass() != o.getClass() ) {
+        return false;
+      }
+      RecordedQuery that = (RecordedQuery) o;
+      return sql.equals( that.sql ) && parameters.equals( that.parameters );
+    }
+
+    @Override public int hashCode() {
+      return Objects.hashCode( sql, parameters );
+    }
+
+    @Override public String toString() {
+      return MoreObjects.toStringHelper( this )
+        .add( "sql", sql )
+        .add( "parameters", parameters )
+        .toString();
+    }
+  }
+}
@@ -68,6 +68,9 @@ public class ResetCacheServlet extends BaseCartePlugin {
     for ( Cache cache : cacheSet ) {
       cache.clear();
     }
+    for ( String name : names ) {
+      factory.invalidate( name );
+    }
 
     request
       .respond( 200 )
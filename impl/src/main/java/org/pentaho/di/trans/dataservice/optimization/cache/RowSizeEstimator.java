@@ -0,0 +1,113 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.util.List;
+
+/**
+ * Estimates the heap footprint of cached rows.
+ * <p>
+ * Fixed size values are weighed by their {@link ValueMetaInterface} type. Strings and binaries are weighed by their
+ * length, measured on an evenly spaced sample of the rows. The estimate is the average sampled row times the row
+ * count, with the object headers of a 64-bit JVM using compressed references.
+ */
+public final class RowSizeEstimator {
+  static final int SAMPLE_SIZE = 64;
+
+  private static final long OBJECT_HEADER = 16;
+  private static final long REFERENCE = 4;
+  // RowMetaAndData instance and its Object[] header
+  private static final long ROW_OVERHEAD = OBJECT_HEADER + 2 * REFERENCE + OBJECT_HEADER;
+  private static final long BOXED_PRIMITIVE = 24;
+  private static final long DATE = 24;
+  private static final long TIMESTAMP = 32;
+  private static final long BIG_NUMBER = 72;
+  private static final long STRING = 40;
+  private static final long UNKNOWN = 64;
+
+  private RowSizeEstimator() {
+  }
+
+  /**
+   * @param rows cached rows
+   * @return estimated bytes of heap held by the rows
+   */
+  static long estimate( List<RowMetaAndData> rows ) {
+    int rowCount = rows.size();
+    if ( rowCount == 0 ) {
+      return 0;
+    }
+    int samples = Math.min( rowCount, SAMPLE_SIZE );
+    long sampled = 0;
+    for ( int i = 0; i < samples; i++ ) {
+      sampled += estimate( rows.get( (int) ( (long) i * rowCount / samples ) ) );
+    }
+    return sampled * rowCount / samples;
+  }
+
+  /**
+   * @param row a row
+   * @return estimated bytes of heap held by the row
+   */
+  public static long estimate( RowMetaAndData row ) {
+    Object[] data = row.getData();
+    if ( data == null ) {
+      return ROW_OVERHEAD;
+    }
+    RowMetaInterface rowMeta = row.getRowMeta();
+    long size = ROW_OVERHEAD + REFERENCE * data.length;
+    int fields = rowMeta == null ? 0 : Math.min( rowMeta.size(), data.length );
+    for ( int i = 0; i < fields; i++ ) {
+      if ( data[i] != null ) {
+        size += estimate( rowMeta.getValueMeta( i ), data[i] );
+      }
+    }
+    return size;
+  }
+
+  private static long estimate( ValueMetaInterface valueMeta, Object value ) {
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+      case ValueMetaInterface.TYPE_NUMBER:
+        return BOXED_PRIMITIVE;
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        // Boolean instances are shared
+        return 0;
+      case ValueMetaInterface.TYPE_DATE:
+        return DATE;
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+        return TIMESTAMP;
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        return BIG_NUMBER;
+      case ValueMetaInterface.TYPE_STRING:
+        return value instanceof String ? STRING + align( 2L * ( (String) value ).length() ) : binary( value );
+      case ValueMetaInterface.TYPE_BINARY:
+        return binary( value );
+      default:
+        return UNKNOWN;
+    }
+  }
+
+  private static long binary( Object value ) {
+    return value instanceof byte[] ? OBJECT_HEADER + align( ( (byte[]) value ).length ) : UNKNOWN;
+  }
+
+  private static long align( long size ) {
+    return ( size + 7 ) & ~7L;
+  }
+}
@@ -15,31 +15,46 @@ package org.pentaho.di.trans.dataservice.optimization.cache;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.pentaho.caching.api.PentahoCacheTemplateConfiguration;
+import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.core.sql.SQLFields;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.dataservice.DataServiceExecutor;
 import org.pentaho.di.trans.dataservice.DataServiceMeta;
+import org.pentaho.di.trans.dataservice.SqlTransGenerator;
 import org.pentaho.di.trans.dataservice.optimization.OptimizationImpactInfo;
 import org.pentaho.di.trans.dataservice.optimization.PushDownOptimizationMeta;
 import org.pentaho.di.trans.dataservice.optimization.PushDownType;
 import org.pentaho.di.trans.dataservice.optimization.StepOptimization;
 import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMeta;
 import org.pentaho.metastore.persist.MetaStoreAttribute;
 
 import javax.cache.Cache;
 import javax.cache.configuration.CompleteConfiguration;
 import javax.cache.expiry.Duration;
 import javax.cache.expiry.ExpiryPolicy;
+import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Predicates.instanceOf;
@@ -56,6 +71,9 @@ public class ServiceCache extends StepOptimization {
   private final ServiceCacheFactory factory;
   public static final String SERVICE_CACHE_TEMPLATE_NAME = "template_name";
   public static final String SERVICE_CACHE_TTL = "time_to_live";
+  public static final String SERVICE_CACHE_WATERMARK_FIELD = "watermark_field";
+  // Fraction of the time to live after which incremental results are refreshed, unless refresh ahead is configured
+  static final double INCREMENTAL_REFRESH_AHEAD = 0.5;
 
   @MetaStoreAttribute( key = SERVICE_CACHE_TEMPLATE_NAME )
   private String templateName = DEFAULT_TEMPLATE;
@@ -63,6 +81,9 @@ public class ServiceCache extends StepOptimization {
   @MetaStoreAttribute( key = SERVICE_CACHE_TTL )
   private String timeToLive;
 
+  @MetaStoreAttribute( key = SERVICE_CACHE_WATERMARK_FIELD )
+  private String watermarkField;
+
   public ServiceCache( ServiceCacheFactory factory ) {
     this.factory = factory;
   }
@@ -74,11 +95,27 @@ public class ServiceCache extends StepOptimization {
   @Override public boolean activate( final DataServiceExecutor executor, StepInterface stepInterface ) {
     if ( !executor.getService().isStreaming() ) {
       final LogChannelInterface logChannel = executor.getGenTrans().getLogChannel();
+      // A background refresh always runs the service transformation
+      final boolean refresh = factory.getRefreshes().contains( executor );
+
+      Optional<MemoryGroupByMeta> groupBy = getCacheableGroupBy( executor );
+      if ( !refresh && groupBy.isPresent() && replayAggregate( executor, groupBy.get(), logChannel ) ) {
+        return true;
+      }
 
-      for ( CachedService availableCache : getAvailableCache( executor ).values() ) {
+      Map<CachedService.CacheKey, CachedService> availableCaches =
+        refresh ? ImmutableMap.<CachedService.CacheKey, CachedService>of() : getAvailableCache( executor );
+      for ( Map.Entry<CachedService.CacheKey, CachedService> available : availableCaches.entrySet() ) {
+        CachedService availableCache = available.getValue();
         try {
           ListenableFuture<Integer> replay = factory.createCachedServiceLoader( availableCache ).replay( executor );
           addReplayCallback( logChannel, replay );
+          if ( groupBy.isPresent() ) {
+            boolean allRows = readsAllRows( executor, availableCache.isComplete(), availableCache.getRowCount() );
+            observeAggregates( executor, groupBy.get(), Futures.immediateFuture( allRows ) );
+          }
+          factory.recordHit( executor.getServiceName(), available.getKey() );
+          refreshAhead( executor, available.getKey(), availableCache );
           return true;
         } catch ( Throwable e ) {
           logChannel.logError( "Unable to replay from cache", e );
@@ -87,27 +124,44 @@ public class ServiceCache extends StepOptimization {
 
       CachedService.CacheKey rootKey = createRootKey( executor );
       final Map<CachedService.CacheKey, ServiceObserver> runningServices = factory.getRunningServices();
-      if ( runningServices.containsKey( rootKey ) ) {
-        try {
-          ListenableFuture<Integer> replay =
-            factory.createCachedServiceLoader( () -> runningServices.get( rootKey ).rows() ).replay( executor );
-          addReplayCallback( logChannel, replay );
-          return true;
-        } catch ( KettleException e ) {
-          logChannel.logError( "Unable to replay from running service" );
+      final ServiceObserver serviceObserver = factory.createObserver( executor );
+      // Attach to a service transformation already running for these rows, or become the one others attach to
+      boolean registered = refresh;
+      while ( !registered ) {
+        final ServiceObserver running = runningServices.get( rootKey );
+        if ( running == null ) {
+          registered = runningServices.putIfAbsent( rootKey, serviceObserver ) == null;
+        } else if ( running.answersQuery( executor ) ) {
+          try {
+            ListenableFuture<Integer> replay = factory.createCachedServiceLoader( running::rows ).replay( executor );
+            addReplayCallback( logChannel, replay );
+            return true;
+          } catch ( KettleException e ) {
+            logChannel.logError( "Unable to replay from running service" );
+            break;
+          }
+        } else if ( serviceObserver.scansAll() ) {
+          // A scan of every row can serve more of the queries that follow
+          registered = runningServices.replace( rootKey, running, serviceObserver );
+        } else {
+          break;
         }
       }
 
-      ServiceObserver serviceObserver = factory.createObserver( executor );
-      //only allow replay from this running trans if it's going to return all the rows
-      if ( CachedService.calculateRank( executor ) == Integer.MAX_VALUE ) {
-        runningServices.put( rootKey, serviceObserver );
-      }
       // Allow service transformation to run, observe rows
-      Futures.addCallback( serviceObserver.install(), new FutureCallback<CachedService>() {
+      ListenableFuture<CachedService> observed = serviceObserver.install();
+      if ( groupBy.isPresent() ) {
+        observeAggregates( executor, groupBy.get(), Futures.transform( observed,
+          new Function<CachedService, Boolean>() {
+            @Override public Boolean apply( CachedService result ) {
+              return readsAllRows( executor, result.isComplete(), result.getRowCount() );
+            }
+          }, MoreExecutors.directExecutor() ) );
+      }
+      Futures.addCallback( observed, new FutureCallback<CachedService>() {
         @Override public void onSuccess( CachedService result ) {
           if ( executor.isStopped() || executor.hasErrors() ) {
-            runningServices.remove( rootKey );
+            runningServices.remove( rootKey, serviceObserver );
             return;
           }
 
@@ -115,30 +169,62 @@ public class ServiceCache extends StepOptimization {
             cache =
             factory.getCache( ServiceCache.this, executor.getServiceName() );
           CachedService.CacheKey key = createRootKey( executor );
+          IncrementalRefresh increment = factory.getIncrementalRefreshes().get( executor );
+          if ( increment != null ) {
+            // Only the newest rows were queried, append them to the cached result
+            try {
+              Optional<CachedService> appended = increment.append( result, System.currentTimeMillis() );
+              if ( !appended.isPresent() ) {
+                logChannel.logBasic( "Service rows changed, incremental cache refresh discarded", increment.getKey() );
+                runningServices.remove( rootKey, serviceObserver );
+                return;
+              }
+              key = increment.getKey();
+              result = appended.get();
+            } catch ( Throwable t ) {
+              onFailure( t );
+              return;
+            }
+          }
+          CachedService cachedService = result.moveOffHeap( factory.getOffHeapStore(), executor.getServiceName() );
           // If result set is complete, order is not important
-          if ( result.isComplete() ) {
+          if ( cachedService.isComplete() ) {
             key = key.withoutOrder();
           }
-          if ( cache.putIfAbsent( key, result ) ) {
+          if ( refresh && cachedService.isComplete() ) {
+            // Swap in the refreshed result, readers of the previous one are not affected
+            CachedService previous = cache.getAndPut( key, cachedService );
+            if ( previous != null ) {
+              previous.release();
+            }
+            logChannel.logBasic( "Service Transformation cache refreshed", key );
+            cached( logChannel, executor, key, cachedService );
+          } else if ( refresh ) {
+            cachedService.release();
+          } else if ( cache.putIfAbsent( key, cachedService ) ) {
             logChannel.logBasic( "Service Transformation results cached", key );
+            cached( logChannel, executor, key, cachedService );
           } else {
             try {
               CachedService existing = checkNotNull( cache.get( key ) );
               // If the existing result set can't answer this query, replace it
-              if ( !existing.answersQuery( executor ) && cache.replace( key, existing, result ) ) {
+              if ( !existing.answersQuery( executor ) && cache.replace( key, existing, cachedService ) ) {
+                existing.release();
                 logChannel.logBasic( "Service Transformation cache updated", key );
+                cached( logChannel, executor, key, cachedService );
               } else {
+                cachedService.release();
                 logChannel.logDetailed( "Service Transformation cache was not updated", key );
               }
             } catch ( Throwable t ) {
               onFailure( t );
             }
           }
-          runningServices.remove( rootKey );
+          runningServices.remove( rootKey, serviceObserver );
         }
 
         @Override public void onFailure( Throwable t ) {
-          runningServices.remove( rootKey );
+          runningServices.remove( rootKey, serviceObserver );
           logChannel.logError( "Cache failed to observe service transformation", t );
         }
       }, factory.getExecutorService() );
@@ -146,6 +232,188 @@ public class ServiceCache extends StepOptimization {
     return false;
   }
 
+  /**
+   * Re-runs the query of a cache hit in the background once the entry has lived past the refresh ahead fraction of
+   * its time to live. The refreshed result replaces the entry when complete, until then readers keep replaying it.
+   * Only complete entries cached under the key of this query are refreshed, by queries that read every row.
+   * <p>
+   * With a watermark field, entries without where clause are refreshed by querying only the rows past the greatest
+   * cached watermark and appending them.
+   */
+  private void refreshAhead( final DataServiceExecutor executor, final CachedService.CacheKey key,
+                             final CachedService cached ) {
+    final boolean incremental = !Strings.isNullOrEmpty( watermarkField ) && !key.hasCondition();
+    double refreshAhead = factory.getRefreshAhead();
+    if ( refreshAhead <= 0 && incremental ) {
+      refreshAhead = INCREMENTAL_REFRESH_AHEAD;
+    }
+    if ( refreshAhead <= 0 || !cached.isComplete() || executor.getSql().getLimitValues() != null
+      || !key.equals( createRootKey( executor ).withoutOrder() ) ) {
+      return;
+    }
+    long timeToLive = factory.getTimeToLive( this );
+    if ( timeToLive <= 0 || System.currentTimeMillis() - cached.getCreated() < refreshAhead * timeToLive * 1000 ) {
+      return;
+    }
+    final String serviceName = executor.getServiceName();
+    if ( !factory.startRefresh( serviceName, key ) ) {
+      return;
+    }
+    final LogChannelInterface logChannel = executor.getGenTrans().getLogChannel();
+    final String sqlString = executor.getSql().getSqlString();
+    final Map<String, String> parameters = ImmutableMap.copyOf( executor.getParameters() );
+    logChannel.logBasic( "Refreshing Service Transformation cache", key );
+    factory.getExecutorService().execute( new Runnable() {
+      @Override public void run() {
+        DataServiceExecutor refresh = null;
+        try {
+          Optional<IncrementalRefresh> increment = incremental
+            ? IncrementalRefresh.create( key, cached, watermarkField ) : Optional.<IncrementalRefresh>absent();
+          String refreshSql = increment.isPresent() ? increment.get().getSql( serviceName ) : sqlString;
+          refresh = new DataServiceExecutor.Builder( new SQL( refreshSql ), executor.getService(), executor.getContext() )
+            .parameters( parameters )
+            .metastore( executor.getServiceTrans().getMetaStore() )
+            .build();
+          if ( increment.isPresent() ) {
+            factory.getIncrementalRefreshes().put( refresh, increment.get() );
+          }
+          factory.getRefreshes().add( refresh );
+          refresh.executeQuery();
+          refresh.waitUntilFinished();
+        } catch ( Throwable t ) {
+          logChannel.logError( "Unable to refresh Service Transformation cache", t );
+        } finally {
+          if ( refresh != null ) {
+            factory.getRefreshes().remove( refresh );
+            factory.getIncrementalRefreshes().remove( refresh );
+            executor.getContext().removeExecutor( refresh.getId() );
+          }
+          factory.finishRefresh( serviceName, key );
+        }
+      }
+    } );
+  }
+
+  /**
+   * Tracks a result added to the cache: its key, its share of the memory budget and its copy on disk.
+   */
+  private void cached( LogChannelInterface logChannel, DataServiceExecutor executor, CachedService.CacheKey key,
+                       CachedService cachedService ) {
+    factory.getCachedKeys( executor.getServiceName() ).add( key );
+    factory.admit( executor.getServiceName(), key, cachedService );
+    persist( logChannel, executor, key, cachedService );
+  }
+
+  private void persist( LogChannelInterface logChannel, DataServiceExecutor executor, CachedService.CacheKey key,
+                        CachedService cachedService ) {
+    try {
+      factory.persist( this, executor.getServiceName(), key, cachedService );
+    } catch ( IOException e ) {
+      logChannel.logError( "Unable to persist service cache", e );
+    }
+  }
+
+  /**
+   * Finds the Group by step of a query whose output can be cached. Its group fields and aggregated fields must all be
+   * service fields, so that the step output only depends on the service rows and the WHERE condition.
+   */
+  Optional<MemoryGroupByMeta> getCacheableGroupBy( DataServiceExecutor executor ) {
+    SQL sql = executor.getSql();
+    SQLFields selectFields = sql.getSelectFields();
+    if ( !selectFields.hasAggregates() && sql.getGroupFields().getFields().isEmpty() ) {
+      return Optional.absent();
+    }
+    if ( !factory.getAggregateCache().isEnabled() || !selectFields.getConstantFields().isEmpty()
+      || !selectFields.getIifFunctionFields().isEmpty() ) {
+      return Optional.absent();
+    }
+    StepMeta groupByStep = executor.getGenTransMeta().findStep( SqlTransGenerator.GROUP_BY_STEP_NAME );
+    if ( groupByStep == null || !( groupByStep.getStepMetaInterface() instanceof MemoryGroupByMeta ) ) {
+      return Optional.absent();
+    }
+    MemoryGroupByMeta groupBy = (MemoryGroupByMeta) groupByStep.getStepMetaInterface();
+    RowMetaInterface serviceFields = sql.getRowMeta();
+    for ( String field : Iterables.concat( Arrays.asList( groupBy.getGroupField() ),
+      Arrays.asList( groupBy.getSubjectField() ) ) ) {
+      if ( serviceFields == null || serviceFields.indexOfValue( field ) < 0 ) {
+        return Optional.absent();
+      }
+    }
+    return Optional.of( groupBy );
+  }
+
+  /**
+   * Answers a query from cached Group by output, rolling it up to the query's group fields. The generated Group by
+   * step is changed to aggregate the cached groups, which are fed to it directly. Steps before it receive no rows.
+   */
+  private boolean replayAggregate( DataServiceExecutor executor, MemoryGroupByMeta groupBy,
+                                   LogChannelInterface logChannel ) {
+    CachedService.CacheKey key = CachedService.CacheKey.create( executor ).withoutOrder();
+    List<CachedAggregate> cached =
+      factory.getAggregateCache().get( executor.getServiceName(), key, factory.getTimeToLive( this ) );
+    for ( CachedAggregate aggregate : Lists.reverse( cached ) ) {
+      Optional<MemoryGroupByMeta> rollUp = aggregate.rollUp( groupBy );
+      if ( !rollUp.isPresent() ) {
+        continue;
+      }
+      try {
+        ListenableFuture<Integer> replay = factory.createCachedServiceLoader( aggregate::rows )
+          .replay( executor, SqlTransGenerator.GROUP_BY_STEP_NAME );
+        groupBy.allocate( rollUp.get().getGroupField().length, rollUp.get().getAggregateField().length );
+        System.arraycopy( rollUp.get().getGroupField(), 0, groupBy.getGroupField(), 0,
+          groupBy.getGroupField().length );
+        System.arraycopy( rollUp.get().getAggregateField(), 0, groupBy.getAggregateField(), 0,
+          groupBy.getAggregateField().length );
+        System.arraycopy( rollUp.get().getSubjectField(), 0, groupBy.getSubjectField(), 0,
+          groupBy.getSubjectField().length );
+        System.arraycopy( rollUp.get().getAggregateType(), 0, groupBy.getAggregateType(), 0,
+          groupBy.getAggregateType().length );
+        logChannel.logBasic( "Service Transformation aggregates replayed from cache", aggregate );
+        addReplayCallback( logChannel, replay );
+        return true;
+      } catch ( Throwable e ) {
+        logChannel.logError( "Unable to replay aggregates from cache", e );
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Caches the Group by output of a query, once it is known to have aggregated every row of the service.
+   */
+  private void observeAggregates( final DataServiceExecutor executor, final MemoryGroupByMeta groupBy,
+                                  ListenableFuture<Boolean> allRows ) {
+    final LogChannelInterface logChannel = executor.getGenTrans().getLogChannel();
+    final CachedService.CacheKey key = CachedService.CacheKey.create( executor ).withoutOrder();
+    ListenableFuture<List<RowMetaAndData>> aggregates = new AggregateObserver( executor ).install();
+    Futures.addCallback( Futures.<Object>allAsList( allRows, aggregates ), new FutureCallback<List<Object>>() {
+      @Override public void onSuccess( List<Object> result ) {
+        @SuppressWarnings( "unchecked" )
+        List<RowMetaAndData> rows = (List<RowMetaAndData>) result.get( 1 );
+        if ( Boolean.TRUE.equals( result.get( 0 ) ) && !rows.isEmpty()
+          && !executor.isStopped() && !executor.hasErrors() ) {
+          CachedAggregate aggregate =
+            new CachedAggregate( groupBy, rows, factory.getTimeToLive( ServiceCache.this ), System.currentTimeMillis() );
+          factory.getAggregateCache().put( executor.getServiceName(), key, aggregate );
+          logChannel.logBasic( "Service Transformation aggregates cached", key );
+        }
+      }
+
+      @Override public void onFailure( Throwable t ) {
+        logChannel.logDetailed( "Service Transformation aggregates were not cached: " + t.getMessage() );
+      }
+    }, factory.getExecutorService() );
+  }
+
+  /**
+   * @return true if the generated transformation received every service row, past its service row limit
+   */
+  private static boolean readsAllRows( DataServiceExecutor executor, boolean complete, int rowCount ) {
+    int serviceRowLimit = executor.getServiceRowLimit();
+    return complete && ( serviceRowLimit <= 0 || rowCount <= serviceRowLimit );
+  }
+
   private void addReplayCallback( final LogChannelInterface logChannel, ListenableFuture<Integer> replay ) {
     Futures.addCallback( replay, new FutureCallback<Integer>() {
       @Override public void onSuccess( Integer rowCount ) {
@@ -160,13 +428,13 @@ public class ServiceCache extends StepOptimization {
 
   @Override public OptimizationImpactInfo preview( DataServiceExecutor executor, StepInterface stepInterface ) {
     OptimizationImpactInfo info = new OptimizationImpactInfo( executor.getService().getStepname() );
-    Map<CachedService.CacheKey, CachedService> availableCache = getAvailableCache( executor );
+    Map<CachedService.CacheKey, CachedService> availableCache = getAvailableCache( executor, false );
     for ( Map.Entry<CachedService.CacheKey, CachedService> available : availableCache.entrySet() ) {
       info.setModified( true );
       info.setQueryBeforeOptimization( MessageFormat.format( "Service results for {0} are available.",
           available.getKey() ) );
       info.setQueryAfterOptimization( MessageFormat.format( "{0} rows can be read from cache.",
-          available.getValue().getRowMetaAndData().size() ) );
+          available.getValue().getRowCount() ) );
       return info;
     }
     info.setModified( false );
@@ -184,30 +452,87 @@ public class ServiceCache extends StepOptimization {
   }
 
   Map<CachedService.CacheKey, CachedService> getAvailableCache( final DataServiceExecutor executor ) {
+    return getAvailableCache( executor, true );
+  }
+
+  /**
+   * @param load whether entries missing from memory may be read back from the persistent tier. Previews only look at
+   *             the entries already in memory, and leave the cache as it is
+   */
+  Map<CachedService.CacheKey, CachedService> getAvailableCache( final DataServiceExecutor executor,
+                                                                final boolean load ) {
     final Cache<CachedService.CacheKey, CachedService> cache =
         maybeInvalidateCache( executor );
-    if ( cache == null ) {
+    if ( cache == null && !( load && factory.isPersistent() ) ) {
       return ImmutableMap.of();
     }
 
     // First test if the rootKey entry answers the query
     CachedService.CacheKey rootKey = createRootKey( executor );
-    CachedService exactMatch = cache.get( rootKey );
+    CachedService exactMatch = getAvailable( cache, executor, rootKey, load );
     if ( exactMatch != null && exactMatch.answersQuery( executor ) ) {
       return ImmutableMap.of( rootKey, exactMatch );
     }
 
     // Otherwise, check all related keys for a complete set
-    return FluentIterable.from( rootKey.all() )
+    Optional<Map<CachedService.CacheKey, CachedService>> related = FluentIterable.from( rootKey.all() )
       .transform( new Function<CachedService.CacheKey, Map<CachedService.CacheKey, CachedService>>() {
         @Override public Map<CachedService.CacheKey, CachedService> apply(
           CachedService.CacheKey key ) {
-          CachedService value = cache.get( key );
+          CachedService value = getAvailable( cache, executor, key, load );
           return value != null && value.isComplete() ? ImmutableMap.of( key, value ) : null;
         }
       } )
       .filter( notNull() )
-      .first().or( ImmutableMap.<CachedService.CacheKey, CachedService>of() );
+      .first();
+    if ( related.isPresent() ) {
+      return related.get();
+    }
+
+    // Finally, look for a complete set cached for a broader condition
+    Set<CachedService.CacheKey> cachedKeys = factory.getCachedKeys( executor.getServiceName() );
+    for ( CachedService.CacheKey key : cachedKeys ) {
+      if ( key.subsumes( rootKey ) ) {
+        CachedService value = getAvailable( cache, executor, key, load );
+        if ( value == null ) {
+          if ( load ) {
+            cachedKeys.remove( key );
+          }
+        } else if ( value.isComplete() ) {
+          return ImmutableMap.of( key, value );
+        }
+      }
+    }
+    return ImmutableMap.of();
+  }
+
+  /**
+   * Looks up a cache entry, dropping it if its rows have been evicted from the off-heap store. Entries missing from
+   * memory are read back from the persistent tier, if a previous run left a valid one and load is set. Otherwise the
+   * cache is left as it is.
+   */
+  private CachedService getAvailable( Cache<CachedService.CacheKey, CachedService> cache,
+                                      DataServiceExecutor executor, CachedService.CacheKey key, boolean load ) {
+    CachedService value = cache == null ? null : cache.get( key );
+    if ( value != null && value.isEvicted() ) {
+      if ( !load ) {
+        return null;
+      }
+      cache.remove( key, value );
+      value = null;
+    }
+    if ( value == null && load ) {
+      factory.forget( executor.getServiceName(), key );
+      value = factory.loadPersisted( this, executor.getServiceName(), key );
+      if ( value != null ) {
+        value = value.moveOffHeap( factory.getOffHeapStore(), executor.getServiceName() );
+        if ( factory.getCache( this, executor.getServiceName() ).putIfAbsent( key, value ) ) {
+          factory.admit( executor.getServiceName(), key, value );
+        }
+        factory.getCachedKeys( executor.getServiceName() ).add( key );
+      }
+    }
+    return value;
   }
 
   /**
@@ -222,6 +547,7 @@ public class ServiceCache extends StepOptimization {
       if ( !ttlMatches( cache.get(), logChannel ) ) {
         logChannel.logBasic( "Dropping cache associated with " + executor.getServiceName() );
         dropCache( cache.get() );
+        factory.forget( executor.getServiceName() );
       } else {
         logChannel.logDebug( "Found cache associated with " + executor.getServiceName() );
         return cache.get();
@@ -301,6 +627,17 @@ public class ServiceCache extends StepOptimization {
     this.timeToLive = timeToLive;
   }
 
+  /**
+   * @return monotonic field of an append-only service, used to refresh cached results incrementally
+   */
+  public String getWatermarkField() {
+    return watermarkField;
+  }
+
+  public void setWatermarkField( String watermarkField ) {
+    this.watermarkField = Strings.emptyToNull( watermarkField );
+  }
+
   public String getConfiguredTimeToLive() {
     PentahoCacheTemplateConfiguration configuration = factory.getPentahoCacheTemplateConfiguration( this );
     return configuration.getProperties().get( CONFIG_TTL );
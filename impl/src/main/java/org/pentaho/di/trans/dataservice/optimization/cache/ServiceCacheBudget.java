@@ -0,0 +1,258 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.collect.ImmutableList;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Byte budget shared by the result caches of every data service.
+ * <p>
+ * Each cached result is weighed by its {@link CachedService#getEstimatedSize() estimated size}. When the budget, or
+ * the quota of a data service, is exceeded the entries of lowest priority are evicted, following GreedyDual-Size with
+ * frequency: an entry's priority is the inflation value plus its hit count divided by its size, and the inflation
+ * value rises to the priority of each evicted entry. Small, frequently read results are kept over large ones that are
+ * rarely read, while entries that stop being read eventually age out.
+ */
+public class ServiceCacheBudget {
+  // Smallest weight of an entry, so that empty results don't get an unbounded priority
+  private static final long MINIMUM_SIZE = 1024;
+
+  private final long capacity;
+  private final double serviceQuota;
+  private final Map<String, Long> quotas = new ConcurrentHashMap<>();
+  private final Map<Map.Entry<String, CachedService.CacheKey>, Entry> entries = new HashMap<>();
+  private final TreeSet<Entry> byPriority = new TreeSet<>( Entry.ORDER );
+  private final Map<String, Long> usedByService = new HashMap<>();
+  private long used = 0;
+  private double inflation = 0;
+  private long sequence = 0;
+
+  /**
+   * @param capacity     budget in bytes, 0 or less disables it
+   * @param serviceQuota fraction of the budget a data service may use, unless set by {@link #setQuota}
+   */
+  public ServiceCacheBudget( long capacity, double serviceQuota ) {
+    this.capacity = capacity;
+    this.serviceQuota = serviceQuota;
+  }
+
+  /**
+   * Creates a budget sized by the {@value DataServiceConstants#CACHE_MEMORY_SIZE_PROPERTY} kettle property, with the
+   * quota of {@value DataServiceConstants#CACHE_MEMORY_QUOTA_PROPERTY}. A data service quota can be set in bytes by
+   * the same property suffixed by a dot and the data service name.
+   */
+  public static ServiceCacheBudget create() {
+    long capacity = DataServiceConstants.CACHE_MEMORY_SIZE_DEFAULT;
+    double quota = DataServiceConstants.CACHE_MEMORY_QUOTA_DEFAULT;
+    try {
+      KettleUtils kettleUtils = KettleUtils.getInstance();
+      capacity = Const.toLong( kettleUtils.getKettleProperty( DataServiceConstants.CACHE_MEMORY_SIZE_PROPERTY ),
+        capacity );
+      quota = Const.toDouble( kettleUtils.getKettleProperty( DataServiceConstants.CACHE_MEMORY_QUOTA_PROPERTY ),
+        quota );
+    } catch ( KettleException e ) {
+      // Use the defaults
+    }
+    return new ServiceCacheBudget( capacity, quota );
+  }
+
+  public boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public synchronized long getUsedBytes() {
+    return used;
+  }
+
+  public synchronized long getUsedBytes( String dataServiceName ) {
+    return usedByService.getOrDefault( dataServiceName, 0L );
+  }
+
+  /**
+   * @return bytes the results of a data service may use
+   */
+  public long getQuota( String dataServiceName ) {
+    return quotas.computeIfAbsent( dataServiceName, this::readQuota );
+  }
+
+  public void setQuota( String dataServiceName, long quota ) {
+    quotas.put( dataServiceName, quota );
+  }
+
+  private long readQuota( String dataServiceName ) {
+    long quota = (long) ( capacity * Math.min( Math.max( serviceQuota, 0 ), 1 ) );
+    try {
+      quota = Const.toLong( KettleUtils.getInstance().getKettleProperty(
+        DataServiceConstants.CACHE_MEMORY_QUOTA_PROPERTY + "." + dataServiceName ), quota );
+    } catch ( KettleException e ) {
+      // Use the shared quota
+    }
+    return quota;
+  }
+
+  /**
+   * Accounts for a result added to a cache, replacing any result accounted for the same key. Only the key and size of
+   * the result are kept, the result itself is left to its cache.
+   *
+   * @param size {@link CachedService#getEstimatedSize() estimated size} of the result in bytes
+   * @return entries to evict from their caches to stay within budget, possibly including the added result
+   */
+  synchronized List<Entry> admit( String dataServiceName, CachedService.CacheKey key, long size ) {
+    if ( !isEnabled() ) {
+      return ImmutableList.of();
+    }
+    remove( dataServiceName, key );
+    Entry entry = new Entry( dataServiceName, key, size, sequence++ );
+    entry.prioritize( inflation );
+    add( entry );
+
+    ImmutableList.Builder<Entry> evicted = ImmutableList.builder();
+    long quota = Math.min( getQuota( dataServiceName ), capacity );
+    Iterator<Entry> lowest = byPriority.iterator();
+    while ( usedByService.getOrDefault( dataServiceName, 0L ) > quota && lowest.hasNext() ) {
+      Entry candidate = lowest.next();
+      if ( candidate.dataServiceName.equals( dataServiceName ) ) {
+        lowest.remove();
+        evict( candidate );
+        evicted.add( candidate );
+      }
+    }
+    while ( used > capacity && !byPriority.isEmpty() ) {
+      Entry candidate = byPriority.pollFirst();
+      evict( candidate );
+      evicted.add( candidate );
+    }
+    return evicted.build();
+  }
+
+  /**
+   * Counts a hit on a cached result.
+   */
+  synchronized void touch( String dataServiceName, CachedService.CacheKey key ) {
+    Entry entry = entries.get( id( dataServiceName, key ) );
+    if ( entry != null ) {
+      byPriority.remove( entry );
+      entry.frequency++;
+      entry.prioritize( inflation );
+      byPriority.add( entry );
+    }
+  }
+
+  /**
+   * Stops accounting for a result that is no longer cached.
+   */
+  synchronized void remove( String dataServiceName, CachedService.CacheKey key ) {
+    Entry entry = entries.get( id( dataServiceName, key ) );
+    if ( entry != null ) {
+      byPriority.remove( entry );
+      release( entry );
+    }
+  }
+
+  /**
+   * Stops accounting for all results of a data service.
+   */
+  public synchronized void invalidate( String dataServiceName ) {
+    Iterator<Entry> iterator = byPriority.iterator();
+    while ( iterator.hasNext() ) {
+      Entry entry = iterator.next();
+      if ( entry.dataServiceName.equals( dataServiceName ) ) {
+        iterator.remove();
+        release( entry );
+      }
+    }
+  }
+
+  private void add( Entry entry ) {
+    entries.put( id( entry.dataServiceName, entry.key ), entry );
+    byPriority.add( entry );
+    used += entry.size;
+    usedByService.merge( entry.dataServiceName, entry.size, Long::sum );
+  }
+
+  private void evict( Entry entry ) {
+    inflation = Math.max( inflation, entry.priority );
+    release( entry );
+  }
+
+  private void release( Entry entry ) {
+    entries.remove( id( entry.dataServiceName, entry.key ) );
+    used -= entry.size;
+    long serviceUsed = usedByService.get( entry.dataServiceName ) - entry.size;
+    if ( serviceUsed > 0 ) {
+      usedByService.put( entry.dataServiceName, serviceUsed );
+    } else {
+      usedByService.remove( entry.dataServiceName );
+    }
+  }
+
+  private static Map.Entry<String, CachedService.CacheKey> id( String dataServiceName, CachedService.CacheKey key ) {
+    return new AbstractMap.SimpleImmutableEntry<>( dataServiceName, key );
+  }
+
+  /**
+   * A result accounted for in the budget.
+   */
+  static final class Entry {
+    private static final Comparator<Entry> ORDER =
+      Comparator.comparingDouble( ( Entry entry ) -> entry.priority ).thenComparingLong( entry -> entry.sequence );
+
+    private final String dataServiceName;
+    private final CachedService.CacheKey key;
+    private final long size;
+    private final long sequence;
+    private long frequency = 1;
+    private double priority;
+
+    private Entry( String dataServiceName, CachedService.CacheKey key, long size, long sequence ) {
+      this.dataServiceName = dataServiceName;
+      this.key = key;
+      this.size = size;
+      this.sequence = sequence;
+    }
+
+    private void prioritize( double inflation ) {
+      priority = inflation + (double) frequency / Math.max( size, MINIMUM_SIZE );
+    }
+
+    String getDataServiceName() {
+      return dataServiceName;
+    }
+
+    CachedService.CacheKey getKey() {
+      return key;
+    }
+
+    long getSize() {
+      return size;
+    }
+  }
+}
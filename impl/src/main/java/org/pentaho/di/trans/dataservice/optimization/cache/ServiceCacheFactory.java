@@ -15,20 +15,35 @@ package org.pentaho.di.trans.dataservice.optimization.cache;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
+import com.google.common.collect.MapMaker;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import org.pentaho.caching.api.PentahoCacheManager;
 import org.pentaho.caching.api.PentahoCacheTemplateConfiguration;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.trans.dataservice.DataServiceExecutor;
 import org.pentaho.di.trans.dataservice.optimization.PushDownFactory;
 import org.pentaho.di.trans.dataservice.optimization.cache.ui.ServiceCacheController;
 import org.pentaho.di.trans.dataservice.optimization.cache.ui.ServiceCacheOverlay;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
 
 import javax.cache.Cache;
 import javax.cache.CacheException;
+import javax.cache.configuration.Factory;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryExpiredListener;
+import javax.cache.event.CacheEntryListener;
+import javax.cache.event.CacheEntryRemovedListener;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Supplier;
@@ -46,11 +61,54 @@ public class ServiceCacheFactory implements PushDownFactory {
 
   private final ListeningExecutorService executorService;
 
+  private final OffHeapRowStore offHeapStore;
+
+  private final PersistentServiceCache persistentCache;
+
+  private final AggregateCache aggregateCache;
+
+  private final ServiceCacheBudget budget;
+
   private final Map<CachedService.CacheKey, ServiceObserver> runningServices = new ConcurrentHashMap<>();
 
+  private final Map<String, Set<CachedService.CacheKey>> cachedKeys = new ConcurrentHashMap<>();
+
+  // Caches with a budget listener, compared by identity so that a cache created again gets its own
+  private final Set<Cache<CachedService.CacheKey, CachedService>> listenedCaches =
+    Collections.newSetFromMap( new MapMaker().weakKeys().makeMap() );
+
+  private final Set<Map.Entry<String, CachedService.CacheKey>> refreshingKeys = ConcurrentHashMap.newKeySet();
+
+  private final Set<DataServiceExecutor> refreshes = ConcurrentHashMap.newKeySet();
+
+  private final Map<DataServiceExecutor, IncrementalRefresh> incrementalRefreshes = new ConcurrentHashMap<>();
+
+  private double refreshAhead = readRefreshAhead();
+
   public ServiceCacheFactory( PentahoCacheManager cacheManager, ExecutorService executorService ) {
+    this( cacheManager, executorService, OffHeapRowStore.create(), PersistentServiceCache.create() );
+  }
+
+  public ServiceCacheFactory( PentahoCacheManager cacheManager, ExecutorService executorService,
+                              OffHeapRowStore offHeapStore, PersistentServiceCache persistentCache ) {
+    this( cacheManager, executorService, offHeapStore, persistentCache, AggregateCache.create() );
+  }
+
+  public ServiceCacheFactory( PentahoCacheManager cacheManager, ExecutorService executorService,
+                              OffHeapRowStore offHeapStore, PersistentServiceCache persistentCache,
+                              AggregateCache aggregateCache ) {
+    this( cacheManager, executorService, offHeapStore, persistentCache, aggregateCache, ServiceCacheBudget.create() );
+  }
+
+  public ServiceCacheFactory( PentahoCacheManager cacheManager, ExecutorService executorService,
+                              OffHeapRowStore offHeapStore, PersistentServiceCache persistentCache,
+                              AggregateCache aggregateCache, ServiceCacheBudget budget ) {
     this.cacheManager = cacheManager;
     this.executorService = MoreExecutors.listeningDecorator( executorService );
+    this.offHeapStore = offHeapStore;
+    this.persistentCache = persistentCache;
+    this.aggregateCache = aggregateCache;
+    this.budget = budget;
   }
 
   @Override public String getName() {
@@ -88,12 +146,12 @@ public class ServiceCacheFactory implements PushDownFactory {
       return cache.get();
     }
 
-    return getPentahoCacheTemplateConfiguration( serviceCache )
+    return listen( dataServiceName, getPentahoCacheTemplateConfiguration( serviceCache )
       .createCache(
         cacheName( dataServiceName ),
         CachedService.CacheKey.class,
         CachedService.class
-      );
+      ) );
   }
 
   public PentahoCacheTemplateConfiguration getPentahoCacheTemplateConfiguration( ServiceCache serviceCache ) {
@@ -109,17 +167,36 @@ public class ServiceCacheFactory implements PushDownFactory {
 
   public Optional<Cache<CachedService.CacheKey, CachedService>> getCache( String dataServiceName ) {
     try {
-      return Optional.fromNullable( cacheManager.getCache(
+      return Optional.fromNullable( listen( dataServiceName, cacheManager.getCache(
         cacheName( dataServiceName ),
         CachedService.CacheKey.class,
         CachedService.class
-      ) );
+      ) ) );
     } catch ( Exception e ) {
       cacheManager.destroyCache( cacheName( dataServiceName ) );
       return Optional.absent();
     }
   }
 
+  /**
+   * Registers a listener that stops accounting in the budget for the entries a cache expires or removes, once per
+   * cache. Caches without listener support keep them accounted for until a lookup misses them.
+   */
+  private Cache<CachedService.CacheKey, CachedService> listen( String dataServiceName,
+                                                               Cache<CachedService.CacheKey, CachedService> cache ) {
+    if ( cache != null && listenedCaches.add( cache ) ) {
+      BudgetListener listener = new BudgetListener( dataServiceName );
+      Factory<CacheEntryListener<CachedService.CacheKey, CachedService>> listenerFactory = () -> listener;
+      try {
+        cache.registerCacheEntryListener( new MutableCacheEntryListenerConfiguration<CachedService.CacheKey,
+          CachedService>( listenerFactory, null, false, true ) );
+      } catch ( UnsupportedOperationException | IllegalArgumentException | CacheException e ) {
+        // Entries are forgotten when a lookup misses them
+      }
+    }
+    return cache;
+  }
+
   public String cacheName( String dataServiceName ) {
     return CACHE_PREFIX + dataServiceName;
   }
@@ -128,8 +205,14 @@ public class ServiceCacheFactory implements PushDownFactory {
     return new ServiceObserver( executor );
   }
 
+  /**
+   * Creates the loader of a cached result, holding its rows from now on even if they are evicted before the replay.
+   *
+   * @throws IllegalStateException if the rows were already evicted
+   */
   public CachedServiceLoader createCachedServiceLoader( CachedService cachedService ) {
-    return new CachedServiceLoader( executorService, () -> cachedService.getRowMetaAndData().iterator() );
+    Iterator<RowMetaAndData> rows = cachedService.rows();
+    return new CachedServiceLoader( executorService, () -> rows );
   }
 
   public CachedServiceLoader createCachedServiceLoader( Supplier<Iterator<RowMetaAndData>> supplier ) {
@@ -147,7 +230,199 @@ public class ServiceCacheFactory implements PushDownFactory {
     return cacheManager.getTemplates().get( templateName ).getProperties();
   }
 
+  public OffHeapRowStore getOffHeapStore() {
+    return offHeapStore;
+  }
+
+  /**
+   * Releases the direct memory and deletes the persisted and aggregated results of a data service.
+   */
+  public void invalidate( String dataServiceName ) {
+    cachedKeys.remove( dataServiceName );
+    budget.invalidate( dataServiceName );
+    aggregateCache.invalidate( dataServiceName );
+    offHeapStore.invalidate( dataServiceName );
+    persistentCache.invalidate( dataServiceName );
+  }
+
+  /**
+   * Keys that may have a cached result for a data service, including those persisted by an earlier run. Entries
+   * may have expired since, keys without a result should be removed from the returned set.
+   *
+   * @param dataServiceName data service name
+   * @return live set of keys
+   */
+  public Set<CachedService.CacheKey> getCachedKeys( String dataServiceName ) {
+    return cachedKeys.computeIfAbsent( dataServiceName, name -> {
+      Set<CachedService.CacheKey> keys = ConcurrentHashMap.newKeySet();
+      keys.addAll( persistentCache.keys( name ) );
+      return keys;
+    } );
+  }
+
+  public PersistentServiceCache getPersistentCache() {
+    return persistentCache;
+  }
+
+  /**
+   * @return true if results are also kept on the local disk tier
+   */
+  public boolean isPersistent() {
+    return persistentCache.isEnabled();
+  }
+
+  /**
+   * Writes a cached result to the local disk tier, if enabled.
+   */
+  public void persist( ServiceCache serviceCache, String dataServiceName, CachedService.CacheKey key,
+                       CachedService cachedService ) throws IOException {
+    if ( persistentCache.isEnabled() ) {
+      persistentCache.store( dataServiceName, key, cachedService, getTimeToLive( serviceCache ) );
+    }
+  }
+
+  /**
+   * Reads a result persisted by an earlier run.
+   *
+   * @return the persisted result, or null if none is valid for this key
+   */
+  public CachedService loadPersisted( ServiceCache serviceCache, String dataServiceName,
+                                      CachedService.CacheKey key ) {
+    if ( !persistentCache.isEnabled() ) {
+      return null;
+    }
+    return persistentCache.load( dataServiceName, key, getTimeToLive( serviceCache ) );
+  }
+
+  public ServiceCacheBudget getBudget() {
+    return budget;
+  }
+
+  /**
+   * Accounts for a result added to a data service cache, evicting the results that no longer fit in the budget.
+   */
+  void admit( String dataServiceName, CachedService.CacheKey key, CachedService cachedService ) {
+    for ( ServiceCacheBudget.Entry evicted :
+      budget.admit( dataServiceName, key, cachedService.getEstimatedSize() ) ) {
+      Optional<Cache<CachedService.CacheKey, CachedService>> cache = getCache( evicted.getDataServiceName() );
+      CachedService removed = cache.isPresent() ? cache.get().getAndRemove( evicted.getKey() ) : null;
+      if ( removed != null ) {
+        removed.release();
+      }
+    }
+  }
+
+  /**
+   * Counts a hit on a cached result, raising its priority in the budget.
+   */
+  void recordHit( String dataServiceName, CachedService.CacheKey key ) {
+    budget.touch( dataServiceName, key );
+  }
+
+  /**
+   * Stops accounting for a result no longer held by its cache.
+   */
+  void forget( String dataServiceName, CachedService.CacheKey key ) {
+    budget.remove( dataServiceName, key );
+  }
+
+  /**
+   * Stops accounting for the results of a data service cache that was dropped.
+   */
+  void forget( String dataServiceName ) {
+    budget.invalidate( dataServiceName );
+  }
+
+  public AggregateCache getAggregateCache() {
+    return aggregateCache;
+  }
+
+  long getTimeToLive( ServiceCache serviceCache ) {
+    String timeToLive = serviceCache.getTimeToLive();
+    if ( timeToLive == null ) {
+      timeToLive = serviceCache.getConfiguredTimeToLive();
+    }
+    return Const.toLong( timeToLive, 0 );
+  }
+
+  /**
+   * Fraction of the time to live after which a cache hit refreshes the entry in the background, 0 if disabled.
+   */
+  public double getRefreshAhead() {
+    return refreshAhead;
+  }
+
+  public void setRefreshAhead( double refreshAhead ) {
+    this.refreshAhead = refreshAhead;
+  }
+
+  private static double readRefreshAhead() {
+    try {
+      return Const.toDouble( KettleUtils.getInstance().getKettleProperty(
+        DataServiceConstants.CACHE_REFRESH_AHEAD_PROPERTY ), DataServiceConstants.CACHE_REFRESH_AHEAD_DEFAULT );
+    } catch ( KettleException e ) {
+      return DataServiceConstants.CACHE_REFRESH_AHEAD_DEFAULT;
+    }
+  }
+
+  /**
+   * Claims the background refresh of a cache entry, so that only one refresh runs for it at a time.
+   *
+   * @return true if no refresh was running for this entry
+   */
+  boolean startRefresh( String dataServiceName, CachedService.CacheKey key ) {
+    return refreshingKeys.add( new AbstractMap.SimpleImmutableEntry<>( dataServiceName, key ) );
+  }
+
+  void finishRefresh( String dataServiceName, CachedService.CacheKey key ) {
+    refreshingKeys.remove( new AbstractMap.SimpleImmutableEntry<>( dataServiceName, key ) );
+  }
+
+  /**
+   * Queries run by a background refresh. These skip cache lookups and always replace the cached result.
+   */
+  Set<DataServiceExecutor> getRefreshes() {
+    return refreshes;
+  }
+
+  /**
+   * Background refreshes that only query the rows appended since a cached result, by query.
+   */
+  Map<DataServiceExecutor, IncrementalRefresh> getIncrementalRefreshes() {
+    return incrementalRefreshes;
+  }
+
   public Map<CachedService.CacheKey, ServiceObserver> getRunningServices() {
     return runningServices;
   }
+
+  /**
+   * Stops accounting for the entries a data service cache expires or removes on its own. Expired entries also free
+   * their direct memory.
+   */
+  private class BudgetListener implements CacheEntryExpiredListener<CachedService.CacheKey, CachedService>,
+    CacheEntryRemovedListener<CachedService.CacheKey, CachedService> {
+    private final String dataServiceName;
+
+    BudgetListener( String dataServiceName ) {
+      this.dataServiceName = dataServiceName;
+    }
+
+    @Override public void onExpired(
+      Iterable<CacheEntryEvent<? extends CachedService.CacheKey, ? extends CachedService>> events ) {
+      for ( CacheEntryEvent<? extends CachedService.CacheKey, ? extends CachedService> event : events ) {
+        forget( dataServiceName, event.getKey() );
+        if ( event.getValue() != null ) {
+          event.getValue().release();
+        }
+      }
+    }
+
+    @Override public void onRemoved(
+      Iterable<CacheEntryEvent<? extends CachedService.CacheKey, ? extends CachedService>> events ) {
+      for ( CacheEntryEvent<? extends CachedService.CacheKey, ? extends CachedService> event : events ) {
+        forget( dataServiceName, event.getKey() );
+      }
+    }
+  }
 }
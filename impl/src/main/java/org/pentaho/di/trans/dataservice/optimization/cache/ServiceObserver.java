@@ -13,12 +13,15 @@
 
 package org.pentaho.di.trans.dataservice.optimization.cache;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AbstractFuture;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.trans.dataservice.DataServiceExecutor;
+import org.pentaho.di.trans.dataservice.execution.DefaultTransWiring;
+import org.pentaho.di.trans.dataservice.execution.ServiceRowCapture;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.row.RowMetaInterface;
@@ -30,53 +33,63 @@ import org.pentaho.di.trans.step.StepMeta;
 
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import static com.google.common.base.Predicates.instanceOf;
 
 /**
  * @author nhudak
  */
-public class ServiceObserver extends AbstractFuture<CachedService> implements Runnable {
+public class ServiceObserver extends AbstractFuture<CachedService> implements ServiceRowCapture {
   private final DataServiceExecutor executor;
 
-  List<RowMetaAndData> rowMetaAndData = Lists.newArrayList();
-  boolean isRunning = true;
-  CountDownLatch latch = new CountDownLatch( 1 );
+  final ServiceRowLog rowLog = new ServiceRowLog();
 
   public ServiceObserver( DataServiceExecutor executor ) {
     this.executor = executor;
+    // Release readers however the observation ends, only a completed service ends them without error
+    addListener( () -> {
+      try {
+        get();
+        rowLog.close();
+      } catch ( ExecutionException e ) {
+        rowLog.fail( e.getCause() );
+      } catch ( CancellationException | InterruptedException e ) {
+        rowLog.fail( e );
+      }
+    }, MoreExecutors.directExecutor() );
   }
 
+  /**
+   * Follows the rows of the running service transformation, from the first row. The iterator blocks until more rows
+   * are written or the service step finishes. If the service transformation fails or is stopped before writing every
+   * row the query needs, the iterator throws an {@link IllegalStateException} after the last row written.
+   */
   public Iterator<RowMetaAndData> rows() {
-    return new Iterator<RowMetaAndData>() {
-      int index = 0;
-      @Override public boolean hasNext() {
-        if ( rowMetaAndData.size() > index ) {
-          return true;
-        }
-        if ( isRunning ) {
-          latch = new CountDownLatch( 1 );
-          try {
-            while ( !latch.await( 1, TimeUnit.SECONDS ) ) {
-              if ( !isRunning ) {
-                return rowMetaAndData.size() > index;
-              }
-            }
-            return rowMetaAndData.size() > index;
-          } catch ( InterruptedException e ) {
-            return rowMetaAndData.size() > index;
-          }
-        } else {
-          return rowMetaAndData.size() > index;
-        }
-      }
+    return rowLog.cursor();
+  }
 
-      @Override public RowMetaAndData next() {
-        return rowMetaAndData.get( index++ );
-      }
-    };
+  /**
+   * @return true if the observed query reads every row of the service transformation
+   */
+  boolean scansAll() {
+    return CachedService.calculateRank( executor ) == Integer.MAX_VALUE;
+  }
+
+  /**
+   * Checks if another query can attach to this running service transformation. A query that doesn't read every row
+   * only shares its prefix with queries for the same rows, which don't need more of them.
+   *
+   * @param query query looking for a running service transformation
+   * @return true if the rows observed here answer the query
+   */
+  boolean answersQuery( DataServiceExecutor query ) {
+    if ( scansAll() ) {
+      return true;
+    }
+    return CachedService.CacheKey.create( executor ).equals( CachedService.CacheKey.create( query ) )
+      && CachedService.partial( ImmutableList.<RowMetaAndData>of(), executor ).answersQuery( query );
   }
 
   public ListenableFuture<CachedService> install() {
@@ -91,29 +104,36 @@ public class ServiceObserver extends AbstractFuture<CachedService> implements Ru
 
   @Override public void run() {
     StepInterface serviceStep = executor.getServiceTrans().findRunThread( executor.getService().getStepname() );
+    // Keep the service step rows when nothing else will touch them, the generated transformation gets copies
+    final boolean ownsRows = DefaultTransWiring.canTransferRows( executor.getServiceTrans(), serviceStep );
     serviceStep.addRowListener( new RowAdapter() {
       @Override public synchronized void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) {
-        Object[] clonedRow;
+        Object[] capturedRow;
         try {
-          clonedRow = rowMeta.cloneRow( row );
+          capturedRow = ownsRows ? row : rowMeta.cloneRow( row );
         } catch ( KettleValueException e ) {
           setException( e );
           return;
         }
-        rowMetaAndData.add( new RowMetaAndData( rowMeta, clonedRow ) );
-        latch.countDown();
+        rowLog.append( new RowMetaAndData( rowMeta, capturedRow ) );
       }
     } );
     serviceStep.addStepListener( new StepAdapter() {
       @Override public void stepFinished( Trans trans, StepMeta stepMeta, StepInterface step ) {
-        isRunning = false;
         if ( executor.getGenTrans().getErrors() > 0 ) {
           setException(
             new KettleException( "Dynamic transformation finished with errors, could not cache results" ) );
         } else if ( step.isStopped() ) {
-          set( CachedService.partial( rowMetaAndData, executor ) );
+          // Rows read up to the row limit of the query still answer queries for the same rows, a cancelled query or
+          // a stopped scan leaves followers short of rows
+          if ( executor.isStopped() || scansAll() ) {
+            rowLog.fail( new KettleException( "Service transformation was stopped" ) );
+          }
+          rowLog.close();
+          set( CachedService.partial( rowLog.snapshot(), executor ) );
         } else {
-          set( CachedService.complete( rowMetaAndData ) );
+          rowLog.close();
+          set( CachedService.complete( rowLog.snapshot() ) );
         }
       }
     } );
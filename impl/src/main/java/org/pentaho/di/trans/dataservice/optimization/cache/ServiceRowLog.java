@@ -0,0 +1,156 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.collect.ImmutableList;
+import org.pentaho.di.core.RowMetaAndData;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of the rows written by a running service transformation.
+ * <p>
+ * A single writer appends rows while any number of readers follow it, each through its own cursor. A cursor that
+ * catches up with the writer blocks until the next row is appended or the log is closed, so every reader is paced by
+ * its own consumer. The writer never waits for readers, the log is kept whole to become the cached result.
+ * <p>
+ * A log that {@link #fail failed} holds only part of the service rows, its cursors throw once they reach its end
+ * instead of ending as if every row had been read.
+ */
+class ServiceRowLog {
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition appended = lock.newCondition();
+  private final List<RowMetaAndData> rows = new ArrayList<>();
+  private boolean closed = false;
+  private Throwable failure;
+
+  void append( RowMetaAndData row ) {
+    lock.lock();
+    try {
+      if ( !closed ) {
+        rows.add( row );
+        appended.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Marks the end of the log, waking up every waiting reader. Rows appended afterwards are ignored.
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      appended.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Ends the log without all of the service rows, waking up every waiting reader. Does nothing if already closed.
+   *
+   * @param cause why the service transformation did not complete
+   */
+  void fail( Throwable cause ) {
+    lock.lock();
+    try {
+      if ( !closed ) {
+        closed = true;
+        failure = cause;
+        appended.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean isClosed() {
+    lock.lock();
+    try {
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int size() {
+    lock.lock();
+    try {
+      return rows.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the rows appended so far
+   */
+  List<RowMetaAndData> snapshot() {
+    lock.lock();
+    try {
+      return ImmutableList.copyOf( rows );
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Opens a cursor at the first row. {@link Iterator#hasNext()} blocks while the cursor is caught up with an open log,
+   * and throws an {@link IllegalStateException} once it reaches the end of a failed log. An interrupted reader stops at
+   * the rows already available.
+   */
+  Iterator<RowMetaAndData> cursor() {
+    return new Iterator<RowMetaAndData>() {
+      private int index = 0;
+
+      @Override public boolean hasNext() {
+        lock.lock();
+        try {
+          while ( index >= rows.size() && !closed ) {
+            appended.await();
+          }
+          if ( index >= rows.size() && failure != null ) {
+            throw new IllegalStateException( "Service transformation did not complete", failure );
+          }
+          return index < rows.size();
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          return index < rows.size();
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      @Override public RowMetaAndData next() {
+        lock.lock();
+        try {
+          if ( index >= rows.size() ) {
+            throw new NoSuchElementException();
+          }
+          return rows.get( index++ );
+        } finally {
+          lock.unlock();
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,88 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.MediaType;
+import org.pentaho.di.core.annotations.CarteServlet;
+import org.pentaho.di.www.BaseCartePlugin;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * This servlet starts a data service cache warm-up, or reports on the last one
+ * <p>
+ * A POST request starts a warm-up of the services given by the name parameter, or of every service with recorded
+ * queries. Any request reports the last warm-up and the queries a warm-up replays.
+ */
+@CarteServlet(
+  id = "ds_warmUpServiceCache",
+  name = "PDI Data Service: ServiceCache warm-up",
+  description = "Warm up data service Caches with the most frequent queries" )
+public class WarmUpCacheServlet extends BaseCartePlugin {
+  private static final String NAME_PARAMETER = "name";
+  private static final String CONTEXT_PATH = "/warmUpDataServiceCache";
+  private final CacheWarmer warmer;
+
+  public WarmUpCacheServlet( CacheWarmer warmer ) {
+    this.warmer = warmer;
+  }
+
+  public String getContextPath() {
+    return CONTEXT_PATH;
+  }
+
+  @Override public void handleRequest( CarteRequest request ) throws IOException {
+    Collection<String> names = request.getParameters().get( NAME_PARAMETER );
+    final Collection<String> dataServiceNames = names == null ? ImmutableList.<String>of() : names;
+    final boolean started = "POST".equalsIgnoreCase( request.getMethod() );
+    if ( started ) {
+      warmer.warmUp( dataServiceNames );
+    }
+
+    request
+      .respond( 200 )
+      .with( MediaType.PLAIN_TEXT_UTF_8.toString(), new WriterResponse() {
+        @Override public void write( PrintWriter writer ) throws IOException {
+          if ( started ) {
+            writer.println( "Warm-up started" );
+          }
+          CacheWarmer.Report report = warmer.getLastReport();
+          if ( report == null ) {
+            writer.println( "No warm-up has run" );
+          } else {
+            writer.println( "Last warm-up started: " + new Date( report.getStarted() ) );
+            writer.println( report.getFinished() > 0
+              ? "Last warm-up finished: " + new Date( report.getFinished() ) : "Last warm-up is running" );
+            for ( CacheWarmer.Result result : report.getResults() ) {
+              writer.println( result.getDataServiceName() + " [" + result.getDuration() + " ms] " + result.getSql()
+                + ( result.getError() == null ? "" : " failed: " + result.getError() ) );
+            }
+          }
+          QueryHistory history = warmer.getHistory();
+          Collection<String> reported = dataServiceNames.isEmpty() ? history.getDataServiceNames() : dataServiceNames;
+          for ( String name : reported ) {
+            writer.println( "Warm-up queries of " + name + ":" );
+            for ( QueryHistory.RecordedQuery query : history.top( name, warmer.getTopQueries() ) ) {
+              writer.println( "  " + history.getCount( name, query ) + " runs: " + query.getSql() );
+            }
+          }
+          writer.println( "Done" );
+        }
+      } );
+  }
+}
@@ -52,6 +52,7 @@ public class ServiceCacheController extends AbstractController {
 
     XulCheckbox serviceCacheCheckBox = getElementById( "service-cache-checkbox" );
     XulTextbox serviceCacheTextBox = getElementById( "service-cache-ttl" );
+    XulTextbox watermarkTextBox = getElementById( "service-cache-watermark" );
 
     bindingFactory.setBindingType( Binding.Type.ONE_WAY );
 
@@ -66,9 +67,13 @@ public class ServiceCacheController extends AbstractController {
     }
     bindingFactory.createBinding( serviceCacheTextBox, "value", serviceCache, "timeToLive" );
 
+    watermarkTextBox.setValue( serviceCache.getWatermarkField() );
+    bindingFactory.createBinding( watermarkTextBox, "value", serviceCache, "watermarkField" );
+
     bindingFactory.createBinding( serviceCacheCheckBox, "checked", meta, "enabled" );
 
     bindingFactory.createBinding( serviceCacheCheckBox, "checked", serviceCacheTextBox, "disabled", not() );
+    bindingFactory.createBinding( serviceCacheCheckBox, "checked", watermarkTextBox, "disabled", not() );
 
     bindingFactory.createBinding( normalModeRadio, "selected", serviceCacheTab, "visible" );
     bindingFactory.createBinding( streamingRadioButton, "!selected", serviceCacheTab, "visible" );
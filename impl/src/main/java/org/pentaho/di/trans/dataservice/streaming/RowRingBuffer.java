@@ -0,0 +1,225 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming;
+
+import com.google.common.base.Preconditions;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single writer, multiple reader ring of stream rows.
+ * <p>
+ * The writer stores each row in the next slot and publishes its sequence. Each reader follows the rows with its own
+ * {@link Cursor}, so adding readers adds neither work nor allocation for the writer. When the ring is full the writer
+ * waits for the slowest reader, as it used to wait for subscribers that consumed the rows synchronously.
+ */
+public class RowRingBuffer {
+  private static final long WRITER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos( 100 );
+
+  private final int mask;
+  private final RowMetaInterface[] rowMetas;
+  private final Object[][] rows;
+  private final AtomicLong published = new AtomicLong( -1 );
+  private volatile Cursor[] cursors = new Cursor[ 0 ];
+  private volatile boolean readersWaiting = false;
+  // Slowest reader position known by the writer, refreshed only when the ring looks full
+  private long gatingSequence = -1;
+
+  /**
+   * @param capacity number of rows kept for the readers, rounded up to a power of two
+   */
+  public RowRingBuffer( int capacity ) {
+    Preconditions.checkArgument( capacity > 0, "Ring capacity must be positive" );
+    int size = capacity == 1 ? 1 : Integer.highestOneBit( capacity - 1 ) << 1;
+    mask = size - 1;
+    rowMetas = new RowMetaInterface[ size ];
+    rows = new Object[ size ][];
+  }
+
+  public int getCapacity() {
+    return rows.length;
+  }
+
+  /**
+   * @return sequence of the last row added, -1 if none was
+   */
+  public long getSequence() {
+    return published.get();
+  }
+
+  public boolean hasReaders() {
+    return cursors.length > 0;
+  }
+
+  /**
+   * Adds a row, waiting while the slowest reader is a whole ring behind. Must only be called by one thread at a time.
+   *
+   * @param rowMeta row metadata
+   * @param row     row data
+   */
+  public void add( RowMetaInterface rowMeta, Object[] row ) {
+    long sequence = published.get() + 1;
+    long wrapPoint = sequence - rows.length;
+    while ( wrapPoint > gatingSequence ) {
+      gatingSequence = slowestReader( sequence - 1 );
+      if ( wrapPoint > gatingSequence ) {
+        LockSupport.parkNanos( this, WRITER_PARK_NANOS );
+      }
+    }
+
+    int index = (int) sequence & mask;
+    rowMetas[ index ] = rowMeta;
+    rows[ index ] = row;
+    published.set( sequence );
+
+    if ( readersWaiting ) {
+      readersWaiting = false;
+      for ( Cursor cursor : cursors ) {
+        LockSupport.unpark( cursor.reader );
+      }
+    }
+  }
+
+  private long slowestReader( long last ) {
+    long slowest = last;
+    for ( Cursor cursor : cursors ) {
+      slowest = Math.min( slowest, cursor.sequence );
+    }
+    return slowest;
+  }
+
+  /**
+   * Registers a reader of the rows added from now on.
+   *
+   * @return the reader cursor
+   */
+  public synchronized Cursor newCursor() {
+    Cursor cursor = new Cursor( published.get() );
+    Cursor[] updated = Arrays.copyOf( cursors, cursors.length + 1 );
+    updated[ cursors.length ] = cursor;
+    cursors = updated;
+    return cursor;
+  }
+
+  /**
+   * Unregisters a reader, so that the writer no longer waits for it.
+   *
+   * @param cursor the reader cursor
+   */
+  public synchronized void remove( Cursor cursor ) {
+    for ( int i = 0; i < cursors.length; i++ ) {
+      if ( cursors[ i ] == cursor ) {
+        Cursor[] updated = new Cursor[ cursors.length - 1 ];
+        System.arraycopy( cursors, 0, updated, 0, i );
+        System.arraycopy( cursors, i + 1, updated, i, updated.length - i );
+        cursors = updated;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Handles the rows read by a cursor.
+   */
+  public interface RowHandler {
+    /**
+     * @return false to stop reading before this row, which is handled again by the next read
+     */
+    boolean handle( RowMetaInterface rowMeta, Object[] row ) throws Exception;
+  }
+
+  /**
+   * Position of a reader in the ring. A cursor must only be used by one thread at a time.
+   */
+  public final class Cursor {
+    private volatile long sequence;
+    private volatile Thread reader;
+
+    private Cursor( long sequence ) {
+      this.sequence = sequence;
+    }
+
+    /**
+     * @return sequence of the last row read
+     */
+    public long getSequence() {
+      return sequence;
+    }
+
+    /**
+     * @return number of rows added and not read yet
+     */
+    public long getBacklog() {
+      return published.get() - sequence;
+    }
+
+    /**
+     * Waits for rows to read.
+     *
+     * @param timeout  longest time to wait
+     * @param timeUnit unit of the timeout
+     * @return true if there are rows to read
+     */
+    public boolean await( long timeout, TimeUnit timeUnit ) {
+      if ( published.get() > sequence ) {
+        return true;
+      }
+      reader = Thread.currentThread();
+      readersWaiting = true;
+      // The writer checks the flag after publishing a row, either the row or the wake up is seen
+      if ( published.get() > sequence ) {
+        return true;
+      }
+      LockSupport.parkNanos( this, timeUnit.toNanos( timeout ) );
+      return published.get() > sequence;
+    }
+
+    /**
+     * Passes the rows not read yet to a handler, then releases their slots to the writer.
+     *
+     * @param handler handler of each row
+     * @return number of rows read
+     * @throws Exception if the handler fails, the rows up to the failed one are released
+     */
+    public int read( RowHandler handler ) throws Exception {
+      long first = sequence;
+      long available = published.get();
+      long last = first;
+      try {
+        while ( last < available ) {
+          int index = (int) ( last + 1 ) & mask;
+          boolean handled;
+          try {
+            handled = handler.handle( rowMetas[ index ], rows[ index ] );
+          } catch ( Exception e ) {
+            // A row that failed is not read again
+            last++;
+            throw e;
+          }
+          if ( !handled ) {
+            break;
+          }
+          last++;
+        }
+      } finally {
+        sequence = last;
+      }
+      return (int) ( last - first );
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import com.google.common.math.LongMath;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.trans.dataservice.optimization.cache.RowSizeEstimator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Event time windows of a stream listener, see {@link WindowEventTime}.
+ * <p>
+ * Windows start every {@code windowEvery} milliseconds of event time, aligned on the epoch, and last
+ * {@code windowSize} milliseconds. Rows are kept in panes as long as the greatest duration dividing both, so that a row
+ * is held once whatever the number of sliding windows holding it, and a window is the concatenation of its panes.
+ * <p>
+ * The watermark is the latest event time read less the allowed out of orderness. The windows ending at or before the
+ * watermark are complete: they are produced in order, skipping the ones without rows, and the panes no open window
+ * holds are released. A row older than every open window is late and dropped.
+ * <p>
+ * The panes are weighed against the {@link WindowBufferBudget} of the service. A row that doesn't fit drops the oldest
+ * panes whatever the overflow policy, as waiting for memory would also hold back the watermark that frees it.
+ */
+class EventTimeWindows {
+  private final String timestampField;
+  private final long maxOutOfOrderness;
+  private final long windowSize;
+  private final long windowEvery;
+  private final long paneSize;
+  private final WindowBufferBudget budget;
+  private final TreeMap<Long, Pane> panes = new TreeMap<>();
+
+  private RowMetaInterface rowMeta;
+  private int timestampIndex = -1;
+  private long maxTimestamp = Long.MIN_VALUE;
+  // Start of the first window not produced yet, it only moves forward once a window was produced
+  private long nextWindowStart = Long.MAX_VALUE;
+  private boolean producing;
+
+  /**
+   * @param eventTime   the event time of the service rows
+   * @param windowSize  window duration, in milliseconds
+   * @param windowEvery window rate in milliseconds, 0 or less for tumbling windows
+   * @param budget      the window memory of the service
+   */
+  EventTimeWindows( WindowEventTime eventTime, long windowSize, long windowEvery, WindowBufferBudget budget ) {
+    this.timestampField = eventTime.getTimestampField();
+    this.maxOutOfOrderness = eventTime.getMaxOutOfOrderness();
+    this.windowSize = windowSize;
+    this.windowEvery = windowEvery > 0 ? windowEvery : windowSize;
+    this.paneSize = LongMath.gcd( this.windowSize, this.windowEvery );
+    this.budget = budget;
+  }
+
+  /**
+   * Adds a row to the pane of its event time. Rows without event time are dropped.
+   */
+  void add( RowMetaAndData row ) {
+    Long timestamp = getTimestamp( row );
+    if ( timestamp == null ) {
+      budget.recordDropped( 1 );
+      return;
+    }
+    if ( producing && timestamp < nextWindowStart ) {
+      budget.recordLate( 1 );
+      return;
+    }
+
+    long bytes = budget.isEnabled() ? RowSizeEstimator.estimate( row ) : 0;
+    while ( !budget.tryAcquire( bytes ) ) {
+      if ( panes.isEmpty() ) {
+        // The memory is held by other listeners
+        budget.recordDropped( 1 );
+        return;
+      }
+      Pane dropped = panes.pollFirstEntry().getValue();
+      budget.release( dropped.bytes );
+      budget.recordDropped( dropped.rows.size() );
+    }
+
+    if ( !producing ) {
+      nextWindowStart = Math.min( nextWindowStart, firstWindowStart( timestamp ) );
+    }
+    Pane pane = panes.computeIfAbsent( Math.floorDiv( timestamp, paneSize ) * paneSize, start -> new Pane() );
+    pane.rows.add( row );
+    pane.bytes += bytes;
+    maxTimestamp = Math.max( maxTimestamp, timestamp );
+  }
+
+  /**
+   * Removes the windows that are complete.
+   *
+   * @param idle true when no row was read for a while, the latest event time read is then taken as the watermark
+   * @return the complete windows, oldest first
+   */
+  List<List<RowMetaAndData>> fire( boolean idle ) {
+    long watermark = idle ? maxTimestamp : maxTimestamp - maxOutOfOrderness;
+    List<List<RowMetaAndData>> complete = Collections.emptyList();
+    while ( !panes.isEmpty() && isComplete( nextWindowStart, watermark ) ) {
+      // Skip the windows without rows
+      long start = Math.max( nextWindowStart, firstWindowStart( panes.firstKey() ) );
+      if ( !isComplete( start, watermark ) ) {
+        nextWindowStart = start;
+        break;
+      }
+
+      List<RowMetaAndData> window = new ArrayList<>();
+      for ( Pane pane : panes.subMap( start, start + windowSize ).values() ) {
+        window.addAll( pane.rows );
+      }
+      if ( complete.isEmpty() ) {
+        complete = new ArrayList<>();
+      }
+      complete.add( window );
+
+      producing = true;
+      nextWindowStart = start + windowEvery;
+      release( panes.headMap( nextWindowStart ).values().iterator() );
+    }
+    return complete;
+  }
+
+  /**
+   * Releases every pane.
+   */
+  void clear() {
+    release( panes.values().iterator() );
+  }
+
+  /**
+   * @return number of rows held by the panes
+   */
+  int getBufferedRows() {
+    int rows = 0;
+    for ( Pane pane : panes.values() ) {
+      rows += pane.rows.size();
+    }
+    return rows;
+  }
+
+  private boolean isComplete( long windowStart, long watermark ) {
+    return maxTimestamp != Long.MIN_VALUE && windowStart <= watermark - windowSize + 1;
+  }
+
+  private void release( Iterator<Pane> released ) {
+    while ( released.hasNext() ) {
+      budget.release( released.next().bytes );
+      released.remove();
+    }
+  }
+
+  /**
+   * @return start of the first window holding the given event time
+   */
+  private long firstWindowStart( long timestamp ) {
+    return Math.floorDiv( timestamp - windowSize, windowEvery ) * windowEvery + windowEvery;
+  }
+
+  private Long getTimestamp( RowMetaAndData row ) {
+    if ( row.getRowMeta() != rowMeta ) {
+      rowMeta = row.getRowMeta();
+      timestampIndex = rowMeta.indexOfValue( timestampField );
+    }
+    if ( timestampIndex < 0 ) {
+      return null;
+    }
+    try {
+      ValueMetaInterface valueMeta = rowMeta.getValueMeta( timestampIndex );
+      Object value = row.getData()[ timestampIndex ];
+      if ( valueMeta.isNull( value ) ) {
+        return null;
+      }
+      if ( valueMeta.isDate() ) {
+        return valueMeta.getDate( value ).getTime();
+      }
+      return valueMeta.getInteger( value );
+    } catch ( KettleValueException e ) {
+      return null;
+    }
+  }
+
+  /**
+   * Rows of a pane, in the order they were read.
+   */
+  private static class Pane {
+    private final List<RowMetaAndData> rows = new ArrayList<>();
+    private long bytes;
+  }
+}
@@ -0,0 +1,587 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import com.google.common.base.Throwables;
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.core.sql.SQLField;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.dataservice.SqlTransGenerator;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the windows of an aggregate streaming query natively, instead of running the generated transformation for
+ * every window.
+ * <p>
+ * The rows of a window are split in panes, each holding the partial aggregates of its groups. Consecutive windows of
+ * a sliding buffer share most of their rows: the panes a window still covers are kept, and only its new rows are
+ * aggregated, in a new pane. When a window starts in the middle of a pane, only the remaining rows of that pane are
+ * aggregated again. The window result merges the partial aggregates of its panes. Windows that don't line up with
+ * the panes, like fallback windows, are aggregated from scratch.
+ * <p>
+ * Only the queries the generated transformation answers with a where filter, a Group by and a select step are
+ * supported, see {@link #create}. ORDER BY and LIMIT are applied to the window result.
+ */
+public class IncrementalWindowAggregator {
+  private enum Aggregation {
+    SUM, MIN, MAX, AVG, COUNT_ANY, COUNT_ALL, COUNT_DISTINCT
+  }
+
+  private final Condition condition;
+  private final String[] groupFields;
+  private final Aggregation[] aggregations;
+  private final String[] subjectFields;
+  // Group field index for each result field, or the aggregate index plus one, negated
+  private final int[] resultSources;
+  private final RowMetaInterface resultFields;
+  private final int[] orderFields;
+  private final boolean[] ascending;
+  private final int offset;
+  private final int limit;
+
+  private final Deque<Pane> panes = new ArrayDeque<>();
+  private RowMetaInterface inputFields;
+  private int[] groupIndexes;
+  private int[] subjectIndexes;
+
+  private IncrementalWindowAggregator( Condition condition, String[] groupFields, Aggregation[] aggregations,
+                                       String[] subjectFields, int[] resultSources, RowMetaInterface resultFields,
+                                       int[] orderFields, boolean[] ascending, int offset, int limit ) {
+    this.condition = condition;
+    this.groupFields = groupFields;
+    this.aggregations = aggregations;
+    this.subjectFields = subjectFields;
+    this.resultSources = resultSources;
+    this.resultFields = resultFields;
+    this.orderFields = orderFields;
+    this.ascending = ascending;
+    this.offset = offset;
+    this.limit = limit;
+  }
+
+  /**
+   * Creates an aggregator for a streaming query, if its generated transformation only filters, groups and selects.
+   * Queries with HAVING, DISTINCT, IIF or constant fields, date functions in the where clause or non-grouped select
+   * fields are not supported.
+   *
+   * @param generator    the generator of the query transformation
+   * @param genTransMeta the generated transformation
+   * @return the aggregator, or null if the query needs the generated transformation
+   * @throws KettleException if the fields of the generated transformation result can't be determined
+   */
+  public static IncrementalWindowAggregator create( SqlTransGenerator generator, TransMeta genTransMeta )
+    throws KettleException {
+    SQL sql = generator.getSql();
+    if ( generator.getRowLimit() > 0 || generator.getServiceRowLimit() > 0
+      || sql.getHavingCondition() != null || sql.getSelectFields().isDistinct()
+      || !sql.getSelectFields().getConstantFields().isEmpty()
+      || !sql.getSelectFields().getIifFunctionFields().isEmpty()
+      || ( sql.getOrderFields() != null && !sql.getOrderFields().getIifFunctionFields().isEmpty() ) ) {
+      return null;
+    }
+
+    Condition condition = null;
+    if ( sql.getWhereCondition() != null && !sql.getWhereCondition().isEmpty() ) {
+      if ( !sql.getWhereCondition().getDateToStrFunctions().isEmpty() ) {
+        return null;
+      }
+      condition = (Condition) sql.getWhereCondition().getCondition().clone();
+    }
+
+    List<SQLField> selectFields = sql.getSelectFields().getFields();
+    List<SQLField> aggFields = sql.getSelectFields().getAggregateFields();
+    List<SQLField> groups = sql.getGroupFields() == null
+      ? Collections.<SQLField>emptyList() : sql.getGroupFields().getFields();
+    if ( selectFields.isEmpty() || ( aggFields.isEmpty() && groups.isEmpty() ) ) {
+      return null;
+    }
+    RowMetaInterface resultFields = genTransMeta.getStepFields( generator.getResultStepName() );
+    if ( resultFields.size() != selectFields.size() ) {
+      return null;
+    }
+
+    String[] groupFields = new String[ groups.size() ];
+    for ( int i = 0; i < groups.size(); i++ ) {
+      ValueMetaInterface valueMeta = groups.get( i ).getValueMeta();
+      if ( valueMeta != null && valueMeta.isBinary() ) {
+        return null;
+      }
+      groupFields[ i ] = groups.get( i ).getField();
+    }
+
+    Aggregation[] aggregations = new Aggregation[ aggFields.size() ];
+    String[] subjectFields = new String[ aggFields.size() ];
+    for ( int i = 0; i < aggFields.size(); i++ ) {
+      SQLField field = aggFields.get( i );
+      aggregations[ i ] = getAggregation( field );
+      if ( aggregations[ i ] == null || field.getValueData() != null ) {
+        return null;
+      }
+      ValueMetaInterface valueMeta = field.getValueMeta();
+      if ( valueMeta == null ) {
+        if ( aggregations[ i ] != Aggregation.COUNT_ANY ) {
+          return null;
+        }
+      } else {
+        subjectFields[ i ] = valueMeta.getName();
+        boolean arithmetic = aggregations[ i ] == Aggregation.SUM || aggregations[ i ] == Aggregation.AVG;
+        if ( ( arithmetic && !valueMeta.isNumeric() )
+          || ( aggregations[ i ] == Aggregation.COUNT_DISTINCT && valueMeta.isBinary() ) ) {
+          return null;
+        }
+      }
+    }
+
+    int[] resultSources = new int[ selectFields.size() ];
+    int aggregate = 0;
+    for ( int i = 0; i < selectFields.size(); i++ ) {
+      SQLField field = selectFields.get( i );
+      if ( field.getAggregation() != null ) {
+        resultSources[ i ] = -( ++aggregate );
+      } else {
+        resultSources[ i ] = indexOf( groupFields, field.getField() );
+        if ( resultSources[ i ] < 0 ) {
+          return null;
+        }
+      }
+    }
+
+    int[] orderFields = new int[ 0 ];
+    boolean[] ascending = new boolean[ 0 ];
+    if ( sql.getOrderFields() != null && !sql.getOrderFields().isEmpty() ) {
+      List<SQLField> order = sql.getOrderFields().getFields();
+      orderFields = new int[ order.size() ];
+      ascending = new boolean[ order.size() ];
+      for ( int i = 0; i < order.size(); i++ ) {
+        SQLField field = order.get( i );
+        SQLField selectField = SQLField.searchSQLFieldByFieldOrAlias( selectFields, field.getField() );
+        if ( selectField == null && field.getAlias() != null ) {
+          selectField = SQLField.searchSQLFieldByFieldOrAlias( selectFields, field.getAlias() );
+        }
+        orderFields[ i ] = selectFields.indexOf( selectField );
+        if ( orderFields[ i ] < 0 ) {
+          return null;
+        }
+        ascending[ i ] = field.isAscending();
+      }
+    }
+
+    int offset = 0;
+    int limit = -1;
+    if ( sql.getLimitClause() != null ) {
+      offset = sql.getLimitValues().getOffset();
+      limit = sql.getLimitValues().getLimit();
+    }
+
+    return new IncrementalWindowAggregator( condition, groupFields, aggregations, subjectFields, resultSources,
+      resultFields, orderFields, ascending, offset, limit );
+  }
+
+  private static Aggregation getAggregation( SQLField field ) {
+    switch ( field.getAggregation() ) {
+      case SUM:
+        return Aggregation.SUM;
+      case MIN:
+        return Aggregation.MIN;
+      case MAX:
+        return Aggregation.MAX;
+      case AVG:
+        return Aggregation.AVG;
+      case COUNT:
+        if ( field.isCountStar() ) {
+          return Aggregation.COUNT_ANY;
+        }
+        return field.isCountDistinct() ? Aggregation.COUNT_DISTINCT : Aggregation.COUNT_ALL;
+      default:
+        return null;
+    }
+  }
+
+  private static int indexOf( String[] names, String name ) {
+    for ( int i = 0; i < names.length; i++ ) {
+      if ( names[ i ].equalsIgnoreCase( name ) ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Computes the result of a window.
+   *
+   * @param window the rows of the window, in arrival order
+   * @return the result rows, as the generated transformation would produce them
+   * @throws KettleException if a row can't be aggregated
+   */
+  public synchronized List<RowMetaAndData> aggregate( List<RowMetaAndData> window ) throws KettleException {
+    // The window list may still be growing, as it happens before the first full window
+    List<RowMetaAndData> rows = new ArrayList<>( window );
+    int covered = reusePanes( rows );
+    if ( covered < rows.size() ) {
+      panes.addLast( aggregatePane( rows.subList( covered, rows.size() ) ) );
+    }
+
+    Map<List<Object>, Accumulator[]> groups = new LinkedHashMap<>();
+    for ( Pane pane : panes ) {
+      for ( Map.Entry<List<Object>, Accumulator[]> group : pane.groups.entrySet() ) {
+        Accumulator[] accumulators = groups.get( group.getKey() );
+        if ( accumulators == null ) {
+          accumulators = newAccumulators();
+          groups.put( group.getKey(), accumulators );
+        }
+        for ( int i = 0; i < accumulators.length; i++ ) {
+          accumulators[ i ].merge( group.getValue()[ i ] );
+        }
+      }
+    }
+    if ( groups.isEmpty() && groupFields.length == 0 && Arrays.stream( aggregations ).anyMatch(
+      aggregation -> aggregation == Aggregation.COUNT_ANY || aggregation == Aggregation.COUNT_ALL
+        || aggregation == Aggregation.COUNT_DISTINCT ) ) {
+      // Like the Group by step, always count something
+      groups.put( Collections.emptyList(), newAccumulators() );
+    }
+    return result( groups );
+  }
+
+  /**
+   * Drops the rows that fell out of the window, and checks that the kept panes are still at its start. A pane that
+   * only partly fell out is aggregated again from the first row still in the window.
+   *
+   * @return the number of window rows covered by the kept panes
+   */
+  private int reusePanes( List<RowMetaAndData> rows ) throws KettleException {
+    if ( rows.isEmpty() ) {
+      panes.clear();
+      return 0;
+    }
+    RowMetaAndData first = rows.get( 0 );
+    while ( !panes.isEmpty() && panes.peekFirst().first() != first ) {
+      Pane pane = panes.removeFirst();
+      int start = pane.indexOf( first );
+      if ( start > 0 ) {
+        panes.addFirst( aggregatePane( pane.rows.subList( start, pane.rows.size() ) ) );
+      }
+    }
+    int covered = 0;
+    for ( Pane pane : panes ) {
+      int last = covered + pane.rows.size() - 1;
+      if ( last >= rows.size() || rows.get( covered ) != pane.first() || rows.get( last ) != pane.last() ) {
+        panes.clear();
+        return 0;
+      }
+      covered += pane.rows.size();
+    }
+    return covered;
+  }
+
+  private Pane aggregatePane( List<RowMetaAndData> rows ) throws KettleException {
+    Map<List<Object>, Accumulator[]> groups = new LinkedHashMap<>();
+    for ( RowMetaAndData row : rows ) {
+      RowMetaInterface rowMeta = row.getRowMeta();
+      if ( rowMeta != inputFields ) {
+        resolve( rowMeta );
+      }
+      Object[] data = row.getData();
+      if ( condition != null && !condition.evaluate( rowMeta, data ) ) {
+        continue;
+      }
+
+      Object[] key = new Object[ groupIndexes.length ];
+      for ( int i = 0; i < groupIndexes.length; i++ ) {
+        key[ i ] = rowMeta.getValueMeta( groupIndexes[ i ] ).convertToNormalStorageType( data[ groupIndexes[ i ] ] );
+      }
+      List<Object> group = Arrays.asList( key );
+      Accumulator[] accumulators = groups.get( group );
+      if ( accumulators == null ) {
+        accumulators = newAccumulators();
+        groups.put( group, accumulators );
+      }
+      for ( int i = 0; i < accumulators.length; i++ ) {
+        if ( subjectIndexes[ i ] < 0 ) {
+          accumulators[ i ].add( null, null );
+        } else {
+          accumulators[ i ].add( rowMeta.getValueMeta( subjectIndexes[ i ] ), data[ subjectIndexes[ i ] ] );
+        }
+      }
+    }
+    return new Pane( new ArrayList<>( rows ), groups );
+  }
+
+  private void resolve( RowMetaInterface rowMeta ) throws KettleException {
+    int[] groups = new int[ groupFields.length ];
+    for ( int i = 0; i < groupFields.length; i++ ) {
+      groups[ i ] = indexOfField( rowMeta, groupFields[ i ] );
+    }
+    int[] subjects = new int[ subjectFields.length ];
+    for ( int i = 0; i < subjectFields.length; i++ ) {
+      subjects[ i ] = subjectFields[ i ] == null ? -1 : indexOfField( rowMeta, subjectFields[ i ] );
+    }
+    groupIndexes = groups;
+    subjectIndexes = subjects;
+    inputFields = rowMeta;
+  }
+
+  private static int indexOfField( RowMetaInterface rowMeta, String name ) throws KettleException {
+    int index = rowMeta.indexOfValue( name );
+    if ( index < 0 ) {
+      throw new KettleException( "Unable to find field [" + name + "] in the service rows" );
+    }
+    return index;
+  }
+
+  private Accumulator[] newAccumulators() {
+    Accumulator[] accumulators = new Accumulator[ aggregations.length ];
+    for ( int i = 0; i < aggregations.length; i++ ) {
+      accumulators[ i ] = new Accumulator( aggregations[ i ] );
+    }
+    return accumulators;
+  }
+
+  private List<RowMetaAndData> result( Map<List<Object>, Accumulator[]> groups ) throws KettleValueException {
+    List<RowMetaAndData> result = new ArrayList<>( groups.size() );
+    for ( Map.Entry<List<Object>, Accumulator[]> group : groups.entrySet() ) {
+      Object[] row = new Object[ resultFields.size() ];
+      for ( int i = 0; i < row.length; i++ ) {
+        Object value = resultSources[ i ] >= 0
+          ? group.getKey().get( resultSources[ i ] )
+          : group.getValue()[ -resultSources[ i ] - 1 ].result();
+        row[ i ] = convert( resultFields.getValueMeta( i ), value );
+      }
+      result.add( new RowMetaAndData( resultFields, row ) );
+    }
+
+    if ( orderFields.length > 0 ) {
+      result.sort( ( row1, row2 ) -> {
+        try {
+          for ( int i = 0; i < orderFields.length; i++ ) {
+            int index = orderFields[ i ];
+            int compare = resultFields.getValueMeta( index ).compare( row1.getData()[ index ], row2.getData()[ index ] );
+            if ( compare != 0 ) {
+              return ascending[ i ] ? compare : -compare;
+            }
+          }
+          return 0;
+        } catch ( KettleValueException e ) {
+          throw Throwables.propagate( e );
+        }
+      } );
+    }
+    if ( offset > 0 || limit >= 0 ) {
+      int from = Math.min( offset, result.size() );
+      int to = limit < 0 ? result.size() : (int) Math.min( (long) from + limit, result.size() );
+      result = result.subList( from, to );
+    }
+    return Collections.unmodifiableList( result );
+  }
+
+  /**
+   * Converts an aggregate to the type of the result field, a Group by over integers may give numbers.
+   */
+  private static Object convert( ValueMetaInterface valueMeta, Object value ) {
+    if ( !( value instanceof Number ) ) {
+      return value;
+    }
+    Number number = (Number) value;
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return number instanceof Long ? number : number.longValue();
+      case ValueMetaInterface.TYPE_NUMBER:
+        return number instanceof Double ? number : number.doubleValue();
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        return number instanceof BigDecimal ? number : new BigDecimal( number.toString() );
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * The partial aggregates of consecutive window rows.
+   */
+  private static final class Pane {
+    private final List<RowMetaAndData> rows;
+    private final Map<List<Object>, Accumulator[]> groups;
+
+    private Pane( List<RowMetaAndData> rows, Map<List<Object>, Accumulator[]> groups ) {
+      this.rows = rows;
+      this.groups = groups;
+    }
+
+    private RowMetaAndData first() {
+      return rows.get( 0 );
+    }
+
+    private RowMetaAndData last() {
+      return rows.get( rows.size() - 1 );
+    }
+
+    /**
+     * @return the position of the row instance in this pane, or -1
+     */
+    private int indexOf( RowMetaAndData row ) {
+      for ( int i = 0; i < rows.size(); i++ ) {
+        if ( rows.get( i ) == row ) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * A partial aggregate, which can be merged with the partial aggregates of other rows.
+   */
+  private static final class Accumulator {
+    private final Aggregation aggregation;
+    private ValueMetaInterface valueMeta;
+    private Object value;
+    private long count;
+    private Set<Object> distinct;
+
+    private Accumulator( Aggregation aggregation ) {
+      this.aggregation = aggregation;
+      if ( aggregation == Aggregation.COUNT_DISTINCT ) {
+        distinct = new HashSet<>();
+      }
+    }
+
+    private void add( ValueMetaInterface subjectMeta, Object subject ) throws KettleValueException {
+      if ( aggregation == Aggregation.COUNT_ANY ) {
+        count++;
+        return;
+      }
+      if ( subjectMeta.isNull( subject ) ) {
+        return;
+      }
+      switch ( aggregation ) {
+        case COUNT_ALL:
+          count++;
+          break;
+        case COUNT_DISTINCT:
+          distinct.add( subjectMeta.convertToNormalStorageType( subject ) );
+          break;
+        case SUM:
+        case AVG:
+          value = sum( value, numeric( subjectMeta, subject ) );
+          count++;
+          break;
+        default:
+          Object normal = subjectMeta.convertToNormalStorageType( subject );
+          if ( value == null ) {
+            value = normal;
+            valueMeta = subjectMeta;
+          } else {
+            int compare = valueMeta.compare( normal, value );
+            if ( aggregation == Aggregation.MIN ? compare < 0 : compare > 0 ) {
+              value = normal;
+            }
+          }
+      }
+    }
+
+    private void merge( Accumulator other ) throws KettleValueException {
+      switch ( aggregation ) {
+        case COUNT_ANY:
+        case COUNT_ALL:
+          count += other.count;
+          break;
+        case COUNT_DISTINCT:
+          distinct.addAll( other.distinct );
+          break;
+        case SUM:
+        case AVG:
+          if ( other.value != null ) {
+            value = sum( value, other.value );
+            count += other.count;
+          }
+          break;
+        default:
+          if ( value == null ) {
+            value = other.value;
+            valueMeta = other.valueMeta;
+          } else if ( other.value != null ) {
+            int compare = valueMeta.compare( other.value, value );
+            if ( aggregation == Aggregation.MIN ? compare < 0 : compare > 0 ) {
+              value = other.value;
+            }
+          }
+      }
+    }
+
+    private Object result() {
+      switch ( aggregation ) {
+        case COUNT_ANY:
+        case COUNT_ALL:
+          return count;
+        case COUNT_DISTINCT:
+          return (long) distinct.size();
+        case AVG:
+          if ( value == null ) {
+            return null;
+          }
+          if ( value instanceof BigDecimal ) {
+            return ( (BigDecimal) value ).divide( BigDecimal.valueOf( count ), MathContext.DECIMAL128 );
+          }
+          return ( (Number) value ).doubleValue() / count;
+        default:
+          return value;
+      }
+    }
+
+    private static Object numeric( ValueMetaInterface subjectMeta, Object subject ) throws KettleValueException {
+      switch ( subjectMeta.getType() ) {
+        case ValueMetaInterface.TYPE_INTEGER:
+          return subjectMeta.getInteger( subject );
+        case ValueMetaInterface.TYPE_BIGNUMBER:
+          return subjectMeta.getBigNumber( subject );
+        default:
+          return subjectMeta.getNumber( subject );
+      }
+    }
+
+    private static Object sum( Object total, Object value ) {
+      if ( total == null ) {
+        return value;
+      }
+      if ( total instanceof Long && value instanceof Long ) {
+        return (Long) total + (Long) value;
+      }
+      if ( total instanceof BigDecimal || value instanceof BigDecimal ) {
+        return toBigDecimal( total ).add( toBigDecimal( value ) );
+      }
+      return ( (Number) total ).doubleValue() + ( (Number) value ).doubleValue();
+    }
+
+    private static BigDecimal toBigDecimal( Object value ) {
+      return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal( value.toString() );
+    }
+  }
+}
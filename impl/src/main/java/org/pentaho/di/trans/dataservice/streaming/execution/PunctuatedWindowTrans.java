@@ -0,0 +1,225 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.trans.RowProducer;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.dataservice.SqlTransGenerator;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.step.RowAdapter;
+import org.pentaho.di.trans.step.StepInterface;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a punctuated generated transformation once for many streaming windows, see
+ * {@link SqlTransGenerator#isWindowPunctuated()}.
+ * <p>
+ * The transformation is prepared and started with the first window, and its row producer is kept open. The rows of
+ * each window are injected followed by a marker row, and the rows written by the result step before the marker are
+ * the window result. Every step passes rows along in order, so a window only waits for its rows to flow through. A
+ * marker that doesn't reach the result step in time stops the transformation, so that the next window starts it again.
+ */
+class PunctuatedWindowTrans {
+  // Time for the rows of a window to flow through the transformation
+  static final long MARKER_TIMEOUT_MILLIS = 60000;
+
+  private final Trans genTrans;
+  private final String injectorStepName;
+  private final String resultStepName;
+  private final long markerTimeoutMillis;
+
+  private final BlockingQueue<List<RowMetaAndData>> windows = new LinkedBlockingQueue<>();
+  // Rows written by the select step for a window marker, which no longer has the marker field
+  private final Set<Object[]> selectedMarkers = Collections.synchronizedSet(
+    Collections.newSetFromMap( new IdentityHashMap<>() ) );
+  private volatile RowProducer rowProducer;
+  private RowMetaInterface serviceFields;
+  private RowMetaInterface injectedFields;
+
+  PunctuatedWindowTrans( Trans genTrans, String injectorStepName, String resultStepName ) {
+    this( genTrans, injectorStepName, resultStepName, MARKER_TIMEOUT_MILLIS );
+  }
+
+  PunctuatedWindowTrans( Trans genTrans, String injectorStepName, String resultStepName, long markerTimeoutMillis ) {
+    this.genTrans = genTrans;
+    this.injectorStepName = injectorStepName;
+    this.resultStepName = resultStepName;
+    this.markerTimeoutMillis = markerTimeoutMillis;
+  }
+
+  boolean isStarted() {
+    return rowProducer != null;
+  }
+
+  /**
+   * Prepares and starts the generated transformation.
+   *
+   * @throws KettleException if the transformation can't be started
+   */
+  void start() throws KettleException {
+    genTrans.getTransListeners().clear();
+    genTrans.cleanup();
+    windows.clear();
+    selectedMarkers.clear();
+
+    genTrans.prepareExecution( null );
+    rowProducer = genTrans.addRowProducer( injectorStepName, 0 );
+    setInjectedFields( genTrans.getTransMeta().getStepFields( injectorStepName ) );
+
+    StepInterface selectStep = genTrans.findRunThread( SqlTransGenerator.SELECT_STEP_NAME );
+    if ( selectStep != null ) {
+      selectStep.addRowListener( new MarkerTracker() );
+    }
+    genTrans.findRunThread( resultStepName ).addRowListener( new WindowCollector() );
+    genTrans.startThreads();
+  }
+
+  /**
+   * Runs a window through the transformation.
+   *
+   * @param window the window rows
+   * @param log    the generated transformation log
+   * @return the window result, or null if the transformation stopped, or its marker timed out, and it has to be
+   * started again
+   */
+  List<RowMetaAndData> process( List<RowMetaAndData> window, LogChannelInterface log ) {
+    RowProducer producer = rowProducer;
+    if ( producer == null ) {
+      return null;
+    }
+    for ( RowMetaAndData row : window ) {
+      if ( row.getRowMeta() != serviceFields ) {
+        setInjectedFields( row.getRowMeta() );
+      }
+      // Fresh copy with an empty marker, steps may also write their fields into the row
+      inject( producer, RowDataUtil.createResizedCopy( row.getData(), serviceFields.size() ), log );
+    }
+    Object[] marker = RowDataUtil.allocateRowData( injectedFields.size() );
+    marker[ serviceFields.size() ] = Boolean.TRUE;
+    inject( producer, marker, log );
+
+    try {
+      long deadline = System.currentTimeMillis() + markerTimeoutMillis;
+      List<RowMetaAndData> result = null;
+      while ( result == null && genTrans.isRunning() ) {
+        long remaining = deadline - System.currentTimeMillis();
+        if ( remaining <= 0 ) {
+          log.logError( DataServiceConstants.STREAMING_WINDOW_MARKER_TIMEOUT );
+          break;
+        }
+        result = windows.poll( Math.min( remaining, 1000 ), TimeUnit.MILLISECONDS );
+      }
+      if ( result == null ) {
+        stop();
+      }
+      return result;
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      stop();
+      return null;
+    }
+  }
+
+  /**
+   * Ends the transformation input, letting it finish.
+   */
+  void stop() {
+    RowProducer producer = rowProducer;
+    rowProducer = null;
+    if ( producer != null ) {
+      producer.finished();
+    }
+  }
+
+  private void inject( RowProducer producer, Object[] row, LogChannelInterface log ) {
+    while ( !producer.putRowWait( injectedFields, row, 1, TimeUnit.SECONDS ) && genTrans.isRunning() ) {
+      // Row queue was full, try again
+      log.logRowlevel( DataServiceConstants.ROW_BUFFER_IS_FULL_TRYING_AGAIN );
+    }
+  }
+
+  private void setInjectedFields( RowMetaInterface fields ) {
+    serviceFields = fields;
+    injectedFields = fields.clone();
+    injectedFields.addValueMeta( new ValueMetaBoolean( SqlTransGenerator.WINDOW_MARKER_FIELD ) );
+  }
+
+  private static boolean isMarker( RowMetaInterface rowMeta, Object[] row ) {
+    int index = rowMeta.indexOfValue( SqlTransGenerator.WINDOW_MARKER_FIELD );
+    return index >= 0 && row[ index ] != null;
+  }
+
+  /**
+   * Remembers the rows the select step writes for window markers. Row listeners are called before the row is passed
+   * to the next step, so the result step never sees a marker before it is remembered.
+   */
+  private class MarkerTracker extends RowAdapter {
+    private boolean markerRead;
+
+    @Override public void rowReadEvent( RowMetaInterface rowMeta, Object[] row ) {
+      markerRead = isMarker( rowMeta, row );
+    }
+
+    @Override public void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) {
+      if ( markerRead ) {
+        selectedMarkers.add( row );
+        markerRead = false;
+      }
+    }
+  }
+
+  /**
+   * Gathers the result rows of each window.
+   */
+  private class WindowCollector extends RowAdapter {
+    private List<RowMetaAndData> window = new ArrayList<>();
+    private RowMetaInterface resultFields;
+    private RowMetaInterface windowFields;
+    private int markerIndex = -1;
+
+    @Override public void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+      if ( rowMeta != resultFields ) {
+        resultFields = rowMeta;
+        markerIndex = rowMeta.indexOfValue( SqlTransGenerator.WINDOW_MARKER_FIELD );
+        windowFields = rowMeta.clone();
+        if ( markerIndex >= 0 ) {
+          windowFields.removeValueMeta( markerIndex );
+        }
+      }
+
+      if ( markerIndex >= 0 ? row[ markerIndex ] != null : selectedMarkers.remove( row ) ) {
+        windows.add( Collections.unmodifiableList( window ) );
+        window = new ArrayList<>();
+      } else {
+        window.add( new RowMetaAndData( windowFields,
+          markerIndex >= 0 ? RowDataUtil.removeItem( row, markerIndex ) : row ) );
+      }
+    }
+  }
+}
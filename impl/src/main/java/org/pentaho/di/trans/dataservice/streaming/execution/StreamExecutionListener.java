@@ -14,43 +14,96 @@
 package org.pentaho.di.trans.dataservice.streaming.execution;
 
 import com.google.common.annotations.VisibleForTesting;
-import io.reactivex.Observable;
-import io.reactivex.disposables.Disposable;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.reactivex.functions.Consumer;
-import io.reactivex.schedulers.Schedulers;
-import io.reactivex.subjects.PublishSubject;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.trans.dataservice.client.api.IDataServiceClientService;
+import org.pentaho.di.trans.dataservice.optimization.cache.RowSizeEstimator;
+import org.pentaho.di.trans.dataservice.streaming.RowRingBuffer;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Class to represents a listener for a service transformation stream.
+ * <p>
+ * The listener reads the stream rows with its own cursor, on its own thread, and builds three kinds of windows from
+ * them: the regular windows of the query, the fallback window that is produced when the max rows or time are reached
+ * first, and the starter windows that hold every row seen while no other window was produced.
+ * <p>
+ * The buffered rows are weighed against the {@link WindowBufferBudget} of the service. A row is released once no open
+ * window holds it, and the overflow policy of the budget applies to the rows that don't fit.
+ * <p>
+ * When the service has a {@link WindowEventTime}, time based windows are built by {@link EventTimeWindows} from the
+ * event time of the rows instead, and there are neither fallback nor starter windows.
  */
 public class StreamExecutionListener {
-  private IDataServiceClientService.StreamingMode windowMode;
-  private long windowSize;
-  private long windowEvery;
-  private int maxRows;
-  private long maxTime;
-  private Disposable outputSubject;
-  private Disposable starterSubject;
-  private Disposable subject;
-  private Disposable fallbackSubject;
-  private Observable<List<RowMetaAndData>> buffer;
-  private Observable<List<RowMetaAndData>> fallbackBuffer;
-  private List<RowMetaAndData> cachePreWindow = Collections.synchronizedList( new ArrayList<RowMetaAndData>() );
-  private PublishSubject<List<RowMetaAndData>> outputBufferPublisher;
+  private static final ExecutorService WINDOW_READERS = Executors.newCachedThreadPool(
+    new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "dataservice-streaming-window-%d" ).build() );
+  // Longest wait for rows while no window is due, so that the reader notices it was un-subscribed
+  private static final long IDLE_WAIT_MILLIS = 1000;
+  // Wait before trying again to buffer a row that didn't fit, as other listeners may free memory
+  private static final long BLOCKED_WAIT_MILLIS = 10;
+  // Part of the buffered rows dropped at once by the overflow policies
+  private static final int DROPPED_PART = 8;
+
+  private final long windowSize;
+  private final long windowEvery;
+  private final int maxRows;
+  private final long maxTime;
+  private final boolean timeBased;
+  private final RowRingBuffer stream;
+  private final RowRingBuffer.Cursor cursor;
+  private final Consumer<List<RowMetaAndData>> windowConsumer;
+  private final WindowBufferBudget budget;
+  private final EventTimeWindows eventWindows;
+  private final List<RowMetaAndData> cachePreWindow = Collections.synchronizedList( new ArrayList<RowMetaAndData>() );
   private final AtomicBoolean hasWindow = new AtomicBoolean( false );
+  private volatile boolean reading = true;
+
+  private boolean outputSubscribed;
+
+  // Buffered rows are numbered in the order they are read, every window holds the rows from its first one on
+  private long rowIndex;
+  private long heldFrom;
+  private final RowSizes heldSizes = new RowSizes();
+  private long overflowRows;
+  private boolean blocked;
+
+  // Regular windows, in the order they were opened
+  private boolean bufferSubscribed;
+  private final Deque<Window> windows = new ArrayDeque<>();
+  private long bufferRows;
+  private long nextWindowStart;
+
+  private boolean fallbackSubscribed;
+  private List<RowMetaAndData> fallbackWindow;
+  private long fallbackFrom;
+  private long fallbackRows;
+  private long fallbackDeadline;
+
+  private boolean starterSubscribed;
+  private List<RowMetaAndData> starterWindow;
+  private long starterFrom;
+  private long starterRows;
+  private long starterDeadline;
+
+  // Time the event time windows are flushed if no row is read
+  private long idleDeadline = Long.MAX_VALUE;
 
   /**
-   * Constructor. Subscribes a listener to the given window buffer.
+   * Constructor. Starts reading the given stream into windows.
    *
-   * @param stream         The {@link io.reactivex.subjects.PublishSubject} data stream.
+   * @param stream         The {@link RowRingBuffer} data stream.
    * @param windowConsumer The consumer for the windows produced.
    * @param windowMode     The streaming window mode.
    * @param windowSize     The window size. Number of rows for a ROW_BASED streamingType and milliseconds for a
@@ -60,68 +113,126 @@ public class StreamExecutionListener {
    * @param maxRows        The max rows window size.
    * @param maxTime        The max time window size.
    */
-  public StreamExecutionListener( final PublishSubject<RowMetaAndData> stream,
+  public StreamExecutionListener( final RowRingBuffer stream,
                                   Consumer<List<RowMetaAndData>> windowConsumer,
                                   final IDataServiceClientService.StreamingMode windowMode, final long windowSize,
                                   final long windowEvery, final int maxRows, final long maxTime ) {
-    this.windowMode = windowMode;
+    this( stream, windowConsumer, windowMode, windowSize, windowEvery, maxRows, maxTime,
+      new WindowBufferBudget( 0, WindowBufferBudget.OverflowPolicy.BLOCK, 1 ) );
+  }
+
+  /**
+   * Constructor. Starts reading the given stream into windows, within the memory of a budget.
+   *
+   * @param stream         The {@link RowRingBuffer} data stream.
+   * @param windowConsumer The consumer for the windows produced.
+   * @param windowMode     The streaming window mode.
+   * @param windowSize     The window size. Number of rows for a ROW_BASED streamingType and milliseconds for a
+   *                       TIME_BASED streamingType.
+   * @param windowEvery    The window rate. Number of rows for a ROW_BASED streamingType and milliseconds for a
+   *                       TIME_BASED streamingType.
+   * @param maxRows        The max rows window size.
+   * @param maxTime        The max time window size.
+   * @param budget         The window memory of the service.
+   */
+  public StreamExecutionListener( final RowRingBuffer stream,
+                                  Consumer<List<RowMetaAndData>> windowConsumer,
+                                  final IDataServiceClientService.StreamingMode windowMode, final long windowSize,
+                                  final long windowEvery, final int maxRows, final long maxTime,
+                                  final WindowBufferBudget budget ) {
+    this( stream, windowConsumer, windowMode, windowSize, windowEvery, maxRows, maxTime, budget,
+      new WindowEventTime( null, 0 ) );
+  }
+
+  /**
+   * Constructor. Starts reading the given stream into windows, within the memory of a budget.
+   *
+   * @param stream         The {@link RowRingBuffer} data stream.
+   * @param windowConsumer The consumer for the windows produced.
+   * @param windowMode     The streaming window mode.
+   * @param windowSize     The window size. Number of rows for a ROW_BASED streamingType and milliseconds for a
+   *                       TIME_BASED streamingType.
+   * @param windowEvery    The window rate. Number of rows for a ROW_BASED streamingType and milliseconds for a
+   *                       TIME_BASED streamingType.
+   * @param maxRows        The max rows window size.
+   * @param maxTime        The max time window size. Event time windows are flushed when no row is read for as long.
+   * @param budget         The window memory of the service.
+   * @param eventTime      The event time of the service rows, used by TIME_BASED windows when enabled.
+   */
+  public StreamExecutionListener( final RowRingBuffer stream,
+                                  Consumer<List<RowMetaAndData>> windowConsumer,
+                                  final IDataServiceClientService.StreamingMode windowMode, final long windowSize,
+                                  final long windowEvery, final int maxRows, final long maxTime,
+                                  final WindowBufferBudget budget, final WindowEventTime eventTime ) {
     this.windowSize = windowSize;
     this.windowEvery = windowEvery;
     this.maxRows = maxRows;
     this.maxTime = maxTime;
+    this.timeBased = IDataServiceClientService.StreamingMode.TIME_BASED.equals( windowMode );
+    this.stream = stream;
+    this.windowConsumer = windowConsumer;
+    this.budget = budget;
+    this.eventWindows = timeBased && eventTime.isEnabled()
+      ? new EventTimeWindows( eventTime, windowSize, windowEvery, budget ) : null;
+    this.cursor = stream.newCursor();
 
-    init( stream, windowConsumer );
+    init();
+    WINDOW_READERS.execute( this::read );
   }
 
   /**
-   * Inits the listener streaming buffers.
-   *
-   * @param stream         The {@link io.reactivex.subjects.PublishSubject} data stream.
-   * @param windowConsumer The consumer for the windows produced.
+   * Inits the listener streaming windows.
    */
-  private void init( PublishSubject<RowMetaAndData> stream, Consumer<List<RowMetaAndData>> windowConsumer ) {
-    boolean rowBased = IDataServiceClientService.StreamingMode.ROW_BASED.equals( windowMode );
-    boolean timeBased = IDataServiceClientService.StreamingMode.TIME_BASED.equals( windowMode );
-
-    if ( windowEvery > 0 ) {
-      if ( timeBased ) {
-        this.buffer = stream.buffer( windowSize, windowEvery, TimeUnit.MILLISECONDS );
-      } else if ( rowBased ) {
-        this.buffer = stream.buffer( (int) windowSize, (int) windowEvery );
-      }
-    } else if ( timeBased ) {
-      this.buffer = stream.buffer( windowSize, TimeUnit.MILLISECONDS );
-    } else {
-      this.buffer = stream.buffer( (int) windowSize );
+  private synchronized void init() {
+    long now = System.currentTimeMillis();
+    outputSubscribed = true;
+    if ( eventWindows != null ) {
+      idleDeadline = after( now, maxTime );
+      return;
     }
-    this.fallbackBuffer = stream.buffer( maxTime, TimeUnit.MILLISECONDS, Schedulers.computation(), maxRows, () -> new ArrayList<>(), true );
-
-    this.outputBufferPublisher = PublishSubject.create();
-    this.outputSubject = this.outputBufferPublisher.subscribe( windowConsumer );
 
     //Creates the buffer and fallback buffer
-    resetBuffer();
-    resetFallbackBuffer();
+    resetBuffer( now );
+    resetFallbackBuffer( now );
 
-    // below is created the streaming objects used while the first window is not produced
-    if ( timeBased ) {
-      this.starterSubject = stream.buffer( (int) ( windowEvery > 0 ? windowEvery : windowSize ), TimeUnit.MILLISECONDS )
-        .subscribe( items -> {
-          if ( !hasWindow.get() ) {
-            resetFallbackBuffer();
-            this.cachePreWindow.addAll( items );
-            outputBufferPublisher.onNext( this.cachePreWindow );
-          }
-        } );
-    } else {
-      this.starterSubject = stream.buffer( (int) ( windowEvery > 0 ? windowEvery : windowSize ) )
-        .subscribe( items -> {
-          if ( !hasWindow.get() ) {
-            resetFallbackBuffer();
-            this.cachePreWindow.addAll( items );
-            outputBufferPublisher.onNext( this.cachePreWindow );
-          }
-        } );
+    // below are created the starter windows used while the first window is not produced
+    starterSubscribed = true;
+    starterWindow = new ArrayList<>();
+    starterFrom = rowIndex;
+    starterRows = 0;
+    starterDeadline = now + getStarterSize();
+  }
+
+  private long getStarterSize() {
+    return windowEvery > 0 ? windowEvery : windowSize;
+  }
+
+  /**
+   * Reads the stream rows until the listener is un-subscribed.
+   */
+  private void read() {
+    try {
+      while ( reading ) {
+        long wait = Math.min( nextDeadline() - System.currentTimeMillis(),
+          blocked ? BLOCKED_WAIT_MILLIS : IDLE_WAIT_MILLIS );
+        if ( wait > 0 && blocked ) {
+          LockSupport.parkNanos( this, TimeUnit.MILLISECONDS.toNanos( wait ) );
+        } else if ( wait > 0 ) {
+          cursor.await( wait, TimeUnit.MILLISECONDS );
+        }
+        synchronized ( this ) {
+          long now = System.currentTimeMillis();
+          blocked = false;
+          fireTimers( now );
+          release();
+          cursor.read( ( rowMeta, row ) -> admit( new RowMetaAndData( rowMeta, row ), now ) );
+        }
+      }
+    } catch ( Exception e ) {
+      unSubscribe();
+      throw Throwables.propagate( e );
+    } finally {
+      stream.remove( cursor );
     }
   }
 
@@ -134,36 +245,42 @@ public class StreamExecutionListener {
     return this.cachePreWindow;
   }
 
+  /**
+   * @return number of stream rows not read yet by this listener
+   */
+  @VisibleForTesting
+  long getBacklog() {
+    return cursor.getBacklog();
+  }
+
   /**
    * Un-subscribes the streaming buffers.
    */
   public void unSubscribe() {
+    reading = false;
+    stream.remove( cursor );
     unSubscribeOutput();
     unSubscribeStarter();
     unSubscribeBuffer();
     unSubscribeFallbackBuffer();
+    release();
   }
 
   /**
    * Un-subscribes the output streaming buffer.
    */
   @VisibleForTesting
-  protected void unSubscribeOutput() {
-    if ( this.outputSubject != null && !this.outputSubject.isDisposed() ) {
-      this.outputSubject.dispose();
-    }
-    this.outputSubject = null;
+  protected synchronized void unSubscribeOutput() {
+    this.outputSubscribed = false;
   }
 
   /**
    * Un-subscribes the starter streaming buffer.
    */
   @VisibleForTesting
-  protected void unSubscribeStarter() {
-    if ( this.starterSubject != null && !this.starterSubject.isDisposed() ) {
-      this.starterSubject.dispose();
-    }
-    this.starterSubject = null;
+  protected synchronized void unSubscribeStarter() {
+    this.starterSubscribed = false;
+    this.starterWindow = null;
     this.cachePreWindow.clear();
   }
 
@@ -171,81 +288,376 @@ public class StreamExecutionListener {
    * Un-subscribes the streaming buffer.
    */
   @VisibleForTesting
-  protected void unSubscribeBuffer() {
-    if ( this.subject != null && !this.subject.isDisposed() ) {
-      this.subject.dispose();
+  protected synchronized void unSubscribeBuffer() {
+    this.bufferSubscribed = false;
+    this.windows.clear();
+    if ( eventWindows != null ) {
+      eventWindows.clear();
     }
-    this.subject = null;
   }
 
   /**
    * Un-subscribes the streaming fallback buffer.
    */
   @VisibleForTesting
-  protected void unSubscribeFallbackBuffer() {
-    if ( this.fallbackSubject != null && !this.fallbackSubject.isDisposed() ) {
-      this.fallbackSubject.dispose();
-    }
-    this.fallbackSubject = null;
+  protected synchronized void unSubscribeFallbackBuffer() {
+    this.fallbackSubscribed = false;
+    this.fallbackWindow = null;
   }
 
   /**
-   * Processes a buffer data window.
+   * Buffers a row, applying the overflow policy of the budget when the row doesn't fit.
    *
-   * @return The {@link io.reactivex.Observable} window list to process.
+   * @return false if the row has to wait for memory
    */
-  private void processBufferWindow( List<RowMetaAndData> windowList ) {
-    //When the observable is complete it means that a window was produced
-    synchronized ( this.buffer ) {
-      if ( hasWindow.compareAndSet( false, true ) ) {
-        unSubscribeStarter();
+  private boolean admit( RowMetaAndData row, long now ) throws Exception {
+    if ( eventWindows != null ) {
+      admitEvent( row, now );
+      return true;
+    }
+    long size = budget.isEnabled() ? RowSizeEstimator.estimate( row ) : 0;
+    if ( budget.tryAcquire( size ) ) {
+      overflowRows = 0;
+    } else {
+      WindowBufferBudget.OverflowPolicy policy = budget.getOverflowPolicy();
+      if ( WindowBufferBudget.OverflowPolicy.BLOCK.equals( policy ) && nextDeadline() < Long.MAX_VALUE ) {
+        blocked = true;
+        return false;
+      }
+      if ( WindowBufferBudget.OverflowPolicy.SAMPLE.equals( policy ) && overflowRows++ % budget.getSampleRate() != 0 ) {
+        budget.recordDropped( 1 );
+        return true;
+      }
+      dropOldest();
+      if ( !budget.tryAcquire( size ) ) {
+        // The memory is held by other listeners
+        budget.recordDropped( 1 );
+        return true;
       }
+    }
 
-      resetFallbackBuffer();
+    heldSizes.add( size );
+    onRow( row, rowIndex++, now );
+    release();
+    return true;
+  }
 
-      if ( this.outputSubject != null && !this.outputSubject.isDisposed() ) {
-        outputBufferPublisher.onNext( windowList );
+  /**
+   * Adds a row to the event time windows, producing the ones it completes.
+   */
+  private void admitEvent( RowMetaAndData row, long now ) throws Exception {
+    if ( !outputSubscribed ) {
+      return;
+    }
+    eventWindows.add( row );
+    idleDeadline = after( now, maxTime );
+    for ( List<RowMetaAndData> window : eventWindows.fire( false ) ) {
+      output( window );
+    }
+  }
+
+  /**
+   * Adds a row to the open windows. A window that is reset by a window produced for this row doesn't get the row.
+   */
+  private void onRow( RowMetaAndData row, long index, long now ) throws Exception {
+    List<RowMetaAndData> fallback = fallbackWindow;
+
+    if ( bufferSubscribed ) {
+      if ( !timeBased && bufferRows++ % getWindowRate() == 0 ) {
+        windows.addLast( new Window( Long.MAX_VALUE, index ) );
+      }
+      for ( Window window : windows ) {
+        window.rows.add( row );
+        window.received++;
+      }
+      Window first = windows.peekFirst();
+      if ( !timeBased && first != null && first.received >= windowSize ) {
+        windows.removeFirst();
+        processBufferWindow( first.rows, now );
+      }
+    }
+
+    if ( fallbackSubscribed && fallback == fallbackWindow ) {
+      fallback.add( row );
+      if ( maxRows > 0 && ++fallbackRows >= maxRows ) {
+        resetFallbackBuffer( now );
+        processFallbackWindow( fallback, now );
+      }
+    }
+
+    if ( starterSubscribed ) {
+      List<RowMetaAndData> starter = starterWindow;
+      starter.add( row );
+      if ( ++starterRows >= getStarterSize() && !timeBased ) {
+        starterWindow = new ArrayList<>();
+        starterRows = 0;
+        processStarterWindow( starter, now );
       }
     }
   }
 
   /**
-   * Processes a fallback buffer data window.
-   *
-   * @return The {@link io.reactivex.Observable} fallback window list to process.
+   * Releases the memory of the rows no window holds anymore.
+   */
+  private synchronized void release() {
+    long from = rowIndex;
+    if ( bufferSubscribed && !windows.isEmpty() ) {
+      from = Math.min( from, windows.peekFirst().from );
+    }
+    if ( fallbackSubscribed ) {
+      from = Math.min( from, fallbackFrom );
+    }
+    if ( starterSubscribed ) {
+      from = Math.min( from, starterFrom );
+    }
+
+    long bytes = 0;
+    for ( ; heldFrom < from; heldFrom++ ) {
+      bytes += heldSizes.removeFirst();
+    }
+    budget.release( bytes );
+  }
+
+  /**
+   * Drops the oldest part of the buffered rows from every window holding them.
    */
-  private void processFallbackWindow( List<RowMetaAndData> windowList ) {
-    //When the observable is complete it means that a window was produced
-    synchronized ( this.buffer ) {
-      if ( hasWindow.compareAndSet( false, true ) ) {
-        unSubscribeStarter();
+  private void dropOldest() {
+    long held = rowIndex - heldFrom;
+    if ( held == 0 ) {
+      return;
+    }
+    long to = heldFrom + Math.max( held / DROPPED_PART, 1 );
+
+    if ( bufferSubscribed ) {
+      for ( Window window : windows ) {
+        window.from += drop( window.rows, to - window.from );
+      }
+    }
+    if ( fallbackSubscribed ) {
+      fallbackFrom += drop( fallbackWindow, to - fallbackFrom );
+    }
+    if ( starterSubscribed ) {
+      // The starter rows are the rows produced so far followed by the ones of the current starter window
+      long dropped;
+      synchronized ( cachePreWindow ) {
+        dropped = drop( cachePreWindow, to - starterFrom );
       }
+      starterFrom += dropped + drop( starterWindow, to - starterFrom - dropped );
+    }
+
+    budget.recordDropped( to - heldFrom );
+    release();
+  }
+
+  private static int drop( List<RowMetaAndData> rows, long count ) {
+    int dropped = (int) Math.min( Math.max( count, 0 ), rows.size() );
+    rows.subList( 0, dropped ).clear();
+    return dropped;
+  }
+
+  private long getWindowRate() {
+    return windowEvery > 0 ? windowEvery : windowSize;
+  }
+
+  /**
+   * @return time of the next time based window event
+   */
+  private synchronized long nextDeadline() {
+    return Math.min( Math.min( Math.min( windowEnd(), windowStart() ), Math.min( fallbackEnd(), starterEnd() ) ),
+      idleEnd() );
+  }
+
+  private long idleEnd() {
+    return eventWindows != null && outputSubscribed ? idleDeadline : Long.MAX_VALUE;
+  }
+
+  private long windowEnd() {
+    return bufferSubscribed && timeBased && !windows.isEmpty() ? windows.peekFirst().end : Long.MAX_VALUE;
+  }
+
+  private long windowStart() {
+    return bufferSubscribed && timeBased ? nextWindowStart : Long.MAX_VALUE;
+  }
+
+  private long fallbackEnd() {
+    return fallbackSubscribed ? fallbackDeadline : Long.MAX_VALUE;
+  }
+
+  private long starterEnd() {
+    return starterSubscribed && timeBased ? starterDeadline : Long.MAX_VALUE;
+  }
 
-      resetBuffer();
+  /**
+   * Runs the time based window events that are due, in the order they were due.
+   */
+  private void fireTimers( long now ) throws Exception {
+    while ( true ) {
+      long windowEnd = windowEnd();
+      long windowStart = windowStart();
+      long fallbackEnd = fallbackEnd();
+      long starterEnd = starterEnd();
+      long idleEnd = idleEnd();
+      long due = Math.min( Math.min( Math.min( windowEnd, windowStart ), Math.min( fallbackEnd, starterEnd ) ),
+        idleEnd );
+      if ( due > now ) {
+        return;
+      }
+      if ( due == idleEnd ) {
+        // The stream is idle, produce the windows up to the latest event time read
+        idleDeadline = Long.MAX_VALUE;
+        for ( List<RowMetaAndData> window : eventWindows.fire( true ) ) {
+          output( window );
+        }
+        continue;
+      }
+      if ( due < now && due != windowStart ) {
+        // Rows waiting to be read when a window is produced late may have arrived while it was open
+        budget.recordLate( cursor.getBacklog() );
+      }
 
-      if ( this.outputSubject != null && !this.outputSubject.isDisposed() ) {
-        outputBufferPublisher.onNext( windowList );
+      if ( due == windowEnd ) {
+        processBufferWindow( windows.removeFirst().rows, now );
+      } else if ( due == windowStart ) {
+        windows.addLast( new Window( windowStart + windowSize, rowIndex ) );
+        nextWindowStart = next( windowStart, getWindowRate(), now );
+      } else if ( due == fallbackEnd ) {
+        List<RowMetaAndData> fallback = fallbackWindow;
+        resetFallbackBuffer( now );
+        fallbackDeadline = next( fallbackEnd, maxTime, now );
+        processFallbackWindow( fallback, now );
+      } else {
+        List<RowMetaAndData> starter = starterWindow;
+        starterWindow = new ArrayList<>();
+        starterRows = 0;
+        starterDeadline = next( starterEnd, getStarterSize(), now );
+        processStarterWindow( starter, now );
       }
     }
   }
 
   /**
-   * Creates the regular buffer if it is not created. If it is already created, it is
-   * discarded beforehand.
+   * Next time of a periodic event. Periods that were missed while the windows were busy are skipped.
    */
-  private void resetBuffer() {
+  private static long next( long due, long period, long now ) {
+    long next = due + period;
+    return next > now ? next : after( now, period );
+  }
+
+  private static long after( long now, long period ) {
+    return period > 0 ? now + period : Long.MAX_VALUE;
+  }
+
+  /**
+   * Processes a buffer data window.
+   */
+  private void processBufferWindow( List<RowMetaAndData> windowList, long now ) throws Exception {
+    if ( hasWindow.compareAndSet( false, true ) ) {
+      unSubscribeStarter();
+    }
+
+    resetFallbackBuffer( now );
+
+    output( windowList );
+  }
+
+  /**
+   * Processes a fallback buffer data window.
+   */
+  private void processFallbackWindow( List<RowMetaAndData> windowList, long now ) throws Exception {
+    if ( hasWindow.compareAndSet( false, true ) ) {
+      unSubscribeStarter();
+    }
+
+    resetBuffer( now );
+
+    output( windowList );
+  }
+
+  /**
+   * Processes a starter window, producing every row seen so far.
+   */
+  private void processStarterWindow( List<RowMetaAndData> windowList, long now ) throws Exception {
+    if ( !hasWindow.get() ) {
+      resetFallbackBuffer( now );
+      this.cachePreWindow.addAll( windowList );
+      output( this.cachePreWindow );
+    }
+  }
+
+  private void output( List<RowMetaAndData> windowList ) throws Exception {
+    if ( outputSubscribed ) {
+      windowConsumer.accept( windowList );
+    }
+  }
+
+  /**
+   * Restarts the regular windows, discarding the open ones.
+   */
+  private void resetBuffer( long now ) {
     //If we are processing a fallback window buffer, we should discard the regular one
-    unSubscribeBuffer();
-    this.subject = this.buffer.subscribe( this::processBufferWindow );
+    windows.clear();
+    bufferSubscribed = true;
+    bufferRows = 0;
+    if ( timeBased ) {
+      windows.addLast( new Window( now + windowSize, rowIndex ) );
+      nextWindowStart = now + getWindowRate();
+    }
   }
 
   /**
-   * Creates the fallback buffer if it is not created. If it is already created, it is
-   * discarded beforehand.
+   * Restarts the fallback window, discarding its rows.
    */
-  private void resetFallbackBuffer() {
+  private void resetFallbackBuffer( long now ) {
     //If we are processing a regular window buffer, we should discard the fallback one
-    unSubscribeFallbackBuffer();
-    this.fallbackSubject = this.fallbackBuffer.subscribe( this::processFallbackWindow );
+    fallbackSubscribed = true;
+    fallbackWindow = new ArrayList<>();
+    fallbackFrom = rowIndex;
+    fallbackRows = 0;
+    fallbackDeadline = after( now, maxTime );
+  }
+
+  /**
+   * An open regular window.
+   */
+  private static class Window {
+    private final List<RowMetaAndData> rows = new ArrayList<>();
+    // Time the window closes, time based windows only
+    private final long end;
+    // Index of the first row the window holds
+    private long from;
+    private long received;
+
+    private Window( long end, long from ) {
+      this.end = end;
+      this.from = from;
+    }
+  }
+
+  /**
+   * Estimated sizes of the buffered rows, in the order they were read.
+   */
+  private static class RowSizes {
+    private long[] sizes = new long[ 64 ];
+    private int head;
+    private int count;
+
+    private void add( long size ) {
+      if ( count == sizes.length ) {
+        long[] grown = new long[ sizes.length * 2 ];
+        for ( int i = 0; i < count; i++ ) {
+          grown[ i ] = sizes[ ( head + i ) % sizes.length ];
+        }
+        sizes = grown;
+        head = 0;
+      }
+      sizes[ ( head + count++ ) % sizes.length ] = size;
+    }
+
+    private long removeFirst() {
+      long size = sizes[ head ];
+      head = ( head + 1 ) % sizes.length;
+      count--;
+      return size;
+    }
   }
 }
@@ -17,6 +17,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import io.reactivex.BackpressureOverflowStrategy;
 import io.reactivex.BackpressureStrategy;
+import io.reactivex.Observable;
 import io.reactivex.Observer;
 import io.reactivex.functions.Consumer;
 import io.reactivex.subjects.BehaviorSubject;
@@ -60,12 +61,16 @@ public class StreamingGeneratedTransExecution implements Runnable {
   private final AtomicInteger consumersCount = new AtomicInteger( 0 );
 
   private final PublishSubject<List<RowMetaAndData>> generatedDataObservable;
+  private final PublishSubject<WindowChangelog> changelogPublishSubject = PublishSubject.create();
+  private final WindowDeltaEncoder deltaEncoder;
 
   private IDataServiceClientService.StreamingMode windowMode;
   private long windowSize;
   private long windowEvery;
   private long windowLimit;
   private String streamingGeneratedTransCacheKey;
+  private final IncrementalWindowAggregator windowAggregator;
+  private final PunctuatedWindowTrans windowTrans;
 
   /**
    * Constructor.
@@ -91,6 +96,37 @@ public class StreamingGeneratedTransExecution implements Runnable {
                                            final IDataServiceClientService.StreamingMode windowMode,
                                            long windowSize, long windowEvery, long windowLimit,
                                            String streamingGeneratedTransCacheKey ) {
+    this( serviceExecutor, genTrans, rowConsumer, pollingMode, injectorStepName, resultStepName, query, windowMode,
+      windowSize, windowEvery, windowLimit, streamingGeneratedTransCacheKey, null, false,
+      new WindowDeltaEncoder( null ) );
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param serviceExecutor The {@link StreamingServiceTransExecutor} service transformation executor object.
+   * @param genTrans The {@link org.pentaho.di.trans.Trans} generated transformation.
+   * @param rowConsumer The consumer to be registered in the publish subject stream, null to add consumers later
+   * @param injectorStepName The name of the step in the generated transformation where rows are injected.
+   * @param resultStepName The name of the step in the generated transformation where the results are retreived.
+   * @param query The query to be executed.
+   * @param windowMode The streaming window mode.
+   * @param windowSize The query window size.
+   * @param windowEvery The query window rate.
+   * @param windowLimit The query max window size.
+   * @param streamingGeneratedTransCacheKey The generated transformation cache key, so that it could be easily accessed.
+   * @param windowAggregator Computes the windows instead of the generated transformation, null to always run it.
+   * @param punctuated True if the generated transformation is punctuated, to keep it running across windows.
+   * @param deltaEncoder Computes the changes between windows for the changelog consumers.
+   */
+  public StreamingGeneratedTransExecution( final StreamingServiceTransExecutor serviceExecutor, final Trans genTrans,
+                                           final Observer<List<RowMetaAndData>> rowConsumer, boolean pollingMode,
+                                           final String injectorStepName, final String resultStepName, final String query,
+                                           final IDataServiceClientService.StreamingMode windowMode,
+                                           long windowSize, long windowEvery, long windowLimit,
+                                           String streamingGeneratedTransCacheKey,
+                                           IncrementalWindowAggregator windowAggregator, boolean punctuated,
+                                           WindowDeltaEncoder deltaEncoder ) {
     this.serviceExecutor = serviceExecutor;
     this.genTrans = genTrans;
     this.injectorStepName = injectorStepName;
@@ -101,9 +137,14 @@ public class StreamingGeneratedTransExecution implements Runnable {
     this.windowEvery = windowEvery;
     this.windowLimit = windowLimit;
     this.streamingGeneratedTransCacheKey = streamingGeneratedTransCacheKey;
+    this.windowAggregator = windowAggregator;
+    this.windowTrans = punctuated ? new PunctuatedWindowTrans( genTrans, injectorStepName, resultStepName ) : null;
+    this.deltaEncoder = deltaEncoder;
 
     this.generatedDataObservable = PublishSubject.create();
-    this.addNewRowConsumer( rowConsumer, pollingMode );
+    if ( rowConsumer != null ) {
+      this.addNewRowConsumer( rowConsumer, pollingMode );
+    }
   }
 
   /**
@@ -146,7 +187,9 @@ public class StreamingGeneratedTransExecution implements Runnable {
   }
 
   /**
-   * Runs the generated transformation with the rows given by param.
+   * Runs the generated transformation with the rows given by param. Windows of aggregate queries are computed by the
+   * {@link IncrementalWindowAggregator} instead, when there is one. A punctuated generated transformation is started
+   * once and kept running for the next windows.
    *
    * @param rowIterator The {@link List} input rows.
    * @throws KettleStepException
@@ -154,7 +197,17 @@ public class StreamingGeneratedTransExecution implements Runnable {
   @VisibleForTesting
   protected void runGenTrans( final List<RowMetaAndData> rowIterator ) throws KettleStepException {
     if ( isRunning.compareAndSet( false, true ) ) {
+      boolean keepRunning = false;
       try {
+        if ( windowAggregator != null ) {
+          publishWindow( windowAggregator.aggregate( rowIterator ) );
+          return;
+        }
+        if ( windowTrans != null ) {
+          keepRunning = runPunctuatedWindow( rowIterator );
+          return;
+        }
+
         LogChannelInterface log = genTrans.getLogChannel();
         RowProducer rowProducer;
         StepInterface resultStep;
@@ -187,17 +240,60 @@ public class StreamingGeneratedTransExecution implements Runnable {
         genTrans.stopAll();
         resultStep.removeRowListener( rowListener );
 
-        if ( !this.genTransCachePublishSubject.hasComplete() ) {
-          this.genTransCachePublishSubject.onNext( Collections.unmodifiableList( rowsList ) );
-        }
+        publishWindow( Collections.unmodifiableList( rowsList ) );
 
         log.logDetailed( DataServiceConstants.STREAMING_GENERATED_TRANSFORMATION_STOPPED );
       } catch ( KettleException e ) {
         throw new KettleStepException( e );
       } finally {
         isRunning.set( false );
-        genTrans.setRunning( false );
-        genTrans.setStopped( true );
+        if ( !keepRunning ) {
+          genTrans.setRunning( false );
+          genTrans.setStopped( true );
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs a window through the punctuated generated transformation, starting it if needed.
+   *
+   * @return true if the transformation is still running
+   */
+  private boolean runPunctuatedWindow( final List<RowMetaAndData> rowIterator ) throws KettleException {
+    LogChannelInterface log = genTrans.getLogChannel();
+    if ( !windowTrans.isStarted() ) {
+      synchronized ( serviceExecutor.getServiceTrans() ) {
+        if ( Thread.currentThread().isInterrupted() ) {
+          //avoids InterruptedException caused by the transformations being stopped in the meantime
+          return false;
+        }
+        windowTrans.start();
+      }
+      log.logDetailed( DataServiceConstants.STREAMING_GENERATED_TRANSFORMATION_STARTED );
+    }
+
+    List<RowMetaAndData> rowsList = windowTrans.process( rowIterator, log );
+    if ( rowsList == null ) {
+      // Stopped in the meantime, the next window starts it again
+      genTrans.stopAll();
+      log.logDetailed( DataServiceConstants.STREAMING_GENERATED_TRANSFORMATION_STOPPED );
+      return false;
+    }
+    publishWindow( rowsList );
+    return true;
+  }
+
+  private void publishWindow( List<RowMetaAndData> rowsList ) {
+    if ( !this.genTransCachePublishSubject.hasComplete() ) {
+      this.genTransCachePublishSubject.onNext( rowsList );
+    }
+    // Changes are only computed while someone consumes them
+    synchronized ( changelogPublishSubject ) {
+      if ( changelogPublishSubject.hasObservers() ) {
+        changelogPublishSubject.onNext( deltaEncoder.next( rowsList ) );
+      } else {
+        deltaEncoder.reset( rowsList );
       }
     }
   }
@@ -250,12 +346,31 @@ public class StreamingGeneratedTransExecution implements Runnable {
     }
   }
 
+  /**
+   * Adds a new push consumer that will receive the changes between the results of the generated transformation. The
+   * first changelog inserts the last result.
+   * @param consumer The consumer to register.
+   */
+  public void addNewChangelogConsumer( final Observer<WindowChangelog> consumer ) {
+    // No window is published between the snapshot and the subscription to the next changes
+    synchronized ( changelogPublishSubject ) {
+      Observable.concat( Observable.just( deltaEncoder.snapshot() ), changelogPublishSubject )
+        .doOnDispose( () -> consumersCount.decrementAndGet() )
+        .safeSubscribe( consumer );
+      consumersCount.incrementAndGet();
+    }
+  }
+
   /**
    * Clears all the row consumers from the cache, and wrap-up resources used by them.
    */
   public void clearRowConsumers( ) {
     this.genTransCachePublishSubject.onComplete();
+    this.changelogPublishSubject.onComplete();
     consumersCount.set( 0 );
+    if ( windowTrans != null ) {
+      windowTrans.stop();
+    }
   }
 
   @VisibleForTesting
@@ -13,12 +13,15 @@
 
 package org.pentaho.di.trans.dataservice.streaming.execution;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.reactivex.functions.Consumer;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
@@ -32,30 +35,50 @@ import org.pentaho.di.trans.dataservice.client.api.IDataServiceClientService;
 import org.pentaho.di.trans.dataservice.execution.CopyParameters;
 import org.pentaho.di.trans.dataservice.execution.PrepareExecution;
 import org.pentaho.di.trans.dataservice.execution.TransStarter;
-import org.pentaho.di.trans.dataservice.streaming.StreamList;
+import org.pentaho.di.trans.dataservice.streaming.RowRingBuffer;
 import org.pentaho.di.trans.dataservice.streaming.StreamServiceKey;
 import org.pentaho.di.trans.dataservice.streaming.WindowParametersHelper;
 import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
 import org.pentaho.di.trans.step.RowAdapter;
 import org.pentaho.di.trans.step.StepInterface;
 
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class represents a streaming execution for a service transformation.
  * It spans a thread to run the transformation when data is requested and running thread exists, caching the requests.
  * When all the cached requests are expired the transformation is stopped and it's associated thread terminated.
+ * <p>
+ * With an idle suspension period, see {@link DataServiceConstants#STREAMING_IDLE_SUSPEND_PROPERTY}, the transformation
+ * is paused instead when it has no more listeners, keeping its prepared steps and their connections. A new listener
+ * within that period resumes it right away, otherwise it is stopped once the period is over.
  */
 public class StreamingServiceTransExecutor {
+  private static final ScheduledExecutorService CACHE_CLEANUP = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "dataservice-streaming-cleanup-%d" ).build() );
+
   private final Trans serviceTrans;
   private final StreamServiceKey key;
   private final String serviceStepName;
   private final AtomicBoolean isRunning = new AtomicBoolean( false );
   private final AtomicBoolean isStopping = new AtomicBoolean( false );
-
-  private StreamList<RowMetaAndData> stepStream;
-  private long lastCacheCleanupMillis = 0;
+  private final AtomicBoolean isSuspended = new AtomicBoolean( false );
+
+  private RowRingBuffer stepStream;
+  private final WindowBufferBudget windowBudget;
+  private volatile WindowEventTime windowEventTime;
+  private final long idleSuspendMillis;
+  private volatile ScheduledFuture<?> cacheCleanup;
+  private ScheduledFuture<?> suspensionExpiry;
+  // Rows dropped or read late by the window buffers when they were last logged
+  private long loggedDroppedRows;
+  private long loggedLateRows;
   private int windowMaxRowLimit;
   private long windowMaxTimeLimit;
   private Context context;
@@ -74,7 +97,7 @@ public class StreamingServiceTransExecutor {
         //remove the generated trans from the dataservices context cache
         context.removeStreamingGeneratedTransExecution( removal.getKey() );
         if ( serviceListeners.size() == 0 ) {
-          context.removeServiceTransExecutor( key );
+          idle();
         }
 
         log.logDebug( DataServiceConstants.STREAMING_CACHE_REMOVED + removal.getKey() );
@@ -102,6 +125,30 @@ public class StreamingServiceTransExecutor {
     this.windowMaxRowLimit = windowMaxRowLimit;
     this.windowMaxTimeLimit = windowMaxTimeLimit;
     this.context = context;
+    this.windowBudget = WindowBufferBudget.create( key.getDataServiceId() );
+    this.windowEventTime = WindowEventTime.create( key.getDataServiceId() );
+    this.idleSuspendMillis = getIdleSuspendMillis( key.getDataServiceId() );
+  }
+
+  /**
+   * Reads the idle suspension period of a data service from the
+   * {@value DataServiceConstants#STREAMING_IDLE_SUSPEND_PROPERTY} kettle property.
+   *
+   * @param dataServiceName the data service name
+   * @return milliseconds an idle service transformation stays paused, 0 or less to stop it right away
+   */
+  private static long getIdleSuspendMillis( String dataServiceName ) {
+    long idleSuspend = DataServiceConstants.STREAMING_IDLE_SUSPEND_DEFAULT;
+    try {
+      KettleUtils kettleUtils = KettleUtils.getInstance();
+      idleSuspend = Const.toLong( kettleUtils.getKettleProperty( DataServiceConstants.STREAMING_IDLE_SUSPEND_PROPERTY ),
+        idleSuspend );
+      idleSuspend = Const.toLong( kettleUtils.getKettleProperty(
+        DataServiceConstants.STREAMING_IDLE_SUSPEND_PROPERTY + "." + dataServiceName ), idleSuspend );
+    } catch ( KettleException e ) {
+      // Stop idle transformations right away
+    }
+    return idleSuspend;
   }
 
   /**
@@ -140,6 +187,40 @@ public class StreamingServiceTransExecutor {
     return windowMaxTimeLimit;
   }
 
+  /**
+   * Getter for the memory shared by the window buffers of the listeners, with their dropped and late rows.
+   *
+   * @return the window buffer budget of this object instance.
+   */
+  public WindowBufferBudget getWindowBudget() {
+    return windowBudget;
+  }
+
+  /**
+   * Getter for the event time of the time based windows of the listeners.
+   *
+   * @return the window event time of this object instance.
+   */
+  public WindowEventTime getWindowEventTime() {
+    return windowEventTime;
+  }
+
+  /**
+   * Getter for the idle suspension period.
+   *
+   * @return the milliseconds the service transformation stays paused without listeners, 0 or less if it is stopped.
+   */
+  public long getIdleSuspendMillis() {
+    return idleSuspendMillis;
+  }
+
+  /**
+   * @return true if the service transformation is paused, waiting for new listeners
+   */
+  public boolean isSuspended() {
+    return isSuspended.get();
+  }
+
   /**
    * This method is used by the client to get the stream listener fot the given query and window parameters.
    * If no cached listener exists it creates a new one, and spans the Service Transformation execution thread if not
@@ -172,7 +253,7 @@ public class StreamingServiceTransExecutor {
 
     if ( streamListener == null ) {
       if ( stepStream == null ) {
-        stepStream = new StreamList<>();
+        stepStream = new RowRingBuffer( DataServiceConstants.STREAMING_ROW_BUFFER_SIZE );
       }
 
       boolean timeBased = IDataServiceClientService.StreamingMode.TIME_BASED.equals( windowMode );
@@ -184,24 +265,60 @@ public class StreamingServiceTransExecutor {
       windowSize = WindowParametersHelper.getWindowSize( windowSize, timeBased, maxRows, maxTime );
       windowEvery = WindowParametersHelper.getWindowEvery( windowEvery, timeBased, maxRows, maxTime );
 
-      streamListener = new StreamExecutionListener( stepStream.getStream(), windowConsumer, windowMode, windowSize, windowEvery,
-        maxRows, maxTime );
+      streamListener = new StreamExecutionListener( stepStream, windowConsumer, windowMode, windowSize, windowEvery,
+        maxRows, maxTime, windowBudget, timeBased ? checkWindowEventTime() : windowEventTime );
 
       serviceListeners.put( cacheId, streamListener );
     }
 
-    if ( isRunning.compareAndSet( false, true  ) ) {
+    ensureRunning();
+
+    return streamListener;
+  }
+
+  /**
+   * Resumes the suspended service transformation, or starts it if it isn't running.
+   */
+  private synchronized void ensureRunning() {
+    if ( isSuspended.compareAndSet( true, false ) ) {
+      cancelSuspensionExpiry();
+      serviceTrans.resumeRunning();
+      serviceTrans.getLogChannel().logDetailed( DataServiceConstants.STREAMING_TRANSFORMATION_RESUMED );
+    } else if ( isRunning.compareAndSet( false, true ) ) {
       startService();
     }
+  }
 
-    return streamListener;
+  /**
+   * Falls back to windowing the rows by the time they are read when the service step doesn't have the event time
+   * field, rather than dropping every row for its missing event time.
+   *
+   * @return the event time of the time based windows
+   */
+  private synchronized WindowEventTime checkWindowEventTime() {
+    if ( windowEventTime.isEnabled() ) {
+      String timestampField = windowEventTime.getTimestampField();
+      try {
+        RowMetaInterface serviceFields = serviceTrans.getTransMeta().getStepFields( serviceStepName );
+        if ( serviceFields.indexOfValue( timestampField ) < 0 ) {
+          serviceTrans.getLogChannel().logBasic(
+            String.format( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_MISSING, timestampField ) );
+          windowEventTime = new WindowEventTime( null, windowEventTime.getMaxOutOfOrderness() );
+        }
+      } catch ( KettleStepException e ) {
+        // Keep the event time, the rows without it are dropped and logged
+      }
+    }
+    return windowEventTime;
   }
 
   /**
    * Starts the Service transformation and its row event listener.
    */
   private void startService() {
-    lastCacheCleanupMillis = System.currentTimeMillis();
+    cacheCleanup = CACHE_CLEANUP.scheduleWithFixedDelay( this::cleanUp,
+      DataServiceConstants.STREAMING_CACHE_CLEANUP_INTERVAL_SECONDS,
+      DataServiceConstants.STREAMING_CACHE_CLEANUP_INTERVAL_SECONDS, TimeUnit.SECONDS );
 
     //Copy parameters into the service transformation
     DataServiceExecutor dataServiceExecutor = context.getExecutor( serviceTrans.getContainerObjectId() );
@@ -236,7 +353,8 @@ public class StreamingServiceTransExecutor {
         /**
          * Listener for the service transformation output rows.
          * If the stepStream has any valid registered listeners it writes the output row to the stepStream,
-         * otherwise stops the service transformation and kills its running thread.
+         * otherwise stops the service transformation and kills its running thread. The listeners read the row from
+         * the stepStream on their own threads.
          *
          * @param rowMeta The metadata of the written row.
          * @param row The data of the written row.
@@ -253,16 +371,10 @@ public class StreamingServiceTransExecutor {
             // Ignore error
           }
 
-          serviceCacheCleanup();
-
-          if ( serviceListeners.size() > 0 ) {
-            RowMetaAndData rowData = new RowMetaAndData();
-            rowData.setRowMeta( rowMeta );
-            rowData.setData( row );
-
-            stepStream.add( rowData );
+          if ( stepStream.hasReaders() ) {
+            stepStream.add( rowMeta, row );
           } else {
-            stopService();
+            idle();
           }
         }
       } );
@@ -270,15 +382,26 @@ public class StreamingServiceTransExecutor {
   }
 
   /**
-   * Clean up service listener cache.
+   * Removes the expired listeners and logs the rows lost by the window buffers in the meantime.
    */
-  private void serviceCacheCleanup() {
-    long currentTime = System.currentTimeMillis();
-    long updateTime = lastCacheCleanupMillis + ( DataServiceConstants.STREAMING_CACHE_CLEANUP_INTERVAL_SECONDS * 1000 );
+  private void cleanUp() {
+    serviceListeners.cleanUp();
+    logWindowBudget();
+  }
 
-    if ( updateTime <= currentTime ) {
-      serviceListeners.cleanUp();
-      lastCacheCleanupMillis = currentTime;
+  /**
+   * Logs the rows the window buffers dropped or read late since the last time they were logged, if any. The window
+   * results of the listeners are missing these rows.
+   */
+  @VisibleForTesting
+  synchronized void logWindowBudget() {
+    long droppedRows = windowBudget.getDroppedRows();
+    long lateRows = windowBudget.getLateRows();
+    if ( droppedRows != loggedDroppedRows || lateRows != loggedLateRows ) {
+      serviceTrans.getLogChannel().logBasic( String.format( DataServiceConstants.STREAMING_WINDOW_ROWS_LOST,
+        droppedRows - loggedDroppedRows, lateRows - loggedLateRows, droppedRows, lateRows ) );
+      loggedDroppedRows = droppedRows;
+      loggedLateRows = lateRows;
     }
   }
 
@@ -302,17 +425,63 @@ public class StreamingServiceTransExecutor {
   }
 
   /**
-   * Stops the transformation.
+   * Suspends the transformation when it has no more listeners, or stops it if it can't be suspended. Once stopped
+   * without any cached listener, this executor is removed from the context.
    */
-  private void stopService() {
+  private synchronized void idle() {
+    if ( idleSuspendMillis > 0 && isRunning.get() && !isStopping.get() ) {
+      if ( isSuspended.compareAndSet( false, true ) ) {
+        // Steps wait before writing their next row, the row being written is dropped as it was when stopping
+        serviceTrans.pauseRunning();
+        suspensionExpiry = CACHE_CLEANUP.schedule( this::expireSuspension, idleSuspendMillis, TimeUnit.MILLISECONDS );
+        serviceTrans.getLogChannel().logDetailed( DataServiceConstants.STREAMING_TRANSFORMATION_SUSPENDED );
+      }
+    } else {
+      stopService();
+      if ( serviceListeners.size() == 0 ) {
+        context.removeServiceTransExecutor( key );
+      }
+    }
+  }
+
+  /**
+   * Stops the transformation still suspended at the end of the idle suspension period.
+   */
+  private synchronized void expireSuspension() {
+    if ( isSuspended.get() ) {
+      stopService();
+      if ( serviceListeners.size() == 0 && context.getServiceTransExecutor( key ) == this ) {
+        context.removeServiceTransExecutor( key );
+      }
+    }
+  }
+
+  private void cancelSuspensionExpiry() {
+    if ( suspensionExpiry != null ) {
+      suspensionExpiry.cancel( false );
+      suspensionExpiry = null;
+    }
+  }
+
+  /**
+   * Stops the transformation. A suspended transformation is stopped without being resumed.
+   */
+  private synchronized void stopService() {
     if ( isRunning.get() && isStopping.compareAndSet( false, true ) ) {
       LogChannelInterface log = serviceTrans.getLogChannel();
 
+      cancelSuspensionExpiry();
+      isSuspended.set( false );
       serviceTrans.stopAll();
+      if ( cacheCleanup != null ) {
+        cacheCleanup.cancel( false );
+        cacheCleanup = null;
+      }
 
       isRunning.set( false );
       isStopping.set( false );
 
+      logWindowBudget();
       log.logDetailed( DataServiceConstants.STREAMING_TRANSFORMATION_STOPPED );
     }
   }
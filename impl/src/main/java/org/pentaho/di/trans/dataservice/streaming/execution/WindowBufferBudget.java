@@ -0,0 +1,167 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.util.Utils;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory shared by the window buffers of the listeners of a streaming service.
+ * <p>
+ * Each row a listener buffers is weighed by its estimated size. When a row doesn't fit, the {@link OverflowPolicy}
+ * decides whether the listener waits for its windows to be produced, drops its oldest rows or samples the new ones.
+ */
+public class WindowBufferBudget {
+  /**
+   * What happens to the rows that don't fit in the window memory.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Stop reading rows until a time based window frees memory, so that the service step waits for the listener.
+     * Listeners with no time based window left to produce drop their oldest rows instead.
+     */
+    BLOCK,
+    /**
+     * Drop the oldest buffered rows of the listener.
+     */
+    DROP_OLDEST,
+    /**
+     * Keep one of every sample rate rows, dropping the oldest buffered rows to make room for it.
+     */
+    SAMPLE
+  }
+
+  private final long capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final int sampleRate;
+  private final AtomicLong used = new AtomicLong();
+  private final AtomicLong droppedRows = new AtomicLong();
+  private final AtomicLong lateRows = new AtomicLong();
+
+  /**
+   * @param capacity       bytes the window buffers may hold, 0 or less doesn't bound them
+   * @param overflowPolicy what happens to the rows that don't fit
+   * @param sampleRate     one of this many rows is kept by the SAMPLE policy
+   */
+  public WindowBufferBudget( long capacity, OverflowPolicy overflowPolicy, int sampleRate ) {
+    this.capacity = capacity;
+    this.overflowPolicy = overflowPolicy;
+    this.sampleRate = Math.max( sampleRate, 1 );
+  }
+
+  /**
+   * Creates the budget of a data service from the {@value DataServiceConstants#STREAMING_WINDOW_MEMORY_PROPERTY},
+   * {@value DataServiceConstants#STREAMING_WINDOW_OVERFLOW_PROPERTY} and
+   * {@value DataServiceConstants#STREAMING_WINDOW_SAMPLE_RATE_PROPERTY} kettle properties.
+   *
+   * @param dataServiceName the data service name
+   */
+  public static WindowBufferBudget create( String dataServiceName ) {
+    long capacity = DataServiceConstants.STREAMING_WINDOW_MEMORY_DEFAULT;
+    OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    int sampleRate = DataServiceConstants.STREAMING_WINDOW_SAMPLE_RATE_DEFAULT;
+    try {
+      KettleUtils kettleUtils = KettleUtils.getInstance();
+      capacity = Const.toLong( kettleUtils.getKettleProperty( DataServiceConstants.STREAMING_WINDOW_MEMORY_PROPERTY ),
+        capacity );
+      capacity = Const.toLong( kettleUtils.getKettleProperty(
+        DataServiceConstants.STREAMING_WINDOW_MEMORY_PROPERTY + "." + dataServiceName ), capacity );
+      String policy = kettleUtils.getKettleProperty( DataServiceConstants.STREAMING_WINDOW_OVERFLOW_PROPERTY );
+      if ( !Utils.isEmpty( policy ) ) {
+        overflowPolicy = OverflowPolicy.valueOf( policy.trim().toUpperCase() );
+      }
+      sampleRate = Const.toInt(
+        kettleUtils.getKettleProperty( DataServiceConstants.STREAMING_WINDOW_SAMPLE_RATE_PROPERTY ), sampleRate );
+    } catch ( KettleException | IllegalArgumentException e ) {
+      // Use the defaults for the rest
+    }
+    return new WindowBufferBudget( capacity, overflowPolicy, sampleRate );
+  }
+
+  public boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * @return estimated bytes held by the window buffers
+   */
+  public long getUsedBytes() {
+    return used.get();
+  }
+
+  /**
+   * @return rows dropped by the overflow policy
+   */
+  public long getDroppedRows() {
+    return droppedRows.get();
+  }
+
+  /**
+   * @return rows read after the time based window they arrived in was due
+   */
+  public long getLateRows() {
+    return lateRows.get();
+  }
+
+  /**
+   * Takes memory for a row, if it fits.
+   *
+   * @param bytes estimated size of the row
+   * @return true if the row fits
+   */
+  boolean tryAcquire( long bytes ) {
+    if ( !isEnabled() ) {
+      return true;
+    }
+    long current;
+    do {
+      current = used.get();
+      if ( current + bytes > capacity && current > 0 ) {
+        return false;
+      }
+    } while ( !used.compareAndSet( current, current + bytes ) );
+    return true;
+  }
+
+  void release( long bytes ) {
+    if ( bytes > 0 ) {
+      used.addAndGet( -bytes );
+    }
+  }
+
+  void recordDropped( long rows ) {
+    droppedRows.addAndGet( rows );
+  }
+
+  void recordLate( long rows ) {
+    lateRows.addAndGet( rows );
+  }
+}
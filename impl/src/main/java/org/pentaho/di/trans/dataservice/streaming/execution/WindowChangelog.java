@@ -0,0 +1,57 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import org.pentaho.di.core.RowMetaAndData;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes from a streaming window result to the next one. Consumers apply a changelog by removing one occurrence of
+ * each retracted row from the result they hold, then adding the inserted rows.
+ */
+public class WindowChangelog {
+  private final List<RowMetaAndData> retracted;
+  private final List<RowMetaAndData> inserted;
+
+  /**
+   * @param retracted rows of the previous window no longer in the result
+   * @param inserted  rows of the new window not in the previous result
+   */
+  public WindowChangelog( List<RowMetaAndData> retracted, List<RowMetaAndData> inserted ) {
+    this.retracted = Collections.unmodifiableList( retracted );
+    this.inserted = Collections.unmodifiableList( inserted );
+  }
+
+  /**
+   * @param window a whole window result
+   * @return a changelog inserting every row of the window, for consumers holding no result yet
+   */
+  public static WindowChangelog snapshot( List<RowMetaAndData> window ) {
+    return new WindowChangelog( Collections.<RowMetaAndData>emptyList(), window );
+  }
+
+  public List<RowMetaAndData> getRetracted() {
+    return retracted;
+  }
+
+  public List<RowMetaAndData> getInserted() {
+    return inserted;
+  }
+
+  public boolean isEmpty() {
+    return retracted.isEmpty() && inserted.isEmpty();
+  }
+}
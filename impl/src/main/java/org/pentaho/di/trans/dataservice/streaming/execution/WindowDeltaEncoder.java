@@ -0,0 +1,191 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.core.sql.SQLField;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the successive window results of a streaming query into changelogs, see {@link WindowChangelog}.
+ * <p>
+ * Rows are matched by the result columns of the GROUP BY fields when every one of them is selected, and by all of
+ * their values otherwise. A matched row that changed is retracted and inserted again.
+ */
+public class WindowDeltaEncoder {
+  private final int[] keyColumns;
+  private List<RowMetaAndData> previous = Collections.emptyList();
+
+  /**
+   * @param keyColumns result columns identifying a row, null to identify rows by all of their values
+   */
+  public WindowDeltaEncoder( int[] keyColumns ) {
+    this.keyColumns = keyColumns;
+  }
+
+  /**
+   * Creates the encoder of a query, matching rows by its GROUP BY fields.
+   *
+   * @param sql the query
+   */
+  public static WindowDeltaEncoder create( SQL sql ) {
+    if ( sql.getGroupFields() == null || sql.getGroupFields().getFields().isEmpty() ) {
+      return new WindowDeltaEncoder( null );
+    }
+    List<SQLField> selectFields = sql.getSelectFields().getFields();
+    List<SQLField> groups = sql.getGroupFields().getFields();
+    int[] keyColumns = new int[ groups.size() ];
+    for ( int i = 0; i < groups.size(); i++ ) {
+      keyColumns[ i ] = -1;
+      for ( int column = 0; column < selectFields.size() && keyColumns[ i ] < 0; column++ ) {
+        SQLField field = selectFields.get( column );
+        if ( field.getAggregation() == null && groups.get( i ).getField().equalsIgnoreCase( field.getField() ) ) {
+          keyColumns[ i ] = column;
+        }
+      }
+      if ( keyColumns[ i ] < 0 ) {
+        return new WindowDeltaEncoder( null );
+      }
+    }
+    return new WindowDeltaEncoder( keyColumns );
+  }
+
+  /**
+   * @return a changelog inserting the last window result
+   */
+  public synchronized WindowChangelog snapshot() {
+    return WindowChangelog.snapshot( previous );
+  }
+
+  /**
+   * Takes a window result as the last one without computing its changes, while no consumer needs them.
+   */
+  public synchronized void reset( List<RowMetaAndData> window ) {
+    previous = window;
+  }
+
+  /**
+   * @param window the new window result
+   * @return the changes from the last window result
+   */
+  public synchronized WindowChangelog next( List<RowMetaAndData> window ) {
+    List<RowMetaAndData> last = previous;
+    previous = window;
+    if ( last.isEmpty() || window.isEmpty() || !sameLayout( last.get( 0 ), window.get( 0 ) ) ) {
+      return new WindowChangelog( last, window );
+    }
+
+    Map<RowKey, Deque<RowMetaAndData>> lastRows = new HashMap<>( last.size() * 2 );
+    for ( RowMetaAndData row : last ) {
+      lastRows.computeIfAbsent( new RowKey( row, keyColumns ), key -> new ArrayDeque<>( 1 ) ).addLast( row );
+    }
+
+    List<RowMetaAndData> retracted = new ArrayList<>();
+    List<RowMetaAndData> inserted = new ArrayList<>();
+    for ( RowMetaAndData row : window ) {
+      Deque<RowMetaAndData> matches = lastRows.get( new RowKey( row, keyColumns ) );
+      RowMetaAndData match = matches == null ? null : matches.pollFirst();
+      if ( match == null ) {
+        inserted.add( row );
+      } else if ( keyColumns != null && !new RowKey( match, null ).equals( new RowKey( row, null ) ) ) {
+        retracted.add( match );
+        inserted.add( row );
+      }
+    }
+    for ( Deque<RowMetaAndData> unmatched : lastRows.values() ) {
+      retracted.addAll( unmatched );
+    }
+    return new WindowChangelog( retracted, inserted );
+  }
+
+  private static boolean sameLayout( RowMetaAndData first, RowMetaAndData second ) {
+    return first.getRowMeta() == second.getRowMeta()
+      || Arrays.equals( first.getRowMeta().getFieldNames(), second.getRowMeta().getFieldNames() );
+  }
+
+  /**
+   * Values of some columns of a row, compared by their value metadata.
+   */
+  private static class RowKey {
+    private final RowMetaInterface rowMeta;
+    private final Object[] data;
+    private final int[] columns;
+    private final int hash;
+
+    private RowKey( RowMetaAndData row, int[] columns ) {
+      this.rowMeta = row.getRowMeta();
+      this.data = row.getData();
+      this.columns = columns;
+      int result = 1;
+      for ( int i = 0; i < size(); i++ ) {
+        result = 31 * result + hashCode( column( i ) );
+      }
+      this.hash = result;
+    }
+
+    private int size() {
+      return columns == null ? rowMeta.size() : columns.length;
+    }
+
+    private int column( int i ) {
+      return columns == null ? i : columns[ i ];
+    }
+
+    private int hashCode( int column ) {
+      try {
+        return rowMeta.getValueMeta( column ).hashCode( data[ column ] );
+      } catch ( KettleValueException e ) {
+        return 0;
+      }
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+
+    @Override public boolean equals( Object obj ) {
+      if ( !( obj instanceof RowKey ) ) {
+        return false;
+      }
+      RowKey other = (RowKey) obj;
+      if ( hash != other.hash || size() != other.size() ) {
+        return false;
+      }
+      for ( int i = 0; i < size(); i++ ) {
+        int column = column( i );
+        ValueMetaInterface valueMeta = rowMeta.getValueMeta( column );
+        try {
+          if ( valueMeta.compare( data[ column ], other.rowMeta.getValueMeta( column ), other.data[ column ] ) != 0 ) {
+            return false;
+          }
+        } catch ( KettleValueException e ) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.util.Utils;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.dataservice.utils.KettleUtils;
+
+/**
+ * Event time of the time based windows of a streaming service.
+ * <p>
+ * When a service has an event time field, its time based windows hold the rows whose event time falls within them,
+ * whatever the time the rows are read. A window is produced once the watermark, the latest event time read less the
+ * allowed out of orderness, passes its end. See {@link EventTimeWindows}.
+ */
+public class WindowEventTime {
+  private final String timestampField;
+  private final long maxOutOfOrderness;
+
+  /**
+   * @param timestampField    field holding the event time, empty to window rows by the time they are read
+   * @param maxOutOfOrderness milliseconds an event may arrive after a later one and still be counted in its window
+   */
+  public WindowEventTime( String timestampField, long maxOutOfOrderness ) {
+    this.timestampField = timestampField;
+    this.maxOutOfOrderness = Math.max( maxOutOfOrderness, 0 );
+  }
+
+  /**
+   * Reads the event time of a data service from the {@value DataServiceConstants#STREAMING_EVENT_TIME_FIELD_PROPERTY}
+   * and {@value DataServiceConstants#STREAMING_EVENT_TIME_OUT_OF_ORDERNESS_PROPERTY} kettle properties.
+   *
+   * @param dataServiceName the data service name
+   */
+  public static WindowEventTime create( String dataServiceName ) {
+    String timestampField = null;
+    long maxOutOfOrderness = DataServiceConstants.STREAMING_EVENT_TIME_OUT_OF_ORDERNESS_DEFAULT;
+    try {
+      KettleUtils kettleUtils = KettleUtils.getInstance();
+      timestampField = kettleUtils.getKettleProperty( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_PROPERTY );
+      String serviceField = kettleUtils.getKettleProperty(
+        DataServiceConstants.STREAMING_EVENT_TIME_FIELD_PROPERTY + "." + dataServiceName );
+      if ( !Utils.isEmpty( serviceField ) ) {
+        timestampField = serviceField;
+      }
+      maxOutOfOrderness = Const.toLong( kettleUtils.getKettleProperty(
+        DataServiceConstants.STREAMING_EVENT_TIME_OUT_OF_ORDERNESS_PROPERTY ), maxOutOfOrderness );
+    } catch ( KettleException e ) {
+      // Use the defaults for the rest
+    }
+    return new WindowEventTime( Utils.isEmpty( timestampField ) ? null : timestampField.trim(), maxOutOfOrderness );
+  }
+
+  public boolean isEnabled() {
+    return !Utils.isEmpty( timestampField );
+  }
+
+  public String getTimestampField() {
+    return timestampField;
+  }
+
+  public long getMaxOutOfOrderness() {
+    return maxOutOfOrderness;
+  }
+}
@@ -30,7 +30,16 @@ public final class DataServiceConstants {
   public static final String PASSING_ALONG_ROW = "Passing along row: ";
   public static final String ROW_BUFFER_IS_FULL_TRYING_AGAIN = "Row buffer is full, trying again";
   public static final String STREAMING_TRANSFORMATION_STOPPED = "Streaming transformation stopped";
+  public static final String STREAMING_TRANSFORMATION_SUSPENDED = "Streaming transformation suspended";
+  public static final String STREAMING_TRANSFORMATION_RESUMED = "Streaming transformation resumed";
+  public static final String STREAMING_GENERATED_TRANSFORMATION_STARTED = "Generated transformation started";
   public static final String STREAMING_GENERATED_TRANSFORMATION_STOPPED = "Generated transformation stopped";
+  public static final String STREAMING_WINDOW_MARKER_TIMEOUT =
+    "Window end did not come through the generated transformation, restarting it";
+  public static final String STREAMING_WINDOW_ROWS_LOST =
+    "Window buffers dropped %d rows and got %d late rows, %d dropped and %d late in total";
+  public static final String STREAMING_EVENT_TIME_FIELD_MISSING =
+    "Service step has no event time field %s, time based windows use the time rows are read";
   public static final String STREAMING_CACHE_REMOVED = "Streaming cache listener removed: ";
   public static final String STREAMING_SERVICE_CACHE_REMOVED = "Streaming service cache listener removed: ";
   public static final String STREAMING_GEN_TRANS_CACHE_REMOVED = "Streaming generated transformation cache listener removed: ";
@@ -41,6 +50,91 @@ public final class DataServiceConstants {
   public static final long STREAMING_CACHE_CLEANUP_INTERVAL_SECONDS = 130;
   public static final int KETTLE_STREAMING_ROW_LIMIT = 5000;
   public static final int KETTLE_STREAMING_TIME_LIMIT = 10000;
+  // Rows of the service step kept for the stream listeners, the service step waits for the slowest listener
+  public static final int STREAMING_ROW_BUFFER_SIZE = 4096;
+
+  // Estimated bytes of heap the window buffers of a streaming service may hold, 0 or less doesn't bound them. It can be
+  // set for a data service by the same property suffixed by a dot and the data service name
+  public static final String STREAMING_WINDOW_MEMORY_PROPERTY = "dataservice.streaming.window.memory";
+  public static final long STREAMING_WINDOW_MEMORY_DEFAULT = 128L * 1024 * 1024;
+  // What happens to rows past the window memory: BLOCK, DROP_OLDEST or SAMPLE
+  public static final String STREAMING_WINDOW_OVERFLOW_PROPERTY = "dataservice.streaming.window.overflow";
+  // One of this many rows is kept past the window memory by the SAMPLE overflow policy
+  public static final String STREAMING_WINDOW_SAMPLE_RATE_PROPERTY = "dataservice.streaming.window.sample.rate";
+  public static final int STREAMING_WINDOW_SAMPLE_RATE_DEFAULT = 10;
+
+  // Field of the service rows holding the event time of time based windows, a Date, Timestamp or epoch milliseconds
+  // Integer. It is set for a data service by the same property suffixed by a dot and the data service name. Services
+  // without the field window rows by the time they are read
+  public static final String STREAMING_EVENT_TIME_FIELD_PROPERTY = "dataservice.streaming.event.time.field";
+  // Milliseconds an event may arrive after a later one and still be counted in its window
+  public static final String STREAMING_EVENT_TIME_OUT_OF_ORDERNESS_PROPERTY =
+    "dataservice.streaming.event.time.out.of.orderness";
+  public static final long STREAMING_EVENT_TIME_OUT_OF_ORDERNESS_DEFAULT = 1000;
+
+  // Milliseconds a streaming service transformation without listeners stays paused, with its steps prepared and
+  // connected, before it is stopped. 0 or less stops it right away. It can be set for a data service by the same
+  // property suffixed by a dot and the data service name
+  public static final String STREAMING_IDLE_SUSPEND_PROPERTY = "dataservice.streaming.idle.suspend";
+  public static final long STREAMING_IDLE_SUSPEND_DEFAULT = 0;
+
+  // Keep the generated transformation of row by row streaming queries running across windows (Y/N, default Y)
+  public static final String STREAMING_REUSE_GENERATED_TRANS_PROPERTY = "dataservice.streaming.reuse.generated.trans";
+
+  // Generated transformation plan cache
+  public static final String PLAN_CACHE_SIZE_PROPERTY = "dataservice.plan.cache.size";
+  public static final int PLAN_CACHE_SIZE_DEFAULT = 500;
+
+  // Service transformation pool
+  public static final String SERVICE_POOL_MIN_PROPERTY = "dataservice.service.pool.min";
+  public static final String SERVICE_POOL_MAX_PROPERTY = "dataservice.service.pool.max";
+  public static final int SERVICE_POOL_MIN_DEFAULT = 0;
+  public static final int SERVICE_POOL_MAX_DEFAULT = 0;
+
+  // Rows per block written to the client, 0 writes one row at a time
+  public static final String RESULT_BATCH_SIZE_PROPERTY = "dataservice.result.batch.size";
+  public static final int RESULT_BATCH_SIZE_DEFAULT = 0;
+
+  // Hand service step rows to a single consumer without copying them (Y/N)
+  public static final String ROW_TRANSFER_PROPERTY = "dataservice.wiring.transfer.rows";
+
+  // Size in bytes of the pipe between a local query and its JDBC client
+  public static final String CLIENT_BUFFER_SIZE_PROPERTY = "dataservice.client.buffer.size";
+
+  // Bytes of direct memory used for cached service results, 0 keeps cached rows on the heap
+  public static final String CACHE_OFFHEAP_SIZE_PROPERTY = "dataservice.cache.offheap.size";
+  public static final long CACHE_OFFHEAP_SIZE_DEFAULT = 0;
+
+  // Directory where cached service results are persisted across restarts, disabled when blank
+  public static final String CACHE_DISK_DIRECTORY_PROPERTY = "dataservice.cache.disk.dir";
+
+  // Number of query groups with cached GROUP BY results, 0 disables the aggregate cache
+  public static final String CACHE_AGGREGATE_SIZE_PROPERTY = "dataservice.cache.aggregate.size";
+  public static final int CACHE_AGGREGATE_SIZE_DEFAULT = 100;
+
+  // Fraction of the cache time to live after which a cache hit refreshes the entry in the background, 0 disables
+  public static final String CACHE_REFRESH_AHEAD_PROPERTY = "dataservice.cache.refresh.ahead";
+  public static final double CACHE_REFRESH_AHEAD_DEFAULT = 0;
+
+  // Estimated bytes of heap shared by the cached results of all data services, 0 leaves eviction to the cache template
+  public static final String CACHE_MEMORY_SIZE_PROPERTY = "dataservice.cache.memory.size";
+  public static final long CACHE_MEMORY_SIZE_DEFAULT = 0;
+
+  // Fraction of the cache memory size one data service may use, overridden in bytes by the property suffixed by a dot
+  // and the data service name
+  public static final String CACHE_MEMORY_QUOTA_PROPERTY = "dataservice.cache.memory.quota";
+  public static final double CACHE_MEMORY_QUOTA_DEFAULT = 1;
+
+  // File where queries are recorded for cache warm-ups, relative to the kettle home directory unless absolute
+  public static final String CACHE_HISTORY_FILE_PROPERTY = "dataservice.cache.history.file";
+  public static final String CACHE_HISTORY_FILE_DEFAULT = "dataservice-query-history";
+
+  // Comma separated HH:mm times of the daily cache warm-ups, * as the hour runs every hour, disabled when blank
+  public static final String CACHE_WARMUP_SCHEDULE_PROPERTY = "dataservice.cache.warmup.schedule";
+
+  // Number of most frequent queries of each data service replayed by a cache warm-up
+  public static final String CACHE_WARMUP_QUERIES_PROPERTY = "dataservice.cache.warmup.queries";
+  public static final int CACHE_WARMUP_QUERIES_DEFAULT = 10;
 
   private DataServiceConstants() {
     throw new AssertionError();
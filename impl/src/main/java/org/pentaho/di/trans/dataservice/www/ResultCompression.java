@@ -0,0 +1,83 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.www;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compression applied to {@link TransDataServlet} results, negotiated by the {@code ResultCompression} request header.
+ * <p>
+ * Compressed streams are sync flushed whenever the query flushes a block of rows, so the client can decode every
+ * block as soon as it arrives. The response content type carries a {@code compression} parameter naming the
+ * compression actually used.
+ */
+enum ResultCompression {
+  NONE( null ),
+  /**
+   * zlib format, as produced by {@link Deflater}
+   */
+  DEFLATE( "deflate" );
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String name;
+
+  ResultCompression( String name ) {
+    this.name = name;
+  }
+
+  /**
+   * @param header the requested compression, may be null
+   * @return the matching compression, or {@link #NONE} if it is not supported
+   */
+  static ResultCompression fromHeader( String header ) {
+    for ( ResultCompression compression : values() ) {
+      if ( compression.name != null && compression.name.equalsIgnoreCase( header ) ) {
+        return compression;
+      }
+    }
+    return NONE;
+  }
+
+  String contentType( String contentType ) {
+    return name == null ? contentType : contentType + "; compression=" + name;
+  }
+
+  /**
+   * Runs the writer against a compressing stream. The compressed stream is finished, but the target is left open.
+   */
+  void write( OutputStream target, ResultWriter writer ) throws IOException {
+    if ( name == null ) {
+      writer.write( target );
+      return;
+    }
+    // Favor throughput, the query usually produces rows faster than a slower compression level could keep up with
+    Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+    try {
+      DeflaterOutputStream compressed = new DeflaterOutputStream( target, deflater, BUFFER_SIZE, true );
+      writer.write( compressed );
+      compressed.finish();
+      target.flush();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  interface ResultWriter {
+    void write( OutputStream outputStream ) throws IOException;
+  }
+}
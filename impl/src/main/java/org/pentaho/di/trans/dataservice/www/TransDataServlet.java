@@ -18,6 +18,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.annotations.CarteServlet;
 import org.pentaho.di.core.sql.SQL;
 import org.pentaho.di.core.xml.XMLHandler;
@@ -29,6 +30,8 @@ import org.pentaho.di.trans.dataservice.DataServiceMeta;
 import org.pentaho.di.trans.dataservice.client.api.IDataServiceClientService;
 import org.pentaho.di.trans.dataservice.clients.DataServiceClient;
 import org.pentaho.di.trans.dataservice.clients.Query;
+import org.pentaho.di.trans.dataservice.execution.ColumnarRowSink;
+import org.pentaho.di.trans.dataservice.streaming.execution.WindowChangelog;
 import org.pentaho.di.www.BaseCartePlugin;
 
 import java.io.FileOutputStream;
@@ -57,6 +60,22 @@ public class TransDataServlet extends BaseCartePlugin {
   private static final String WINDOW_EVERY = "WindowEvery";
   private static final String WINDOW_LIMIT = "WindowLimit";
   private static final String SQL = "SQL";
+  private static final String RESULT_FORMAT = "ResultFormat";
+  private static final String RESULT_FORMAT_COLUMNAR = "columnar";
+  private static final String COLUMNAR_CHUNK_SIZE = "ColumnarChunkSize";
+  private static final int DEFAULT_COLUMNAR_CHUNK_SIZE = 1024;
+  // Each column of a chunk is an array of this many values, a client must not size them at will
+  private static final int MAX_COLUMNAR_CHUNK_SIZE = 65536;
+  private static final String RESULT_COMPRESSION = "ResultCompression";
+  private static final int COMPRESSED_BLOCK_SIZE = 1024;
+  private static final String WINDOW_DELIVERY = "WindowDelivery";
+  private static final String WINDOW_DELIVERY_PUSH = "push";
+  private static final String WINDOW_DELIVERY_CHANGELOG = "changelog";
+  private static final String WINDOW_HEARTBEAT = "WindowHeartbeat";
+  private static final long DEFAULT_WINDOW_HEARTBEAT = 5000;
+  // The push writer waits this long for the next window, a client must not make it spin or starve its connection
+  private static final long MIN_WINDOW_HEARTBEAT = 100;
+  private static final long MAX_WINDOW_HEARTBEAT = 60000;
   private final DataServiceClient client;
 
   public static final String CONTEXT_PATH = "/sql";
@@ -149,6 +168,49 @@ public class TransDataServlet extends BaseCartePlugin {
         saveGeneratedTransformation( Iterables.getLast( transList ).getTransMeta(), debugTransFile );
       }
 
+      final ResultCompression compression = ResultCompression.fromHeader( request.getHeader( RESULT_COMPRESSION ) );
+
+      // Push delivery keeps the response open and writes every window, or their changes, instead of a single one
+      final WindowPushWriter<?> push = isStreaming ? pushWindows( request, query ) : null;
+      if ( push != null ) {
+        request.respond( 200 )
+          .with( compression.contentType( WindowPushWriter.CONTENT_TYPE ), new OutputStreamResponse() {
+            @Override public void write( OutputStream outputStream ) {
+              try {
+                compression.write( outputStream, push::writeTo );
+              } catch ( IOException e ) {
+                logDetailed( "Stopped pushing windows of streaming query " + sqlQuery + ": " + e.getMessage() );
+              }
+            }
+          } );
+        return;
+      }
+
+      // Clients asking for columnar results must check the content type, other queries still answer row by row
+      if ( RESULT_FORMAT_COLUMNAR.equalsIgnoreCase( request.getHeader( RESULT_FORMAT ) ) && query.supportsColumnar() ) {
+        final int chunkSize = Math.min( Math.max(
+          Const.toInt( request.getHeader( COLUMNAR_CHUNK_SIZE ), DEFAULT_COLUMNAR_CHUNK_SIZE ), 1 ),
+          MAX_COLUMNAR_CHUNK_SIZE );
+        request.respond( 200 )
+          .with( compression.contentType( ColumnarRowSink.CONTENT_TYPE ), new OutputStreamResponse() {
+            @Override public void write( OutputStream outputStream ) throws IOException {
+              compression.write( outputStream, out -> query.writeColumnarTo( out, chunkSize ) );
+            }
+          } );
+        return;
+      }
+
+      if ( compression != ResultCompression.NONE ) {
+        // Flush every block of rows through the compressor, so that the client doesn't wait for a full buffer
+        request.respond( 200 )
+          .with( compression.contentType( "binary/jdbc" ), new OutputStreamResponse() {
+            @Override public void write( OutputStream outputStream ) throws IOException {
+              compression.write( outputStream, out -> query.writeTo( out, COMPRESSED_BLOCK_SIZE ) );
+            }
+          } );
+        return;
+      }
+
       request.respond( 200 )
         .with( "binary/jdbc", new OutputStreamResponse() {
           @Override public void write( OutputStream outputStream ) throws IOException {
@@ -187,6 +249,34 @@ public class TransDataServlet extends BaseCartePlugin {
     return CONTEXT_PATH;
   }
 
+  /**
+   * Registers the push consumer of a streaming query, when the request asks for push delivery.
+   *
+   * @return the consumer, or null to answer with a single window
+   */
+  private static WindowPushWriter<?> pushWindows( CarteRequest request, Query query ) throws Exception {
+    String windowDelivery = getParameterOrHeader( request, WINDOW_DELIVERY );
+    long heartbeat = Math.min( Math.max(
+      Const.toLong( getParameterOrHeader( request, WINDOW_HEARTBEAT ), DEFAULT_WINDOW_HEARTBEAT ),
+      MIN_WINDOW_HEARTBEAT ), MAX_WINDOW_HEARTBEAT );
+    if ( WINDOW_DELIVERY_CHANGELOG.equalsIgnoreCase( windowDelivery ) ) {
+      WindowPushWriter<WindowChangelog> changelogs = WindowPushWriter.changelogs( heartbeat );
+      query.pushChangesTo( changelogs );
+      return changelogs;
+    }
+    if ( WINDOW_DELIVERY_PUSH.equalsIgnoreCase( windowDelivery ) ) {
+      WindowPushWriter<List<RowMetaAndData>> windows = WindowPushWriter.windows( heartbeat );
+      query.pushTo( windows );
+      return windows;
+    }
+    return null;
+  }
+
+  private static String getParameterOrHeader( CarteRequest request, String name ) {
+    return !Strings.isNullOrEmpty( request.getParameter( name ) ) ? request.getParameter( name )
+      : request.getHeader( name );
+  }
+
   private Map<String, String> collectParameters( Map<String, Collection<String>> map ) {
     Map<String, String> parameters = Maps.newHashMap();
     for ( Map.Entry<String, Collection<String>> parameterEntry : map.entrySet() ) {
@@ -0,0 +1,201 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.www;
+
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.dataservice.clients.ExecutorQueryService;
+import org.pentaho.di.trans.dataservice.clients.Query;
+import org.pentaho.di.trans.dataservice.streaming.execution.WindowChangelog;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the windows pushed by a streaming query, see {@link Query#pushTo(Observer)}, or their changes, see
+ * {@link Query#pushChangesTo(Observer)}, as frames of a single long lived response. The client keeps receiving
+ * windows until it disconnects or the service stops.
+ * <p>
+ * Every frame starts with its type byte:
+ * <pre>
+ *   1  window     rows of the window
+ *   2  heartbeat  nothing, written when no window was pushed during the heartbeat interval
+ *   3  end        nothing, the query completed and no window follows
+ *   4  error      UTF message, the query failed and no window follows
+ *   5  changelog  retracted rows then inserted rows, see {@link WindowChangelog}
+ * </pre>
+ * Rows are written as an int rowCount, then when rowCount is positive the row metadata written by
+ * {@link RowMetaInterface#writeMeta} followed by each row written by {@link RowMetaInterface#writeData}.
+ * <p>
+ * The stream is flushed after each frame. Heartbeats let both ends notice a lost connection while the service is
+ * idle: a write that fails ends the response and disposes this consumer, so the query stops counting it.
+ * <p>
+ * Windows are written by the response thread, never by the one running the generated transformation. When the client
+ * reads slower than windows are produced, the oldest pending windows are skipped. Changelogs can't be skipped, the
+ * response then ends with an error and the client has to query again.
+ */
+class WindowPushWriter<T> implements Observer<T> {
+  static final String CONTENT_TYPE = "binary/jdbc-windows";
+
+  static final byte WINDOW = 1;
+  static final byte HEARTBEAT = 2;
+  static final byte END = 3;
+  static final byte ERROR = 4;
+  static final byte CHANGELOG = 5;
+
+  private static final int MAX_PENDING_WINDOWS = 64;
+  // Queued after the last window
+  private static final Object COMPLETED = new Object();
+
+  private final BlockingDeque<Object> windows = new LinkedBlockingDeque<>();
+  private final long heartbeatMillis;
+  private final boolean skipOldest;
+  private final FrameWriter<T> frameWriter;
+  private volatile Disposable subscription;
+  private volatile Throwable error;
+
+  private WindowPushWriter( long heartbeatMillis, boolean skipOldest, FrameWriter<T> frameWriter ) {
+    this.heartbeatMillis = heartbeatMillis;
+    this.skipOldest = skipOldest;
+    this.frameWriter = frameWriter;
+  }
+
+  /**
+   * @param heartbeatMillis longest time without writing a frame
+   * @return a writer of whole windows
+   */
+  static WindowPushWriter<List<RowMetaAndData>> windows( long heartbeatMillis ) {
+    return new WindowPushWriter<>( heartbeatMillis, true, ( out, window ) -> {
+      out.writeByte( WINDOW );
+      writeRows( out, window );
+    } );
+  }
+
+  /**
+   * @param heartbeatMillis longest time without writing a frame
+   * @return a writer of window changelogs
+   */
+  static WindowPushWriter<WindowChangelog> changelogs( long heartbeatMillis ) {
+    return new WindowPushWriter<>( heartbeatMillis, false, ( out, changelog ) -> {
+      out.writeByte( CHANGELOG );
+      writeRows( out, changelog.getRetracted() );
+      writeRows( out, changelog.getInserted() );
+    } );
+  }
+
+  long getHeartbeatMillis() {
+    return heartbeatMillis;
+  }
+
+  @Override public void onSubscribe( Disposable disposable ) {
+    subscription = disposable;
+  }
+
+  @Override public void onNext( T window ) {
+    if ( error != null ) {
+      return;
+    }
+    // Windows are pushed one at a time, only the response thread competes for the head of the queue
+    if ( windows.size() >= MAX_PENDING_WINDOWS && !skipOldest ) {
+      dispose();
+      windows.clear();
+      onError( new IllegalStateException( "The client did not keep up with the window changes" ) );
+      return;
+    }
+    while ( windows.size() >= MAX_PENDING_WINDOWS ) {
+      windows.pollFirst();
+    }
+    windows.offerLast( window );
+  }
+
+  @Override public void onError( Throwable throwable ) {
+    error = throwable;
+    windows.offerLast( COMPLETED );
+  }
+
+  @Override public void onComplete() {
+    windows.offerLast( COMPLETED );
+  }
+
+  /**
+   * Writes the pushed windows until the query completes, the client disconnects or the thread is interrupted.
+   *
+   * @param outputStream the client stream
+   * @throws IOException if the client stream fails, usually because the client disconnected
+   */
+  @SuppressWarnings( "unchecked" )
+  void writeTo( OutputStream outputStream ) throws IOException {
+    DataOutputStream out = ExecutorQueryService.asDataOutputStream( outputStream );
+    try {
+      for ( Object window = next(); window != COMPLETED; window = next() ) {
+        if ( window == null ) {
+          out.writeByte( HEARTBEAT );
+        } else {
+          frameWriter.write( out, (T) window );
+        }
+        out.flush();
+      }
+      Throwable failure = error;
+      if ( failure == null ) {
+        out.writeByte( END );
+      } else {
+        out.writeByte( ERROR );
+        out.writeUTF( String.valueOf( failure.getMessage() ) );
+      }
+      out.flush();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    } finally {
+      dispose();
+    }
+  }
+
+  private Object next() throws InterruptedException {
+    return windows.pollFirst( heartbeatMillis, TimeUnit.MILLISECONDS );
+  }
+
+  private static void writeRows( DataOutputStream out, List<RowMetaAndData> rows ) throws IOException {
+    out.writeInt( rows.size() );
+    if ( rows.isEmpty() ) {
+      return;
+    }
+    try {
+      rows.get( 0 ).getRowMeta().writeMeta( out );
+      for ( RowMetaAndData row : rows ) {
+        row.getRowMeta().writeData( out, row.getData() );
+      }
+    } catch ( KettleException e ) {
+      throw new IOException( "Unable to write streaming window", e );
+    }
+  }
+
+  private void dispose() {
+    Disposable disposable = subscription;
+    if ( disposable != null && !disposable.isDisposed() ) {
+      disposable.dispose();
+    }
+  }
+
+  private interface FrameWriter<T> {
+    void write( DataOutputStream out, T window ) throws IOException;
+  }
+}
@@ -28,10 +28,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
 
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.times;
@@ -216,4 +220,21 @@ public class DataServiceContextTest extends BaseTest {
     context.removeStreamingGeneratedTransExecution( null );
     verify( streamingGeneratedTrans, times( 0 ) ).clearRowConsumers();
   }
+
+  @Test
+  public void testStreamingLock() throws Exception {
+    Lock lock = context.getStreamingLock( streamKey );
+    assertThat( context.getStreamingLock(
+      StreamServiceKey.create( STREAMING_EXECUTOR_ID, mockStreamKeyParams, mockStreamKeyOptimizationList ) ),
+      sameInstance( lock ) );
+
+    ExecutorService otherThread = Executors.newSingleThreadExecutor();
+    lock.lock();
+    try {
+      assertFalse( otherThread.submit( () -> context.getStreamingLock( streamKey ).tryLock() ).get() );
+    } finally {
+      lock.unlock();
+      otherThread.shutdown();
+    }
+  }
 }
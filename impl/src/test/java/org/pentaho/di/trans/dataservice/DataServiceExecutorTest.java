@@ -1689,6 +1689,7 @@ public class DataServiceExecutorTest extends BaseTest {
     ArgumentCaptor<StreamServiceKey> keyCaptor = ArgumentCaptor.forClass( StreamServiceKey.class );
 
     verify( context, times( 3 ) ).getServiceTransExecutor( keyCaptor.capture() );
+    verify( context, times( 3 ) ).getStreamingLock( any( StreamServiceKey.class ) );
     assertNotEquals( keyCaptor.getAllValues().get( 0 ), keyCaptor.getAllValues().get( 1 ) );
     assertEquals( keyCaptor.getAllValues().get( 0 ), keyCaptor.getAllValues().get( 2 ) );
   }
@@ -0,0 +1,121 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.trans.TransMeta;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GeneratedTransCacheTest {
+
+  private GeneratedTransCache cache;
+  private DataServiceMeta service;
+  private TransMeta serviceTrans;
+
+  @Before
+  public void before() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+
+    cache = new GeneratedTransCache( 10 );
+    service = mock( DataServiceMeta.class );
+    serviceTrans = mock( TransMeta.class );
+    when( service.getName() ).thenReturn( "table" );
+    when( service.getServiceTrans() ).thenReturn( serviceTrans );
+    when( serviceTrans.getCacheVersion() ).thenReturn( 1 );
+  }
+
+  @Test
+  public void testNormalize() {
+    assertThat( GeneratedTransCache.normalize( "  SELECT  foo,\n\tbar FROM table WHERE foo = 'a  b'  " ),
+      equalTo( "SELECT foo, bar FROM table WHERE foo = 'a  b'" ) );
+    assertThat( GeneratedTransCache.normalize( "SELECT \"a  b\" FROM table" ),
+      equalTo( "SELECT \"a  b\" FROM table" ) );
+  }
+
+  @Test
+  public void testCachedPlanIsCloned() throws KettleException {
+    SqlTransGenerator generator = createGenerator( "SELECT foo, bar FROM table WHERE bar > 2" );
+    String key = cache.createKey( generator, service, true );
+
+    assertThat( cache.get( key, generator ), nullValue() );
+    TransMeta generated = generator.generateTransMeta();
+    cache.put( key, generator, generated );
+
+    SqlTransGenerator other = createGenerator( "SELECT foo,  bar\nFROM table WHERE bar > 2" );
+    String otherKey = cache.createKey( other, service, true );
+    assertThat( otherKey, equalTo( key ) );
+
+    TransMeta cached = cache.get( otherKey, other );
+    assertThat( cached, notNullValue() );
+    assertThat( cached, not( sameInstance( generated ) ) );
+    assertThat( cached.getStepNames(), equalTo( generated.getStepNames() ) );
+    assertThat( cached.getName(), equalTo( other.getTransName() ) );
+    assertThat( other.getInjectorStepName(), equalTo( generator.getInjectorStepName() ) );
+    assertThat( other.getResultStepName(), equalTo( generator.getResultStepName() ) );
+
+    assertThat( cache.getHitCount(), equalTo( 1L ) );
+    assertThat( cache.getMissCount(), equalTo( 1L ) );
+  }
+
+  @Test
+  public void testKeyChangesWithServiceVersion() throws KettleException {
+    SqlTransGenerator generator = createGenerator( "SELECT foo FROM table" );
+    String key = cache.createKey( generator, service, true );
+
+    when( serviceTrans.getCacheVersion() ).thenReturn( 2 );
+    assertThat( cache.createKey( generator, service, true ), not( equalTo( key ) ) );
+    assertThat( cache.createKey( generator, service, false ), not( equalTo( key ) ) );
+  }
+
+  @Test
+  public void testEviction() throws KettleException {
+    cache = new GeneratedTransCache( 1 );
+    SqlTransGenerator first = createGenerator( "SELECT foo FROM table" );
+    SqlTransGenerator second = createGenerator( "SELECT bar FROM table" );
+
+    cache.put( cache.createKey( first, service, true ), first, first.generateTransMeta() );
+    cache.put( cache.createKey( second, service, true ), second, second.generateTransMeta() );
+
+    assertThat( cache.size(), equalTo( 1L ) );
+    assertThat( cache.get( cache.createKey( first, service, true ), first ), nullValue() );
+    assertThat( cache.get( cache.createKey( second, service, true ), second ), notNullValue() );
+  }
+
+  private SqlTransGenerator createGenerator( String query ) throws KettleException {
+    SQL sql = new SQL( query );
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "foo" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "bar" ) );
+    sql.parse( rowMeta );
+    return new SqlTransGenerator( sql, 0 );
+  }
+}
@@ -0,0 +1,93 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.pentaho.di.trans.TransMeta;
+
+import java.util.function.BiConsumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith( MockitoJUnitRunner.StrictStubs.class)
+public class ServiceTransPoolTest {
+  private static final String SERVICE_NAME = "service";
+  private static final String STEP_NAME = "step";
+
+  @Mock DataServiceMeta service;
+  @Mock TransMeta serviceTrans;
+  @Mock BiConsumer<String, TransMeta> mutator;
+
+  @Before
+  public void setUp() throws Exception {
+    lenient().when( service.getName() ).thenReturn( SERVICE_NAME );
+    lenient().when( service.getStepname() ).thenReturn( STEP_NAME );
+    lenient().when( service.getServiceTrans() ).thenReturn( serviceTrans );
+    lenient().when( serviceTrans.getCacheVersion() ).thenReturn( 1 );
+    lenient().when( serviceTrans.realClone( false ) ).thenAnswer( invocation -> mock( TransMeta.class ) );
+  }
+
+  @Test
+  public void testBorrowRefillsToMinSize() throws Exception {
+    ServiceTransPool pool = new ServiceTransPool( 2, 4, Runnable::run );
+    assertThat( pool.isEnabled(), is( true ) );
+
+    TransMeta first = pool.borrow( service, mutator );
+    assertThat( first, not( sameInstance( serviceTrans ) ) );
+    // A miss grows the target by one, then the pool is refilled in the background
+    assertThat( pool.getIdleCount( SERVICE_NAME ), equalTo( 3 ) );
+
+    TransMeta second = pool.borrow( service, mutator );
+    assertThat( second, not( sameInstance( first ) ) );
+    assertThat( pool.getIdleCount( SERVICE_NAME ), equalTo( 3 ) );
+
+    verify( mutator, times( 5 ) ).accept( eq( STEP_NAME ), any( TransMeta.class ) );
+  }
+
+  @Test
+  public void testVersionChangeInvalidatesPool() throws Exception {
+    ServiceTransPool pool = new ServiceTransPool( 1, 1, Runnable::run );
+    TransMeta first = pool.borrow( service, mutator );
+    assertThat( pool.getIdleCount( SERVICE_NAME ), equalTo( 1 ) );
+
+    when( serviceTrans.getCacheVersion() ).thenReturn( 2 );
+    TransMeta second = pool.borrow( service, mutator );
+    assertThat( second, not( sameInstance( first ) ) );
+    assertThat( pool.getIdleCount( SERVICE_NAME ), equalTo( 1 ) );
+
+    pool.invalidate( SERVICE_NAME );
+    assertThat( pool.getIdleCount( SERVICE_NAME ), equalTo( 0 ) );
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    assertThat( new ServiceTransPool( 0, 0, Runnable::run ).isEnabled(), is( false ) );
+    assertThat( ServiceTransPool.create().isEnabled(), is( false ) );
+  }
+}
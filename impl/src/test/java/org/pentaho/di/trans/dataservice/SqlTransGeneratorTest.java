@@ -15,6 +15,7 @@ package org.pentaho.di.trans.dataservice;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.pentaho.di.core.Condition;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettlePluginException;
 import org.pentaho.di.core.plugins.PluginRegistry;
@@ -341,6 +342,42 @@ public class SqlTransGeneratorTest {
     assertStepNotPresent( transMeta, "DateToStr - Remove temporary fields" );
   }
 
+  @Test
+  public void testWindowPunctuation() throws KettleException {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "foo" ) );
+    SQL sql = new SQL( "SELECT * FROM table WHERE foo > 1" );
+    sql.parse( rowMeta );
+
+    SqlTransGenerator generator = new SqlTransGenerator( sql, 0 );
+    assertFalse( generator.isWindowPunctuated() );
+    generator.setWindowPunctuation( true );
+    assertTrue( generator.isWindowPunctuated() );
+
+    FilterRowsMeta whereStepMeta = (FilterRowsMeta) getStepByName( generator.generateTransMeta(), "Where filter" );
+    Condition condition = whereStepMeta.getCondition();
+    assertThat( condition.nrConditions(), is( 2 ) );
+    assertThat( condition.getCondition( 1 ).getOperator(), is( Condition.OPERATOR_OR ) );
+    assertThat( condition.getCondition( 1 ).getLeftValuename(), is( SqlTransGenerator.WINDOW_MARKER_FIELD ) );
+    assertThat( condition.getCondition( 1 ).getFunction(), is( Condition.FUNC_NOT_NULL ) );
+
+    for ( String query : Arrays.asList( "SELECT COUNT(*) FROM table", "SELECT foo FROM table GROUP BY foo",
+      "SELECT DISTINCT foo FROM table", "SELECT * FROM table ORDER BY foo", "SELECT * FROM table LIMIT 2",
+      "SELECT IIF(foo > 1, 'a', 'b') FROM table" ) ) {
+      sql = new SQL( query );
+      sql.parse( rowMeta );
+      generator = new SqlTransGenerator( sql, 0 );
+      generator.setWindowPunctuation( true );
+      assertFalse( query, generator.isWindowPunctuated() );
+    }
+
+    sql = new SQL( "SELECT * FROM table" );
+    sql.parse( rowMeta );
+    generator = new SqlTransGenerator( sql, 1 );
+    generator.setWindowPunctuation( true );
+    assertFalse( generator.isWindowPunctuated() );
+  }
+
   private void assertStepNotPresent( TransMeta transMeta, String stepName ) {
     int selectValuesIndex = Arrays.asList( transMeta.getStepNames() ).indexOf( stepName );
     if ( selectValuesIndex >= 0 ) {
@@ -0,0 +1,130 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.clients;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class RingBufferPipeTest {
+
+  @Test
+  public void testCapacityIsPowerOfTwo() {
+    assertThat( new RingBufferPipe( 0 ).capacity(), equalTo( 1024 ) );
+    assertThat( new RingBufferPipe( 1024 ).capacity(), equalTo( 1024 ) );
+    assertThat( new RingBufferPipe( 1025 ).capacity(), equalTo( 2048 ) );
+  }
+
+  @Test
+  public void testTransfersAcrossThreads() throws Exception {
+    // Much larger than the buffer, so both sides wrap around and wait on each other
+    byte[] data = new byte[ 1024 * 1024 ];
+    new Random( 42 ).nextBytes( data );
+    RingBufferPipe pipe = new RingBufferPipe( 1024 );
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> writer = executor.submit( () -> {
+        try ( OutputStream out = pipe.out ) {
+          Random random = new Random();
+          for ( int off = 0; off < data.length; ) {
+            int len = Math.min( random.nextInt( 3000 ) + 1, data.length - off );
+            out.write( data, off, len );
+            off += len;
+          }
+        }
+        return null;
+      } );
+
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      byte[] chunk = new byte[ 777 ];
+      for ( int read; ( read = pipe.in.read( chunk ) ) != -1; ) {
+        received.write( chunk, 0, read );
+      }
+      writer.get( 10, TimeUnit.SECONDS );
+      assertArrayEquals( data, received.toByteArray() );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testTransfersSingleBytesAcrossThreads() throws Exception {
+    // Wraps around the buffer one byte at a time, as DataOutputStream headers are written
+    byte[] data = new byte[ 5000 ];
+    new Random( 7 ).nextBytes( data );
+    RingBufferPipe pipe = new RingBufferPipe( 1024 );
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> writer = executor.submit( () -> {
+        try ( OutputStream out = pipe.out ) {
+          for ( byte b : data ) {
+            out.write( b );
+          }
+        }
+        return null;
+      } );
+
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      for ( int read; ( read = pipe.in.read() ) != -1; ) {
+        received.write( read );
+      }
+      writer.get( 10, TimeUnit.SECONDS );
+      assertArrayEquals( data, received.toByteArray() );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWritesIgnoredAfterReaderClosed() throws Exception {
+    RingBufferPipe pipe = new RingBufferPipe( 1024 );
+    pipe.out.write( new byte[ 1024 ] );
+    pipe.in.close();
+
+    // Buffer is full, but the write must neither block nor fail
+    pipe.out.write( new byte[ 4096 ] );
+    pipe.out.write( 1 );
+    pipe.out.close();
+  }
+
+  @Test
+  public void testReaderSeesEndOfStream() throws Exception {
+    RingBufferPipe pipe = new RingBufferPipe( 1024 );
+    pipe.out.write( 7 );
+    pipe.out.close();
+
+    assertThat( pipe.in.read(), equalTo( 7 ) );
+    assertThat( pipe.in.read(), equalTo( -1 ) );
+  }
+
+  @Test( expected = IOException.class )
+  public void testReadAfterClose() throws Exception {
+    RingBufferPipe pipe = new RingBufferPipe( 1024 );
+    pipe.in.close();
+    pipe.in.read();
+  }
+}
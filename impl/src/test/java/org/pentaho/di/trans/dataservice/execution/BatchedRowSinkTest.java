@@ -0,0 +1,107 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.execution;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.trans.Trans;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BatchedRowSinkTest {
+  private RowMetaInterface rowMeta;
+  private Trans serviceTrans;
+
+  @Before
+  public void setUp() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    serviceTrans = mock( Trans.class );
+  }
+
+  @Test
+  public void testRowsAreFlushedInBlocks() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BatchedRowSink sink = new BatchedRowSink( out, 2, serviceTrans );
+
+    sink.rowWrittenEvent( rowMeta, new Object[] { "a", 1L } );
+    assertThat( out.size(), equalTo( 0 ) );
+
+    sink.errorRowWrittenEvent( rowMeta, new Object[] { "b", 2L } );
+    int firstBlock = out.size();
+    assertThat( firstBlock > 0, equalTo( true ) );
+
+    sink.rowWrittenEvent( rowMeta, new Object[] { "c", 3L } );
+    assertThat( out.size(), equalTo( firstBlock ) );
+
+    sink.finish( rowMeta );
+
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( out.toByteArray() ) );
+    RowMetaInterface readMeta = new RowMeta( in );
+    assertThat( readMeta.getFieldNames(), equalTo( rowMeta.getFieldNames() ) );
+    for ( Object[] expected : new Object[][] { { "a", 1L }, { "b", 2L }, { "c", 3L } } ) {
+      Object[] row = readMeta.readData( in );
+      assertThat( row[ 0 ], equalTo( expected[ 0 ] ) );
+      assertThat( row[ 1 ], equalTo( expected[ 1 ] ) );
+    }
+    assertThat( in.available(), equalTo( 0 ) );
+  }
+
+  @Test
+  public void testMetaWrittenWithoutRows() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BatchedRowSink( out, 10, serviceTrans ).finish( rowMeta );
+
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( out.toByteArray() ) );
+    assertThat( new RowMeta( in ).getFieldNames(), equalTo( rowMeta.getFieldNames() ) );
+    assertThat( in.available(), equalTo( 0 ) );
+  }
+
+  @Test( expected = KettleStepException.class )
+  public void testWriteErrorWhileRunning() throws Exception {
+    new BatchedRowSink( new BrokenOutputStream(), 1, serviceTrans ).rowWrittenEvent( rowMeta, new Object[] { "a", 1L } );
+  }
+
+  @Test
+  public void testWriteErrorIgnoredOnceStopped() throws Exception {
+    when( serviceTrans.isStopped() ).thenReturn( true );
+    new BatchedRowSink( new BrokenOutputStream(), 1, serviceTrans ).rowWrittenEvent( rowMeta, new Object[] { "a", 1L } );
+  }
+
+  private static class BrokenOutputStream extends OutputStream {
+    @Override public void write( int b ) throws IOException {
+      throw new IOException( "closed" );
+    }
+  }
+}
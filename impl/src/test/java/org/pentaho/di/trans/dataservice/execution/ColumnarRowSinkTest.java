@@ -0,0 +1,109 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.execution;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.trans.Trans;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ColumnarRowSinkTest {
+  private RowMetaInterface rowMeta;
+
+  @Before
+  public void setUp() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaBoolean( "flag" ) );
+  }
+
+  @Test
+  public void testColumnChunks() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ColumnarRowSink sink = new ColumnarRowSink( out, 3, mock( Trans.class ) );
+
+    sink.rowWrittenEvent( rowMeta, new Object[] { "a", 1L, 1.5, true } );
+    sink.rowWrittenEvent( rowMeta, new Object[] { "b", null, 2.5, false } );
+    sink.rowWrittenEvent( rowMeta, new Object[] { "a", 3L, null, true } );
+    sink.rowWrittenEvent( rowMeta, new Object[] { null, 4L, 4.5, null } );
+    sink.finish( rowMeta );
+
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( out.toByteArray() ) );
+    assertThat( new RowMeta( in ).getFieldNames(), equalTo( rowMeta.getFieldNames() ) );
+
+    // First chunk, three rows
+    assertThat( in.readInt(), equalTo( 3 ) );
+    // name: no nulls, dictionary [a, b], ids 0 1 0
+    assertThat( in.readByte(), equalTo( (byte) 0 ) );
+    assertThat( in.readInt(), equalTo( 2 ) );
+    assertThat( readString( in ), equalTo( "a" ) );
+    assertThat( readString( in ), equalTo( "b" ) );
+    assertThat( in.readUnsignedByte(), equalTo( 0 ) );
+    assertThat( in.readUnsignedByte(), equalTo( 1 ) );
+    assertThat( in.readUnsignedByte(), equalTo( 0 ) );
+    // id: second row is null
+    assertThat( in.readByte(), equalTo( (byte) 0b010 ) );
+    assertThat( in.readLong(), equalTo( 1L ) );
+    assertThat( in.readLong(), equalTo( 3L ) );
+    // amount: third row is null
+    assertThat( in.readByte(), equalTo( (byte) 0b100 ) );
+    assertThat( in.readDouble(), equalTo( 1.5 ) );
+    assertThat( in.readDouble(), equalTo( 2.5 ) );
+    // flag: true, false, true
+    assertThat( in.readByte(), equalTo( (byte) 0 ) );
+    assertThat( in.readByte(), equalTo( (byte) 0b101 ) );
+
+    // Second chunk, single row
+    assertThat( in.readInt(), equalTo( 1 ) );
+    assertThat( in.readByte(), equalTo( (byte) 1 ) );
+    assertThat( in.readInt(), equalTo( 0 ) );
+    assertThat( in.readByte(), equalTo( (byte) 0 ) );
+    assertThat( in.readLong(), equalTo( 4L ) );
+    assertThat( in.readByte(), equalTo( (byte) 0 ) );
+    assertThat( in.readDouble(), equalTo( 4.5 ) );
+    // flag: null, no values follow
+    assertThat( in.readByte(), equalTo( (byte) 1 ) );
+
+    // End of results
+    assertThat( in.readInt(), equalTo( 0 ) );
+    assertThat( in.available(), equalTo( 0 ) );
+  }
+
+  private static String readString( DataInputStream in ) throws Exception {
+    byte[] bytes = new byte[ in.readInt() ];
+    in.readFully( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+}
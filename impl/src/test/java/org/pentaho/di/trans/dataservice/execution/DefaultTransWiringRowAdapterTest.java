@@ -96,6 +96,15 @@ public class DefaultTransWiringRowAdapterTest {
     verify( logChannelInterface, never() ).logRowlevel( anyString() );
   }
 
+  @Test
+  public void testRowWrittenEventTransfersRow() throws KettleStepException, KettleValueException {
+    defaultTransWiringRowAdapter = new DefaultTransWiringRowAdapter( serviceTrans, genTrans, rowProducer, false );
+    when( rowProducer.putRowWait( rowMetaInterface, row, 1, TimeUnit.SECONDS ) ).thenReturn( true );
+    defaultTransWiringRowAdapter.rowWrittenEvent( rowMetaInterface, row );
+    verify( rowProducer ).putRowWait( same( rowMetaInterface ), same( row ), eq( 1L ), eq( TimeUnit.SECONDS ) );
+    verify( rowMetaInterface, never() ).cloneRow( any( Object[].class ) );
+  }
+
   @Test( expected = KettleStepException.class )
   public void testRowWrittenEventException() throws KettleValueException, KettleStepException {
     rowMetaInterface = mock( RowMetaInterface.class );
@@ -0,0 +1,127 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.trans.dataservice.DataServiceExecutor;
+import org.pentaho.di.trans.dataservice.resolvers.DataServiceResolver;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith( MockitoJUnitRunner.StrictStubs.class )
+public class CacheWarmerTest {
+  private static final String SERVICE = "my service";
+
+  @Mock DataServiceResolver resolver;
+  @Mock( answer = Answers.RETURNS_SELF ) DataServiceExecutor.Builder builder;
+  @Mock( answer = Answers.RETURNS_DEEP_STUBS ) DataServiceExecutor executor;
+
+  private QueryHistory history;
+  private CacheWarmer warmer;
+
+  @Before
+  public void setUp() throws Exception {
+    history = new QueryHistory( null );
+    history.record( SERVICE, "SELECT 1", ImmutableMap.<String, String>of() );
+    history.record( SERVICE, "SELECT 2", ImmutableMap.<String, String>of() );
+    history.record( SERVICE, "SELECT 2", ImmutableMap.<String, String>of() );
+    history.record( SERVICE, "SELECT 3", ImmutableMap.<String, String>of() );
+    history.record( SERVICE, "SELECT 3", ImmutableMap.<String, String>of() );
+    history.record( SERVICE, "SELECT 3", ImmutableMap.<String, String>of() );
+
+    warmer = new CacheWarmer( history, resolver, Executors.newSingleThreadScheduledExecutor(),
+      ImmutableList.of( CacheWarmer.Schedule.parse( "07:00" ) ), 2 );
+  }
+
+  @Test
+  public void testWarmUpReplaysTopQueries() throws Exception {
+    when( resolver.createBuilder( any( SQL.class ) ) ).thenReturn( builder );
+    when( builder.build() ).thenReturn( executor );
+    when( executor.executeQuery() ).thenReturn( executor );
+
+    CacheWarmer.Report report = warmer.warmUp( ImmutableList.<String>of() ).get();
+
+    assertThat( report.getFinished() > 0, is( true ) );
+    assertThat( report.getResults().size(), equalTo( 2 ) );
+    assertThat( report.getResults().get( 0 ).getSql(), equalTo( "SELECT 3" ) );
+    assertThat( report.getResults().get( 1 ).getSql(), equalTo( "SELECT 2" ) );
+    assertThat( report.getResults().get( 0 ).getError(), nullValue() );
+    assertThat( warmer.getLastReport(), is( report ) );
+    verify( executor, times( 2 ) ).waitUntilFinished();
+  }
+
+  @Test
+  public void testFailedQueryReported() throws Exception {
+    when( resolver.createBuilder( any( SQL.class ) ) ).thenReturn( builder );
+    when( builder.build() ).thenReturn( executor );
+    when( executor.executeQuery() ).thenReturn( executor );
+    when( executor.hasErrors() ).thenReturn( true );
+
+    CacheWarmer.Report report = warmer.warmUp( ImmutableList.of( SERVICE ) ).get();
+
+    assertThat( report.getResults().get( 0 ).getError(), equalTo( "Query finished with errors" ) );
+  }
+
+  @Test
+  public void testScheduledWarmUp() throws Exception {
+    warmer = new CacheWarmer( history, resolver, Executors.newSingleThreadScheduledExecutor(),
+      ImmutableList.of( CacheWarmer.Schedule.parse( "07:00" ) ), 0 );
+
+    warmer.check( LocalDateTime.of( 2020, 1, 1, 6, 58 ) );
+    warmer.check( LocalDateTime.of( 2020, 1, 1, 6, 59 ) );
+    assertThat( warmer.getLastReport(), nullValue() );
+
+    warmer.check( LocalDateTime.of( 2020, 1, 1, 7, 0 ) );
+    assertThat( warmer.getLastReport().getResults().isEmpty(), is( true ) );
+    verify( resolver, never() ).createBuilder( any( SQL.class ) );
+  }
+
+  @Test
+  public void testSchedule() throws Exception {
+    CacheWarmer.Schedule daily = CacheWarmer.Schedule.parse( "07:00" );
+    CacheWarmer.Schedule hourly = CacheWarmer.Schedule.parse( "*:30" );
+    LocalDateTime morning = LocalDateTime.of( 2020, 1, 1, 6, 59, 30 );
+
+    assertThat( daily.isDueBetween( morning, morning.plusMinutes( 1 ) ), is( true ) );
+    assertThat( daily.isDueBetween( morning.plusMinutes( 1 ), morning.plusMinutes( 2 ) ), is( false ) );
+    assertThat( daily.isDueBetween( morning.minusDays( 1 ), morning.plusMinutes( 1 ) ), is( true ) );
+    assertThat( hourly.isDueBetween( morning, morning.plusMinutes( 1 ) ), is( false ) );
+    assertThat( hourly.isDueBetween( morning, morning.plusMinutes( 31 ) ), is( true ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testInvalidSchedule() throws Exception {
+    CacheWarmer.Schedule.parse( "25:00" );
+  }
+}
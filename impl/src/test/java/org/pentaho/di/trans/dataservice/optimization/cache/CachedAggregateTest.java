@@ -0,0 +1,98 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMeta;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMeta.TYPE_GROUP_AVERAGE;
+import static org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY;
+import static org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMeta.TYPE_GROUP_MAX;
+import static org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMeta.TYPE_GROUP_MIN;
+import static org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMeta.TYPE_GROUP_SUM;
+
+public class CachedAggregateTest {
+
+  private final CachedAggregate cached = new CachedAggregate(
+    groupBy( new String[] { "region", "product" },
+      new String[] { "total", "sales", "smallest", "sales", "orders", "region", "mean", "sales" },
+      new int[] { TYPE_GROUP_SUM, TYPE_GROUP_MIN, TYPE_GROUP_COUNT_ANY, TYPE_GROUP_AVERAGE } ),
+    ImmutableList.<RowMetaAndData>of(), 0, 0 );
+
+  @Test
+  public void testRollUpToCoarserGroups() throws Exception {
+    Optional<MemoryGroupByMeta> rollUp = cached.rollUp(
+      groupBy( new String[] { "region" }, new String[] { "s", "sales", "c", "region" },
+        new int[] { TYPE_GROUP_SUM, TYPE_GROUP_COUNT_ANY } ) );
+
+    assertThat( rollUp.isPresent(), is( true ) );
+    assertThat( rollUp.get().getGroupField(), equalTo( new String[] { "region" } ) );
+    assertThat( rollUp.get().getAggregateField(), equalTo( new String[] { "s", "c" } ) );
+    assertThat( rollUp.get().getSubjectField(), equalTo( new String[] { "total", "orders" } ) );
+    assertThat( rollUp.get().getAggregateType(), equalTo( new int[] { TYPE_GROUP_SUM, TYPE_GROUP_SUM } ) );
+  }
+
+  @Test
+  public void testSameGroups() throws Exception {
+    Optional<MemoryGroupByMeta> rollUp = cached.rollUp(
+      groupBy( new String[] { "product", "region" }, new String[] { "avg", "sales" },
+        new int[] { TYPE_GROUP_AVERAGE } ) );
+
+    assertThat( rollUp.isPresent(), is( true ) );
+    assertThat( rollUp.get().getSubjectField(), equalTo( new String[] { "mean" } ) );
+    assertThat( rollUp.get().getAggregateType(), equalTo( new int[] { TYPE_GROUP_MAX } ) );
+  }
+
+  @Test
+  public void testNoRollUp() throws Exception {
+    // AVG can't be computed from coarser averages
+    assertThat( cached.rollUp( groupBy( new String[] { "region" }, new String[] { "avg", "sales" },
+      new int[] { TYPE_GROUP_AVERAGE } ) ).isPresent(), is( false ) );
+    // Finer groups
+    assertThat( cached.rollUp( groupBy( new String[] { "region", "year" }, new String[] { "s", "sales" },
+      new int[] { TYPE_GROUP_SUM } ) ).isPresent(), is( false ) );
+    // Aggregate not cached
+    assertThat( cached.rollUp( groupBy( new String[] { "region" }, new String[] { "m", "sales" },
+      new int[] { TYPE_GROUP_MAX } ) ).isPresent(), is( false ) );
+  }
+
+  @Test
+  public void testIsValid() throws Exception {
+    CachedAggregate expiring = new CachedAggregate( groupBy( new String[] { "region" }, new String[] { "s", "sales" },
+      new int[] { TYPE_GROUP_SUM } ), ImmutableList.<RowMetaAndData>of(), 60, 1000 );
+
+    assertThat( expiring.isValid( 60, 60000 ), is( true ) );
+    assertThat( expiring.isValid( 60, 61000 ), is( false ) );
+    assertThat( expiring.isValid( 120, 2000 ), is( false ) );
+    assertThat( cached.isValid( 0, Long.MAX_VALUE ), is( true ) );
+  }
+
+  private static MemoryGroupByMeta groupBy( String[] groupFields, String[] aggregates, int[] types ) {
+    MemoryGroupByMeta meta = new MemoryGroupByMeta();
+    meta.allocate( groupFields.length, types.length );
+    System.arraycopy( groupFields, 0, meta.getGroupField(), 0, groupFields.length );
+    for ( int i = 0; i < types.length; i++ ) {
+      meta.getAggregateField()[i] = aggregates[ 2 * i ];
+      meta.getSubjectField()[i] = aggregates[ 2 * i + 1 ];
+      meta.getAggregateType()[i] = types[i];
+    }
+    return meta;
+  }
+}
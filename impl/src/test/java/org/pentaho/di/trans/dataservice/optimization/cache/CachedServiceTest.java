@@ -422,6 +422,37 @@ public class CachedServiceTest {
     }
   }
 
+  @Test
+  public void testReplayFailedService() throws Exception {
+    DataServiceExecutor executor = dataServiceExecutor( BASE_QUERY );
+    RowProducer rowProducer = genTrans.addRowProducer( INJECTOR_STEP, 0 );
+    ServiceRowLog rowLog = new ServiceRowLog();
+    rowLog.append( testData.get( 0 ) );
+    rowLog.fail( new KettleException( "Service transformation was stopped" ) );
+
+    Executor mockExecutor = mock( Executor.class );
+    ListenableFuture<Integer> replay = new CachedServiceLoader( mockExecutor, rowLog::cursor ).replay( executor );
+    ArgumentCaptor<Runnable> replayRunnable = ArgumentCaptor.forClass( Runnable.class );
+    verify( mockExecutor ).execute( replayRunnable.capture() );
+    executor.executeListeners( DataServiceExecutor.ExecutionPoint.START );
+
+    when( rowProducer.putRowWait( any(), any(), anyLong(), any() ) ).thenReturn( true );
+    when( genTrans.isRunning() ).thenReturn( true );
+    replayRunnable.getValue().run();
+
+    try {
+      replay.get( 1, TimeUnit.SECONDS );
+      fail( "Expected exception" );
+    } catch ( ExecutionException e ) {
+      assertThat( e.getCause(), instanceOf( IllegalStateException.class ) );
+    }
+    // The query fails instead of ending after the rows read so far
+    verify( rowProducer ).putRowWait( any(), any(), anyLong(), any() );
+    verify( rowProducer, never() ).finished();
+    verify( rowProducer.getStepInterface() ).setErrors( 1 );
+    verify( genTrans ).stopAll();
+  }
+
   @Test
   public void testAnswersQuery() throws Exception {
     String query = "SELECT ID, A FROM " + SERVICE_NAME + " WHERE B = 1";
@@ -0,0 +1,89 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.sql.SQL;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConditionSubsumptionTest {
+  private RowMeta rowMeta;
+
+  @Before
+  public void setUp() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "region" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "year" ) );
+  }
+
+  @Test
+  public void testConjunction() throws Exception {
+    assertImplies( "region = 'EU' AND year = 2025", "region = 'EU'", true );
+    assertImplies( "region = 'EU' AND year = 2025", "year >= 2020 AND region = 'EU'", true );
+    assertImplies( "region = 'EU'", "region = 'EU' AND year = 2025", false );
+  }
+
+  @Test
+  public void testRanges() throws Exception {
+    assertImplies( "year >= 2023", "year >= 2020", true );
+    assertImplies( "year > 2020", "year >= 2020", true );
+    assertImplies( "year = 2020", "year >= 2020", true );
+    assertImplies( "year < 2000", "year <= 2010", true );
+    assertImplies( "year >= 2020", "year >= 2023", false );
+    assertImplies( "year >= 2020", "year > 2020", false );
+    assertImplies( "year <= 2010", "year < 2010", false );
+  }
+
+  @Test
+  public void testDisjunction() throws Exception {
+    assertImplies( "year = 2021 OR year = 2022", "year >= 2020", true );
+    assertImplies( "year = 2021", "year < 2000 OR year > 2020", true );
+    assertImplies( "year = 2021 OR year = 2019", "year >= 2020", false );
+  }
+
+  @Test
+  public void testEqualityAndNulls() throws Exception {
+    assertImplies( "region = 'EU'", "region = 'EU'", true );
+    assertImplies( "region = 'EU'", "region <> 'US'", true );
+    assertImplies( "region = 'EU'", "region = 'US'", false );
+    assertImplies( "region = 'EU'", "year = 2020", false );
+    assertImplies( "year = 2020", "year IS NOT NULL", true );
+    assertImplies( "year < 2020", "year IS NOT NULL", false );
+  }
+
+  private void assertImplies( String query, String cached, boolean implied ) throws Exception {
+    assertThat( query + " => " + cached,
+      ConditionSubsumption.implies( condition( query ), condition( cached ) ), is( implied ) );
+  }
+
+  private Condition condition( String where ) throws Exception {
+    SQL sql = new SQL( "SELECT * FROM service WHERE " + where );
+    sql.parse( rowMeta );
+    Condition condition = (Condition) sql.getWhereCondition().getCondition().clone();
+    condition.simplify();
+    return condition;
+  }
+}
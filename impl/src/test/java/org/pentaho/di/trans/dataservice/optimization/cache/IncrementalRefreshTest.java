@@ -0,0 +1,120 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.trans.dataservice.DataServiceExecutor;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IncrementalRefreshTest {
+  private RowMetaInterface rowMeta;
+  private CachedService.CacheKey key;
+
+  @Before
+  public void setUp() throws Exception {
+    rowMeta = rowMeta();
+    key = cacheKey( "SELECT * FROM service" );
+  }
+
+  @Test
+  public void testAppendRowsPastWatermark() throws Exception {
+    CachedService base = CachedService.complete( ImmutableList.of( row( rowMeta, 3, "c" ), row( rowMeta, 1, "a" ) ) );
+
+    IncrementalRefresh refresh = IncrementalRefresh.create( key, base, "id" ).get();
+    assertThat( refresh.getSql( "service" ), equalTo( "SELECT * FROM \"service\" WHERE \"id\" > 3" ) );
+    new SQL( refresh.getSql( "service" ) );
+
+    // Rows of another transformation, including rows already cached when nothing was pushed down
+    RowMetaInterface deltaMeta = rowMeta();
+    CachedService delta = CachedService.complete(
+      ImmutableList.of( row( deltaMeta, 1, "a" ), row( deltaMeta, 3, "c" ), row( deltaMeta, 4, "d" ) ) );
+
+    CachedService appended = refresh.append( delta, 1000 ).get();
+
+    List<RowMetaAndData> rows = appended.getRowMetaAndData();
+    assertThat( rows.size(), equalTo( 3 ) );
+    assertThat( rows.get( 2 ).getData()[ 0 ], equalTo( (Object) 4L ) );
+    assertThat( rows.get( 2 ).getRowMeta(), sameInstance( rowMeta ) );
+    assertThat( appended.isComplete(), is( true ) );
+    assertThat( appended.getCreated(), equalTo( 1000L ) );
+  }
+
+  @Test
+  public void testStringWatermark() throws Exception {
+    CachedService base = CachedService.complete( ImmutableList.of( row( rowMeta, 1, "it's" ) ) );
+
+    IncrementalRefresh refresh = IncrementalRefresh.create( key, base, "name" ).get();
+
+    assertThat( refresh.getSql( "service" ), equalTo( "SELECT * FROM \"service\" WHERE \"name\" > 'it''s'" ) );
+  }
+
+  @Test
+  public void testNotIncremental() throws Exception {
+    CachedService base = CachedService.complete( ImmutableList.of( row( rowMeta, 1, "a" ) ) );
+
+    assertThat( IncrementalRefresh.create( key, base, "missing" ).isPresent(), is( false ) );
+    assertThat( IncrementalRefresh.create( key, CachedService.complete( ImmutableList.<RowMetaAndData>of() ), "id" )
+      .isPresent(), is( false ) );
+    assertThat( IncrementalRefresh.create( key, CachedService.create( ImmutableList.of( row( rowMeta, 1, "a" ) ),
+      Optional.of( 1 ), Optional.<Integer>absent() ), "id" ).isPresent(), is( false ) );
+  }
+
+  @Test
+  public void testChangedRowsDiscarded() throws Exception {
+    CachedService base = CachedService.complete( ImmutableList.of( row( rowMeta, 1, "a" ) ) );
+    RowMetaInterface changed = new RowMeta();
+    changed.addValueMeta( new ValueMetaInteger( "id" ) );
+    CachedService delta = CachedService.complete( ImmutableList.of( new RowMetaAndData( changed, 2L ) ) );
+
+    assertThat( IncrementalRefresh.create( key, base, "id" ).get().append( delta, 0 ).isPresent(), is( false ) );
+  }
+
+  private static RowMetaInterface rowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    return rowMeta;
+  }
+
+  private static RowMetaAndData row( RowMetaInterface rowMeta, long id, String name ) {
+    return new RowMetaAndData( rowMeta, id, name );
+  }
+
+  private static CachedService.CacheKey cacheKey( String sql ) throws Exception {
+    DataServiceExecutor executor = mock( DataServiceExecutor.class, RETURNS_DEEP_STUBS );
+    when( executor.getSql() ).thenReturn( new SQL( sql ) );
+    when( executor.getService().getServiceTrans().getCacheVersion() ).thenReturn( 1 );
+    when( executor.getParameters() ).thenReturn( ImmutableMap.<String, String>of() );
+    return CachedService.CacheKey.create( executor );
+  }
+}
@@ -0,0 +1,139 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class OffHeapRowStoreTest {
+  private RowMetaInterface rowMeta;
+
+  @Before
+  public void setUp() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+  }
+
+  @Test
+  public void testRowsReadBackFromDirectMemory() throws Exception {
+    OffHeapRowStore store = new OffHeapRowStore( 1024, 16 );
+    CachedService cachedService = CachedService.complete( rows( 5 ) ).moveOffHeap( store, "service" );
+
+    assertThat( cachedService.isOffHeap(), is( true ) );
+    assertThat( cachedService.getRowCount(), equalTo( 5 ) );
+    assertThat( store.getUsedBytes() > 0, is( true ) );
+
+    List<RowMetaAndData> rows = cachedService.getRowMetaAndData();
+    assertThat( rows.size(), equalTo( 5 ) );
+    for ( int i = 0; i < 5; i++ ) {
+      assertThat( rows.get( i ).getData()[ 0 ], equalTo( (Object) ( "row " + i ) ) );
+      assertThat( rows.get( i ).getData()[ 1 ], equalTo( (Object) (long) i ) );
+    }
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() throws Exception {
+    OffHeapRowStore store = new OffHeapRowStore( 40, 32 );
+    CachedService first = CachedService.complete( rows( 1 ) ).moveOffHeap( store, "first" );
+    // A single row is charged its encoded size, not a whole segment
+    long rowSize = store.getUsedBytes();
+    assertThat( rowSize < 32 && rowSize * 2 <= 40 && rowSize * 3 > 40, is( true ) );
+    CachedService second = CachedService.complete( rows( 1 ) ).moveOffHeap( store, "second" );
+    assertThat( store.getUsedBytes(), equalTo( rowSize * 2 ) );
+
+    // Reading the first entry makes the second one the eldest
+    first.rows();
+    CachedService third = CachedService.complete( rows( 1 ) ).moveOffHeap( store, "third" );
+
+    assertThat( first.isEvicted(), is( false ) );
+    assertThat( second.isEvicted(), is( true ) );
+    assertThat( third.isEvicted(), is( false ) );
+    assertThat( store.getUsedBytes(), equalTo( rowSize * 2 ) );
+  }
+
+  @Test
+  public void testEvictedRowsAreDropped() throws Exception {
+    OffHeapRowStore store = new OffHeapRowStore( 1024, 16 );
+    CachedService cachedService = CachedService.complete( rows( 3 ) ).moveOffHeap( store, "service" );
+    Iterator<RowMetaAndData> reading = cachedService.rows();
+    reading.next();
+
+    cachedService.release();
+    assertThat( cachedService.isEvicted(), is( true ) );
+
+    // A reader already iterating still holds the buffers
+    assertThat( reading.next().getData()[ 0 ], equalTo( (Object) "row 1" ) );
+    assertThat( reading.next().getData()[ 0 ], equalTo( (Object) "row 2" ) );
+    try {
+      cachedService.rows();
+      fail( "Evicted rows can't be read again" );
+    } catch ( IllegalStateException e ) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testRowsKeptOnHeap() throws Exception {
+    CachedService cachedService = CachedService.complete( rows( 5 ) );
+
+    assertThat( cachedService.moveOffHeap( null, "service" ), sameInstance( cachedService ) );
+    assertThat( cachedService.moveOffHeap( new OffHeapRowStore( 0 ), "service" ), sameInstance( cachedService ) );
+    // Larger than the whole budget
+    assertThat( cachedService.moveOffHeap( new OffHeapRowStore( 8, 16 ), "service" ), sameInstance( cachedService ) );
+  }
+
+  @Test
+  public void testInvalidateService() throws Exception {
+    OffHeapRowStore store = new OffHeapRowStore( 1024, 16 );
+    CachedService first = CachedService.complete( rows( 2 ) ).moveOffHeap( store, "first" );
+    CachedService second = CachedService.complete( rows( 2 ) ).moveOffHeap( store, "second" );
+
+    store.invalidate( "first" );
+    assertThat( first.isEvicted(), is( true ) );
+    assertThat( second.isEvicted(), is( false ) );
+
+    second.release();
+    assertThat( second.isEvicted(), is( true ) );
+    assertThat( store.getUsedBytes(), equalTo( 0L ) );
+  }
+
+  private List<RowMetaAndData> rows( int count ) {
+    ImmutableList.Builder<RowMetaAndData> rows = ImmutableList.builder();
+    for ( int i = 0; i < count; i++ ) {
+      rows.add( new RowMetaAndData( rowMeta, "row " + i, (long) i ) );
+    }
+    return rows.build();
+  }
+}
@@ -0,0 +1,208 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.trans.dataservice.DataServiceExecutor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PersistentServiceCacheTest {
+  private static final String SERVICE = "my service";
+  private static final long TTL = 3600;
+
+  @Rule public TemporaryFolder fs = new TemporaryFolder();
+
+  private RowMetaInterface rowMeta;
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    directory = fs.newFolder();
+  }
+
+  @Test
+  public void testReloadedAfterRestart() throws Exception {
+    CachedService.CacheKey key = cacheKey( 1 );
+    CachedService partial = CachedService.create( rows( 3 ), Optional.of( 10 ), Optional.<Integer>absent() );
+    new PersistentServiceCache( directory ).store( SERVICE, key, partial, TTL );
+
+    CachedService loaded = new PersistentServiceCache( directory ).load( SERVICE, key, TTL );
+
+    assertThat( loaded.getRowCount(), equalTo( 3 ) );
+    assertThat( loaded.getRanking(), equalTo( Optional.of( 10 ) ) );
+    assertThat( loaded.isComplete(), is( false ) );
+    List<RowMetaAndData> rows = loaded.getRowMetaAndData();
+    for ( int i = 0; i < 3; i++ ) {
+      assertThat( rows.get( i ).getData()[ 0 ], equalTo( (Object) ( "row " + i ) ) );
+      assertThat( rows.get( i ).getData()[ 1 ], equalTo( (Object) (long) i ) );
+    }
+  }
+
+  @Test
+  public void testLatestEntryWins() throws Exception {
+    CachedService.CacheKey key = cacheKey( 1 );
+    PersistentServiceCache cache = new PersistentServiceCache( directory, 1 );
+    cache.store( SERVICE, key, CachedService.complete( rows( 1 ) ), TTL );
+    cache.store( SERVICE, key, CachedService.complete( rows( 4 ) ), TTL );
+
+    assertThat( cache.load( SERVICE, key, TTL ).getRowCount(), equalTo( 4 ) );
+    assertThat( new PersistentServiceCache( directory, 1 ).load( SERVICE, key, TTL ).getRowCount(), equalTo( 4 ) );
+    // Each entry rolled over to a new segment
+    assertThat( new File( directory, "my+service/segment-1" ).isFile(), is( true ) );
+  }
+
+  @Test
+  public void testInvalidEntriesIgnored() throws Exception {
+    new PersistentServiceCache( directory ).store( SERVICE, cacheKey( 1 ), CachedService.complete( rows( 2 ) ), TTL );
+
+    PersistentServiceCache cache = new PersistentServiceCache( directory );
+    // Service transformation changed
+    assertThat( cache.load( SERVICE, cacheKey( 2 ), TTL ), nullValue() );
+    // Time to live changed
+    assertThat( cache.load( SERVICE, cacheKey( 1 ), TTL * 2 ), nullValue() );
+    assertThat( cache.load( "other service", cacheKey( 1 ), TTL ), nullValue() );
+  }
+
+  @Test
+  public void testTruncatedIndexRecordDropped() throws Exception {
+    new PersistentServiceCache( directory ).store( SERVICE, cacheKey( 1 ), CachedService.complete( rows( 2 ) ), TTL );
+    try ( FileOutputStream index = new FileOutputStream( new File( directory, "my+service/index" ), true ) ) {
+      index.write( new byte[] { 0, 0, 1 } );
+    }
+
+    PersistentServiceCache cache = new PersistentServiceCache( directory );
+    assertThat( cache.load( SERVICE, cacheKey( 1 ), TTL ).getRowCount(), equalTo( 2 ) );
+    cache.store( SERVICE, cacheKey( 2 ), CachedService.complete( rows( 5 ) ), TTL );
+
+    PersistentServiceCache restarted = new PersistentServiceCache( directory );
+    assertThat( restarted.load( SERVICE, cacheKey( 1 ), TTL ).getRowCount(), equalTo( 2 ) );
+    assertThat( restarted.load( SERVICE, cacheKey( 2 ), TTL ).getRowCount(), equalTo( 5 ) );
+  }
+
+  @Test
+  public void testReplacedEntriesCompacted() throws Exception {
+    CachedService.CacheKey key = cacheKey( 1 );
+    PersistentServiceCache cache = new PersistentServiceCache( directory, 1 );
+    cache.store( SERVICE, key, CachedService.complete( rows( 3 ) ), TTL );
+    cache.store( SERVICE, key, CachedService.complete( rows( 3 ) ), TTL );
+    // Half of the segment bytes are now dead, the live entry is moved to segment 2 and the new one goes to segment 3
+    cache.store( SERVICE, key, CachedService.complete( rows( 2 ) ), TTL );
+
+    assertThat( new File( directory, "my+service/segment-0" ).exists(), is( false ) );
+    assertThat( new File( directory, "my+service/segment-1" ).exists(), is( false ) );
+    assertThat( new File( directory, "my+service/segment-2" ).isFile(), is( true ) );
+    assertThat( cache.load( SERVICE, key, TTL ).getRowCount(), equalTo( 2 ) );
+    assertThat( new PersistentServiceCache( directory, 1 ).load( SERVICE, key, TTL ).getRowCount(), equalTo( 2 ) );
+  }
+
+  @Test
+  public void testOldVersionsCompacted() throws Exception {
+    PersistentServiceCache cache = new PersistentServiceCache( directory, 1 );
+    cache.store( SERVICE, cacheKey( 1 ), CachedService.complete( rows( 3 ) ), TTL );
+    cache.store( SERVICE, cacheKey( 2 ), CachedService.complete( rows( 1 ) ), TTL );
+
+    assertThat( new File( directory, "my+service/segment-0" ).exists(), is( false ) );
+    assertThat( cache.keys( SERVICE ), contains( cacheKey( 2 ) ) );
+    PersistentServiceCache restarted = new PersistentServiceCache( directory, 1 );
+    assertThat( restarted.keys( SERVICE ), contains( cacheKey( 2 ) ) );
+    assertThat( restarted.load( SERVICE, cacheKey( 2 ), TTL ).getRowCount(), equalTo( 1 ) );
+  }
+
+  @Test
+  public void testCorruptIndexDiscarded() throws Exception {
+    new PersistentServiceCache( directory ).store( SERVICE, cacheKey( 1 ), CachedService.complete( rows( 2 ) ), TTL );
+    File indexFile = new File( directory, "my+service/index" );
+    try ( FileOutputStream index = new FileOutputStream( indexFile ) ) {
+      index.write( new byte[] { 0, 0, 0, 4, 1, 2, 3, 4 } );
+      index.write( new byte[ 64 ] );
+    }
+
+    PersistentServiceCache cache = new PersistentServiceCache( directory );
+    assertThat( cache.load( SERVICE, cacheKey( 1 ), TTL ), nullValue() );
+    assertThat( indexFile.exists(), is( false ) );
+    assertThat( new File( directory, "my+service/segment-0" ).exists(), is( false ) );
+
+    cache.store( SERVICE, cacheKey( 2 ), CachedService.complete( rows( 5 ) ), TTL );
+    assertThat( new PersistentServiceCache( directory ).load( SERVICE, cacheKey( 2 ), TTL ).getRowCount(),
+      equalTo( 5 ) );
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    PersistentServiceCache cache = new PersistentServiceCache( directory );
+    cache.store( SERVICE, cacheKey( 1 ), CachedService.complete( ImmutableList.<RowMetaAndData>of() ), TTL );
+    assertThat( cache.load( SERVICE, cacheKey( 1 ), TTL ).getRowCount(), equalTo( 0 ) );
+
+    cache.invalidate( SERVICE );
+    assertThat( cache.load( SERVICE, cacheKey( 1 ), TTL ), nullValue() );
+    assertThat( new PersistentServiceCache( directory ).load( SERVICE, cacheKey( 1 ), TTL ), nullValue() );
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    PersistentServiceCache cache = new PersistentServiceCache( null );
+    cache.store( SERVICE, cacheKey( 1 ), CachedService.complete( rows( 1 ) ), TTL );
+
+    assertThat( cache.isEnabled(), is( false ) );
+    assertThat( cache.load( SERVICE, cacheKey( 1 ), TTL ), nullValue() );
+  }
+
+  private CachedService.CacheKey cacheKey( int version ) throws Exception {
+    DataServiceExecutor executor = mock( DataServiceExecutor.class, RETURNS_DEEP_STUBS );
+    when( executor.getSql() ).thenReturn( new SQL( "SELECT * FROM service" ) );
+    when( executor.getService().getServiceTrans().getCacheVersion() ).thenReturn( version );
+    when( executor.getParameters() ).thenReturn( ImmutableMap.<String, String>of() );
+    return CachedService.CacheKey.create( executor );
+  }
+
+  private List<RowMetaAndData> rows( int count ) {
+    ImmutableList.Builder<RowMetaAndData> rows = ImmutableList.builder();
+    for ( int i = 0; i < count; i++ ) {
+      rows.add( new RowMetaAndData( rowMeta, "row " + i, (long) i ) );
+    }
+    return rows.build();
+  }
+}
@@ -0,0 +1,86 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class QueryHistoryTest {
+  private static final String SERVICE = "my service";
+
+  @Rule public TemporaryFolder fs = new TemporaryFolder();
+
+  @Test
+  public void testTopQueries() throws Exception {
+    QueryHistory history = new QueryHistory( null );
+    for ( int i = 0; i < 3; i++ ) {
+      history.record( SERVICE, "SELECT * FROM \"my service\"", ImmutableMap.<String, String>of() );
+    }
+    history.record( SERVICE, "SELECT *\n  FROM   \"my service\" ", ImmutableMap.<String, String>of() );
+    history.record( SERVICE, "SELECT * FROM \"my service\" WHERE a = 'x  y'", ImmutableMap.of( "p", "1" ) );
+    history.record( SERVICE, "SELECT * FROM \"my service\" WHERE a = 'x  y'", ImmutableMap.of( "p", "1" ) );
+    history.record( SERVICE, "SELECT * FROM \"my service\" WHERE a = 'x  y'", ImmutableMap.of( "p", "2" ) );
+
+    List<QueryHistory.RecordedQuery> top = history.top( SERVICE, 2 );
+
+    assertThat( top.size(), equalTo( 2 ) );
+    assertThat( top.get( 0 ).getSql(), equalTo( "SELECT * FROM \"my service\"" ) );
+    assertThat( history.getCount( SERVICE, top.get( 0 ) ), equalTo( 4L ) );
+    assertThat( top.get( 1 ).getSql(), equalTo( "SELECT * FROM \"my service\" WHERE a = 'x  y'" ) );
+    assertThat( top.get( 1 ).getParameters(), equalTo( (Object) ImmutableMap.of( "p", "1" ) ) );
+    assertThat( history.top( "other", 2 ).isEmpty(), is( true ) );
+  }
+
+  @Test
+  public void testLeastFrequentDropped() throws Exception {
+    QueryHistory history = new QueryHistory( null );
+    history.record( SERVICE, "SELECT 0", ImmutableMap.<String, String>of() );
+    for ( int i = 1; i < QueryHistory.MAX_QUERIES; i++ ) {
+      history.record( SERVICE, "SELECT " + i, ImmutableMap.<String, String>of() );
+      history.record( SERVICE, "SELECT " + i, ImmutableMap.<String, String>of() );
+    }
+    history.record( SERVICE, "SELECT new", ImmutableMap.<String, String>of() );
+
+    List<QueryHistory.RecordedQuery> all = history.top( SERVICE, Integer.MAX_VALUE );
+    assertThat( all.size(), equalTo( QueryHistory.MAX_QUERIES ) );
+    assertThat( all.get( all.size() - 1 ).getSql(), equalTo( "SELECT new" ) );
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    File file = new File( fs.newFolder(), "history" );
+    QueryHistory history = new QueryHistory( file );
+    history.record( SERVICE, "SELECT * FROM \"my service\"", ImmutableMap.of( "p", "1" ) );
+    history.record( SERVICE, "SELECT * FROM \"my service\"", ImmutableMap.of( "p", "1" ) );
+    history.record( "other", "SELECT 1", ImmutableMap.<String, String>of() );
+    history.save();
+
+    QueryHistory loaded = new QueryHistory( file );
+    loaded.load();
+
+    assertThat( loaded.getDataServiceNames(), equalTo( history.getDataServiceNames() ) );
+    assertThat( loaded.top( SERVICE, 10 ), equalTo( history.top( SERVICE, 10 ) ) );
+    assertThat( loaded.getCount( SERVICE, loaded.top( SERVICE, 1 ).get( 0 ) ), equalTo( 2L ) );
+  }
+}
@@ -0,0 +1,133 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+
+package org.pentaho.di.trans.dataservice.optimization.cache;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.trans.dataservice.DataServiceExecutor;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ServiceCacheBudgetTest {
+  private static final String SMALL = "small service";
+  private static final String LARGE = "large service";
+
+  @Test
+  public void testEstimatedSize() throws Exception {
+    CachedService narrow = CachedService.complete( rows( 100, 10 ) );
+    CachedService wide = CachedService.complete( rows( 100, 1000 ) );
+    CachedService tall = CachedService.complete( rows( 1000, 10 ) );
+
+    assertThat( narrow.getEstimatedSize(), greaterThan( 100L * ( 8 + 20 ) ) );
+    assertThat( wide.getEstimatedSize() - narrow.getEstimatedSize(), greaterThan( 100L * 2 * 980 ) );
+    assertThat( tall.getEstimatedSize(), equalTo( 10 * narrow.getEstimatedSize() ) );
+    assertThat( CachedService.complete( ImmutableList.<RowMetaAndData>of() ).getEstimatedSize(), equalTo( 0L ) );
+  }
+
+  @Test
+  public void testLargeColdEntryEvictedFirst() throws Exception {
+    ServiceCacheBudget budget = new ServiceCacheBudget( 100000, 1 );
+    CachedService.CacheKey hotKey = key( "hot" );
+    budget.admit( SMALL, hotKey, 10000 );
+    budget.touch( SMALL, hotKey );
+    assertThat( budget.admit( LARGE, key( "large" ), 60000 ).isEmpty(), is( true ) );
+
+    List<ServiceCacheBudget.Entry> evicted = budget.admit( SMALL, key( "new" ), 40000 );
+
+    assertThat( evicted.size(), equalTo( 1 ) );
+    assertThat( evicted.get( 0 ).getDataServiceName(), is( LARGE ) );
+    assertThat( evicted.get( 0 ).getKey(), is( key( "large" ) ) );
+    assertThat( budget.getUsedBytes(), equalTo( 50000L ) );
+    assertThat( budget.getUsedBytes( LARGE ), equalTo( 0L ) );
+  }
+
+  @Test
+  public void testServiceQuota() throws Exception {
+    ServiceCacheBudget budget = new ServiceCacheBudget( 100000, 0.5 );
+    budget.admit( SMALL, key( "a" ), 20000 );
+    budget.admit( LARGE, key( "a" ), 30000 );
+
+    List<ServiceCacheBudget.Entry> evicted = budget.admit( LARGE, key( "b" ), 30000 );
+
+    // Over the quota of the large service, but well within the budget
+    assertThat( evicted.size(), equalTo( 1 ) );
+    assertThat( evicted.get( 0 ).getDataServiceName(), is( LARGE ) );
+    assertThat( evicted.get( 0 ).getKey(), is( key( "a" ) ) );
+    assertThat( budget.getUsedBytes( SMALL ), equalTo( 20000L ) );
+    assertThat( budget.getUsedBytes( LARGE ), equalTo( 30000L ) );
+
+    budget.setQuota( SMALL, 10000 );
+    // Every entry of the small service goes, the last one included
+    assertThat( budget.admit( SMALL, key( "b" ), 20000 ).size(), equalTo( 2 ) );
+    assertThat( budget.getUsedBytes( SMALL ), equalTo( 0L ) );
+  }
+
+  @Test
+  public void testReplaceAndInvalidate() throws Exception {
+    ServiceCacheBudget budget = new ServiceCacheBudget( 100000, 1 );
+    budget.admit( SMALL, key( "a" ), 20000 );
+    budget.admit( SMALL, key( "a" ), 30000 );
+    budget.admit( LARGE, key( "a" ), 40000 );
+    assertThat( budget.getUsedBytes(), equalTo( 70000L ) );
+
+    budget.remove( LARGE, key( "a" ) );
+    assertThat( budget.getUsedBytes(), equalTo( 30000L ) );
+    budget.invalidate( SMALL );
+    assertThat( budget.getUsedBytes(), equalTo( 0L ) );
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    ServiceCacheBudget budget = new ServiceCacheBudget( 0, 1 );
+    assertThat( budget.isEnabled(), is( false ) );
+    assertThat( budget.admit( SMALL, key( "a" ), 20000 ).isEmpty(), is( true ) );
+    assertThat( budget.getUsedBytes(), equalTo( 0L ) );
+  }
+
+  private static CachedService.CacheKey key( String version ) throws Exception {
+    DataServiceExecutor executor = mock( DataServiceExecutor.class, RETURNS_DEEP_STUBS );
+    when( executor.getSql() ).thenReturn( new SQL( "SELECT * FROM service" ) );
+    when( executor.getService().getServiceTrans().getCacheVersion() ).thenReturn( version.hashCode() );
+    when( executor.getParameters() ).thenReturn( ImmutableMap.<String, String>of() );
+    return CachedService.CacheKey.create( executor );
+  }
+
+  private static List<RowMetaAndData> rows( int count, int length ) {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    ImmutableList.Builder<RowMetaAndData> rows = ImmutableList.builder();
+    for ( long i = 0; i < count; i++ ) {
+      rows.add( new RowMetaAndData( rowMeta, i, Strings.repeat( "x", length ) ) );
+    }
+    return rows.build();
+  }
+}
@@ -14,18 +14,27 @@
 package org.pentaho.di.trans.dataservice.optimization.cache;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.pentaho.caching.api.PentahoCacheManager;
 import org.pentaho.caching.api.PentahoCacheTemplateConfiguration;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.trans.dataservice.DataServiceExecutor;
 import org.pentaho.di.trans.dataservice.optimization.cache.ui.ServiceCacheController;
 import org.pentaho.di.trans.dataservice.optimization.cache.ui.ServiceCacheOverlay;
 
 import javax.cache.Cache;
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryExpiredListener;
+import javax.cache.event.CacheEntryListener;
+import javax.cache.event.CacheEntryRemovedListener;
 import java.util.concurrent.ExecutorService;
 
 import static org.hamcrest.Matchers.contains;
@@ -34,6 +43,7 @@ import static org.hamcrest.Matchers.isA;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -107,6 +117,56 @@ public class ServiceCacheFactoryTest {
     assertThat( serviceCacheFactory.getCache( serviceCache, DATA_SERVICE_NAME ), is( cache ) );
   }
 
+  @Test
+  @SuppressWarnings( "unchecked" )
+  public void testExpiredAndRemovedEntriesForgotten() throws Exception {
+    ServiceCacheBudget budget = new ServiceCacheBudget( 100000, 1 );
+    ServiceCacheFactory factory = new ServiceCacheFactory( cacheManager, executorService,
+      mock( OffHeapRowStore.class ), mock( PersistentServiceCache.class ), mock( AggregateCache.class ), budget );
+    when( cacheManager.getCache( cacheName(), CachedService.CacheKey.class, CachedService.class ) ).thenReturn( cache );
+    assertThat( factory.getCache( DATA_SERVICE_NAME ), is( Optional.of( cache ) ) );
+    assertThat( factory.getCache( DATA_SERVICE_NAME ), is( Optional.of( cache ) ) );
+
+    ArgumentCaptor<CacheEntryListenerConfiguration<CachedService.CacheKey, CachedService>> configuration =
+      ArgumentCaptor.forClass( CacheEntryListenerConfiguration.class );
+    verify( cache ).registerCacheEntryListener( configuration.capture() );
+    CacheEntryListener<? super CachedService.CacheKey, ? super CachedService> listener =
+      configuration.getValue().getCacheEntryListenerFactory().create();
+
+    CachedService.CacheKey expiredKey = cacheKey( 1 ), removedKey = cacheKey( 2 );
+    budget.admit( DATA_SERVICE_NAME, expiredKey, 20000 );
+    budget.admit( DATA_SERVICE_NAME, removedKey, 30000 );
+    CachedService expired = mock( CachedService.class );
+
+    ( (CacheEntryExpiredListener<CachedService.CacheKey, CachedService>) listener )
+      .onExpired( ImmutableList.of( event( expiredKey, expired ) ) );
+    assertThat( budget.getUsedBytes( DATA_SERVICE_NAME ), is( 30000L ) );
+    verify( expired ).release();
+
+    ( (CacheEntryRemovedListener<CachedService.CacheKey, CachedService>) listener )
+      .onRemoved( ImmutableList.of( event( removedKey, null ) ) );
+    assertThat( budget.getUsedBytes( DATA_SERVICE_NAME ), is( 0L ) );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static CacheEntryEvent<CachedService.CacheKey, CachedService> event( CachedService.CacheKey key,
+                                                                             CachedService value ) {
+    CacheEntryEvent<CachedService.CacheKey, CachedService> event = mock( CacheEntryEvent.class );
+    when( event.getKey() ).thenReturn( key );
+    if ( value != null ) {
+      when( event.getValue() ).thenReturn( value );
+    }
+    return event;
+  }
+
+  private static CachedService.CacheKey cacheKey( int version ) throws Exception {
+    DataServiceExecutor executor = mock( DataServiceExecutor.class, RETURNS_DEEP_STUBS );
+    when( executor.getSql() ).thenReturn( new SQL( "SELECT * FROM service" ) );
+    when( executor.getService().getServiceTrans().getCacheVersion() ).thenReturn( version );
+    when( executor.getParameters() ).thenReturn( ImmutableMap.<String, String>of() );
+    return CachedService.CacheKey.create( executor );
+  }
+
   private String cacheName() {
     return serviceCacheFactory.cacheName( DATA_SERVICE_NAME );
   }
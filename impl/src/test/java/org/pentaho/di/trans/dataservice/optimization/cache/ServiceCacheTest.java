@@ -47,21 +47,27 @@ import javax.cache.configuration.CompleteConfiguration;
 import javax.cache.configuration.Factory;
 import javax.cache.expiry.Duration;
 import javax.cache.expiry.ExpiryPolicy;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.collection.IsMapContaining.hasEntry;
 import static org.hamcrest.core.IsNot.not;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.ignoreStubs;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -300,6 +306,56 @@ public class ServiceCacheTest {
     verify( cachedServiceLoader ).replay( executor );
   }
 
+  @Test
+  public void testReplayPrefixFromLimitedRunning() throws Exception {
+    DataServiceExecutor leader = dataServiceExecutor( "SELECT * FROM MOCK_SERVICE LIMIT 20" );
+    DataServiceExecutor follower = dataServiceExecutor( "SELECT * FROM MOCK_SERVICE LIMIT 10" );
+    DataServiceExecutor unlimited = dataServiceExecutor( "SELECT * FROM MOCK_SERVICE" );
+    CachedService.CacheKey key = CachedService.CacheKey.create( leader );
+    final CachedServiceLoader cachedServiceLoader = mock( CachedServiceLoader.class );
+
+    HashMap<CachedService.CacheKey, ServiceObserver> runningServices = new HashMap<>();
+    ServiceObserver serviceObserver = new ServiceObserver( leader );
+    runningServices.put( key, serviceObserver );
+    when( factory.getRunningServices() ).thenReturn( runningServices );
+    //noinspection unchecked
+    when( factory.createCachedServiceLoader( any( java.util.function.Supplier.class ) ) ).thenReturn( cachedServiceLoader );
+    when( cachedServiceLoader.replay( follower ) ).thenReturn( Futures.immediateFuture( 10 ) );
+
+    // The first rows of the running scan answer a smaller limit, but not a query for every row
+    assertThat( serviceCache.activate( follower, serviceStep ), is( true ) );
+    verify( cachedServiceLoader ).replay( follower );
+    assertThat( serviceObserver.answersQuery( unlimited ), is( false ) );
+  }
+
+  @Test
+  public void testRefreshAhead() throws Exception {
+    DataServiceExecutor executor = dataServiceExecutor( "SELECT * FROM MOCK_SERVICE" );
+    CachedService.CacheKey key = CachedService.CacheKey.create( executor );
+    CachedService cachedService = mock( CachedService.class );
+    CachedServiceLoader cachedServiceLoader = mock( CachedServiceLoader.class );
+
+    when( cache.get( key ) ).thenReturn( cachedService );
+    when( cachedService.answersQuery( executor ) ).thenReturn( true );
+    when( cachedService.isComplete() ).thenReturn( true );
+    when( factory.createCachedServiceLoader( cachedService ) ).thenReturn( cachedServiceLoader );
+    when( cachedServiceLoader.replay( executor ) ).thenReturn( Futures.immediateFuture( 2000 ) );
+    when( factory.getRefreshAhead() ).thenReturn( 0.5 );
+    when( factory.getTimeToLive( serviceCache ) ).thenReturn( 60L );
+
+    // Entry is still fresh
+    when( cachedService.getCreated() ).thenReturn( System.currentTimeMillis() );
+    assertThat( serviceCache.activate( executor, serviceStep ), is( true ) );
+    verify( factory, never() ).startRefresh( anyString(), any( CachedService.CacheKey.class ) );
+
+    // Entry lived past half of its time to live, but a refresh is already running
+    when( cachedService.getCreated() ).thenReturn( System.currentTimeMillis() - 45000 );
+    when( factory.startRefresh( "MOCK_SERVICE", key ) ).thenReturn( false );
+    assertThat( serviceCache.activate( executor, serviceStep ), is( true ) );
+    verify( factory ).startRefresh( "MOCK_SERVICE", key );
+    verify( cachedServiceLoader, times( 2 ) ).replay( executor );
+  }
+
   @Test
   public void testTimeToLiveOverride() {
     assertThat( serviceCache.getTemplateOverrides(), not( hasEntry( CONFIG_TTL, "1010" ) ) );
@@ -332,6 +388,53 @@ public class ServiceCacheTest {
     assertThat( serviceCache.getAvailableCache( executor ).get( key ), equalTo( existingCache ) );
   }
 
+  @Test
+  public void testPreviewIsReadOnly() throws Exception {
+    DataServiceExecutor executor = dataServiceExecutor( "SELECT * FROM MOCK_SERVICE" );
+    CachedService evicted = mock( CachedService.class );
+    when( evicted.isEvicted() ).thenReturn( true );
+    when( cache.get( any( CachedService.CacheKey.class ) ) ).thenReturn( evicted, (CachedService) null );
+
+    assertThat( serviceCache.preview( executor, serviceStep ).isModified(), is( false ) );
+
+    verify( cache, never() ).remove( any( CachedService.CacheKey.class ), any( CachedService.class ) );
+    verify( cache, never() ).putIfAbsent( any( CachedService.CacheKey.class ), any( CachedService.class ) );
+    verify( factory, never() ).forget( anyString(), any( CachedService.CacheKey.class ) );
+    verify( factory, never() ).loadPersisted( any( ServiceCache.class ), anyString(),
+      any( CachedService.CacheKey.class ) );
+  }
+
+  @Test
+  public void testPreviewKeepsMissingBroaderEntries() throws Exception {
+    DataServiceExecutor executor = dataServiceExecutor( "SELECT * FROM MOCK_SERVICE WHERE A = 2" );
+    CachedService.CacheKey broader =
+      CachedService.CacheKey.create( dataServiceExecutor( "SELECT * FROM MOCK_SERVICE WHERE A > 1" ) );
+    assertTrue( broader.subsumes( serviceCache.createRootKey( executor ) ) );
+    // Expired, evicted, or only known from the persistent index
+    Set<CachedService.CacheKey> cachedKeys = new HashSet<>( Collections.singleton( broader ) );
+    when( factory.getCachedKeys( "MOCK_SERVICE" ) ).thenReturn( cachedKeys );
+
+    assertThat( serviceCache.preview( executor, serviceStep ).isModified(), is( false ) );
+
+    assertThat( cachedKeys, contains( broader ) );
+    verify( factory, never() ).loadPersisted( any( ServiceCache.class ), anyString(),
+      any( CachedService.CacheKey.class ) );
+  }
+
+  @Test
+  public void testNoCacheAvailable() throws Exception {
+    DataServiceExecutor executor = dataServiceExecutor( "SELECT * FROM MOCK_SERVICE" );
+    when( factory.getCache( "MOCK_SERVICE" ) )
+      .thenReturn( Optional.<Cache<CachedService.CacheKey, CachedService>>absent() );
+
+    assertThat( serviceCache.getAvailableCache( executor ).size(), is( 0 ) );
+    assertThat( serviceCache.preview( executor, serviceStep ).isModified(), is( false ) );
+
+    verify( factory, never() ).loadPersisted( any( ServiceCache.class ), anyString(),
+      any( CachedService.CacheKey.class ) );
+    verify( factory, never() ).getCache( serviceCache, "MOCK_SERVICE" );
+  }
+
   private DataServiceExecutor dataServiceExecutor( String query ) throws KettleException {
     return new DataServiceExecutor.Builder( new SQL( query ), dataServiceMeta, context )
       .sqlTransGenerator( sqlTransGenerator )
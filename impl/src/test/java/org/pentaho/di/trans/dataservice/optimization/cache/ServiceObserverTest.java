@@ -88,32 +88,74 @@ public class ServiceObserverTest {
     CountDownLatch firstRowLatch = new CountDownLatch( 1 );
     ServiceObserver serviceObserver = new ServiceObserver( executor ) {
       @Override public void run() {
-        rowMetaAndData.add( new RowMetaAndData() );
+        rowLog.append( new RowMetaAndData() );
         firstRowLatch.countDown();
         try {
           delayRowsLatch.await();
-          rowMetaAndData.add( new RowMetaAndData() );
-          latch.countDown();
-          rowMetaAndData.add( new RowMetaAndData() );
-          latch.countDown();
+          rowLog.append( new RowMetaAndData() );
+          rowLog.append( new RowMetaAndData() );
         } catch ( InterruptedException e ) {
           throw new RuntimeException( e );
         }
-        isRunning = false;
+        rowLog.close();
       }
     };
     Executors.newSingleThreadExecutor().submit( serviceObserver );
     firstRowLatch.await();
     Iterator<RowMetaAndData> rows = serviceObserver.rows();
+    Iterator<RowMetaAndData> follower = serviceObserver.rows();
     assertTrue( rows.hasNext() );
     rows.next();
-    Executors.newSingleThreadScheduledExecutor().schedule( delayRowsLatch::countDown, 1100, TimeUnit.MILLISECONDS );
+    Executors.newSingleThreadScheduledExecutor().schedule( delayRowsLatch::countDown, 100, TimeUnit.MILLISECONDS );
     assertTrue( rows.hasNext() );
     rows.next();
     assertTrue( rows.hasNext() );
     rows.next();
     assertFalse( rows.hasNext() );
-    delayRowsLatch.countDown();
+
+    // Every reader gets all rows
+    int count = 0;
+    while ( follower.hasNext() ) {
+      follower.next();
+      count++;
+    }
+    assertThat( count, is( 3 ) );
+  }
+
+  @Test
+  public void testReadersFailedOnCancel() throws Exception {
+    Iterator<RowMetaAndData> rows = observer.rows();
+    observer.cancel( false );
+    try {
+      rows.hasNext();
+      fail( "Expected exception" );
+    } catch ( IllegalStateException e ) {
+      // Readers must not take the rows read so far as the whole result
+    }
+  }
+
+  @Test
+  public void testReadersFailedWhenStopped() throws Exception {
+    Iterator<RowMetaAndData> rows = observeOneRow( true );
+
+    assertTrue( rows.hasNext() );
+    rows.next();
+    try {
+      rows.hasNext();
+      fail( "Expected exception" );
+    } catch ( IllegalStateException e ) {
+      assertThat( observer.isDone(), is( true ) );
+    }
+  }
+
+  @Test
+  public void testReadersEndAtRowLimit() throws Exception {
+    Iterator<RowMetaAndData> rows = observeOneRow( false );
+
+    assertTrue( rows.hasNext() );
+    rows.next();
+    assertFalse( rows.hasNext() );
+    assertThat( observer.get().isComplete(), is( false ) );
   }
 
   @Test
@@ -131,4 +173,22 @@ public class ServiceObserverTest {
       assertThat( e.getCause(), is( exception ) );
     }
   }
+
+  /**
+   * Writes a row, then stops the service step.
+   *
+   * @param cancelled whether the query was stopped, rather than the service step past the query row limit
+   */
+  private Iterator<RowMetaAndData> observeOneRow( boolean cancelled ) throws Exception {
+    when( stepInterface.isStopped() ).thenReturn( true );
+    when( executor.isStopped() ).thenReturn( cancelled );
+    observer.run();
+    verify( stepInterface ).addRowListener( rowAdapterCaptor.capture() );
+    verify( stepInterface ).addStepListener( stepAdapterCaptor.capture() );
+
+    Iterator<RowMetaAndData> rows = observer.rows();
+    rowAdapterCaptor.getValue().rowWrittenEvent( rowMeta, row );
+    stepAdapterCaptor.getValue().stepFinished( null, null, stepInterface );
+    return rows;
+  }
 }
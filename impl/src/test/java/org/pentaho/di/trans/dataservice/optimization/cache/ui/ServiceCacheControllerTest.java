@@ -39,6 +39,7 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -56,6 +57,7 @@ public class ServiceCacheControllerTest {
   @Mock BindingFactory bindingFactory;
   @Mock XulCheckbox checkbox;
   @Mock XulTextbox ttl;
+  @Mock XulTextbox watermark;
   @Mock XulTab serviceCacheTab;
   @Mock XulRadio regularTypeRadio;
   @Mock XulRadio streamingTypeRadio;
@@ -72,6 +74,7 @@ public class ServiceCacheControllerTest {
 
     when( document.getElementById( "service-cache-checkbox" ) ).thenReturn( checkbox );
     when( document.getElementById( "service-cache-ttl" ) ).thenReturn( ttl );
+    when( document.getElementById( "service-cache-watermark" ) ).thenReturn( watermark );
     when( document.getElementById( "service-cache-tab" ) ).thenReturn( serviceCacheTab );
     when( document.getElementById( "regular-type-radio" ) ).thenReturn( regularTypeRadio );
     when( document.getElementById( "streaming-type-radio" ) ).thenReturn( streamingTypeRadio );
@@ -86,8 +89,10 @@ public class ServiceCacheControllerTest {
 
     verify( checkbox ).setChecked( true );
     verify( ttl ).setValue( "1200" );
+    verify( watermark ).setValue( "updated_at" );
     verify( bindingFactory ).createBinding( checkbox, "checked", meta, "enabled" );
     verify( bindingFactory ).createBinding( ttl, "value", serviceCache, "timeToLive" );
+    verify( bindingFactory ).createBinding( watermark, "value", serviceCache, "watermarkField" );
     verify( serviceCacheTab ).setVisible( true );
     verify( bindingFactory ).createBinding( streamingTypeRadio, "!selected", serviceCacheTab,
       "visible" );
@@ -146,6 +151,7 @@ public class ServiceCacheControllerTest {
 
     meta.setEnabled( true );
     when( serviceCache.getConfiguredTimeToLive() ).thenReturn( "1200" );
+    lenient().when( serviceCache.getWatermarkField() ).thenReturn( "updated_at" );
   }
 
   @Test
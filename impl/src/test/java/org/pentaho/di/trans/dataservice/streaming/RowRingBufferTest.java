@@ -0,0 +1,138 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RowRingBuffer} test class
+ */
+@RunWith( MockitoJUnitRunner.StrictStubs.class)
+public class RowRingBufferTest {
+  private RowRingBuffer ringBuffer;
+  private List<Object[]> resultList;
+
+  @Mock RowMetaInterface rowMeta;
+
+  @Before
+  public void setup() throws Exception {
+    ringBuffer = new RowRingBuffer( 3 );
+    resultList = new ArrayList<>();
+  }
+
+  @Test
+  public void testCapacity() {
+    assertEquals( 4, ringBuffer.getCapacity() );
+    assertEquals( 1, new RowRingBuffer( 1 ).getCapacity() );
+    assertEquals( 8, new RowRingBuffer( 8 ).getCapacity() );
+  }
+
+  @Test
+  public void testReadersFollowTheirOwnCursor() throws Exception {
+    RowRingBuffer.Cursor first = ringBuffer.newCursor();
+    Object[] row1 = new Object[] { 1 };
+    Object[] row2 = new Object[] { 2 };
+    ringBuffer.add( rowMeta, row1 );
+    RowRingBuffer.Cursor second = ringBuffer.newCursor();
+    ringBuffer.add( rowMeta, row2 );
+
+    assertEquals( 2, first.getBacklog() );
+    assertEquals( 1, second.getBacklog() );
+    assertTrue( first.await( 0, TimeUnit.MILLISECONDS ) );
+
+    assertEquals( 2, first.read( this::collect ) );
+    assertEquals( 2, resultList.size() );
+    assertSame( row1, resultList.get( 0 ) );
+    assertSame( row2, resultList.get( 1 ) );
+    assertEquals( 0, first.getBacklog() );
+    assertFalse( first.await( 0, TimeUnit.MILLISECONDS ) );
+
+    resultList.clear();
+    assertEquals( 1, second.read( this::collect ) );
+    assertEquals( 1, resultList.size() );
+    assertSame( row2, resultList.get( 0 ) );
+  }
+
+  @Test
+  public void testWriterWaitsForSlowestReader() throws Exception {
+    RowRingBuffer.Cursor cursor = ringBuffer.newCursor();
+    for ( int i = 0; i < ringBuffer.getCapacity(); i++ ) {
+      ringBuffer.add( rowMeta, new Object[] { i } );
+    }
+
+    Thread writer = new Thread( () -> ringBuffer.add( rowMeta, new Object[] { 4 } ) );
+    writer.start();
+    writer.join( 200 );
+    assertTrue( writer.isAlive() );
+    assertEquals( 3, ringBuffer.getSequence() );
+
+    assertEquals( 4, cursor.read( this::collect ) );
+    writer.join( 1000 );
+    assertFalse( writer.isAlive() );
+    assertEquals( 4, ringBuffer.getSequence() );
+
+    cursor.read( this::collect );
+    assertEquals( 5, resultList.size() );
+    assertEquals( 4, resultList.get( 4 )[0] );
+  }
+
+  @Test
+  public void testRemovedReaderDoesNotHoldWriter() {
+    assertFalse( ringBuffer.hasReaders() );
+    RowRingBuffer.Cursor cursor = ringBuffer.newCursor();
+    assertTrue( ringBuffer.hasReaders() );
+    ringBuffer.remove( cursor );
+    assertFalse( ringBuffer.hasReaders() );
+
+    for ( int i = 0; i < 2 * ringBuffer.getCapacity(); i++ ) {
+      ringBuffer.add( rowMeta, new Object[] { i } );
+    }
+    assertEquals( 2 * ringBuffer.getCapacity() - 1, ringBuffer.getSequence() );
+  }
+
+  @Test
+  public void testAwaitIsWokenByWriter() throws Exception {
+    RowRingBuffer.Cursor cursor = ringBuffer.newCursor();
+    Thread writer = new Thread( () -> {
+      try {
+        Thread.sleep( 100 );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+      ringBuffer.add( rowMeta, new Object[] { 1 } );
+    } );
+    writer.start();
+
+    assertTrue( cursor.await( 10, TimeUnit.SECONDS ) );
+    writer.join();
+  }
+
+  private boolean collect( RowMetaInterface rowMeta, Object[] row ) {
+    return resultList.add( row );
+  }
+}
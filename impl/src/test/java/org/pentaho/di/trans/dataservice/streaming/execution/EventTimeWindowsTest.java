@@ -0,0 +1,170 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.trans.dataservice.optimization.cache.RowSizeEstimator;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link EventTimeWindows} test class
+ */
+public class EventTimeWindowsTest {
+  private RowMetaInterface rowMeta;
+  private WindowBufferBudget budget;
+
+  @Before
+  public void setUp() {
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "ts" ) );
+    budget = new WindowBufferBudget( 0, WindowBufferBudget.OverflowPolicy.BLOCK, 1 );
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_PROPERTY );
+    System.clearProperty( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_PROPERTY + ".service" );
+    System.clearProperty( DataServiceConstants.STREAMING_EVENT_TIME_OUT_OF_ORDERNESS_PROPERTY );
+  }
+
+  @Test
+  public void testTumblingWindowsWaitForTheWatermark() {
+    EventTimeWindows windows = new EventTimeWindows( new WindowEventTime( "ts", 5 ), 10, 0, budget );
+
+    add( windows, 1, 12, 3 );
+    assertTrue( windows.fire( false ).isEmpty() );
+
+    add( windows, 16 );
+    List<List<RowMetaAndData>> produced = windows.fire( false );
+    assertEquals( 1, produced.size() );
+    assertEquals( timestamps( 1, 3 ), timestamps( produced.get( 0 ) ) );
+
+    add( windows, 25 );
+    produced = windows.fire( false );
+    assertEquals( 1, produced.size() );
+    assertEquals( timestamps( 12, 16 ), timestamps( produced.get( 0 ) ) );
+
+    // Every window holding it was produced
+    add( windows, 8 );
+    assertEquals( 1, budget.getLateRows() );
+    assertEquals( 1, windows.getBufferedRows() );
+  }
+
+  @Test
+  public void testSlidingWindowsShareTheirPanes() {
+    EventTimeWindows windows = new EventTimeWindows( new WindowEventTime( "ts", 0 ), 10, 5, budget );
+
+    add( windows, 2, 7, 12 );
+    assertEquals( 3, windows.getBufferedRows() );
+
+    add( windows, 30 );
+    List<List<RowMetaAndData>> produced = windows.fire( false );
+    assertEquals( 4, produced.size() );
+    assertEquals( timestamps( 2 ), timestamps( produced.get( 0 ) ) );
+    assertEquals( timestamps( 2, 7 ), timestamps( produced.get( 1 ) ) );
+    assertEquals( timestamps( 7, 12 ), timestamps( produced.get( 2 ) ) );
+    assertEquals( timestamps( 12 ), timestamps( produced.get( 3 ) ) );
+    // Windows without rows are skipped, the one holding the last row is not complete yet
+    assertEquals( 1, windows.getBufferedRows() );
+    assertTrue( windows.fire( false ).isEmpty() );
+  }
+
+  @Test
+  public void testIdleFlush() {
+    EventTimeWindows windows = new EventTimeWindows( new WindowEventTime( "ts", 100 ), 10, 0, budget );
+
+    add( windows, 1, 15 );
+    assertTrue( windows.fire( false ).isEmpty() );
+
+    List<List<RowMetaAndData>> produced = windows.fire( true );
+    assertEquals( 1, produced.size() );
+    assertEquals( timestamps( 1 ), timestamps( produced.get( 0 ) ) );
+  }
+
+  @Test
+  public void testOldestPanesAreDroppedPastBudget() {
+    long rowSize = RowSizeEstimator.estimate( new RowMetaAndData( rowMeta, new Object[] { 1L } ) );
+    budget = new WindowBufferBudget( rowSize * 2, WindowBufferBudget.OverflowPolicy.BLOCK, 1 );
+    EventTimeWindows windows = new EventTimeWindows( new WindowEventTime( "ts", 100 ), 10, 0, budget );
+
+    add( windows, 1, 11, 21 );
+    assertEquals( 1, budget.getDroppedRows() );
+    assertEquals( rowSize * 2, budget.getUsedBytes() );
+    assertEquals( 2, windows.getBufferedRows() );
+
+    windows.clear();
+    assertEquals( 0, budget.getUsedBytes() );
+  }
+
+  @Test
+  public void testRowsWithoutEventTimeAreDropped() {
+    EventTimeWindows windows = new EventTimeWindows( new WindowEventTime( "ts", 0 ), 10, 0, budget );
+
+    windows.add( new RowMetaAndData( rowMeta, new Object[] { null } ) );
+    windows.add( new RowMetaAndData( new RowMeta(), new Object[ 0 ] ) );
+    assertEquals( 2, budget.getDroppedRows() );
+    assertEquals( 0, windows.getBufferedRows() );
+  }
+
+  @Test
+  public void testCreate() {
+    assertFalse( WindowEventTime.create( "service" ).isEnabled() );
+
+    System.setProperty( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_PROPERTY, "created" );
+    System.setProperty( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_PROPERTY + ".service", "eventTime" );
+    System.setProperty( DataServiceConstants.STREAMING_EVENT_TIME_OUT_OF_ORDERNESS_PROPERTY, "500" );
+    WindowEventTime eventTime = WindowEventTime.create( "service" );
+    assertTrue( eventTime.isEnabled() );
+    assertEquals( "eventTime", eventTime.getTimestampField() );
+    assertEquals( 500, eventTime.getMaxOutOfOrderness() );
+    assertEquals( "created", WindowEventTime.create( "other" ).getTimestampField() );
+
+    assertFalse( new WindowEventTime( "", 0 ).isEnabled() );
+  }
+
+  private void add( EventTimeWindows windows, long... timestamps ) {
+    for ( long timestamp : timestamps ) {
+      windows.add( new RowMetaAndData( rowMeta, new Object[] { timestamp } ) );
+    }
+  }
+
+  private static List<Long> timestamps( long... timestamps ) {
+    List<Long> list = new ArrayList<>();
+    for ( long timestamp : timestamps ) {
+      list.add( timestamp );
+    }
+    return list;
+  }
+
+  private static List<Long> timestamps( List<RowMetaAndData> window ) {
+    List<Long> list = new ArrayList<>();
+    for ( RowMetaAndData row : window ) {
+      list.add( (Long) row.getData()[ 0 ] );
+    }
+    return list;
+  }
+}
@@ -0,0 +1,142 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.sql.SQL;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.dataservice.SqlTransGenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IncrementalWindowAggregatorTest {
+  private static final String RESULT_STEP_NAME = "Result";
+
+  private RowMetaInterface serviceFields;
+  private List<RowMetaAndData> stream;
+
+  @Before
+  public void setUp() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+
+    serviceFields = new RowMeta();
+    serviceFields.addValueMeta( new ValueMetaString( "country" ) );
+    serviceFields.addValueMeta( new ValueMetaInteger( "sales" ) );
+
+    stream = new ArrayList<>();
+    String[] countries = { "PT", "US", "PT", "US", "PT", "FR" };
+    for ( int i = 0; i < countries.length; i++ ) {
+      stream.add( new RowMetaAndData( serviceFields, countries[ i ], (long) i + 1 ) );
+    }
+  }
+
+  @Test
+  public void testSlidingWindows() throws Exception {
+    IncrementalWindowAggregator aggregator = create(
+      "SELECT country, SUM(sales) AS total, COUNT(*) AS n FROM service GROUP BY country ORDER BY total DESC",
+      new ValueMetaString( "country" ), new ValueMetaInteger( "total" ), new ValueMetaInteger( "n" ) );
+    assertThat( aggregator, notNullValue() );
+
+    // Windows of 4 rows every 2 rows
+    assertThat( rows( aggregator.aggregate( stream.subList( 0, 4 ) ) ),
+      equalTo( Arrays.asList( Arrays.<Object>asList( "US", 6L, 2L ), Arrays.<Object>asList( "PT", 4L, 2L ) ) ) );
+    assertThat( rows( aggregator.aggregate( stream.subList( 2, 6 ) ) ),
+      equalTo( Arrays.asList( Arrays.<Object>asList( "PT", 8L, 2L ), Arrays.<Object>asList( "FR", 6L, 1L ),
+        Arrays.<Object>asList( "US", 4L, 1L ) ) ) );
+    assertThat( rows( aggregator.aggregate( stream.subList( 4, 6 ) ) ),
+      equalTo( Arrays.asList( Arrays.<Object>asList( "FR", 6L, 1L ), Arrays.<Object>asList( "PT", 5L, 1L ) ) ) );
+
+    // A fallback window that doesn't line up with the previous one
+    assertThat( rows( aggregator.aggregate( stream.subList( 1, 2 ) ) ),
+      equalTo( Collections.singletonList( Arrays.<Object>asList( "US", 2L, 1L ) ) ) );
+  }
+
+  @Test
+  public void testGrowingWindow() throws Exception {
+    IncrementalWindowAggregator aggregator = create( "SELECT AVG(sales) AS average, MAX(country) AS maximum FROM service "
+      + "WHERE country <> 'FR'", new ValueMetaNumber( "average" ), new ValueMetaString( "maximum" ) );
+
+    List<RowMetaAndData> window = new ArrayList<>();
+    window.addAll( stream.subList( 0, 2 ) );
+    assertThat( rows( aggregator.aggregate( window ) ),
+      equalTo( Collections.singletonList( Arrays.<Object>asList( 1.5, "US" ) ) ) );
+    window.addAll( stream.subList( 2, 6 ) );
+    assertThat( rows( aggregator.aggregate( window ) ),
+      equalTo( Collections.singletonList( Arrays.<Object>asList( 3.0, "US" ) ) ) );
+  }
+
+  @Test
+  public void testEmptyWindow() throws Exception {
+    IncrementalWindowAggregator aggregator = create( "SELECT COUNT(*) AS n, SUM(sales) AS total FROM service",
+      new ValueMetaInteger( "n" ), new ValueMetaInteger( "total" ) );
+
+    assertThat( rows( aggregator.aggregate( Collections.<RowMetaAndData>emptyList() ) ),
+      equalTo( Collections.singletonList( Arrays.<Object>asList( 0L, null ) ) ) );
+  }
+
+  @Test
+  public void testUnsupportedQueries() throws Exception {
+    assertThat( create( "SELECT * FROM service" ), nullValue() );
+    assertThat( create( "SELECT country, SUM(sales) FROM service GROUP BY country HAVING SUM(sales) > 1",
+      new ValueMetaString( "country" ), new ValueMetaInteger( "SUM(sales)" ) ), nullValue() );
+    assertThat( create( "SELECT DISTINCT country FROM service GROUP BY country",
+      new ValueMetaString( "country" ) ), nullValue() );
+    assertThat( create( "SELECT SUM(country) FROM service", new ValueMetaString( "SUM(country)" ) ), nullValue() );
+  }
+
+  private IncrementalWindowAggregator create( String query, ValueMetaInterface... results )
+    throws Exception {
+    SQL sql = new SQL( query );
+    sql.parse( serviceFields );
+    SqlTransGenerator generator = new SqlTransGenerator( sql, 0 );
+    generator.setResultStepName( RESULT_STEP_NAME );
+
+    RowMetaInterface resultFields = new RowMeta();
+    for ( ValueMetaInterface valueMeta : results ) {
+      resultFields.addValueMeta( valueMeta );
+    }
+    TransMeta genTransMeta = mock( TransMeta.class );
+    when( genTransMeta.getStepFields( RESULT_STEP_NAME ) ).thenReturn( resultFields );
+    return IncrementalWindowAggregator.create( generator, genTransMeta );
+  }
+
+  private static List<List<Object>> rows( List<RowMetaAndData> result ) {
+    List<List<Object>> rows = new ArrayList<>();
+    for ( RowMetaAndData row : result ) {
+      rows.add( Arrays.asList( row.getData() ) );
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,226 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.trans.RowProducer;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.dataservice.SqlTransGenerator;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+import org.pentaho.di.trans.step.RowListener;
+import org.pentaho.di.trans.step.StepInterface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith( MockitoJUnitRunner.StrictStubs.class )
+public class PunctuatedWindowTransTest {
+  private static final String INJECTOR_STEP = "injector";
+  private static final String RESULT_STEP = "result";
+
+  @Mock Trans genTrans;
+  @Mock TransMeta transMeta;
+  @Mock RowProducer rowProducer;
+  @Mock StepInterface selectStep;
+  @Mock StepInterface resultStep;
+  @Mock LogChannelInterface log;
+
+  private RowMetaInterface serviceFields;
+  private final List<RowListener> selectListeners = new ArrayList<>();
+  private final List<RowListener> resultListeners = new ArrayList<>();
+
+  @Before
+  public void setUp() throws Exception {
+    serviceFields = new RowMeta();
+    serviceFields.addValueMeta( new ValueMetaString( "name" ) );
+    serviceFields.addValueMeta( new ValueMetaInteger( "value" ) );
+
+    when( genTrans.getTransListeners() ).thenReturn( new ArrayList<>() );
+    when( genTrans.getTransMeta() ).thenReturn( transMeta );
+    when( transMeta.getStepFields( INJECTOR_STEP ) ).thenReturn( serviceFields );
+    when( genTrans.addRowProducer( INJECTOR_STEP, 0 ) ).thenReturn( rowProducer );
+    when( genTrans.findRunThread( SqlTransGenerator.SELECT_STEP_NAME ) ).thenReturn( selectStep );
+    when( genTrans.findRunThread( RESULT_STEP ) ).thenReturn( resultStep );
+    when( genTrans.isRunning() ).thenReturn( true );
+    // Every execution has new steps
+    doAnswer( invocation -> {
+      selectListeners.clear();
+      resultListeners.clear();
+      return null;
+    } ).when( genTrans ).prepareExecution( null );
+    doAnswer( invocation -> selectListeners.add( invocation.getArgument( 0 ) ) )
+      .when( selectStep ).addRowListener( any() );
+    doAnswer( invocation -> resultListeners.add( invocation.getArgument( 0 ) ) )
+      .when( resultStep ).addRowListener( any() );
+  }
+
+  @Test
+  public void testWindowsShareOneTransformation() throws Exception {
+    when( rowProducer.putRowWait( any(), any(), anyLong(), any() ) ).then( new Pipeline( row -> true ) );
+    PunctuatedWindowTrans windowTrans = new PunctuatedWindowTrans( genTrans, INJECTOR_STEP, RESULT_STEP );
+    windowTrans.start();
+
+    assertThat( values( windowTrans.process( window( 1, 2, 3 ), log ) ), contains( 1L, 2L, 3L ) );
+    assertThat( values( windowTrans.process( window( 4 ), log ) ), contains( 4L ) );
+    assertThat( windowTrans.process( window(), log ), is( empty() ) );
+
+    assertThat( windowTrans.isStarted(), is( true ) );
+    verify( genTrans ).prepareExecution( null );
+    verify( genTrans ).startThreads();
+    verify( rowProducer, never() ).finished();
+  }
+
+  @Test
+  public void testFilteredWindows() throws Exception {
+    // The generated where condition lets markers through
+    when( rowProducer.putRowWait( any(), any(), anyLong(), any() ) )
+      .then( new Pipeline( row -> isMarker( row ) || (Long) row[ 1 ] > 2 ) );
+    PunctuatedWindowTrans windowTrans = new PunctuatedWindowTrans( genTrans, INJECTOR_STEP, RESULT_STEP );
+    windowTrans.start();
+
+    assertThat( values( windowTrans.process( window( 1, 3, 2, 4 ), log ) ), contains( 3L, 4L ) );
+    assertThat( windowTrans.process( window( 1, 2 ), log ), is( empty() ) );
+    assertThat( values( windowTrans.process( window( 5 ), log ) ), contains( 5L ) );
+  }
+
+  @Test
+  public void testMarkerFieldRemovedFromResult() throws Exception {
+    when( genTrans.findRunThread( SqlTransGenerator.SELECT_STEP_NAME ) ).thenReturn( null );
+    when( rowProducer.putRowWait( any(), any(), anyLong(), any() ) ).then( invocation -> {
+      for ( RowListener listener : resultListeners ) {
+        listener.rowWrittenEvent( invocation.getArgument( 0 ), invocation.getArgument( 1 ) );
+      }
+      return true;
+    } );
+    PunctuatedWindowTrans windowTrans = new PunctuatedWindowTrans( genTrans, INJECTOR_STEP, RESULT_STEP );
+    windowTrans.start();
+
+    List<RowMetaAndData> result = windowTrans.process( window( 1, 2 ), log );
+    assertThat( values( result ), contains( 1L, 2L ) );
+    assertThat( result.get( 0 ).getRowMeta().size(), is( 2 ) );
+    assertThat( values( windowTrans.process( window( 3 ), log ) ), contains( 3L ) );
+  }
+
+  @Test( timeout = 10000 )
+  public void testLostMarkerRestartsTransformation() throws Exception {
+    when( rowProducer.putRowWait( any(), any(), anyLong(), any() ) ).then( new Pipeline( row -> !isMarker( row ) ) );
+    PunctuatedWindowTrans windowTrans = new PunctuatedWindowTrans( genTrans, INJECTOR_STEP, RESULT_STEP, 100 );
+    windowTrans.start();
+
+    assertThat( windowTrans.process( window( 1, 2 ), log ), nullValue() );
+    assertThat( windowTrans.isStarted(), is( false ) );
+    verify( log ).logError( DataServiceConstants.STREAMING_WINDOW_MARKER_TIMEOUT );
+    verify( rowProducer ).finished();
+
+    // The next window runs on a new execution
+    doAnswer( new Pipeline( row -> true ) ).when( rowProducer ).putRowWait( any(), any(), anyLong(), any() );
+    windowTrans.start();
+    assertThat( values( windowTrans.process( window( 3 ), log ) ), contains( 3L ) );
+    verify( genTrans, times( 2 ) ).prepareExecution( null );
+  }
+
+  @Test
+  public void testStopAndRestart() throws Exception {
+    when( rowProducer.putRowWait( any(), any(), anyLong(), any() ) ).then( new Pipeline( row -> true ) );
+    PunctuatedWindowTrans windowTrans = new PunctuatedWindowTrans( genTrans, INJECTOR_STEP, RESULT_STEP );
+    windowTrans.start();
+    assertThat( values( windowTrans.process( window( 1 ), log ) ), contains( 1L ) );
+
+    windowTrans.stop();
+    assertThat( windowTrans.isStarted(), is( false ) );
+    verify( rowProducer ).finished();
+    assertThat( windowTrans.process( window( 2 ), log ), nullValue() );
+    verify( rowProducer, times( 2 ) ).putRowWait( any(), any(), anyLong(), any() );
+
+    windowTrans.start();
+    assertThat( values( windowTrans.process( window( 3, 4 ), log ) ), contains( 3L, 4L ) );
+    verify( genTrans, times( 2 ) ).startThreads();
+  }
+
+  private List<RowMetaAndData> window( long... values ) {
+    List<RowMetaAndData> rows = new ArrayList<>();
+    for ( long value : values ) {
+      rows.add( new RowMetaAndData( serviceFields, "row " + value, value ) );
+    }
+    return rows;
+  }
+
+  private static List<Long> values( List<RowMetaAndData> rows ) {
+    List<Long> values = new ArrayList<>();
+    for ( RowMetaAndData row : rows ) {
+      values.add( (Long) row.getData()[ 1 ] );
+    }
+    return values;
+  }
+
+  private boolean isMarker( Object[] injected ) {
+    return injected[ serviceFields.size() ] != null;
+  }
+
+  /**
+   * Passes an injected row through the select step, which drops the marker field, then a where filter to the result
+   * step. Row listeners are called before the row goes to the next step, like in a running transformation.
+   */
+  private class Pipeline implements Answer<Boolean> {
+    private final Predicate<Object[]> filter;
+
+    Pipeline( Predicate<Object[]> filter ) {
+      this.filter = filter;
+    }
+
+    @Override public Boolean answer( InvocationOnMock invocation ) throws Throwable {
+      RowMetaInterface injectedFields = invocation.getArgument( 0 );
+      Object[] row = invocation.getArgument( 1 );
+      Object[] selected = RowDataUtil.createResizedCopy( row, serviceFields.size() );
+      for ( RowListener listener : selectListeners ) {
+        listener.rowReadEvent( injectedFields, row );
+        listener.rowWrittenEvent( serviceFields, selected );
+      }
+      if ( filter.test( row ) ) {
+        for ( RowListener listener : resultListeners ) {
+          listener.rowWrittenEvent( serviceFields, selected );
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -14,14 +14,18 @@
 package org.pentaho.di.trans.dataservice.streaming.execution;
 
 import io.reactivex.subjects.PublishSubject;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.trans.dataservice.client.api.IDataServiceClientService;
-import org.pentaho.di.trans.dataservice.streaming.StreamList;
+import org.pentaho.di.trans.dataservice.streaming.RowRingBuffer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -37,16 +41,17 @@ import static org.junit.Assert.assertTrue;
 @RunWith( MockitoJUnitRunner.StrictStubs.class)
 public class StreamExecutionListenerTest {
   private StreamExecutionListener streamExecutionListener;
-  private StreamList<RowMetaAndData> streamList;
+  private RowRingBuffer streamList;
   private PublishSubject<List<RowMetaAndData>> consumer;
   List<RowMetaAndData> listConsumer;
 
-  @Mock RowMetaAndData mockRowMetaAndData;
-  @Mock RowMetaAndData mockRowMetaAndData2;
+  @Mock RowMetaInterface rowMeta;
+  private Object[] mockRowMetaAndData = new Object[] { 1 };
+  private Object[] mockRowMetaAndData2 = new Object[] { 2 };
 
   @Before
   public void setup() throws Exception {
-    streamList = new StreamList();
+    streamList = new RowRingBuffer( 16 );
 
     listConsumer = new ArrayList<>( );
     consumer = PublishSubject.create();
@@ -56,129 +61,232 @@ public class StreamExecutionListenerTest {
     } );
   }
 
+  @After
+  public void tearDown() {
+    if ( streamExecutionListener != null ) {
+      streamExecutionListener.unSubscribe();
+    }
+  }
+
   @Test
-  public void testGetCachedWindow() {
-    streamExecutionListener = new StreamExecutionListener( streamList.getStream(), rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
+  public void testGetCachedWindow() throws Exception {
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
       IDataServiceClientService.StreamingMode.ROW_BASED, 10000, 1, 10000, 1000 );
 
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
-    streamList.add( mockRowMetaAndData );
+    add( mockRowMetaAndData );
     assertFalse( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 1, streamExecutionListener.getCachePreWindow().size() );
-    assertSame( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ) );
-    streamList.add( mockRowMetaAndData2 );
+    assertSame( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ).getData() );
+    add( mockRowMetaAndData2 );
     assertFalse( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 2, streamExecutionListener.getCachePreWindow().size() );
-    assertSame( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ) );
-    assertSame( mockRowMetaAndData2, streamExecutionListener.getCachePreWindow().get( 1 ) );
+    assertSame( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ).getData() );
+    assertSame( mockRowMetaAndData2, streamExecutionListener.getCachePreWindow().get( 1 ).getData() );
   }
 
   @Test
   public void testGetCachedWindowTimeBased() throws Exception {
-    streamExecutionListener = new StreamExecutionListener( streamList.getStream(), rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
       IDataServiceClientService.StreamingMode.TIME_BASED, 10000,10, 1000, 100000 );
 
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
-    streamList.add( mockRowMetaAndData );
-    Thread.sleep( 100 ); //allow for row to be written
+    add( mockRowMetaAndData );
+    Thread.sleep( 100 ); //allow for the starter window to be produced
     assertFalse( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 1, streamExecutionListener.getCachePreWindow().size() );
-    assertEquals( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ) );
+    assertSame( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ).getData() );
   }
 
   @Test
-  public void testGetCachedWindowFallback() {
-    streamExecutionListener = new StreamExecutionListener( streamList.getStream(), rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
+  public void testGetCachedWindowFallback() throws Exception {
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
       IDataServiceClientService.StreamingMode.TIME_BASED, 10000, 10000, 1, 10000 );
     streamExecutionListener.unSubscribeStarter();
 
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
-    streamList.add( mockRowMetaAndData );
+    add( mockRowMetaAndData );
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 1, listConsumer.size() );
-    assertSame( mockRowMetaAndData, listConsumer.get( 0 ) );
-    streamList.add( mockRowMetaAndData2  );
+    assertSame( mockRowMetaAndData, listConsumer.get( 0 ).getData() );
+    add( mockRowMetaAndData2 );
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 1, listConsumer.size() );
-    assertSame( mockRowMetaAndData2, listConsumer.get( 0 ) );
+    assertSame( mockRowMetaAndData2, listConsumer.get( 0 ).getData() );
   }
 
   @Test
-  public void testGetCachedWindowRegular() {
-    streamExecutionListener = new StreamExecutionListener( streamList.getStream(), rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
+  public void testGetCachedWindowRegular() throws Exception {
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
     IDataServiceClientService.StreamingMode.ROW_BASED, 2, 1, 10000, 50000 );
 
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
-    streamList.add( mockRowMetaAndData );
+    add( mockRowMetaAndData );
     assertEquals( 1, listConsumer.size() ); //initial buffer - pre window
-    streamList.add( mockRowMetaAndData2  );
+    add( mockRowMetaAndData2 );
     assertEquals( 2, listConsumer.size() );
-    assertSame( mockRowMetaAndData, listConsumer.get( 0 ) );
-    assertSame( mockRowMetaAndData2, listConsumer.get( 1 ) );
+    assertSame( mockRowMetaAndData, listConsumer.get( 0 ).getData() );
+    assertSame( mockRowMetaAndData2, listConsumer.get( 1 ).getData() );
   }
 
   @Test
-  public void testGetCachedWindowRegularZeroEvery() {
-    streamExecutionListener = new StreamExecutionListener( streamList.getStream(), rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
+  public void testGetCachedWindowRegularZeroEvery() throws Exception {
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
       IDataServiceClientService.StreamingMode.ROW_BASED, 2, 0, 10000, 50000 );
 
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
-    streamList.add( mockRowMetaAndData );
+    add( mockRowMetaAndData );
     assertEquals( 0, listConsumer.size() );
-    streamList.add( mockRowMetaAndData2  );
+    add( mockRowMetaAndData2 );
     assertEquals( 2, listConsumer.size() );
-    assertSame( mockRowMetaAndData, listConsumer.get( 0 ) );
-    assertSame( mockRowMetaAndData2, listConsumer.get( 1 ) );
+    assertSame( mockRowMetaAndData, listConsumer.get( 0 ).getData() );
+    assertSame( mockRowMetaAndData2, listConsumer.get( 1 ).getData() );
   }
 
   @Test
   public void testGetCachedWindowTimeBasedRegularZeroEvery() throws InterruptedException {
-    streamExecutionListener = new StreamExecutionListener( streamList.getStream(), rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
       IDataServiceClientService.StreamingMode.TIME_BASED, 200, 0, 10000, 50000 );
 
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
-    streamList.add( mockRowMetaAndData );
+    add( mockRowMetaAndData );
     assertEquals( 0, listConsumer.size() );
-    streamList.add( mockRowMetaAndData2  );
+    add( mockRowMetaAndData2 );
     assertEquals( 0, listConsumer.size() );
   }
 
   @Test
-  public void testUnsubscribe() {
-    streamExecutionListener = new StreamExecutionListener( streamList.getStream(), rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
+  public void testUnsubscribe() throws Exception {
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
       IDataServiceClientService.StreamingMode.ROW_BASED, 10000, 1, 10000, 1000 );
 
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
-    streamList.add( mockRowMetaAndData );
+    add( mockRowMetaAndData );
     assertFalse( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 1, streamExecutionListener.getCachePreWindow().size() );
-    assertSame( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ) );
+    assertSame( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ).getData() );
     streamExecutionListener.unSubscribe();
-    streamList.add( mockRowMetaAndData2  );
+    add( mockRowMetaAndData2 );
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 1, listConsumer.size() );
-    assertSame( mockRowMetaAndData, listConsumer.get( 0 ) );
+    assertSame( mockRowMetaAndData, listConsumer.get( 0 ).getData() );
   }
 
   @Test
-  public void testDoubleUnsubscribe() {
-    streamExecutionListener = new StreamExecutionListener( streamList.getStream(), rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
+  public void testDoubleUnsubscribe() throws Exception {
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ) ,
       IDataServiceClientService.StreamingMode.ROW_BASED, 10000, 1, 10000, 1000 );
 
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
-    streamList.add( mockRowMetaAndData );
+    add( mockRowMetaAndData );
     assertFalse( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 1, streamExecutionListener.getCachePreWindow().size() );
-    assertSame( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ) );
+    assertSame( mockRowMetaAndData, streamExecutionListener.getCachePreWindow().get( 0 ).getData() );
     streamExecutionListener.unSubscribe();
-    streamList.add( mockRowMetaAndData2  );
+    add( mockRowMetaAndData2 );
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 1, listConsumer.size() );
-    assertSame( mockRowMetaAndData, listConsumer.get( 0 ) );
+    assertSame( mockRowMetaAndData, listConsumer.get( 0 ).getData() );
     streamExecutionListener.unSubscribe();
-    streamList.add( mockRowMetaAndData2  );
+    add( mockRowMetaAndData2 );
     assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
     assertEquals( 1, listConsumer.size() );
-    assertSame( mockRowMetaAndData, listConsumer.get( 0 ) );
+    assertSame( mockRowMetaAndData, listConsumer.get( 0 ).getData() );
+  }
+
+  @Test
+  public void testDropOldestRowsPastBudget() throws Exception {
+    // Each row is estimated at 44 bytes, two of them fit
+    WindowBufferBudget budget = new WindowBufferBudget( 100, WindowBufferBudget.OverflowPolicy.DROP_OLDEST, 1 );
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ),
+      IDataServiceClientService.StreamingMode.ROW_BASED, 3, 3, 10000, 50000, budget );
+    Object[] mockRowMetaAndData3 = new Object[] { 3 };
+
+    add( mockRowMetaAndData );
+    add( mockRowMetaAndData2 );
+    assertEquals( 88, budget.getUsedBytes() );
+    add( mockRowMetaAndData3 );
+
+    assertEquals( 2, listConsumer.size() );
+    assertSame( mockRowMetaAndData2, listConsumer.get( 0 ).getData() );
+    assertSame( mockRowMetaAndData3, listConsumer.get( 1 ).getData() );
+    assertEquals( 1, budget.getDroppedRows() );
+    assertEquals( 0, budget.getUsedBytes() );
+  }
+
+  @Test
+  public void testBlockRowsPastBudget() throws Exception {
+    WindowBufferBudget budget = new WindowBufferBudget( 100, WindowBufferBudget.OverflowPolicy.BLOCK, 1 );
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ),
+      IDataServiceClientService.StreamingMode.ROW_BASED, 3, 3, 10000, 200, budget );
+    Object[] mockRowMetaAndData3 = new Object[] { 3 };
+
+    add( mockRowMetaAndData );
+    add( mockRowMetaAndData2 );
+    // The third row waits for the fallback window to free the memory of the others
+    add( mockRowMetaAndData3 );
+
+    assertEquals( 2, listConsumer.size() );
+    assertSame( mockRowMetaAndData, listConsumer.get( 0 ).getData() );
+    assertSame( mockRowMetaAndData2, listConsumer.get( 1 ).getData() );
+    assertEquals( 0, budget.getDroppedRows() );
+    assertEquals( 44, budget.getUsedBytes() );
+
+    streamExecutionListener.unSubscribe();
+    assertEquals( 0, budget.getUsedBytes() );
+  }
+
+  @Test
+  public void testSampleRowsPastBudget() throws Exception {
+    WindowBufferBudget budget = new WindowBufferBudget( 100, WindowBufferBudget.OverflowPolicy.SAMPLE, 2 );
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ),
+      IDataServiceClientService.StreamingMode.ROW_BASED, 10000, 10000, 10000, 50000, budget );
+
+    for ( int i = 0; i < 6; i++ ) {
+      add( new Object[] { i } );
+    }
+
+    // Two rows fit, then one of every two rows is kept in place of the oldest one
+    assertEquals( 4, budget.getDroppedRows() );
+    assertEquals( 88, budget.getUsedBytes() );
+  }
+
+  @Test
+  public void testEventTimeWindows() throws Exception {
+    RowMetaInterface eventMeta = new RowMeta();
+    eventMeta.addValueMeta( new ValueMetaInteger( "ts" ) );
+    streamExecutionListener = new StreamExecutionListener( streamList, rowMetaAndDataList -> consumer.onNext( rowMetaAndDataList ),
+      IDataServiceClientService.StreamingMode.TIME_BASED, 10, 0, 10000, 50000,
+      new WindowBufferBudget( 0, WindowBufferBudget.OverflowPolicy.BLOCK, 1 ), new WindowEventTime( "ts", 2 ) );
+    Object[] first = new Object[] { 1L };
+    Object[] outOfOrder = new Object[] { 4L };
+
+    add( eventMeta, first );
+    add( eventMeta, new Object[] { 9L } );
+    add( eventMeta, outOfOrder );
+    // No window is produced until the watermark passes the end of the first one
+    assertTrue( listConsumer.isEmpty() );
+    assertTrue( streamExecutionListener.getCachePreWindow().isEmpty() );
+
+    add( eventMeta, new Object[] { 12L } );
+    assertEquals( 3, listConsumer.size() );
+    assertSame( first, listConsumer.get( 0 ).getData() );
+    assertSame( outOfOrder, listConsumer.get( 2 ).getData() );
+  }
+
+  /**
+   * Adds a row to the stream and waits for the listener to read it.
+   */
+  private void add( Object[] row ) throws InterruptedException {
+    add( rowMeta, row );
+  }
+
+  private void add( RowMetaInterface meta, Object[] row ) throws InterruptedException {
+    streamList.add( meta, row );
+    long deadline = System.currentTimeMillis() + 5000;
+    while ( streamList.hasReaders() && streamExecutionListener.getBacklog() > 0
+      && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 5 );
+    }
   }
 }
@@ -18,6 +18,8 @@ import io.reactivex.functions.Consumer;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.pentaho.di.core.RowMetaAndData;
@@ -25,9 +27,12 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.trans.RowProducer;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.dataservice.DataServiceContext;
+import org.pentaho.di.trans.dataservice.SqlTransGenerator;
 import org.pentaho.di.trans.dataservice.client.api.IDataServiceClientService;
 import org.pentaho.di.trans.dataservice.streaming.StreamServiceKey;
 import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
@@ -37,6 +42,7 @@ import org.pentaho.di.trans.step.RowListener;
 import org.pentaho.di.trans.step.StepInterface;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -47,11 +53,13 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -88,6 +96,8 @@ public class StreamingGeneratedTransExecutionTest {
   StepInterface resultStep = mock( BaseStep.class );
   @Mock RowProducer rowProducer;
   @Mock Consumer<List<RowMetaAndData>> windowConsumer;
+  @Mock TransMeta transMeta;
+  @Captor ArgumentCaptor<List<RowMetaAndData>> windows;
 
   @Before
   public void setup() throws Exception {
@@ -251,6 +261,77 @@ public class StreamingGeneratedTransExecutionTest {
     verify( genTrans, times(1) ).startThreads( );
   }
 
+  @Test
+  public void testRunPunctuatedWindows() throws Exception {
+    RowMeta serviceFields = punctuatedGenTrans();
+
+    genTransExecutor.runGenTrans( Collections.singletonList( new RowMetaAndData( serviceFields, 1L ) ) );
+    genTransExecutor.runGenTrans( Arrays.asList( new RowMetaAndData( serviceFields, 2L ),
+      new RowMetaAndData( serviceFields, 3L ) ) );
+    genTransExecutor.runGenTrans( Collections.emptyList() );
+
+    verify( consumer, times( 3 ) ).onNext( windows.capture() );
+    assertEquals( Collections.singletonList( 1L ), values( windows.getAllValues().get( 0 ) ) );
+    assertEquals( Arrays.asList( 2L, 3L ), values( windows.getAllValues().get( 1 ) ) );
+    assertEquals( Collections.emptyList(), values( windows.getAllValues().get( 2 ) ) );
+    verify( genTrans ).prepareExecution( null );
+    verify( genTrans ).startThreads();
+    verify( rowProducer, never() ).finished();
+    verify( genTrans, never() ).stopAll();
+  }
+
+  @Test
+  public void testPunctuatedTransRestartedWhenStopped() throws Exception {
+    RowMeta serviceFields = punctuatedGenTrans();
+    when( genTrans.isRunning() ).thenReturn( false, true );
+
+    genTransExecutor.runGenTrans( Collections.singletonList( new RowMetaAndData( serviceFields, 1L ) ) );
+    verify( genTrans ).stopAll();
+    verify( rowProducer ).finished();
+    verify( consumer, never() ).onNext( any() );
+
+    genTransExecutor.runGenTrans( Collections.singletonList( new RowMetaAndData( serviceFields, 2L ) ) );
+    verify( consumer ).onNext( windows.capture() );
+    assertEquals( Collections.singletonList( 2L ), values( windows.getValue() ) );
+    verify( genTrans, times( 2 ) ).prepareExecution( null );
+    verify( genTrans, times( 2 ) ).startThreads();
+  }
+
+  /**
+   * Sets up a punctuated generated transformation, whose result step gets the injected rows with their marker field.
+   */
+  private RowMeta punctuatedGenTrans() throws Exception {
+    RowMeta serviceFields = new RowMeta();
+    serviceFields.addValueMeta( new ValueMetaInteger( "value" ) );
+    when( genTrans.getTransMeta() ).thenReturn( transMeta );
+    when( transMeta.getStepFields( MOCK_INJECTOR_STEP_NAME ) ).thenReturn( serviceFields );
+    when( genTrans.findRunThread( SqlTransGenerator.SELECT_STEP_NAME ) ).thenReturn( null );
+
+    List<RowListener> resultListeners = new ArrayList<>();
+    doAnswer( invocation -> resultListeners.add( invocation.getArgument( 0 ) ) )
+      .when( resultStep ).addRowListener( any() );
+    when( rowProducer.putRowWait( any(), any(), anyLong(), any() ) ).then( invocation -> {
+      for ( RowListener listener : resultListeners ) {
+        listener.rowWrittenEvent( invocation.getArgument( 0 ), invocation.getArgument( 1 ) );
+      }
+      return true;
+    } );
+
+    genTransExecutor = new StreamingGeneratedTransExecution( serviceExecutor, genTrans, consumer, pollingMode,
+      MOCK_INJECTOR_STEP_NAME, MOCK_RESULT_STEP_NAME, MOCK_QUERY, MOCK_WINDOW_MODE_ROW_BASED, MOCK_WINDOW_SIZE,
+      MOCK_WINDOW_EVERY, MOCK_WINDOW_MAX_SIZE, "", null, true, new WindowDeltaEncoder( null ) );
+    return serviceFields;
+  }
+
+  private static List<Object> values( List<RowMetaAndData> window ) {
+    List<Object> values = new ArrayList<>();
+    for ( RowMetaAndData row : window ) {
+      assertEquals( 1, row.getRowMeta().size() );
+      values.add( row.getData()[ 0 ] );
+    }
+    return values;
+  }
+
   private void verifyExecution( int numExecs ) throws Exception {
     verify( genTrans, times( numExecs ) ).cleanup( );
     verify( genTrans, times( numExecs ) ).prepareExecution( null );
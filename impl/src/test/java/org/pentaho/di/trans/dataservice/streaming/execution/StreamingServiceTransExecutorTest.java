@@ -14,6 +14,7 @@
 package org.pentaho.di.trans.dataservice.streaming.execution;
 
 import io.reactivex.functions.Consumer;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -36,13 +37,17 @@ import org.pentaho.di.trans.step.RowListener;
 import org.pentaho.di.trans.step.StepInterface;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -84,6 +89,12 @@ public class StreamingServiceTransExecutorTest {
     when( rowMetaInterface.getString( any( Object[].class ) ) ).thenReturn( MOCK_ROW_META_STRING );
   }
 
+  @After
+  public void tearDown() {
+    System.clearProperty( DataServiceConstants.STREAMING_IDLE_SUSPEND_PROPERTY );
+    System.clearProperty( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_PROPERTY );
+  }
+
   @Test
   public void testGetServiceTrans() {
     assertSame( serviceTrans, serviceExecutor.getServiceTrans() );
@@ -299,4 +310,106 @@ public class StreamingServiceTransExecutorTest {
     verify( serviceTrans, times( 0 ) ).stopAll();
     verify( log, times( 0 ) ).logDetailed( DataServiceConstants.STREAMING_TRANSFORMATION_STOPPED );
   }
+
+  @Test
+  public void testIdleServiceIsSuspendedAndResumed() {
+    System.setProperty( DataServiceConstants.STREAMING_IDLE_SUSPEND_PROPERTY, "60000" );
+    serviceExecutor = new StreamingServiceTransExecutor( streamKey, serviceTrans, MOCK_SERVICE_STEP_NAME,
+      MOCK_ROW_LIMIT, MOCK_TIME_LIMIT, context );
+    assertEquals( 60000, serviceExecutor.getIdleSuspendMillis() );
+
+    serviceExecutor.getBuffer( MOCK_QUERY, windowConsumer, MOCK_WINDOW_MODE_ROW_BASED, 1, 0, 0 );
+    serviceExecutor.clearCache();
+
+    assertTrue( serviceExecutor.isSuspended() );
+    verify( serviceTrans ).pauseRunning();
+    verify( serviceTrans, never() ).stopAll();
+    verify( context, never() ).removeServiceTransExecutor( streamKey );
+    verify( log ).logDetailed( DataServiceConstants.STREAMING_TRANSFORMATION_SUSPENDED );
+
+    serviceExecutor.getBuffer( MOCK_QUERY, windowConsumer, MOCK_WINDOW_MODE_ROW_BASED, 1, 0, 0 );
+
+    assertFalse( serviceExecutor.isSuspended() );
+    verify( serviceTrans ).resumeRunning();
+    verify( serviceTrans ).startThreads();
+    verify( log ).logDetailed( DataServiceConstants.STREAMING_TRANSFORMATION_RESUMED );
+
+    serviceExecutor.stopAll();
+    verify( serviceTrans ).stopAll();
+  }
+
+  @Test
+  public void testSuspendedServiceIsStoppedAfterTheIdlePeriod() {
+    System.setProperty( DataServiceConstants.STREAMING_IDLE_SUSPEND_PROPERTY, "10" );
+    serviceExecutor = new StreamingServiceTransExecutor( streamKey, serviceTrans, MOCK_SERVICE_STEP_NAME,
+      MOCK_ROW_LIMIT, MOCK_TIME_LIMIT, context );
+
+    serviceExecutor.getBuffer( MOCK_QUERY, windowConsumer, MOCK_WINDOW_MODE_ROW_BASED, 1, 0, 0 );
+    serviceExecutor.clearCache();
+
+    verify( serviceTrans ).pauseRunning();
+    verify( log, timeout( 5000 ) ).logDetailed( DataServiceConstants.STREAMING_TRANSFORMATION_STOPPED );
+    verify( serviceTrans ).stopAll();
+    verify( serviceTrans, never() ).resumeRunning();
+    assertFalse( serviceExecutor.isSuspended() );
+  }
+
+  @Test
+  public void testWindowBudgetLostRowsLogged() {
+    WindowBufferBudget budget = serviceExecutor.getWindowBudget();
+    serviceExecutor.logWindowBudget();
+    verify( log, never() ).logBasic( anyString() );
+
+    budget.recordDropped( 3 );
+    budget.recordLate( 1 );
+    serviceExecutor.logWindowBudget();
+    verify( log ).logBasic( String.format( DataServiceConstants.STREAMING_WINDOW_ROWS_LOST, 3L, 1L, 3L, 1L ) );
+
+    serviceExecutor.logWindowBudget();
+    budget.recordLate( 2 );
+    serviceExecutor.logWindowBudget();
+    verify( log ).logBasic( String.format( DataServiceConstants.STREAMING_WINDOW_ROWS_LOST, 0L, 2L, 3L, 3L ) );
+    verify( log, times( 2 ) ).logBasic( anyString() );
+  }
+
+  @Test
+  public void testWindowBudgetLostRowsLoggedWhenStopped() {
+    serviceExecutor.getBuffer( MOCK_QUERY, windowConsumer, MOCK_WINDOW_MODE_ROW_BASED, 1, 0, 0 );
+    serviceExecutor.getWindowBudget().recordDropped( 2 );
+
+    serviceExecutor.stopAll();
+
+    verify( log ).logBasic( String.format( DataServiceConstants.STREAMING_WINDOW_ROWS_LOST, 2L, 0L, 2L, 0L ) );
+  }
+
+  @Test
+  public void testMissingEventTimeFieldFallsBackToReadTime() {
+    System.setProperty( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_PROPERTY, "created" );
+    serviceExecutor = new StreamingServiceTransExecutor( streamKey, serviceTrans, MOCK_SERVICE_STEP_NAME,
+      MOCK_ROW_LIMIT, MOCK_TIME_LIMIT, context );
+    when( rowMetaInterface.indexOfValue( "created" ) ).thenReturn( -1 );
+    assertTrue( serviceExecutor.getWindowEventTime().isEnabled() );
+
+    serviceExecutor.getBuffer( MOCK_QUERY, windowConsumer, MOCK_WINDOW_MODE_TIME_BASED, 1000, 0, 10000 );
+    serviceExecutor.getBuffer( MOCK_QUERY, windowConsumer, MOCK_WINDOW_MODE_TIME_BASED, 2000, 0, 10000 );
+
+    assertFalse( serviceExecutor.getWindowEventTime().isEnabled() );
+    verify( rowMetaInterface ).indexOfValue( "created" );
+    verify( log ).logBasic( String.format( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_MISSING, "created" ) );
+    serviceExecutor.stopAll();
+  }
+
+  @Test
+  public void testEventTimeFieldKept() {
+    System.setProperty( DataServiceConstants.STREAMING_EVENT_TIME_FIELD_PROPERTY, "created" );
+    serviceExecutor = new StreamingServiceTransExecutor( streamKey, serviceTrans, MOCK_SERVICE_STEP_NAME,
+      MOCK_ROW_LIMIT, MOCK_TIME_LIMIT, context );
+    when( rowMetaInterface.indexOfValue( "created" ) ).thenReturn( 0 );
+
+    serviceExecutor.getBuffer( MOCK_QUERY, windowConsumer, MOCK_WINDOW_MODE_TIME_BASED, 1000, 0, 10000 );
+
+    assertTrue( serviceExecutor.getWindowEventTime().isEnabled() );
+    verify( log, never() ).logBasic( anyString() );
+    serviceExecutor.stopAll();
+  }
 }
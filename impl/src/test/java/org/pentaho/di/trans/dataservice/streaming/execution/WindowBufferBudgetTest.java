@@ -0,0 +1,97 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import org.junit.After;
+import org.junit.Test;
+import org.pentaho.di.trans.dataservice.utils.DataServiceConstants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link WindowBufferBudget} test class
+ */
+public class WindowBufferBudgetTest {
+
+  @After
+  public void tearDown() {
+    System.clearProperty( DataServiceConstants.STREAMING_WINDOW_MEMORY_PROPERTY );
+    System.clearProperty( DataServiceConstants.STREAMING_WINDOW_MEMORY_PROPERTY + ".service" );
+    System.clearProperty( DataServiceConstants.STREAMING_WINDOW_OVERFLOW_PROPERTY );
+    System.clearProperty( DataServiceConstants.STREAMING_WINDOW_SAMPLE_RATE_PROPERTY );
+  }
+
+  @Test
+  public void testAcquireAndRelease() {
+    WindowBufferBudget budget = new WindowBufferBudget( 100, WindowBufferBudget.OverflowPolicy.BLOCK, 1 );
+
+    assertTrue( budget.tryAcquire( 60 ) );
+    assertFalse( budget.tryAcquire( 60 ) );
+    assertTrue( budget.tryAcquire( 40 ) );
+    assertEquals( 100, budget.getUsedBytes() );
+
+    budget.release( 60 );
+    assertEquals( 40, budget.getUsedBytes() );
+    assertTrue( budget.tryAcquire( 60 ) );
+  }
+
+  @Test
+  public void testRowLargerThanBudgetFitsAlone() {
+    WindowBufferBudget budget = new WindowBufferBudget( 100, WindowBufferBudget.OverflowPolicy.BLOCK, 1 );
+
+    assertTrue( budget.tryAcquire( 500 ) );
+    assertFalse( budget.tryAcquire( 1 ) );
+  }
+
+  @Test
+  public void testDisabled() {
+    WindowBufferBudget budget = new WindowBufferBudget( 0, WindowBufferBudget.OverflowPolicy.BLOCK, 1 );
+
+    assertFalse( budget.isEnabled() );
+    assertTrue( budget.tryAcquire( Long.MAX_VALUE ) );
+    assertEquals( 0, budget.getUsedBytes() );
+  }
+
+  @Test
+  public void testMetrics() {
+    WindowBufferBudget budget = new WindowBufferBudget( 100, WindowBufferBudget.OverflowPolicy.SAMPLE, 0 );
+
+    budget.recordDropped( 3 );
+    budget.recordLate( 2 );
+    assertEquals( 3, budget.getDroppedRows() );
+    assertEquals( 2, budget.getLateRows() );
+    assertEquals( 1, budget.getSampleRate() );
+  }
+
+  @Test
+  public void testCreate() {
+    WindowBufferBudget budget = WindowBufferBudget.create( "service" );
+    assertEquals( DataServiceConstants.STREAMING_WINDOW_MEMORY_DEFAULT, budget.getCapacity() );
+    assertEquals( WindowBufferBudget.OverflowPolicy.BLOCK, budget.getOverflowPolicy() );
+    assertEquals( DataServiceConstants.STREAMING_WINDOW_SAMPLE_RATE_DEFAULT, budget.getSampleRate() );
+
+    System.setProperty( DataServiceConstants.STREAMING_WINDOW_MEMORY_PROPERTY, "1000" );
+    System.setProperty( DataServiceConstants.STREAMING_WINDOW_MEMORY_PROPERTY + ".service", "2000" );
+    System.setProperty( DataServiceConstants.STREAMING_WINDOW_OVERFLOW_PROPERTY, "drop_oldest" );
+    System.setProperty( DataServiceConstants.STREAMING_WINDOW_SAMPLE_RATE_PROPERTY, "5" );
+
+    budget = WindowBufferBudget.create( "service" );
+    assertEquals( 2000, budget.getCapacity() );
+    assertEquals( WindowBufferBudget.OverflowPolicy.DROP_OLDEST, budget.getOverflowPolicy() );
+    assertEquals( 5, budget.getSampleRate() );
+    assertEquals( 1000, WindowBufferBudget.create( "other" ).getCapacity() );
+  }
+}
@@ -0,0 +1,116 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.streaming.execution;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.sql.SQL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link WindowDeltaEncoder} test class
+ */
+public class WindowDeltaEncoderTest {
+  private RowMetaInterface rowMeta;
+
+  @Before
+  public void setUp() {
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "k" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "v" ) );
+  }
+
+  @Test
+  public void testRowsMatchedByAllValues() {
+    WindowDeltaEncoder encoder = new WindowDeltaEncoder( null );
+    encoder.reset( ImmutableList.of( row( "a", 1 ), row( "b", 2 ), row( "b", 2 ) ) );
+
+    WindowChangelog changelog = encoder.next( ImmutableList.of( row( "b", 2 ), row( "c", 3 ) ) );
+    assertThat( values( changelog.getRetracted() ),
+      containsInAnyOrder( values( row( "a", 1 ), row( "b", 2 ) ).toArray() ) );
+    assertEquals( values( row( "c", 3 ) ), values( changelog.getInserted() ) );
+
+    assertTrue( encoder.next( ImmutableList.of( row( "c", 3 ), row( "b", 2 ) ) ).isEmpty() );
+  }
+
+  @Test
+  public void testRowsMatchedByGroupFields() throws Exception {
+    SQL sql = new SQL( "SELECT k, SUM(v) FROM service GROUP BY k" );
+    sql.parse( rowMeta );
+    WindowDeltaEncoder encoder = WindowDeltaEncoder.create( sql );
+
+    assertEquals( 2, encoder.next( ImmutableList.of( row( "a", 1 ), row( "b", 2 ) ) ).getInserted().size() );
+    WindowChangelog changelog = encoder.next( ImmutableList.of( row( "a", 1 ), row( "b", 5 ), row( "c", 3 ) ) );
+    assertEquals( values( row( "b", 2 ) ), values( changelog.getRetracted() ) );
+    assertEquals( values( row( "b", 5 ), row( "c", 3 ) ), values( changelog.getInserted() ) );
+  }
+
+  @Test
+  public void testSnapshot() {
+    WindowDeltaEncoder encoder = new WindowDeltaEncoder( null );
+    assertTrue( encoder.snapshot().isEmpty() );
+
+    List<RowMetaAndData> window = ImmutableList.of( row( "a", 1 ) );
+    encoder.reset( window );
+    assertSame( window.get( 0 ), encoder.snapshot().getInserted().get( 0 ) );
+    assertTrue( encoder.snapshot().getRetracted().isEmpty() );
+  }
+
+  @Test
+  public void testLayoutChangeReplacesTheResult() {
+    RowMetaInterface otherMeta = new RowMeta();
+    otherMeta.addValueMeta( new ValueMetaString( "other" ) );
+    WindowDeltaEncoder encoder = new WindowDeltaEncoder( new int[] { 0 } );
+    encoder.reset( ImmutableList.of( row( "a", 1 ) ) );
+
+    RowMetaAndData other = new RowMetaAndData( otherMeta, new Object[] { "a" } );
+    WindowChangelog changelog = encoder.next( ImmutableList.of( other ) );
+    assertEquals( values( row( "a", 1 ) ), values( changelog.getRetracted() ) );
+    assertSame( other, changelog.getInserted().get( 0 ) );
+
+    changelog = encoder.next( Collections.<RowMetaAndData>emptyList() );
+    assertSame( other, changelog.getRetracted().get( 0 ) );
+  }
+
+  private RowMetaAndData row( String key, long value ) {
+    return new RowMetaAndData( rowMeta, new Object[] { key, value } );
+  }
+
+  private static List<List<Object>> values( RowMetaAndData... rows ) {
+    return values( ImmutableList.copyOf( rows ) );
+  }
+
+  private static List<List<Object>> values( List<RowMetaAndData> rows ) {
+    List<List<Object>> values = new ArrayList<>();
+    for ( RowMetaAndData row : rows ) {
+      values.add( ImmutableList.copyOf( row.getData() ) );
+    }
+    return values;
+  }
+}
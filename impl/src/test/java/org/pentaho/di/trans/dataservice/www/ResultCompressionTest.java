@@ -0,0 +1,69 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.www;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.InflaterInputStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ResultCompressionTest {
+
+  @Test
+  public void testFromHeader() {
+    assertThat( ResultCompression.fromHeader( null ), is( ResultCompression.NONE ) );
+    assertThat( ResultCompression.fromHeader( "lz4" ), is( ResultCompression.NONE ) );
+    assertThat( ResultCompression.fromHeader( "DEFLATE" ), is( ResultCompression.DEFLATE ) );
+    assertThat( ResultCompression.NONE.contentType( "binary/jdbc" ), equalTo( "binary/jdbc" ) );
+    assertThat( ResultCompression.DEFLATE.contentType( "binary/jdbc" ),
+      equalTo( "binary/jdbc; compression=deflate" ) );
+  }
+
+  @Test
+  public void testBlocksAreReadableWhenFlushed() throws Exception {
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    byte[] first = "first block".getBytes( StandardCharsets.UTF_8 );
+    byte[] second = "second block".getBytes( StandardCharsets.UTF_8 );
+
+    ResultCompression.DEFLATE.write( target, out -> {
+      out.write( first );
+      out.flush();
+      // Everything written so far can be decompressed before the stream is finished
+      InflaterInputStream partial = new InflaterInputStream( new ByteArrayInputStream( target.toByteArray() ) );
+      byte[] decoded = new byte[ first.length ];
+      ByteStreams.readFully( partial, decoded );
+      assertThat( decoded, equalTo( first ) );
+
+      out.write( second );
+    } );
+
+    byte[] decoded =
+      ByteStreams.toByteArray( new InflaterInputStream( new ByteArrayInputStream( target.toByteArray() ) ) );
+    assertThat( new String( decoded, StandardCharsets.UTF_8 ), equalTo( "first blocksecond block" ) );
+  }
+
+  @Test
+  public void testNoneWritesThrough() throws Exception {
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    ResultCompression.NONE.write( target, out -> out.write( 42 ) );
+    assertThat( target.toByteArray(), equalTo( new byte[] { 42 } ) );
+  }
+}
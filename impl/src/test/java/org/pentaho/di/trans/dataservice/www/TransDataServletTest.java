@@ -17,6 +17,9 @@ import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Before;
 import org.junit.Rule;
@@ -24,6 +27,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.hamcrest.MockitoHamcrest;
+import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.sql.SQL;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransConfiguration;
@@ -36,6 +40,8 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
 import java.util.UUID;
 
 import static org.hamcrest.CoreMatchers.containsString;
@@ -43,8 +49,11 @@ import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.lenient;
@@ -160,6 +169,76 @@ public class TransDataServletTest extends BaseServletTest {
     Files.readLines( debugTrans, Charsets.UTF_8 ).contains( GEN_TRANS_XML );
   }
 
+  @Test
+  public void testColumnarResultFormat() throws Exception {
+    headers.put( HEADER_SQL, TEST_SQL_QUERY );
+    headers.put( "ResultFormat", "columnar" );
+    headers.put( "ColumnarChunkSize", "500" );
+
+    Query query = mock( Query.class );
+    doReturn( query ).when( client ).prepareQuery( TEST_SQL_QUERY, -1, ImmutableMap.of() );
+    when( query.getTransList() ).thenReturn( ImmutableList.of( serviceTrans, genTrans ) );
+    when( query.supportsColumnar() ).thenReturn( true );
+
+    servlet.service( request, response );
+    verify( logChannel, never() ).logError( anyString(), (Throwable) any() );
+
+    verify( response ).setStatus( HttpServletResponse.SC_OK );
+    verify( response ).setContentType( "binary/jdbc-columnar" );
+    verify( query ).writeColumnarTo( outputStream, 500 );
+    verify( query, never() ).writeTo( any() );
+  }
+
+  @Test
+  public void testColumnarChunkSizeIsBounded() throws Exception {
+    headers.put( HEADER_SQL, TEST_SQL_QUERY );
+    headers.put( "ResultFormat", "columnar" );
+    headers.put( "ColumnarChunkSize", "2000000000" );
+
+    Query query = mock( Query.class );
+    doReturn( query ).when( client ).prepareQuery( TEST_SQL_QUERY, -1, ImmutableMap.of() );
+    when( query.getTransList() ).thenReturn( ImmutableList.of( serviceTrans, genTrans ) );
+    when( query.supportsColumnar() ).thenReturn( true );
+
+    servlet.service( request, response );
+    verify( query ).writeColumnarTo( outputStream, 65536 );
+
+    headers.replaceValues( "ColumnarChunkSize", ImmutableList.of( "-5" ) );
+    servlet.service( request, response );
+    verify( query ).writeColumnarTo( outputStream, 1 );
+  }
+
+  @Test
+  public void testColumnarResultFormatUnsupported() throws Exception {
+    headers.put( HEADER_SQL, TEST_SQL_QUERY );
+    headers.put( "ResultFormat", "columnar" );
+
+    Query query = mock( Query.class );
+    doReturn( query ).when( client ).prepareQuery( TEST_SQL_QUERY, -1, ImmutableMap.of() );
+    when( query.getTransList() ).thenReturn( ImmutableList.of( serviceTrans, genTrans ) );
+
+    servlet.service( request, response );
+
+    verify( response ).setContentType( "binary/jdbc" );
+    verify( query ).writeTo( outputStream );
+  }
+
+  @Test
+  public void testResultCompression() throws Exception {
+    headers.put( HEADER_SQL, TEST_SQL_QUERY );
+    headers.put( "ResultCompression", "deflate" );
+
+    Query query = mock( Query.class );
+    doReturn( query ).when( client ).prepareQuery( TEST_SQL_QUERY, -1, ImmutableMap.of() );
+    when( query.getTransList() ).thenReturn( ImmutableList.of( serviceTrans, genTrans ) );
+
+    servlet.service( request, response );
+    verify( logChannel, never() ).logError( anyString(), (Throwable) any() );
+
+    verify( response ).setContentType( "binary/jdbc; compression=deflate" );
+    verify( query ).writeTo( any( DeflaterOutputStream.class ), eq( 1024 ) );
+  }
+
   @Test
   public void testStreamingHeader() throws Exception {
     headers.put( HEADER_MAX_ROWS, TEST_MAX_ROWS );
@@ -260,6 +339,88 @@ public class TransDataServletTest extends BaseServletTest {
     verify( logChannel, never() ).logError( anyString(), (Throwable) any() );
   }
 
+  @Test
+  public void testStreamingPushDelivery() throws Exception {
+    headers.put( HEADER_SQL, TEST_SQL_QUERY );
+    headers.put( HEADER_WINDOW_MODE, TEST_WINDOW_MODE_ROW );
+    headers.put( "WindowDelivery", "push" );
+    headers.put( "WindowHeartbeat", "100" );
+
+    streamingDataService.setTimeLimit( DEFAULT_WINDOW_MAX_TIME );
+    streamingDataService.setRowLimit( DEFAULT_WINDOW_MAX_ROWS );
+
+    Query query = mock( Query.class );
+    doReturn( query )
+      .when( client )
+      .prepareQuery( TEST_SQL_QUERY, IDataServiceClientService.StreamingMode.ROW_BASED,
+        Long.valueOf( DEFAULT_WINDOW_MAX_ROWS ),
+        Long.valueOf( DEFAULT_WINDOW_MAX_ROWS ),
+        Long.valueOf( DEFAULT_WINDOW_MAX_TIME ),
+        ImmutableMap.of() );
+    when( query.getTransList() ).thenReturn( ImmutableList.of( serviceTrans, genTrans ) );
+    when( client.getServiceMeta( TEST_DATA_SERVICE_NAME ) ).thenReturn( streamingDataService );
+    Disposable subscription = Disposables.empty();
+    doAnswer( invocation -> {
+      Observer<List<RowMetaAndData>> consumer = invocation.getArgument( 0 );
+      consumer.onSubscribe( subscription );
+      consumer.onNext( ImmutableList.of() );
+      consumer.onComplete();
+      return null;
+    } ).when( query ).pushTo( any() );
+
+    servlet.service( request, response );
+    verify( logChannel, never() ).logError( anyString(), (Throwable) any() );
+
+    verify( response ).setContentType( "binary/jdbc-windows" );
+    verify( query ).pushTo( any( WindowPushWriter.class ) );
+    verify( query, never() ).writeTo( any() );
+    verify( outputStream, atLeastOnce() ).write( WindowPushWriter.END );
+    assertTrue( subscription.isDisposed() );
+  }
+
+  @Test
+  public void testStreamingPushHeartbeatTooShort() throws Exception {
+    assertEquals( 100, pushHeartbeatMillis( "0" ) );
+  }
+
+  @Test
+  public void testStreamingPushHeartbeatTooLong() throws Exception {
+    assertEquals( 60000, pushHeartbeatMillis( "3600000" ) );
+  }
+
+  private long pushHeartbeatMillis( String heartbeat ) throws Exception {
+    headers.put( HEADER_SQL, TEST_SQL_QUERY );
+    headers.put( HEADER_WINDOW_MODE, TEST_WINDOW_MODE_ROW );
+    headers.put( "WindowDelivery", "push" );
+    headers.put( "WindowHeartbeat", heartbeat );
+
+    streamingDataService.setTimeLimit( DEFAULT_WINDOW_MAX_TIME );
+    streamingDataService.setRowLimit( DEFAULT_WINDOW_MAX_ROWS );
+
+    Query query = mock( Query.class );
+    doReturn( query )
+      .when( client )
+      .prepareQuery( TEST_SQL_QUERY, IDataServiceClientService.StreamingMode.ROW_BASED,
+        Long.valueOf( DEFAULT_WINDOW_MAX_ROWS ),
+        Long.valueOf( DEFAULT_WINDOW_MAX_ROWS ),
+        Long.valueOf( DEFAULT_WINDOW_MAX_TIME ),
+        ImmutableMap.of() );
+    when( query.getTransList() ).thenReturn( ImmutableList.of( serviceTrans, genTrans ) );
+    when( client.getServiceMeta( TEST_DATA_SERVICE_NAME ) ).thenReturn( streamingDataService );
+    doAnswer( invocation -> {
+      Observer<List<RowMetaAndData>> consumer = invocation.getArgument( 0 );
+      consumer.onSubscribe( Disposables.empty() );
+      consumer.onComplete();
+      return null;
+    } ).when( query ).pushTo( any() );
+
+    servlet.service( request, response );
+
+    ArgumentCaptor<WindowPushWriter> writer = ArgumentCaptor.forClass( WindowPushWriter.class );
+    verify( query ).pushTo( writer.capture() );
+    return writer.getValue().getHeartbeatMillis();
+  }
+
   @Test
   public void testStreamingDefaultModeDefauldParams() throws Exception {
     headers.put( HEADER_SQL, TEST_SQL_QUERY );
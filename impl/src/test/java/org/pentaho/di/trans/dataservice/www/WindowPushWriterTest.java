@@ -0,0 +1,177 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.dataservice.www;
+
+import com.google.common.collect.ImmutableList;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.trans.dataservice.streaming.execution.WindowChangelog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WindowPushWriterTest {
+
+  @BeforeClass
+  public static void initValueMetaPlugins() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+  }
+
+  @Test
+  public void testWindowsAreFramed() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    Disposable subscription = Disposables.empty();
+
+    WindowPushWriter<List<RowMetaAndData>> writer = WindowPushWriter.windows( 60000 );
+    writer.onSubscribe( subscription );
+    writer.onNext( ImmutableList.of(
+      new RowMetaAndData( rowMeta, new Object[] { 1L } ),
+      new RowMetaAndData( rowMeta, new Object[] { 2L } ) ) );
+    writer.onNext( Collections.emptyList() );
+    writer.onComplete();
+
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    writer.writeTo( target );
+
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( target.toByteArray() ) );
+    assertThat( in.readByte(), is( WindowPushWriter.WINDOW ) );
+    assertThat( in.readInt(), is( 2 ) );
+    RowMetaInterface readMeta = new RowMeta( in );
+    assertThat( readMeta.getFieldNames(), equalTo( new String[] { "id" } ) );
+    assertThat( readMeta.readData( in )[ 0 ], equalTo( (Object) 1L ) );
+    assertThat( readMeta.readData( in )[ 0 ], equalTo( (Object) 2L ) );
+    assertThat( in.readByte(), is( WindowPushWriter.WINDOW ) );
+    assertThat( in.readInt(), is( 0 ) );
+    assertThat( in.readByte(), is( WindowPushWriter.END ) );
+    assertThat( in.available(), is( 0 ) );
+    assertTrue( subscription.isDisposed() );
+  }
+
+  @Test
+  public void testChangelogsAreFramed() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+
+    WindowPushWriter<WindowChangelog> writer = WindowPushWriter.changelogs( 60000 );
+    writer.onSubscribe( Disposables.empty() );
+    writer.onNext( new WindowChangelog( ImmutableList.of( new RowMetaAndData( rowMeta, new Object[] { 1L } ) ),
+      ImmutableList.of( new RowMetaAndData( rowMeta, new Object[] { 2L } ),
+        new RowMetaAndData( rowMeta, new Object[] { 3L } ) ) ) );
+    writer.onNext( WindowChangelog.snapshot( Collections.emptyList() ) );
+    writer.onComplete();
+
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    writer.writeTo( target );
+
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( target.toByteArray() ) );
+    assertThat( in.readByte(), is( WindowPushWriter.CHANGELOG ) );
+    assertThat( in.readInt(), is( 1 ) );
+    RowMetaInterface readMeta = new RowMeta( in );
+    assertThat( readMeta.readData( in )[ 0 ], equalTo( (Object) 1L ) );
+    assertThat( in.readInt(), is( 2 ) );
+    readMeta = new RowMeta( in );
+    assertThat( readMeta.readData( in )[ 0 ], equalTo( (Object) 2L ) );
+    assertThat( readMeta.readData( in )[ 0 ], equalTo( (Object) 3L ) );
+    assertThat( in.readByte(), is( WindowPushWriter.CHANGELOG ) );
+    assertThat( in.readInt(), is( 0 ) );
+    assertThat( in.readInt(), is( 0 ) );
+    assertThat( in.readByte(), is( WindowPushWriter.END ) );
+  }
+
+  @Test
+  public void testSlowChangelogClientIsDropped() throws Exception {
+    Disposable subscription = Disposables.empty();
+    WindowPushWriter<WindowChangelog> writer = WindowPushWriter.changelogs( 60000 );
+    writer.onSubscribe( subscription );
+    for ( int i = 0; i < 100; i++ ) {
+      writer.onNext( WindowChangelog.snapshot( Collections.emptyList() ) );
+    }
+    assertTrue( subscription.isDisposed() );
+
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    writer.writeTo( target );
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( target.toByteArray() ) );
+    assertThat( in.readByte(), is( WindowPushWriter.ERROR ) );
+  }
+
+  @Test
+  public void testHeartbeatWhileIdle() throws Exception {
+    WindowPushWriter<List<RowMetaAndData>> writer = WindowPushWriter.windows( 10 );
+    writer.onSubscribe( Disposables.empty() );
+    Thread completion = new Thread( () -> {
+      try {
+        Thread.sleep( 100 );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+      writer.onError( new IllegalStateException( "service stopped" ) );
+    } );
+    completion.start();
+
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    writer.writeTo( target );
+    completion.join();
+
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( target.toByteArray() ) );
+    int heartbeats = 0;
+    byte frame;
+    while ( ( frame = in.readByte() ) == WindowPushWriter.HEARTBEAT ) {
+      heartbeats++;
+    }
+    assertTrue( heartbeats > 0 );
+    assertThat( frame, is( WindowPushWriter.ERROR ) );
+    assertThat( in.readUTF(), equalTo( "service stopped" ) );
+  }
+
+  @Test
+  public void testDisconnectDisposesConsumer() throws Exception {
+    Disposable subscription = Disposables.empty();
+    WindowPushWriter<List<RowMetaAndData>> writer = WindowPushWriter.windows( 10 );
+    writer.onSubscribe( subscription );
+
+    OutputStream disconnected = new OutputStream() {
+      @Override public void write( int b ) throws IOException {
+        throw new IOException( "Broken pipe" );
+      }
+    };
+    try {
+      writer.writeTo( disconnected );
+      fail( "Write to a closed connection should fail" );
+    } catch ( IOException e ) {
+      assertThat( e.getMessage(), equalTo( "Broken pipe" ) );
+    }
+    assertTrue( subscription.isDisposed() );
+  }
+}